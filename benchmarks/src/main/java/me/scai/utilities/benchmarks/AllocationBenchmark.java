@@ -0,0 +1,81 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of the per-message hot path: touching a worker and counting a message for it. Run with
+ * the GC profiler, and read gc.alloc.rate.norm (bytes per operation), which should round to 0, but for
+ * the Date of the Date-based touch where the JIT cannot elide it, e.g.
+ *     java -jar target/benchmarks.jar AllocationBenchmark -prof gc
+ * BenchmarkMain runs it with the profiler.
+ *
+ * The benchmark cycles through the workers, so that lookups are not all served from one cache line.
+ * The only allocation left is the move of a worker to a new bucket of the expiry index, at most once
+ * per tick of the index (1/128 of the timeout), which amortizes to a fraction of a byte per touch.
+ * The transient WorkerId parsed from the worker ID string is scalar-replaced by the JIT.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+    @Param({Pools.WORKER_POOL_IMPL, Pools.SHARDED_WORKER_POOL, Pools.MAPPED_WORKER_POOL})
+    public String implementation;
+
+    @Param({"1024"})
+    public int numWorkers;
+
+    private WorkerPool pool;
+    private String[] workerIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = Pools.create(implementation, numWorkers, TimeUnit.HOURS.toMillis(1));
+        workerIds = Pools.fill(pool, numWorkers);
+    }
+
+    private String nextWorkerId() {
+        next = (next + 1) & (numWorkers - 1);
+
+        return workerIds[next];
+    }
+
+    @Benchmark
+    public void touchWorker() {
+        pool.touchWorker(nextWorkerId());
+    }
+
+    @Benchmark
+    public void updateWorkerTimestampMillis() {
+        pool.updateWorkerTimestamp(nextWorkerId(), System.currentTimeMillis());
+    }
+
+    /* Baseline: allocates the Date */
+    @Benchmark
+    public void updateWorkerTimestampDate() {
+        pool.updateWorkerTimestamp(nextWorkerId(), new Date());
+    }
+
+    @Benchmark
+    public int incrementMessageCount() {
+        return pool.incrementMessageCount(nextWorkerId());
+    }
+}
@@ -0,0 +1,64 @@
+package me.scai.utilities.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the whole suite and writes the results as JSON, one file per thread count, so that runs of
+ * different versions or implementations can be diffed by tools.
+ *
+ * The single-threaded benchmarks are run once. The contended ones (ContentionBenchmark) are run at
+ * 1, 2, 4, ... threads, up to the given maximum. AllocationBenchmark is run with the GC profiler, for
+ * the bytes allocated per operation.
+ *
+ * Usage: java -cp target/benchmarks.jar me.scai.utilities.benchmarks.BenchmarkMain [outputDir] [maxThreads]
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        final File outputDir = new File(args.length > 0 ? args[0] : "jmh-results");
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        if ( !outputDir.isDirectory() && !outputDir.mkdirs() ) {
+            throw new IllegalStateException("Cannot create output directory " + outputDir);
+        }
+
+        List<RunResult> results = new ArrayList<>();
+
+        results.addAll(run(new OptionsBuilder()
+                .include(ChurnBenchmark.class.getSimpleName())
+                .include(PurgeBenchmark.class.getSimpleName())
+                .include(ReadUnderWriteBenchmark.class.getSimpleName()),
+                new File(outputDir, "single.json")));
+
+        results.addAll(run(new OptionsBuilder()
+                .include(AllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class),
+                new File(outputDir, "allocation.json")));
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            results.addAll(run(new OptionsBuilder()
+                    .include(ContentionBenchmark.class.getSimpleName())
+                    .threads(threads),
+                    new File(outputDir, "contention-t" + threads + ".json")));
+        }
+
+        System.out.println("Wrote " + results.size() + " results to " + outputDir.getAbsolutePath());
+    }
+
+    private static Collection<RunResult> run(ChainedOptionsBuilder options, File resultFile) throws RunnerException {
+        return new Runner(options
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getPath())
+                .build()).run();
+    }
+}
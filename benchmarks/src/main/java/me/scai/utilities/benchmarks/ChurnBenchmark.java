@@ -0,0 +1,74 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.WorkerClientInfo;
+import me.scai.utilities.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Register/remove churn with the pool held at a given fill level: every operation registers one
+ * worker and removes the oldest one the same thread has registered.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChurnBenchmark {
+    /* Headroom above the fill level, so that concurrent threads never find the pool full */
+    private static final int HEADROOM = 256;
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        @Param({Pools.WORKER_POOL_IMPL, Pools.SHARDED_WORKER_POOL, Pools.MAPPED_WORKER_POOL})
+        public String implementation;
+
+        @Param({"10000"})
+        public int maxNumWorkers;
+
+        @Param({"0.1", "0.5", "0.9"})
+        public double fillLevel;
+
+        WorkerPool pool;
+        final WorkerClientInfo clientInfo = Pools.clientInfo();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = Pools.create(implementation, maxNumWorkers + HEADROOM, TimeUnit.HOURS.toMillis(1));
+            Pools.fill(pool, (int) (maxNumWorkers * fillLevel));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final ArrayDeque<String> ownWorkerIds = new ArrayDeque<>();
+
+        @Setup(Level.Trial)
+        public void setUp(PoolState poolState) {
+            ownWorkerIds.add(poolState.pool.registerWorker(new Pools.BenchmarkWorker(), poolState.clientInfo));
+        }
+    }
+
+    @Benchmark
+    public String registerAndRemove(PoolState poolState, ThreadState threadState) {
+        String wkrId = poolState.pool.registerWorker(new Pools.BenchmarkWorker(), poolState.clientInfo);
+        threadState.ownWorkerIds.add(wkrId);
+
+        poolState.pool.removeWorker(threadState.ownWorkerIds.poll());
+
+        return wkrId;
+    }
+}
@@ -0,0 +1,107 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-worker hot-path operations hit from many threads at once.
+ *
+ * Run with increasing thread counts to see how throughput scales with cores, e.g.
+ *     java -jar target/benchmarks.jar ContentionBenchmark -t 1
+ *     java -jar target/benchmarks.jar ContentionBenchmark -t 4
+ * or all of 1, 2, 4, ... threads at once with BenchmarkMain.
+ *
+ * The "...GlobalMonitor" variants wrap the same call in one shared monitor, which is what every
+ * call used to pay when all the WorkerPoolImpl methods were synchronized.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        @Param({Pools.WORKER_POOL_IMPL, Pools.SHARDED_WORKER_POOL, Pools.MAPPED_WORKER_POOL})
+        public String implementation;
+
+        @Param({"1024"})
+        public int numWorkers;
+
+        WorkerPool pool;
+        String[] workerIds;
+
+        final Object globalMonitor = new Object();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = Pools.create(implementation, numWorkers, TimeUnit.HOURS.toMillis(1));
+            workerIds = Pools.fill(pool, numWorkers);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        String workerId;
+
+        @Setup(Level.Trial)
+        public void setUp(PoolState poolState) {
+            /* Each thread is serving its own session, like request threads normally do */
+            workerId = poolState.workerIds[ThreadLocalRandom.current().nextInt(poolState.numWorkers)];
+        }
+    }
+
+    @Benchmark
+    public int incrementMessageCount(PoolState poolState, ThreadState threadState) {
+        return poolState.pool.incrementMessageCount(threadState.workerId);
+    }
+
+    @Benchmark
+    public int incrementMessageCountSharedWorker(PoolState poolState) {
+        return poolState.pool.incrementMessageCount(poolState.workerIds[0]);
+    }
+
+    @Benchmark
+    public void updateWorkerTimestamp(PoolState poolState, ThreadState threadState) {
+        poolState.pool.updateWorkerTimestamp(threadState.workerId, new Date());
+    }
+
+    @Benchmark
+    public int getMessageCount(PoolState poolState, ThreadState threadState) {
+        return poolState.pool.getMessageCount(threadState.workerId);
+    }
+
+    @Benchmark
+    public int getNumAvailableSlots(PoolState poolState) {
+        return poolState.pool.getNumAvailableSlots();
+    }
+
+    @Benchmark
+    public int incrementMessageCountGlobalMonitor(PoolState poolState, ThreadState threadState) {
+        synchronized (poolState.globalMonitor) {
+            return poolState.pool.incrementMessageCount(threadState.workerId);
+        }
+    }
+
+    @Benchmark
+    public void updateWorkerTimestampGlobalMonitor(PoolState poolState, ThreadState threadState) {
+        synchronized (poolState.globalMonitor) {
+            poolState.pool.updateWorkerTimestamp(threadState.workerId, new Date());
+        }
+    }
+}
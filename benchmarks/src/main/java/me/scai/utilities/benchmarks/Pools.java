@@ -0,0 +1,74 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.MappedWorkerPool;
+import me.scai.utilities.PooledWorker;
+import me.scai.utilities.ShardedWorkerPool;
+import me.scai.utilities.WorkerClientInfo;
+import me.scai.utilities.WorkerPool;
+import me.scai.utilities.WorkerPoolImpl;
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Creates the pool implementations under test, by the name used in the "implementation" benchmark
+ * parameter. New implementations are added here, so that every benchmark can compare them against
+ * the same baseline.
+ */
+final class Pools {
+    static final String WORKER_POOL_IMPL = "WorkerPoolImpl";
+    static final String SHARDED_WORKER_POOL = "ShardedWorkerPool";
+    static final String MAPPED_WORKER_POOL = "MappedWorkerPool";
+
+    static class BenchmarkWorker implements PooledWorker {
+    }
+
+    private Pools() {
+    }
+
+    static WorkerPool create(String implementation, int maxNumWorkers, long workerTimeoutMillis) {
+        switch (implementation) {
+            case WORKER_POOL_IMPL:
+                return new WorkerPoolImpl(maxNumWorkers, workerTimeoutMillis);
+            case SHARDED_WORKER_POOL:
+                return new ShardedWorkerPool(maxNumWorkers, workerTimeoutMillis);
+            case MAPPED_WORKER_POOL:
+                return createMapped(maxNumWorkers, workerTimeoutMillis);
+            default:
+                throw new IllegalArgumentException("Unknown pool implementation: " + implementation);
+        }
+    }
+
+    /* Mapped pool on a fresh temporary file, with as many slots as workers */
+    private static WorkerPool createMapped(int maxNumWorkers, long workerTimeoutMillis) {
+        try {
+            File file = File.createTempFile("worker-pool-benchmark", ".slots");
+            file.delete();
+            file.deleteOnExit();
+
+            return new MappedWorkerPool(file, maxNumWorkers, workerTimeoutMillis);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    static WorkerClientInfo clientInfo() {
+        return new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+    }
+
+    /* Fill the pool with numWorkers workers, returning their IDs */
+    static String[] fill(WorkerPool pool, int numWorkers) {
+        String[] workerIds = new String[numWorkers];
+        for (int i = 0; i < numWorkers; ++i) {
+            workerIds[i] = pool.registerWorker(new BenchmarkWorker(), clientInfo());
+            if (workerIds[i] == null) {
+                throw new IllegalStateException("Pool is full after " + i + " workers");
+            }
+        }
+
+        return workerIds;
+    }
+}
@@ -0,0 +1,71 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one purge() as a function of the pool size and of the fraction of the workers that have
+ * expired. Before each call, the pool is topped up again and the given fraction of it is aged past
+ * the timeout.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PurgeBenchmark {
+    private static final long WORKER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    @Param({Pools.WORKER_POOL_IMPL, Pools.SHARDED_WORKER_POOL, Pools.MAPPED_WORKER_POOL})
+    public String implementation;
+
+    @Param({"1000", "10000", "100000"})
+    public int numWorkers;
+
+    @Param({"0.0", "0.01", "0.1"})
+    public double expiredFraction;
+
+    private WorkerPool pool;
+    private String[] workerIds;
+    private int numExpired;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        pool = Pools.create(implementation, numWorkers, WORKER_TIMEOUT_MILLIS);
+        workerIds = Pools.fill(pool, numWorkers);
+        numExpired = (int) (numWorkers * expiredFraction);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        /* Replace the workers purged by the previous invocation, and expire the first numExpired ones */
+        final Date expired = new Date(System.currentTimeMillis() - 2 * WORKER_TIMEOUT_MILLIS);
+        for (int i = 0; i < numExpired; ++i) {
+            if (pool.getLastUseTimestamp(workerIds[i]) == null) {
+                workerIds[i] = pool.registerWorker(new Pools.BenchmarkWorker(), Pools.clientInfo());
+            }
+            pool.updateWorkerTimestamp(workerIds[i], expired);
+        }
+    }
+
+    @Benchmark
+    public List<String> purge() {
+        return pool.purge();
+    }
+}
@@ -0,0 +1,67 @@
+package me.scai.utilities.benchmarks;
+
+import me.scai.utilities.WorkerClientInfo;
+import me.scai.utilities.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getWorkersClientInfo() polled by one thread while three others keep touching workers and
+ * counting their messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ReadUnderWriteBenchmark {
+    @Param({Pools.WORKER_POOL_IMPL, Pools.SHARDED_WORKER_POOL, Pools.MAPPED_WORKER_POOL})
+    public String implementation;
+
+    @Param({"1000", "10000"})
+    public int numWorkers;
+
+    private WorkerPool pool;
+    private String[] workerIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = Pools.create(implementation, numWorkers, TimeUnit.HOURS.toMillis(1));
+        workerIds = Pools.fill(pool, numWorkers);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public Map<String, WorkerClientInfo> getWorkersClientInfo() {
+        return pool.getWorkersClientInfo();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public int touchAndCount() {
+        String wkrId = workerIds[ThreadLocalRandom.current().nextInt(numWorkers)];
+
+        pool.updateWorkerTimestamp(wkrId, new Date());
+        return pool.incrementMessageCount(wkrId);
+    }
+}
@@ -0,0 +1,156 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Worker timeouts per major client type, adapted to the pressure on the pool.
+ *
+ * The idle gaps between consecutive uses of the workers are recorded per type. While the pool is at
+ * most half full, every type gets the maximum timeout. From there on, the timeout of each type
+ * shrinks linearly with the occupancy, down to the 99th percentile of its idle gaps (within the
+ * bounds) when the pool is full: at peak, workers are kept about as long as their clients are seen
+ * to come back, and no longer. The timeouts grow back as the pressure goes down.
+ *
+ * The timeouts are recomputed at most once per adaptation period, from the histograms alone, so an
+ * adaptation costs O(number of types) whatever the number of workers. The gaps are recorded over two
+ * alternating windows, so that the percentiles follow changes in the usage of the clients. */
+class AdaptiveTimeouts {
+    /* Constants */
+    static final long DEFAULT_ADAPT_PERIOD_MILLIS = 1000L;
+
+    /* Occupancy up to which the timeouts are not shrunk */
+    static final double LOW_WATER_OCCUPANCY = 0.5;
+
+    /* Number of idle gaps needed before their percentile is trusted. Types with fewer shrink down to
+     * the minimum timeout under pressure. */
+    private static final long MIN_NUM_GAPS = 16L;
+
+    private static final int NUM_CLIENT_TYPES_MAJOR = ClientTypeMajor.values().length;
+    private static final int NO_CLIENT_TYPE = NUM_CLIENT_TYPES_MAJOR; /* Workers without one */
+
+    /* Member variables */
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final long adaptPeriodMillis;
+    private final long windowMillis;
+
+    /* Idle gaps per type, in two windows: the one being recorded, and the previous one */
+    private final Log2Histogram[][] gaps = new Log2Histogram[2][NUM_CLIENT_TYPES_MAJOR + 1];
+    private final AtomicInteger currWindow = new AtomicInteger();
+    private final AtomicLong windowStartMillis;
+
+    private final AtomicLongArray timeouts = new AtomicLongArray(NUM_CLIENT_TYPES_MAJOR + 1);
+    private final AtomicLong lastAdaptMillis;
+
+    /* Constructor */
+    AdaptiveTimeouts(final long minTimeoutMillis, final long maxTimeoutMillis, final long adaptPeriodMillis,
+                     final long nowMillis) {
+        if (minTimeoutMillis <= 0 || maxTimeoutMillis < minTimeoutMillis) {
+            throw new IllegalArgumentException("Invalid timeout bounds: " + minTimeoutMillis + ", " + maxTimeoutMillis);
+        }
+        if (adaptPeriodMillis <= 0) {
+            throw new IllegalArgumentException("Invalid adaptation period: " + adaptPeriodMillis);
+        }
+
+        this.minTimeoutMillis  = minTimeoutMillis;
+        this.maxTimeoutMillis  = maxTimeoutMillis;
+        this.adaptPeriodMillis = adaptPeriodMillis;
+        this.windowMillis      = Math.max(maxTimeoutMillis, adaptPeriodMillis);
+
+        for (Log2Histogram[] window : gaps) {
+            for (int i = 0; i <= NUM_CLIENT_TYPES_MAJOR; ++i) {
+                window[i] = new Log2Histogram();
+            }
+        }
+        for (int i = 0; i <= NUM_CLIENT_TYPES_MAJOR; ++i) {
+            timeouts.set(i, maxTimeoutMillis);
+        }
+
+        this.windowStartMillis = new AtomicLong(nowMillis);
+        this.lastAdaptMillis   = new AtomicLong(nowMillis - adaptPeriodMillis);
+    }
+
+    private static int indexOf(WorkerClientInfo clientInfo) {
+        return (clientInfo == null) ? NO_CLIENT_TYPE : indexOf(clientInfo.getClientTypeMajor());
+    }
+
+    private static int indexOf(ClientTypeMajor clientTypeMajor) {
+        return (clientTypeMajor == null) ? NO_CLIENT_TYPE : clientTypeMajor.ordinal();
+    }
+
+    long getMinTimeout() {
+        return minTimeoutMillis;
+    }
+
+    long getMaxTimeout() {
+        return maxTimeoutMillis;
+    }
+
+    /* Record the time a worker has been idle for, before being used again. Gaps shorter than the
+     * minimum timeout are left out, as no timeout within the bounds can cut them short. */
+    void recordIdleGap(WorkerClientInfo clientInfo, long gapMillis) {
+        if (gapMillis < minTimeoutMillis) {
+            return;
+        }
+
+        gaps[currWindow.get()][indexOf(clientInfo)].record(gapMillis);
+    }
+
+    long getTimeout(WorkerClientInfo clientInfo) {
+        return timeouts.get(indexOf(clientInfo));
+    }
+
+    long getTimeout(ClientTypeMajor clientTypeMajor) {
+        return timeouts.get(indexOf(clientTypeMajor));
+    }
+
+    /* Recompute the timeouts, unless they have been recomputed within the adaptation period. Only one
+     * of concurrent callers does.
+     *
+     * @param    occupancy: fraction of the slots of the pool that are taken
+     */
+    void adapt(final double occupancy, final long nowMillis) {
+        final long last = lastAdaptMillis.get();
+        if (nowMillis - last < adaptPeriodMillis || !lastAdaptMillis.compareAndSet(last, nowMillis)) {
+            return;
+        }
+
+        if (nowMillis - windowStartMillis.get() >= windowMillis) {
+            /* The oldest window is cleared before being recorded into again */
+            final int oldWindow = 1 - currWindow.get();
+            for (Log2Histogram histogram : gaps[oldWindow]) {
+                histogram.reset();
+            }
+            currWindow.set(oldWindow);
+            windowStartMillis.set(nowMillis);
+        }
+
+        final double pressure = Math.min(1.0, Math.max(0.0, (occupancy - LOW_WATER_OCCUPANCY) / (1.0 - LOW_WATER_OCCUPANCY)));
+        for (int i = 0; i <= NUM_CLIENT_TYPES_MAJOR; ++i) {
+            final long floor = clamp(gapPercentile(i));
+
+            timeouts.set(i, maxTimeoutMillis - Math.round(pressure * (maxTimeoutMillis - floor)));
+        }
+    }
+
+    /* @return    The percentile of the idle gaps of a type over both windows, or 0 if too few have been
+     *            recorded. It is an upper bound, within a factor of 2, which errs on the side of
+     *            keeping workers.
+     */
+    private long gapPercentile(int i) {
+        final HistogramSnapshot curr = gaps[0][i].snapshot(1L);
+        final HistogramSnapshot prev = gaps[1][i].snapshot(1L);
+        if (curr.getCount() + prev.getCount() < MIN_NUM_GAPS) {
+            return 0L;
+        }
+
+        return Math.max(curr.getP99(), prev.getP99());
+    }
+
+    private long clamp(long timeoutMillis) {
+        return Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, timeoutMillis));
+    }
+}
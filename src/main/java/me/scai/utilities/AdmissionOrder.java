@@ -0,0 +1,7 @@
+package me.scai.utilities;
+
+/* Order in which the registrations waiting for a slot are admitted */
+public enum AdmissionOrder {
+    Fifo,       /* First come, first served */
+    Priority    /* Highest priority first, first come first served within a priority */
+}
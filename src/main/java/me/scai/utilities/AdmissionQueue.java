@@ -0,0 +1,252 @@
+package me.scai.utilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/* Registrations waiting for a slot in a full pool.
+ *
+ * The queue itself only orders the waiters. The pool hands slots over: whenever it frees one while
+ * there are waiters, it re-takes the slot and gives it to the next waiter, so that the slot never
+ * goes back to the free count for others to grab first. (A plain registerWorker() racing with the
+ * release can still get it: only the registrations that wait are ordered.)
+ *
+ * A waiter is claimed exactly once, either by the pool to admit it or by its own timeout or
+ * cancellation, so that a slot is never given to a registration that has already given up. */
+class AdmissionQueue {
+    /* Constants */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Comparator<Waiter> FIFO = new Comparator<Waiter>() {
+        @Override
+        public int compare(Waiter w1, Waiter w2) {
+            return Long.compare(w1.sequence, w2.sequence);
+        }
+    };
+
+    private static final Comparator<Waiter> BY_PRIORITY = new Comparator<Waiter>() {
+        @Override
+        public int compare(Waiter w1, Waiter w2) {
+            final int byPriority = Integer.compare(w2.priority, w1.priority);
+
+            return (byPriority != 0) ? byPriority : Long.compare(w1.sequence, w2.sequence);
+        }
+    };
+
+    /* What a waiter needs besides a free slot to be admitted, such as room in its capacity partition */
+    interface Gate {
+        boolean tryEnter(Waiter waiter);
+
+        /* Undo tryEnter() */
+        void leave(Waiter waiter);
+    }
+
+    static class Waiter {
+        final PooledWorker worker;
+        final WorkerClientInfo clientInfo;
+        final int priority;
+        final long sequence;
+        final long enqueuedNanos;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Waiter(PooledWorker worker, WorkerClientInfo clientInfo, int priority, long sequence) {
+            this.worker        = worker;
+            this.clientInfo    = clientInfo;
+            this.priority      = priority;
+            this.sequence      = sequence;
+            this.enqueuedNanos = System.nanoTime();
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    /* Member variables */
+    /* Guarded by this */
+    private PriorityQueue<Waiter> waiters = new PriorityQueue<>(16, FIFO);
+    private AdmissionOrder order = AdmissionOrder.Fifo;
+    private int capacity = DEFAULT_CAPACITY;
+    private long nextSequence;
+    private int peakSize;
+
+    private volatile int size; /* Mirrors waiters.size(), for the lock-free check on the slot release path */
+
+    private final LongAdder numEnqueued = new LongAdder();
+    private final LongAdder numAdmitted = new LongAdder();
+    private final LongAdder numTimedOut = new LongAdder();
+    private final LongAdder numRejected = new LongAdder();
+    private final Log2Histogram waitTimes = new Log2Histogram();
+
+    /* Add a waiter
+     *
+     * @return    The waiter, or null if the queue is full
+     */
+    synchronized Waiter enqueue(PooledWorker worker, WorkerClientInfo clientInfo, int priority) {
+        if (waiters.size() >= capacity) {
+            numRejected.increment();
+            return null;
+        }
+
+        Waiter waiter = new Waiter(worker, clientInfo, priority, nextSequence++);
+        waiters.add(waiter);
+        size = waiters.size();
+        peakSize = Math.max(peakSize, size);
+        numEnqueued.increment();
+
+        return waiter;
+    }
+
+    boolean hasWaiters() {
+        return size > 0;
+    }
+
+    /* Take the next waiter to admit, claiming it
+     *
+     * @return    The waiter, or null if there is none
+     */
+    synchronized Waiter poll() {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.claim()) {
+                break;
+            }
+        }
+        size = waiters.size();
+
+        return waiter;
+    }
+
+    /* Take the next waiter to admit if the gate lets it in, claiming it. A waiter that the gate turns
+     * down keeps its place at the head of the queue, and holds back the ones behind it.
+     *
+     * @return    The waiter, or null if there is none or the gate turned it down
+     */
+    synchronized Waiter poll(Gate gate) {
+        Waiter waiter;
+        while ((waiter = waiters.peek()) != null) {
+            if ( !gate.tryEnter(waiter) ) {
+                waiter = null;
+                break;
+            }
+
+            waiters.poll();
+            if (waiter.claim()) {
+                break;
+            }
+            gate.leave(waiter); /* Withdrawn in the meantime */
+        }
+        size = waiters.size();
+
+        return waiter;
+    }
+
+    /* Give up waiting, on timeout or cancellation
+     *
+     * @return    true if the waiter has been withdrawn, false if it has already been claimed for
+     *            admission
+     */
+    boolean withdraw(Waiter waiter) {
+        if ( !waiter.claim() ) {
+            return false;
+        }
+
+        synchronized (this) {
+            waiters.remove(waiter);
+            size = waiters.size();
+        }
+        numTimedOut.increment();
+
+        return true;
+    }
+
+    /* Wait for a waiter to be admitted, withdrawing it on timeout
+     *
+     * @return    Worker ID, or null on timeout
+     */
+    String await(Waiter waiter, long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            return waiter.future.get(timeout, unit);
+        } catch (TimeoutException exc) {
+            if (withdraw(waiter)) {
+                return null;
+            }
+            return waiter.future.join(); /* Being admitted right now */
+        } catch (InterruptedException exc) {
+            if (withdraw(waiter)) {
+                throw exc;
+            }
+
+            /* Admitted all the same: hand the worker over rather than leak it */
+            String wkrId = waiter.future.join();
+            Thread.currentThread().interrupt();
+            return wkrId;
+        } catch (ExecutionException exc) {
+            throw new IllegalStateException("Registration failed", exc.getCause());
+        }
+    }
+
+    /* The future of a waiter, whose cancellation gives up the place in the queue */
+    CompletableFuture<String> cancellableFuture(final Waiter waiter) {
+        waiter.future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String wkrId, Throwable exc) {
+                if (waiter.future.isCancelled()) {
+                    withdraw(waiter);
+                }
+            }
+        });
+
+        return waiter.future;
+    }
+
+    void recordAdmitted(Waiter waiter) {
+        numAdmitted.increment();
+        waitTimes.record((System.nanoTime() - waiter.enqueuedNanos) / 1000L);
+    }
+
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid admission queue capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    synchronized void setOrder(AdmissionOrder order) {
+        if (order == null) {
+            throw new IllegalArgumentException("Admission order must not be null");
+        }
+        if (order == this.order) {
+            return;
+        }
+
+        List<Waiter> current = new ArrayList<>(waiters);
+        waiters = new PriorityQueue<>(Math.max(16, current.size()), (order == AdmissionOrder.Priority) ? BY_PRIORITY : FIFO);
+        waiters.addAll(current);
+        this.order = order;
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    synchronized AdmissionOrder getOrder() {
+        return order;
+    }
+
+    synchronized AdmissionStats getStats() {
+        return new AdmissionStats(waiters.size(), peakSize, numEnqueued.sum(), numAdmitted.sum(),
+                                  numTimedOut.sum(), numRejected.sum(), waitTimes.snapshot(1L));
+    }
+}
@@ -0,0 +1,66 @@
+package me.scai.utilities;
+
+/* Point-in-time statistics of the registrations waiting for a slot in a WorkerPoolImpl */
+public class AdmissionStats {
+    /* Member variables */
+    private final int queueLength;
+    private final int peakQueueLength;
+    private final long numEnqueued;
+    private final long numAdmitted;
+    private final long numTimedOut;
+    private final long numRejected;
+    private final HistogramSnapshot waitTime;
+
+    /* Constructor */
+    AdmissionStats(final int queueLength,
+                   final int peakQueueLength,
+                   final long numEnqueued,
+                   final long numAdmitted,
+                   final long numTimedOut,
+                   final long numRejected,
+                   final HistogramSnapshot waitTime) {
+        this.queueLength     = queueLength;
+        this.peakQueueLength = peakQueueLength;
+        this.numEnqueued     = numEnqueued;
+        this.numAdmitted     = numAdmitted;
+        this.numTimedOut     = numTimedOut;
+        this.numRejected     = numRejected;
+        this.waitTime        = waitTime;
+    }
+
+    /* Getters */
+    /* Number of registrations currently waiting */
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    /* Highest number of registrations that have been waiting at once */
+    public int getPeakQueueLength() {
+        return peakQueueLength;
+    }
+
+    /* Number of registrations that have had to wait */
+    public long getNumEnqueued() {
+        return numEnqueued;
+    }
+
+    /* Number of waiting registrations that have been given a slot */
+    public long getNumAdmitted() {
+        return numAdmitted;
+    }
+
+    /* Number of waiting registrations that have timed out or been cancelled */
+    public long getNumTimedOut() {
+        return numTimedOut;
+    }
+
+    /* Number of registrations turned down without waiting, because the queue was full */
+    public long getNumRejected() {
+        return numRejected;
+    }
+
+    /* Time the admitted registrations have waited (microseconds) */
+    public HistogramSnapshot getWaitTime() {
+        return waitTime;
+    }
+}
@@ -0,0 +1,58 @@
+package me.scai.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Per-worker outcome of a batch operation on a WorkerPool.
+ *
+ * Batch operations do not stop at the first invalid worker ID: they apply to every valid ID, and
+ * report the invalid ones here. */
+public class BatchResult<T> {
+    /* Member variables */
+    private final Map<String, T> values = new LinkedHashMap<>();
+    private final List<String> invalidWorkerIds = new ArrayList<>();
+
+    /* Constructor */
+    BatchResult() {
+    }
+
+    void addSucceeded(String workerId, T value) {
+        values.put(workerId, value);
+    }
+
+    void addInvalid(String workerId) {
+        invalidWorkerIds.add(workerId);
+    }
+
+    /* Getters */
+    /* @return    Results of the workers the operation has been applied to, keyed by worker ID, in
+     *            the order of the batch */
+    public Map<String, T> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /* @return    Result for the given worker, or null if the operation has not been applied to it */
+    public T getValue(String workerId) {
+        return values.get(workerId);
+    }
+
+    public boolean isSucceeded(String workerId) {
+        return values.containsKey(workerId);
+    }
+
+    public int getNumSucceeded() {
+        return values.size();
+    }
+
+    /* @return    IDs of the batch that did not refer to a worker in the pool */
+    public List<String> getInvalidWorkerIds() {
+        return Collections.unmodifiableList(invalidWorkerIds);
+    }
+
+    public boolean isAllSucceeded() {
+        return invalidWorkerIds.isEmpty();
+    }
+}
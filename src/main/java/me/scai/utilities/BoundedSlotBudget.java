@@ -0,0 +1,50 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Slot budget of a standalone pool. Capacity is enforced by CAS on the count of taken slots
+ * instead of by locking the pool. */
+class BoundedSlotBudget implements SlotBudget {
+    /* Member variables */
+    private final AtomicInteger max = new AtomicInteger();
+    private final AtomicInteger taken = new AtomicInteger();
+
+    /* Constructor */
+    BoundedSlotBudget(final int max) {
+        this.max.set(max);
+    }
+
+    @Override
+    public boolean tryAcquire(int n) {
+        while (true) {
+            int numTaken = taken.get();
+            if (numTaken > max.get() - n) {
+                return false;
+            }
+
+            if (taken.compareAndSet(numTaken, numTaken + n)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(int n) {
+        taken.addAndGet(-n);
+    }
+
+    @Override
+    public int getNumAvailable() {
+        return max.get() - taken.get();
+    }
+
+    @Override
+    public int getMax() {
+        return max.get();
+    }
+
+    @Override
+    public void setMax(int max) {
+        this.max.set(max);
+    }
+}
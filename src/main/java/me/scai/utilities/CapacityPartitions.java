@@ -0,0 +1,312 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Capacity of a pool split by major client type: each type may have a number of slots reserved for
+ * it, and a cap on its number of workers. A type that has used up its reservation borrows, up to its
+ * cap, any slot not in use: the slots that no type reserves, and the idle reserved slots of the other
+ * types. Workers without a major client type only borrow.
+ *
+ * A type below its reservation is always given a slot by the partitions, even if its reserved slots
+ * have been lent out and the pool is full: the pool then takes one back by preempting a worker of a
+ * type that is borrowing (see isBorrowing()).
+ *
+ * Each partition is one atomic word (number of workers, and how many of them are beyond the
+ * reservation), so an admission is a CAS on the word of its type, plus a CAS on the count of taken
+ * slots when borrowing. This sits on top of the slot budget of the pool, which still bounds the
+ * total. */
+class CapacityPartitions implements AdmissionQueue.Gate {
+    /* Constants */
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final int NUM_CLIENT_TYPES_MAJOR = ClientTypeMajor.values().length;
+    private static final int NO_CLIENT_TYPE = NUM_CLIENT_TYPES_MAJOR; /* Partition of the workers without one */
+
+    /* Member variables */
+    /* Per partition: number of workers in the high 32 bits, number of them on borrowed slots in the low 32 bits */
+    private final AtomicLongArray states = new AtomicLongArray(NUM_CLIENT_TYPES_MAJOR + 1);
+
+    private final AtomicIntegerArray minNumWorkers = new AtomicIntegerArray(NUM_CLIENT_TYPES_MAJOR + 1);
+    private final AtomicIntegerArray maxNumWorkers = new AtomicIntegerArray(NUM_CLIENT_TYPES_MAJOR + 1);
+
+    /* Slots taken by the workers of all the partitions, reserved or borrowed. May exceed the maximum
+     * while a type takes back its reserved slots. */
+    private final AtomicInteger numTaken = new AtomicInteger();
+
+    private volatile int poolMaxNumWorkers; /* Written under this */
+
+    /* Constructor */
+    CapacityPartitions(final int poolMaxNumWorkers) {
+        this.poolMaxNumWorkers = poolMaxNumWorkers;
+
+        for (int i = 0; i <= NUM_CLIENT_TYPES_MAJOR; ++i) {
+            maxNumWorkers.set(i, UNLIMITED);
+        }
+    }
+
+    private static int indexOf(WorkerClientInfo clientInfo) {
+        return (clientInfo == null || clientInfo.getClientTypeMajor() == null) ? NO_CLIENT_TYPE
+                                                                                : clientInfo.getClientTypeMajor().ordinal();
+    }
+
+    static boolean isSamePartition(WorkerClientInfo clientInfo0, WorkerClientInfo clientInfo1) {
+        return indexOf(clientInfo0) == indexOf(clientInfo1);
+    }
+
+    private static long pack(int numWorkers, int numBorrowed) {
+        return ((long) numWorkers << 32) | numBorrowed;
+    }
+
+    private static int numWorkersOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int numBorrowedOf(long state) {
+        return (int) state;
+    }
+
+    /* Take a slot for a worker of the client type of the client info
+     *
+     * @return    true if the partition of the type has room, false otherwise
+     */
+    boolean tryAcquire(WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+
+        while (true) {
+            final long state = states.get(i);
+            final int n = numWorkersOf(state);
+            final int numBorrowed = numBorrowedOf(state);
+
+            if (n >= maxNumWorkers.get(i)) {
+                return false;
+            }
+
+            if (n - numBorrowed < minNumWorkers.get(i)) {
+                /* Reserved slot */
+                if (states.compareAndSet(i, state, pack(n + 1, numBorrowed))) {
+                    numTaken.incrementAndGet();
+                    return true;
+                }
+            } else {
+                if ( !tryTakeUnused() ) {
+                    return false;
+                }
+                if (states.compareAndSet(i, state, pack(n + 1, numBorrowed + 1))) {
+                    return true;
+                }
+                numTaken.decrementAndGet();
+            }
+        }
+    }
+
+    /* Take a reserved slot for a worker of the client type of the client info, if the type is below
+     * its reservation
+     *
+     * @return    true if a reserved slot has been taken, false if the type has used up its reservation
+     */
+    boolean tryAcquireReserved(WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+
+        while (true) {
+            final long state = states.get(i);
+            final int n = numWorkersOf(state);
+            final int numBorrowed = numBorrowedOf(state);
+
+            if (n >= maxNumWorkers.get(i) || n - numBorrowed >= minNumWorkers.get(i)) {
+                return false;
+            }
+
+            if (states.compareAndSet(i, state, pack(n + 1, numBorrowed))) {
+                numTaken.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /* Take a slot not in use, for a borrowing worker */
+    private boolean tryTakeUnused() {
+        while (true) {
+            final int taken = numTaken.get();
+            if (taken >= poolMaxNumWorkers) {
+                return false;
+            }
+
+            if (numTaken.compareAndSet(taken, taken + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /* Take slots for several workers, all or none */
+    boolean tryAcquireAll(List<WorkerClientInfo> clientInfos) {
+        for (int i = 0; i < clientInfos.size(); ++i) {
+            if ( !tryAcquire(clientInfos.get(i)) ) {
+                releaseAll(clientInfos.subList(0, i));
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void releaseAll(List<WorkerClientInfo> clientInfos) {
+        for (WorkerClientInfo clientInfo : clientInfos) {
+            release(clientInfo);
+        }
+    }
+
+    @Override
+    public boolean tryEnter(AdmissionQueue.Waiter waiter) {
+        return tryAcquire(waiter.clientInfo);
+    }
+
+    @Override
+    public void leave(AdmissionQueue.Waiter waiter) {
+        release(waiter.clientInfo);
+    }
+
+    /* Give back the slot of a worker. Borrowed slots go back first, for the other partitions to use. */
+    void release(WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+
+        while (true) {
+            final long state = states.get(i);
+            final int n = numWorkersOf(state);
+            final int numBorrowed = numBorrowedOf(state);
+
+            if (states.compareAndSet(i, state, pack(n - 1, Math.max(0, numBorrowed - 1)))) {
+                numTaken.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /* Whether the partition of a worker has room for it, as of now */
+    boolean hasRoom(WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+        final long state = states.get(i);
+        final int n = numWorkersOf(state);
+
+        return n < maxNumWorkers.get(i) && (n - numBorrowedOf(state) < minNumWorkers.get(i) || numTaken.get() < poolMaxNumWorkers);
+    }
+
+    /* Whether the type of a worker is below its reservation, as of now */
+    boolean isBelowReservation(WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+        final long state = states.get(i);
+
+        return numWorkersOf(state) - numBorrowedOf(state) < minNumWorkers.get(i);
+    }
+
+    /* Whether the type of a worker has workers beyond its reservation, which a type below its own
+     * reservation may preempt */
+    boolean isBorrowing(WorkerClientInfo clientInfo) {
+        return numBorrowedOf(states.get(indexOf(clientInfo))) > 0;
+    }
+
+    /* Same, by partition index: the ordinal of the major client type, or the number of major client
+     * types for the workers without one */
+    boolean isBorrowing(int i) {
+        return numBorrowedOf(states.get(i)) > 0;
+    }
+
+    /* Whether evicting a worker counted in the partitions would make room for another one: it frees a
+     * slot of the type of the new worker, or a borrowed slot that the new worker may take. Reserved
+     * slots of other types are not freed for it, as their types would take them back. */
+    boolean wouldMakeRoom(WorkerClientInfo victimInfo, WorkerClientInfo clientInfo) {
+        final int i = indexOf(clientInfo);
+        final int victim = indexOf(victimInfo);
+        if (victim == i) {
+            return true;
+        }
+
+        return numWorkersOf(states.get(i)) < maxNumWorkers.get(i) && numBorrowedOf(states.get(victim)) > 0;
+    }
+
+    /* Set the reservation and the cap of a client type
+     *
+     * @throws    IllegalArgumentException if the limits are inconsistent, or the reservations would add
+     *            up to more than the maximum number of workers of the pool
+     */
+    synchronized void setPartition(ClientTypeMajor clientTypeMajor, int min, int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid capacity partition: " + min + " to " + max + " workers");
+        }
+
+        final int i = clientTypeMajor.ordinal();
+        final int totalReserved = getTotalReserved() - minNumWorkers.get(i) + min;
+        if (totalReserved > poolMaxNumWorkers) {
+            throw new IllegalArgumentException("Reserved slots (" + totalReserved +
+                                               ") exceed the maximum number of workers (" + poolMaxNumWorkers + ")");
+        }
+
+        minNumWorkers.set(i, min);
+        maxNumWorkers.set(i, max);
+
+        rebalance(i);
+    }
+
+    /* After a change of reservation, move the workers of a partition between reserved and borrowed
+     * slots, so that only the ones beyond the reservation are borrowing */
+    private void rebalance(int i) {
+        while (true) {
+            final long state = states.get(i);
+            final int n = numWorkersOf(state);
+            final int numBorrowed = Math.max(0, n - minNumWorkers.get(i));
+
+            if (states.compareAndSet(i, state, pack(n, numBorrowed))) {
+                return;
+            }
+        }
+    }
+
+    /* @throws    IllegalArgumentException if the reservations add up to more than the new maximum */
+    synchronized void setPoolMaxNumWorkers(int max) {
+        final int totalReserved = getTotalReserved();
+        if (totalReserved > max) {
+            throw new IllegalArgumentException("Reserved slots (" + totalReserved +
+                                               ") exceed the maximum number of workers (" + max + ")");
+        }
+
+        poolMaxNumWorkers = max;
+    }
+
+    private int getTotalReserved() {
+        int total = 0;
+        for (int i = 0; i < NUM_CLIENT_TYPES_MAJOR; ++i) {
+            total += minNumWorkers.get(i);
+        }
+
+        return total;
+    }
+
+    /* Number of workers of the client type that could still be admitted, as far as the partitions go:
+     * its reserved slots, even if lent out, or the slots not in use if more */
+    int getNumAvailable(ClientTypeMajor clientTypeMajor) {
+        final int i = clientTypeMajor.ordinal();
+        final long state = states.get(i);
+        final int n = numWorkersOf(state);
+
+        final int numReservedFree = Math.max(0, minNumWorkers.get(i) - (n - numBorrowedOf(state)));
+        final int numBelowCap = maxNumWorkers.get(i) - n;
+
+        return Math.max(0, Math.min(numBelowCap, Math.max(numReservedFree, poolMaxNumWorkers - numTaken.get())));
+    }
+
+    int getNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return numWorkersOf(states.get(clientTypeMajor.ordinal()));
+    }
+
+    int getMinNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return minNumWorkers.get(clientTypeMajor.ordinal());
+    }
+
+    int getMaxNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return maxNumWorkers.get(clientTypeMajor.ordinal());
+    }
+}
@@ -0,0 +1,129 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Indexes of the workers of a pool by major client type, minor client type and client IP address,
+ * kept up to date on registration and removal so that per-type counts are O(1) and lookups are
+ * O(result).
+ *
+ * The client type indexes are arrays indexed by enum ordinal, each a concurrent set plus a counter.
+ * The counters only move when a set actually changes, so add() and remove() may race or repeat
+ * without the counts drifting from the sets. Workers without a client info, or without a client
+ * type or address, are left out of the corresponding index. */
+class ClientIndex {
+    /* Constants */
+    private static final int NUM_CLIENT_TYPES_MAJOR = ClientTypeMajor.values().length;
+    private static final int NUM_CLIENT_TYPES_MINOR = ClientTypeMinor.values().length;
+
+    /* Member variables */
+    private final List<Set<WorkerRecord>> byClientTypeMajor = newSets(NUM_CLIENT_TYPES_MAJOR);
+    private final AtomicIntegerArray clientTypeMajorCounts = new AtomicIntegerArray(NUM_CLIENT_TYPES_MAJOR);
+
+    private final List<Set<WorkerRecord>> byClientTypeMinor = newSets(NUM_CLIENT_TYPES_MINOR);
+    private final AtomicIntegerArray clientTypeMinorCounts = new AtomicIntegerArray(NUM_CLIENT_TYPES_MINOR);
+
+    /* Sets are dropped once empty, so the map does not grow with every address ever seen */
+    private final ConcurrentMap<InetAddress, Set<WorkerRecord>> byAddress = new ConcurrentHashMap<>();
+
+    private static List<Set<WorkerRecord>> newSets(int n) {
+        List<Set<WorkerRecord>> sets = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            sets.add(ConcurrentHashMap.<WorkerRecord>newKeySet());
+        }
+
+        return sets;
+    }
+
+    void add(final WorkerRecord rec) {
+        final WorkerClientInfo clientInfo = rec.clientInfo;
+        if (clientInfo == null) {
+            return;
+        }
+
+        if (clientInfo.getClientTypeMajor() != null) {
+            final int i = clientInfo.getClientTypeMajor().ordinal();
+            if (byClientTypeMajor.get(i).add(rec)) {
+                clientTypeMajorCounts.incrementAndGet(i);
+            }
+        }
+
+        if (clientInfo.getClientTypeMinor() != null) {
+            final int i = clientInfo.getClientTypeMinor().ordinal();
+            if (byClientTypeMinor.get(i).add(rec)) {
+                clientTypeMinorCounts.incrementAndGet(i);
+            }
+        }
+
+        if (clientInfo.getClientIPAddress() != null) {
+            byAddress.compute(clientInfo.getClientIPAddress(), (address, recs) -> {
+                if (recs == null) {
+                    recs = ConcurrentHashMap.newKeySet();
+                }
+                recs.add(rec);
+
+                return recs;
+            });
+        }
+    }
+
+    void remove(final WorkerRecord rec) {
+        final WorkerClientInfo clientInfo = rec.clientInfo;
+        if (clientInfo == null) {
+            return;
+        }
+
+        if (clientInfo.getClientTypeMajor() != null) {
+            final int i = clientInfo.getClientTypeMajor().ordinal();
+            if (byClientTypeMajor.get(i).remove(rec)) {
+                clientTypeMajorCounts.decrementAndGet(i);
+            }
+        }
+
+        if (clientInfo.getClientTypeMinor() != null) {
+            final int i = clientInfo.getClientTypeMinor().ordinal();
+            if (byClientTypeMinor.get(i).remove(rec)) {
+                clientTypeMinorCounts.decrementAndGet(i);
+            }
+        }
+
+        if (clientInfo.getClientIPAddress() != null) {
+            byAddress.computeIfPresent(clientInfo.getClientIPAddress(), (address, recs) -> {
+                recs.remove(rec);
+
+                return recs.isEmpty() ? null : recs;
+            });
+        }
+    }
+
+    int count(final ClientTypeMajor clientTypeMajor) {
+        return clientTypeMajorCounts.get(clientTypeMajor.ordinal());
+    }
+
+    int count(final ClientTypeMinor clientTypeMinor) {
+        return clientTypeMinorCounts.get(clientTypeMinor.ordinal());
+    }
+
+    Set<WorkerRecord> get(final ClientTypeMajor clientTypeMajor) {
+        return byClientTypeMajor.get(clientTypeMajor.ordinal());
+    }
+
+    Set<WorkerRecord> get(final ClientTypeMinor clientTypeMinor) {
+        return byClientTypeMinor.get(clientTypeMinor.ordinal());
+    }
+
+    Set<WorkerRecord> get(final InetAddress address) {
+        Set<WorkerRecord> recs = byAddress.get(address);
+
+        return (recs == null) ? Collections.<WorkerRecord>emptySet() : recs;
+    }
+}
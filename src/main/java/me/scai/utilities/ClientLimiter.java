@@ -0,0 +1,215 @@
+package me.scai.utilities;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/* Admission control per client address: a token bucket on the rate of registrations, and a cap on
+ * the number of live workers.
+ *
+ * The live workers are counted by the pool (from its client index), so the limiter only keeps the
+ * bucket of each address, plus the registrations it has let through that the pool has not counted
+ * yet. An entry with a full bucket and no registration in flight holds nothing that a new entry would
+ * not, so such entries are evicted freely once the number of addresses reaches the bound. If that
+ * is not enough, entries with partly drained buckets go too, which only errs on the lenient side. */
+class ClientLimiter {
+    /* Constants */
+    static final int DEFAULT_MAX_NUM_ADDRESSES = 64 * 1024;
+
+    /* Member variables */
+    private final double tokensPerMilli;
+    private final double burst;
+    private final int maxNumLiveWorkers;
+    private final int maxNumAddresses;
+
+    private final ToIntFunction<InetAddress> liveWorkerCounter;
+
+    private final ConcurrentMap<InetAddress, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /* Bucket of one address. Guarded by its own monitor. */
+    private static class Entry {
+        double tokens;
+        long refillMillis;
+        int numInFlight;        /* Registrations let through, not counted as live by the pool yet */
+        boolean evicted;
+
+        Entry(final double tokens, final long refillMillis) {
+            this.tokens       = tokens;
+            this.refillMillis = refillMillis;
+        }
+    }
+
+    /* Constructor
+     *
+     * @param    registrationRate: registrations per second per address, sustained
+     * @param    registrationBurst: registrations per address in a burst
+     * @param    maxNumLiveWorkers: maximum number of live workers per address
+     * @param    liveWorkerCounter: number of live workers of an address, as counted by the pool
+     */
+    ClientLimiter(final double registrationRate, final int registrationBurst, final int maxNumLiveWorkers,
+                  final int maxNumAddresses, final ToIntFunction<InetAddress> liveWorkerCounter) {
+        if ( !(registrationRate > 0.0) ) {
+            throw new IllegalArgumentException("Invalid registration rate: " + registrationRate);
+        }
+        if (registrationBurst <= 0) {
+            throw new IllegalArgumentException("Invalid registration burst: " + registrationBurst);
+        }
+        if (maxNumLiveWorkers <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of workers per client: " + maxNumLiveWorkers);
+        }
+        if (maxNumAddresses <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of client addresses: " + maxNumAddresses);
+        }
+
+        this.tokensPerMilli    = registrationRate / 1000.0;
+        this.burst             = registrationBurst;
+        this.maxNumLiveWorkers = maxNumLiveWorkers;
+        this.maxNumAddresses   = maxNumAddresses;
+        this.liveWorkerCounter = liveWorkerCounter;
+    }
+
+    /* Run a registration through the limits of its client address, if there are limits and the client
+     * address is known
+     *
+     * @param    limiter: the limiter of the pool, or null
+     * @param    registration: registers the worker, returning its ID or null if the pool is full
+     */
+    static RegistrationResult register(ClientLimiter limiter, WorkerClientInfo clientInfo, Supplier<String> registration) {
+        final InetAddress address = (limiter == null || clientInfo == null) ? null : clientInfo.getClientIPAddress();
+        if (address != null) {
+            RegistrationResult rejected = limiter.tryAcquire(address, System.currentTimeMillis());
+            if (rejected != null) {
+                return rejected;
+            }
+        }
+
+        try {
+            String wkrId = registration.get();
+
+            return (wkrId == null) ? RegistrationResult.poolFull() : RegistrationResult.registered(wkrId);
+        } finally {
+            if (address != null) {
+                limiter.done(address);
+            }
+        }
+    }
+
+    /* Check a registration that is going to wait for a slot against the limits of its client address.
+     * It takes a token, but is not counted against the cap on live workers until admitted, so the
+     * waiters of an address may take it over the cap.
+     *
+     * @return    true if the registration may wait
+     */
+    static boolean admitsWaiter(ClientLimiter limiter, WorkerClientInfo clientInfo) {
+        final InetAddress address = (limiter == null || clientInfo == null) ? null : clientInfo.getClientIPAddress();
+        if (address == null) {
+            return true;
+        }
+
+        if (limiter.tryAcquire(address, System.currentTimeMillis()) != null) {
+            return false;
+        }
+        limiter.done(address);
+
+        return true;
+    }
+
+    /* Let a registration from the address through, or not. If it is let through, the caller must call
+     * done() once the worker has been counted by the pool, or has failed to register.
+     *
+     * @return    null if the registration may go ahead, or the rejection
+     */
+    RegistrationResult tryAcquire(final InetAddress address, final long now) {
+        while (true) {
+            Entry entry = entries.get(address);
+            if (entry == null) {
+                if (entries.size() >= maxNumAddresses) {
+                    sweep(now); /* Before adding the new entry, which would otherwise be the first to go */
+                }
+
+                entry = new Entry(burst, now);
+                Entry prev = entries.putIfAbsent(address, entry);
+                if (prev != null) {
+                    entry = prev;
+                }
+            }
+
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+
+                if (liveWorkerCounter.applyAsInt(address) + entry.numInFlight >= maxNumLiveWorkers) {
+                    return RegistrationResult.tooManyClientWorkers();
+                }
+
+                refill(entry, now);
+                if (entry.tokens < 1.0) {
+                    return RegistrationResult.rateLimited((long) Math.ceil((1.0 - entry.tokens) / tokensPerMilli));
+                }
+
+                entry.tokens -= 1.0;
+                ++entry.numInFlight;
+
+                return null;
+            }
+        }
+    }
+
+    void done(final InetAddress address) {
+        Entry entry = entries.get(address); /* Not evicted while it has registrations in flight */
+        synchronized (entry) {
+            --entry.numInFlight;
+        }
+    }
+
+    private void refill(Entry entry, long now) {
+        if (now > entry.refillMillis) {
+            entry.tokens       = Math.min(burst, entry.tokens + (now - entry.refillMillis) * tokensPerMilli);
+            entry.refillMillis = now;
+        }
+    }
+
+    /* Evict idle entries: first the ones with full buckets, then, if still over the bound, any without
+     * registrations in flight. Skipped if another thread is already at it. */
+    private void sweep(long now) {
+        if ( !sweeping.compareAndSet(false, true) ) {
+            return;
+        }
+
+        try {
+            evict(now, true);
+            if (entries.size() >= maxNumAddresses) {
+                evict(now, false);
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private void evict(long now, boolean fullBucketsOnly) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            synchronized (entry) {
+                if (entry.numInFlight > 0) {
+                    continue;
+                }
+
+                refill(entry, now);
+                if ( !fullBucketsOnly || entry.tokens >= burst ) {
+                    entry.evicted = true;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    int getNumAddresses() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,63 @@
+package me.scai.utilities;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/* Clock that reads a cached time stamp, refreshed every resolutionMillis by a daemon thread owned by
+ * the clock. A read is one volatile load, instead of a call into the OS, at the cost of being up to
+ * resolutionMillis (plus scheduling delays) behind. That is well within the precision that idle
+ * timeouts and per-second message rates need. The time never goes backwards. */
+public class CoarseWorkerClock implements WorkerClock {
+    /* Constants */
+    public static final long DEFAULT_RESOLUTION_MILLIS = 10L;
+
+    /* Member variables */
+    private volatile long nowMillis;
+
+    private final ScheduledExecutorService executor;
+
+    /* Constructor */
+    public CoarseWorkerClock() {
+        this(DEFAULT_RESOLUTION_MILLIS);
+    }
+
+    public CoarseWorkerClock(final long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("Invalid clock resolution: " + resolutionMillis);
+        }
+
+        this.nowMillis = System.currentTimeMillis();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "worker-pool-clock");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                final long t = System.currentTimeMillis();
+                if (t > nowMillis) {
+                    nowMillis = t; /* Only written by this thread */
+                }
+            }
+        }, resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return nowMillis;
+    }
+
+    /* Stop refreshing the time stamp, and release the thread of the clock. The time stands still
+     * from then on. */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
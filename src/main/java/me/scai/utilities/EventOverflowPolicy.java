@@ -0,0 +1,9 @@
+package me.scai.utilities;
+
+/* What a WorkerEventDispatcher does with a new event when its queue is full */
+public enum EventOverflowPolicy {
+    DropNewest,     /* Drop the new event */
+    DropOldest,     /* Drop the oldest queued event to make room for the new one */
+    Block           /* Make the publishing pool operation wait until there is room. Events published
+                     * from within listeners are dropped instead, as they would wait for themselves. */
+}
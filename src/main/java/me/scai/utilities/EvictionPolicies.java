@@ -0,0 +1,53 @@
+package me.scai.utilities;
+
+/* Built-in eviction policies, for WorkerPoolImpl.setEvictionPolicy() */
+public final class EvictionPolicies {
+    /* Constants */
+    /* Told apart by identity by the pool, which evicts by these two without sampling */
+    static final EvictionPolicy LEAST_RECENTLY_USED = new EvictionPolicy() {
+        @Override
+        public double rank(WorkerSnapshot wkr, long nowMillis) {
+            return wkr.lastUseMillis;
+        }
+    };
+
+    static final EvictionPolicy OLDEST_FIRST = new EvictionPolicy() {
+        @Override
+        public double rank(WorkerSnapshot wkr, long nowMillis) {
+            return wkr.createdMillis;
+        }
+    };
+
+    private EvictionPolicies() {}
+
+    /* Least recently used first. Exact: the pool evicts the least recently used of all its workers. */
+    public static EvictionPolicy leastRecentlyUsed() {
+        return LEAST_RECENTLY_USED;
+    }
+
+    /* Fewest messages first. Sampled. */
+    public static EvictionPolicy leastFrequentlyUsed() {
+        return new EvictionPolicy() {
+            @Override
+            public double rank(WorkerSnapshot wkr, long nowMillis) {
+                return wkr.getMessageCount();
+            }
+        };
+    }
+
+    /* Lowest average message rate since registration first, so that new workers are not evicted
+     * just for having had no time to get messages. Sampled. */
+    public static EvictionPolicy lowestMessageRate() {
+        return new EvictionPolicy() {
+            @Override
+            public double rank(WorkerSnapshot wkr, long nowMillis) {
+                return wkr.getMessageCount() / (double) Math.max(1L, nowMillis - wkr.createdMillis);
+            }
+        };
+    }
+
+    /* Oldest registration first. Exact: the pool evicts the oldest of all its workers. */
+    public static EvictionPolicy oldestFirst() {
+        return OLDEST_FIRST;
+    }
+}
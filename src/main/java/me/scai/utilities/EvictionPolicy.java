@@ -0,0 +1,13 @@
+package me.scai.utilities;
+
+/* Chooses the workers to evict when the pool is full and a registration needs a slot. The pool
+ * evicts the worker the policy ranks lowest, out of a small sample of its workers drawn at random,
+ * so that an eviction costs O(sample size * log n) whatever the size of the pool, like the sampled
+ * LRU of caches. The victim is then only approximately the lowest-ranked of the pool.
+ *
+ * The least-recently-used and oldest-first policies of EvictionPolicies are not sampled: the pool
+ * finds their exact victims in its own indexes. See EvictionPolicies for the built-in ones. */
+public interface EvictionPolicy {
+    /* @return    Rank of the worker as of nowMillis: the lower, the sooner it is evicted */
+    public double rank(WorkerSnapshot wkr, long nowMillis);
+}
@@ -0,0 +1,287 @@
+package me.scai.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/* Hashed timing wheel indexing worker records by the tick of their last-use time stamp.
+ *
+ * Records are bucketed by last use rather than by deadline, so a change of the worker timeout
+ * never requires rescheduling: purging with any timeout only has to visit the buckets at or before
+ * the tick of (now - timeout). Rescheduling on touch is O(1), and is a no-op unless the touch moves
+ * the record into a new tick.
+ *
+ * Only one drain runs at a time; scheduling and rescheduling are lock-free. */
+class ExpiryWheel {
+    /* Constants */
+    static final int DEFAULT_NUM_SLOTS = 256;
+
+    /* Member variables */
+    private final long tickMillis;
+    private final int mask;
+    private final Set<WorkerRecord>[] slots;
+
+    /* The last tick that has been drained. Buckets before it hold no live records; the bucket at it
+     * may still hold records that were not due yet. */
+    private final AtomicLong cursorTick;
+
+    /* Records scheduled at or before the cursor (e.g., touched with a time stamp in the past) */
+    private final Queue<WorkerRecord> overdue = new ConcurrentLinkedQueue<>();
+
+    private final Object drainLock = new Object();
+
+    /* Constructor */
+    @SuppressWarnings("unchecked")
+    ExpiryWheel(final long tickMillis, final int numSlots, final long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Invalid tick length: " + tickMillis);
+        }
+        if (numSlots <= 0 || Integer.bitCount(numSlots) != 1) {
+            throw new IllegalArgumentException("Number of slots must be a positive power of 2: " + numSlots);
+        }
+
+        this.tickMillis = tickMillis;
+        this.mask = numSlots - 1;
+
+        this.slots = new Set[numSlots];
+        for (int i = 0; i < numSlots; ++i) {
+            slots[i] = Collections.newSetFromMap(new ConcurrentHashMap<WorkerRecord, Boolean>());
+        }
+
+        this.cursorTick = new AtomicLong(tickOf(startMillis));
+    }
+
+    /* Create a wheel whose span covers about twice the given timeout. Its cursor starts one timeout
+     * back, which is where the first drain will start. */
+    static ExpiryWheel forTimeout(final long timeoutMillis, final long nowMillis) {
+        long tickMillis = Math.max(1L, 2L * timeoutMillis / DEFAULT_NUM_SLOTS);
+
+        return new ExpiryWheel(tickMillis, DEFAULT_NUM_SLOTS, nowMillis - timeoutMillis);
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    private long tickOf(long millis) {
+        long tick = millis / tickMillis;
+        if (millis < 0 && tick * tickMillis != millis) {
+            tick--; /* Floor division for time stamps before the epoch */
+        }
+
+        return tick;
+    }
+
+    private Set<WorkerRecord> slotOf(long tick) {
+        return slots[(int) (tick & mask)];
+    }
+
+    /* Add a newly registered record */
+    void schedule(WorkerRecord rec) {
+        long tick = Math.max(tickOf(rec.lastUseMillis.get()), cursorTick.get());
+        rec.expiryTick.set(tick);
+
+        slotOf(tick).add(rec);
+        checkBehindCursor(rec, tick);
+    }
+
+    /* Move a record to the bucket of its current last-use time stamp */
+    void reschedule(WorkerRecord rec) {
+        long tick = place(rec, tickOf(rec.lastUseMillis.get()));
+        checkBehindCursor(rec, tick);
+    }
+
+    /* Put the record in the bucket of the given tick, or in the cursor's bucket if the tick is behind
+     * the cursor (buckets behind the cursor are not visited again until the wheel wraps around)
+     *
+     * @return   The tick of the bucket the record has been put in
+     */
+    private long place(WorkerRecord rec, long tick) {
+        final long newTick = Math.max(tick, cursorTick.get());
+
+        while (true) {
+            final long oldTick = rec.expiryTick.get();
+            if (oldTick == newTick) {
+                return newTick;
+            }
+
+            if (rec.expiryTick.compareAndSet(oldTick, newTick)) {
+                Set<WorkerRecord> newSlot = slotOf(newTick);
+                Set<WorkerRecord> oldSlot = slotOf(oldTick);
+
+                newSlot.add(rec); /* Add before removing, so that the record is never unindexed */
+                if (oldSlot != newSlot) {
+                    oldSlot.remove(rec);
+
+                    /* A concurrent reschedule may have moved the record back into the slot we have just
+                     * taken it out of */
+                    if (slotOf(rec.expiryTick.get()) == oldSlot) {
+                        oldSlot.add(rec);
+                    }
+                }
+
+                return newTick;
+            }
+        }
+    }
+
+    /* A record placed at the cursor may be missed by a drain that is moving the cursor past it at the
+     * same time. Such records are also queued, to be checked by the next drain. */
+    private void checkBehindCursor(WorkerRecord rec, long tick) {
+        if (tick <= cursorTick.get()) {
+            overdue.add(rec);
+        }
+    }
+
+    /* Remove a record that has left the pool */
+    void unschedule(WorkerRecord rec) {
+        slotOf(rec.expiryTick.get()).remove(rec);
+    }
+
+    /* Collect the records that are due, i.e., whose last use is before the cutoff
+     *
+     * Only the buckets between the previous drain and the cutoff are visited. The records are not
+     * unscheduled here: the caller removes them from the pool, then calls unschedule().
+     *
+     * @param    cutoffMillis: records with a last-use time stamp before this are due
+     * @return   Due records (possibly with duplicates, which the caller must tolerate)
+     */
+    List<WorkerRecord> collectDue(final long cutoffMillis) {
+        return collectDue(cutoffMillis, Integer.MAX_VALUE);
+    }
+
+    /* Collect at most maxRecords due records. A drain that stops early leaves the cursor at the bucket
+     * it stopped in, so the next drain picks up from there. */
+    List<WorkerRecord> collectDue(final long cutoffMillis, final int maxRecords) {
+        List<WorkerRecord> due = new ArrayList<>();
+
+        synchronized (drainLock) {
+            final long fromTick = cursorTick.get();
+
+            /* Tick of the latest time stamp that can be due. The cursor's own bucket is always visited,
+             * as it also holds the records that have been clamped to the cursor. */
+            final long dueTick = Math.max(tickOf(cutoffMillis - 1L), fromTick);
+
+            /* Announce the new cursor before scanning, so that concurrent schedulers behind it also
+             * queue their records as overdue */
+            cursorTick.set(dueTick);
+
+            final long numTicks = Math.min(dueTick - fromTick + 1L, (long) slots.length);
+            for (long i = 0; i < numTicks; ++i) {
+                if ( !drainSlot(slotOf(fromTick + i), dueTick, cutoffMillis, due, maxRecords) ) {
+                    /* Moving the cursor back is safe: every live record is still in a bucket at or
+                     * after this one, or in the overdue queue */
+                    cursorTick.set(fromTick + i);
+                    break;
+                }
+            }
+
+            WorkerRecord rec;
+            while (due.size() < maxRecords && (rec = overdue.poll()) != null) {
+                if (rec.isRemoved()) {
+                    continue;
+                }
+
+                if (rec.lastUseMillis.get() < cutoffMillis) {
+                    due.add(rec);
+                } else {
+                    place(rec, tickOf(rec.lastUseMillis.get())); /* Not due yet: make sure it is ahead of the cursor */
+                }
+            }
+        }
+
+        return due;
+    }
+
+    /* @return   false if the drain stopped because maxRecords has been reached */
+    private boolean drainSlot(Set<WorkerRecord> slot, long dueTick, long cutoffMillis,
+                              List<WorkerRecord> due, int maxRecords) {
+        for (WorkerRecord rec : slot) {
+            if (due.size() >= maxRecords) {
+                return false;
+            }
+
+            if (rec.isRemoved() || slotOf(rec.expiryTick.get()) != slot) {
+                slot.remove(rec); /* Left-over from a removal or a move */
+                continue;
+            }
+
+            if (rec.expiryTick.get() > dueTick) {
+                continue; /* Belongs to a later round of the wheel */
+            }
+
+            if (rec.lastUseMillis.get() < cutoffMillis) {
+                due.add(rec);
+            } else if (rec.expiryTick.get() < dueTick) {
+                place(rec, tickOf(rec.lastUseMillis.get())); /* Not due yet: keep it ahead of the cursor */
+            }
+        }
+
+        return true;
+    }
+
+    /* Least recently used of the records that pass the filter. As the buckets are in last-use order
+     * from the cursor on, only the buckets up to the first one with such a record are visited, plus the
+     * overdue records (which are behind the cursor). Records with a last-use time stamp beyond the span
+     * of the wheel are only considered if no other record passes.
+     *
+     * Lock-free and read-only, so that it does not hold up the drains; a record that is being moved
+     * concurrently may be missed.
+     *
+     * @return   The record, or null if none passes the filter
+     */
+    WorkerRecord leastRecentlyUsed(final Predicate<WorkerRecord> filter) {
+        WorkerRecord lru = null;
+        for (WorkerRecord rec : overdue) {
+            if ( !rec.isRemoved() && filter.test(rec) && isUsedBefore(rec, lru) ) {
+                lru = rec;
+            }
+        }
+
+        final long fromTick = cursorTick.get();
+        WorkerRecord later = null; /* From a later round of the wheel */
+
+        for (long tick = fromTick; tick < fromTick + slots.length; ++tick) {
+            final Set<WorkerRecord> slot = slotOf(tick);
+
+            WorkerRecord oldest = null;
+            for (WorkerRecord rec : slot) {
+                final long recTick = rec.expiryTick.get();
+                if (rec.isRemoved() || slotOf(recTick) != slot || !filter.test(rec)) {
+                    continue;
+                }
+
+                if (recTick > tick) {
+                    later = isUsedBefore(rec, later) ? rec : later;
+                } else if (isUsedBefore(rec, oldest)) {
+                    oldest = rec;
+                }
+            }
+
+            if (oldest != null) {
+                return isUsedBefore(oldest, lru) ? oldest : lru;
+            }
+        }
+
+        return (lru != null) ? lru : later;
+    }
+
+    private static boolean isUsedBefore(WorkerRecord rec, WorkerRecord other) {
+        return other == null || rec.lastUseMillis.get() < other.lastUseMillis.get();
+    }
+
+    void clear() {
+        synchronized (drainLock) {
+            for (Set<WorkerRecord> slot : slots) {
+                slot.clear();
+            }
+            overdue.clear();
+        }
+    }
+}
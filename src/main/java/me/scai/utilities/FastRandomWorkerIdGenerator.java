@@ -0,0 +1,24 @@
+package me.scai.utilities;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Worker ID generator drawing from the calling thread's ThreadLocalRandom, laid out as a version-4
+ * (random) UUID.
+ *
+ * Cheaper than RandomWorkerIdGenerator, and the IDs are as unlikely to collide, but they are NOT
+ * unguessable: the state of ThreadLocalRandom can be recovered from a few of its outputs. Only
+ * use it where worker IDs are never exposed to clients. */
+public class FastRandomWorkerIdGenerator implements WorkerIdGenerator {
+    @Override
+    public WorkerId nextId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+
+        msb = (msb & ~0xF000L) | 0x4000L;                            /* Version 4 */
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;     /* IETF variant */
+
+        return new WorkerId(msb, lsb);
+    }
+}
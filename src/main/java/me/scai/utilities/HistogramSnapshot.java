@@ -0,0 +1,56 @@
+package me.scai.utilities;
+
+import java.beans.ConstructorProperties;
+
+/* Point-in-time summary of a histogram of latencies (in microseconds) or sizes */
+public class HistogramSnapshot {
+    /* Member variables */
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    /* Constructor */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean  = mean;
+        this.p50   = p50;
+        this.p90   = p90;
+        this.p99   = p99;
+        this.max   = max;
+    }
+
+    /* Getters */
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /* Percentiles are upper bounds, within a factor of 2 */
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max;
+    }
+}
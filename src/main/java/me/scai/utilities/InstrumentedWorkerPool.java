@@ -0,0 +1,533 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * WorkerPool decorator that records the latencies of the pool operations, the registrations
+ * rejected for lack of capacity and the purge batch sizes, into a WorkerPoolMetrics that can be
+ * published as a platform MBean. The pools of this package report all their purge runs to it,
+ * including the ones made inline by registrations and by the reaper.
+ *
+ * Recording can be switched on and off at runtime (including through the MBean). While it is off,
+ * every call costs one volatile read on top of the wrapped pool.
+ */
+public class InstrumentedWorkerPool implements WorkerPool {
+    /* Constants */
+    public static final String MBEAN_DOMAIN = "me.scai.utilities";
+
+    /* Member variables */
+    private final WorkerPool pool;
+    private final WorkerPoolMetrics metrics;
+    private final boolean observesPurges; /* Whether the pool reports all its purge runs, inline ones included */
+
+    private ObjectName mbeanName; /* Guarded by this */
+
+    /* Constructor */
+    public InstrumentedWorkerPool(final WorkerPool pool) {
+        this(pool, true);
+    }
+
+    public InstrumentedWorkerPool(final WorkerPool pool, final boolean enabled) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Null worker pool");
+        }
+
+        this.pool           = pool;
+        this.metrics        = new WorkerPoolMetrics(pool, enabled);
+        this.observesPurges = observePurges(pool);
+    }
+
+    /* Have the pool report every purge run, including the ones made inline by registrations and
+     * queries, and the reaper's. Pools of other kinds only have their explicit purge() calls timed.
+     *
+     * @return    Whether the observer could be installed
+     */
+    private boolean observePurges(WorkerPool pool) {
+        PurgeObserver observer = (latencyNanos, numPurged) -> {
+            if (metrics.isEnabled()) {
+                metrics.purgeLatency.record(latencyNanos);
+                metrics.purgeBatchSizes.record(numPurged);
+            }
+        };
+
+        if (pool instanceof WorkerPoolImpl) {
+            ((WorkerPoolImpl) pool).setPurgeObserver(observer);
+        } else if (pool instanceof ShardedWorkerPool) {
+            ((ShardedWorkerPool) pool).setPurgeObserver(observer);
+        } else if (pool instanceof MappedWorkerPool) {
+            ((MappedWorkerPool) pool).setPurgeObserver(observer);
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    /* Getters */
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    public WorkerPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /* Register the metrics on the platform MBean server, as me.scai.utilities:type=WorkerPool,name=<name>
+     *
+     * @return    The name the MBean has been registered under
+     * @throws    IllegalStateException if the MBean is already registered, or cannot be
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        if (mbeanName != null) {
+            throw new IllegalStateException("Metrics MBean already registered as " + mbeanName);
+        }
+
+        try {
+            ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=WorkerPool,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+
+            mbeanName = objectName;
+            return objectName;
+        } catch (InstanceAlreadyExistsException exc) {
+            throw new IllegalStateException("Another MBean is already registered for worker pool \"" + name + "\"", exc);
+        } catch (JMException exc) {
+            throw new IllegalStateException("Failed to register metrics MBean for worker pool \"" + name + "\"", exc);
+        }
+    }
+
+    /* Unregister the metrics from the platform MBean server, if registered */
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(mbeanName);
+        } catch (InstanceNotFoundException exc) {
+            /* Already unregistered by someone else */
+        } catch (JMException exc) {
+            throw new IllegalStateException("Failed to unregister metrics MBean " + mbeanName, exc);
+        }
+
+        mbeanName = null;
+    }
+
+    /* Timed operations */
+    @Override
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        if ( !metrics.isEnabled() ) {
+            return pool.registerWorker(wkr, wkrInfo);
+        }
+
+        final long t0 = System.nanoTime();
+        final String wkrId = pool.registerWorker(wkr, wkrInfo);
+        metrics.registerLatency.record(System.nanoTime() - t0);
+
+        if (wkrId == null) {
+            metrics.numRejectedRegistrations.increment();
+        }
+
+        return wkrId;
+    }
+
+    @Override
+    public RegistrationResult tryRegisterWorker(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        if ( !metrics.isEnabled() ) {
+            return pool.tryRegisterWorker(wkr, wkrInfo);
+        }
+
+        final long t0 = System.nanoTime();
+        final RegistrationResult result = pool.tryRegisterWorker(wkr, wkrInfo);
+        metrics.registerLatency.record(System.nanoTime() - t0);
+
+        if ( !result.isRegistered() ) {
+            metrics.numRejectedRegistrations.increment();
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> registerWorkers(List<? extends PooledWorker> wkrs, List<WorkerClientInfo> wkrClientInfos) {
+        if ( !metrics.isEnabled() ) {
+            return pool.registerWorkers(wkrs, wkrClientInfos);
+        }
+
+        final long t0 = System.nanoTime();
+        final List<String> wkrIds = pool.registerWorkers(wkrs, wkrClientInfos);
+        metrics.registerLatency.record(System.nanoTime() - t0);
+
+        if (wkrIds == null) {
+            metrics.numRejectedRegistrations.add(wkrs.size());
+        }
+
+        return wkrIds;
+    }
+
+    @Override
+    public void removeWorker(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            pool.removeWorker(workerId);
+            return;
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            pool.removeWorker(workerId);
+        } finally {
+            metrics.removeLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public BatchResult<PooledWorker> removeWorkers(Collection<String> workerIds) {
+        if ( !metrics.isEnabled() ) {
+            return pool.removeWorkers(workerIds);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.removeWorkers(workerIds);
+        } finally {
+            metrics.removeLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<String> purge() {
+        if ( !metrics.isEnabled() || observesPurges ) {
+            return pool.purge(); /* Recorded by the observer, if the pool reports its purge runs */
+        }
+
+        final long t0 = System.nanoTime();
+        final List<String> purged = pool.purge();
+        metrics.purgeLatency.record(System.nanoTime() - t0);
+        metrics.purgeBatchSizes.record((purged == null) ? 0L : purged.size());
+
+        return purged;
+    }
+
+    @Override
+    public PooledWorker getWorker(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getWorker(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getWorker(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public String getPreviousWorkerId(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getPreviousWorkerId(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getPreviousWorkerId(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public int getMessageCount(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getMessageCount(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getMessageCount(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public Date getCreatedTimestamp(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getCreatedTimestamp(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getCreatedTimestamp(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public Date getLastUseTimestamp(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getLastUseTimestamp(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getLastUseTimestamp(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public Map<String, WorkerClientInfo> getWorkersClientInfo() {
+        if ( !metrics.isEnabled() ) {
+            return pool.getWorkersClientInfo();
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getWorkersClientInfo();
+        } finally {
+            metrics.clientInfoLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    /* Timed along with getWorkersClientInfo */
+    public WorkerPage getWorkers(String cursor, int pageSize, Predicate<WorkerSnapshot> filter) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getWorkers(cursor, pageSize, filter);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getWorkers(cursor, pageSize, filter);
+        } finally {
+            metrics.clientInfoLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    /* Untimed operations (waiting for a slot is not part of the pool's latency, and a stream is
+     * consumed after it is returned) */
+    @Override
+    public Stream<WorkerSnapshot> streamWorkers() {
+        return pool.streamWorkers();
+    }
+
+    @Override
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        final String wkrId = pool.registerWorker(wkr, wkrInfo, timeout, unit);
+        if (wkrId == null && metrics.isEnabled()) {
+            metrics.numRejectedRegistrations.increment();
+        }
+
+        return wkrId;
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        return pool.registerWorkerAsync(wkr, wkrInfo);
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo, int priority) {
+        return pool.registerWorkerAsync(wkr, wkrInfo, priority);
+    }
+
+    @Override
+    public void setPreviousWorkerId(String workerId, String prevWorkerId) {
+        pool.setPreviousWorkerId(workerId, prevWorkerId);
+    }
+
+    @Override
+    public String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo) {
+        return pool.relayWorker(previousWorkerId, wkrInfo);
+    }
+
+    @Override
+    public String getRootWorkerId(String workerId) {
+        if ( !metrics.isEnabled() ) {
+            return pool.getRootWorkerId(workerId);
+        }
+
+        final long t0 = System.nanoTime();
+        try {
+            return pool.getRootWorkerId(workerId);
+        } finally {
+            metrics.lookupLatency.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public int incrementMessageCount(String workerId) {
+        return pool.incrementMessageCount(workerId);
+    }
+
+    @Override
+    public BatchResult<Integer> addMessageCounts(Map<String, Integer> deltas) {
+        return pool.addMessageCounts(deltas);
+    }
+
+    @Override
+    public float getCurrentAverageMessageRate(String workerId) {
+        return pool.getCurrentAverageMessageRate(workerId);
+    }
+
+    @Override
+    public float getEffectiveAverageMessageRate(String workerId) {
+        return pool.getEffectiveAverageMessageRate(workerId);
+    }
+
+    @Override
+    public float getMessageRate(String workerId, MessageRateWindow window) {
+        return pool.getMessageRate(workerId, window);
+    }
+
+    @Override
+    public float getEwmaMessageRate(String workerId) {
+        return pool.getEwmaMessageRate(workerId);
+    }
+
+    @Override
+    public List<String> getBusiestWorkers(int n, MessageRateWindow window) {
+        return pool.getBusiestWorkers(n, window);
+    }
+
+    @Override
+    public void clearWorkers() {
+        pool.clearWorkers();
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, Date timestamp) {
+        pool.updateWorkerTimestamp(workerId, timestamp);
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, long timestampMillis) {
+        pool.updateWorkerTimestamp(workerId, timestampMillis);
+    }
+
+    @Override
+    public void touchWorker(String workerId) {
+        pool.touchWorker(workerId);
+    }
+
+    @Override
+    public BatchResult<Date> updateWorkerTimestamps(Collection<String> workerIds, Date timestamp) {
+        return pool.updateWorkerTimestamps(workerIds, timestamp);
+    }
+
+    @Override
+    public int getCurrNumWorkers() {
+        return pool.getCurrNumWorkers();
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return pool.getNumWorkers(clientTypeMajor);
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMinor clientTypeMinor) {
+        return pool.getNumWorkers(clientTypeMinor);
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMajor clientTypeMajor) {
+        return pool.getWorkerIds(clientTypeMajor);
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMinor clientTypeMinor) {
+        return pool.getWorkerIds(clientTypeMinor);
+    }
+
+    @Override
+    public List<String> getWorkerIds(InetAddress clientIPAddress) {
+        return pool.getWorkerIds(clientIPAddress);
+    }
+
+    @Override
+    public int getNumEverCreatedWorkers() {
+        return pool.getNumEverCreatedWorkers();
+    }
+
+    @Override
+    public int getNumPurgedWorkers() {
+        return pool.getNumPurgedWorkers();
+    }
+
+    @Override
+    public int getNumAvailableSlots() {
+        return pool.getNumAvailableSlots();
+    }
+
+    @Override
+    public int getNumAvailableSlots(ClientTypeMajor clientTypeMajor) {
+        return pool.getNumAvailableSlots(clientTypeMajor);
+    }
+
+    @Override
+    public int getMaxNumWorkers() {
+        return pool.getMaxNumWorkers();
+    }
+
+    @Override
+    public void setMaxNumWorkers(int tMaxNumWorkers) {
+        pool.setMaxNumWorkers(tMaxNumWorkers);
+    }
+
+    @Override
+    public long getWorkerTimeout() {
+        return pool.getWorkerTimeout();
+    }
+
+    @Override
+    public void setWorkerTimeout(long timeoutMillis) {
+        pool.setWorkerTimeout(timeoutMillis);
+    }
+
+    @Override
+    public long getEffectiveWorkerTimeout(ClientTypeMajor clientTypeMajor) {
+        return pool.getEffectiveWorkerTimeout(clientTypeMajor);
+    }
+
+    @Override
+    public int getNumNormallyRemovedWorkers() {
+        return pool.getNumNormallyRemovedWorkers();
+    }
+
+    @Override
+    public List<WorkerHistoryEntry> getWorkerHistory() {
+        return pool.getWorkerHistory();
+    }
+
+    @Override
+    public void addWorkerEventListener(WorkerEventListener listener) {
+        pool.addWorkerEventListener(listener);
+    }
+
+    @Override
+    public void removeWorkerEventListener(WorkerEventListener listener) {
+        pool.removeWorkerEventListener(listener);
+    }
+}
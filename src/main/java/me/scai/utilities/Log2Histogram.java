@@ -0,0 +1,78 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Lock-free histogram of non-negative values, in power-of-2 buckets: bucket i holds the values
+ * v with 2^(i-1) <= v < 2^i (bucket 0 holds 0). Percentiles are therefore upper bounds within a
+ * factor of 2, which is plenty for telling microseconds from milliseconds. */
+class Log2Histogram {
+    /* Constants */
+    private static final int NUM_BUCKETS = 64;
+
+    /* Member variables */
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    void reset() {
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            buckets.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /* Take a snapshot, with the values divided by unitDivisor (e.g. 1000 for nanoseconds to microseconds).
+     * Concurrent records may be partially reflected. */
+    HistogramSnapshot snapshot(final long unitDivisor) {
+        final long[] counts = new long[NUM_BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        final long maxValue = max.get();
+
+        return new HistogramSnapshot(total,
+                                     (total == 0L) ? 0.0 : ((double) sum.sum()) / total / unitDivisor,
+                                     percentile(counts, total, 0.50, maxValue) / unitDivisor,
+                                     percentile(counts, total, 0.90, maxValue) / unitDivisor,
+                                     percentile(counts, total, 0.99, maxValue) / unitDivisor,
+                                     maxValue / unitDivisor);
+    }
+
+    /* Upper bound of the bucket holding the given percentile, capped at the max recorded value */
+    private static long percentile(final long[] counts, final long total, final double fraction, final long maxValue) {
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = (long) Math.ceil(fraction * total);
+        long seen = 0L;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                final long upperBound = (i == 0) ? 0L : (i >= 63) ? Long.MAX_VALUE : (1L << i) - 1L;
+                return Math.min(upperBound, maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+}
@@ -0,0 +1,33 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Clock that only moves when told to, so that tests can expire workers deterministically, without
+ * sleeping */
+public class ManualWorkerClock implements WorkerClock {
+    /* Member variables */
+    private final AtomicLong nowMillis;
+
+    /* Constructor */
+    public ManualWorkerClock(final long startMillis) {
+        this.nowMillis = new AtomicLong(startMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return nowMillis.get();
+    }
+
+    public void setTime(long timeMillis) {
+        nowMillis.set(timeMillis);
+    }
+
+    /* @return    The new time */
+    public long advance(long deltaMillis) {
+        if (deltaMillis < 0) {
+            throw new IllegalArgumentException("Clock cannot go backwards: " + deltaMillis);
+        }
+
+        return nowMillis.addAndGet(deltaMillis);
+    }
+}
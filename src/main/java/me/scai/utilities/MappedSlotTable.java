@@ -0,0 +1,199 @@
+package me.scai.utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/* Fixed-size table of worker slots in a memory-mapped file, shared by all the processes that map it.
+ *
+ * Every field is a 64-bit word, read and written with volatile semantics or CAS through a VarHandle
+ * view of the buffer, so the processes coordinate without any lock once the file is set up.
+ *
+ * Layout (native byte order):
+ *     Header, 64 bytes: magic, number of slots, maxNumWorkers, number of taken slots, worker timeout,
+ *                       number of workers ever created, purged, removed
+ *     Slots, 128 bytes each: state word, ID (2 words), created time, last-use time, message count,
+ *                            client types, previous worker ID (2 words), unused word, root worker ID
+ *                            of relayed workers (2 words)
+ *
+ * The state word of a slot holds the state in its low 32 bits. In its high 32 bits, a LIVE slot has a
+ * tag taken from the ID of the worker, so that a CAS on it cannot hit a later worker that has reused
+ * the slot. A RESERVED, FILLING or RELEASING slot has the ID of the process that holds it instead,
+ * written by the same CAS that takes the slot, so that the slots held by a process that dies can always
+ * be told apart and taken back. Of those, FILLING and RELEASING slots are counted in the number of taken
+ * slots, and RESERVED ones are not. */
+class MappedSlotTable implements Closeable {
+    /* Constants */
+    private static final long MAGIC = 0x57524b504f4f4c31L; /* "WRKPOOL1" */
+
+    /* Header offsets */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int NUM_SLOTS_OFFSET = 8;
+    static final int MAX_NUM_WORKERS = 16;
+    static final int NUM_TAKEN_SLOTS = 24;
+    static final int WORKER_TIMEOUT = 32;
+    static final int NUM_EVER_CREATED = 40;
+    static final int NUM_PURGED = 48;
+    static final int NUM_REMOVED = 56;
+    private static final int HEADER_SIZE = 64;
+
+    /* Slot field offsets */
+    static final int STATE = 0;
+    static final int ID_HIGH = 8;
+    static final int ID_LOW = 16;
+    static final int CREATED = 24;
+    static final int LAST_USE = 32;
+    static final int MESSAGE_COUNT = 40;
+    static final int CLIENT_TYPES = 48;
+    static final int PREVIOUS_ID_HIGH = 56;
+    static final int PREVIOUS_ID_LOW = 64;
+    static final int ROOT_ID_HIGH = 80;
+    static final int ROOT_ID_LOW = 88;
+    private static final int SLOT_SIZE = 128;
+
+    /* Slot states */
+    static final int FREE = 0;
+    static final int RESERVED = 1;     /* Taken by a registration, not yet counted against maxNumWorkers */
+    static final int LIVE = 2;
+    static final int RELEASING = 3;    /* Being cleared by a removal or purge */
+    static final int FILLING = 4;      /* Counted against maxNumWorkers, being filled in by a registration or relay */
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /* Member variables */
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int numSlots;
+
+    /* Constructor */
+    private MappedSlotTable(final FileChannel channel, final MappedByteBuffer buffer, final int numSlots) {
+        this.channel  = channel;
+        this.buffer   = buffer;
+        this.numSlots = numSlots;
+    }
+
+    /* Map the table in the given file, setting it up if the file is new
+     *
+     * @param    numSlots, maxNumWorkers, workerTimeoutMillis: settings of a new table. An existing
+     *           table keeps its own.
+     * @throws   IOException if the file cannot be mapped, or holds something else than a table
+     */
+    static MappedSlotTable open(final File file, final int numSlots, final int maxNumWorkers,
+                                final long workerTimeoutMillis) throws IOException {
+        if (numSlots <= 0 || numSlots > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE) {
+            throw new IllegalArgumentException("Invalid number of slots: " + numSlots);
+        }
+        if (maxNumWorkers < 0 || maxNumWorkers > numSlots) {
+            throw new IllegalArgumentException("Invalid maximum number of workers: " + maxNumWorkers);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = lockForSetUp(channel);
+            try {
+                final int tableNumSlots;
+                if (channel.size() >= HEADER_SIZE) {
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                    header.order(ByteOrder.nativeOrder());
+                    if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                        throw new IOException("Not a worker slot table: " + file);
+                    }
+                    tableNumSlots = (int) header.getLong(NUM_SLOTS_OFFSET);
+                } else {
+                    tableNumSlots = numSlots;
+                }
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                                      HEADER_SIZE + (long) tableNumSlots * SLOT_SIZE);
+                MappedSlotTable table = new MappedSlotTable(channel, buffer, tableNumSlots);
+
+                if (table.get(MAGIC_OFFSET) != MAGIC) {
+                    table.set(NUM_SLOTS_OFFSET, tableNumSlots);
+                    table.set(MAX_NUM_WORKERS, maxNumWorkers);
+                    table.set(WORKER_TIMEOUT, workerTimeoutMillis);
+                    table.set(MAGIC_OFFSET, MAGIC); /* Last, so that the table is only valid once set up */
+                }
+
+                return table;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    /* Lock the file against concurrent set-up, by other processes or by other tables of this one */
+    private static FileLock lockForSetUp(FileChannel channel) throws IOException {
+        while (true) {
+            try {
+                return channel.lock();
+            } catch (OverlappingFileLockException exc) {
+                Thread.yield();
+            }
+        }
+    }
+
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /* Word accessors, by absolute offset */
+    long get(int offset) {
+        return (long) LONGS.getVolatile(buffer, offset);
+    }
+
+    void set(int offset, long value) {
+        LONGS.setVolatile(buffer, offset, value);
+    }
+
+    boolean compareAndSet(int offset, long expected, long value) {
+        return LONGS.compareAndSet(buffer, offset, expected, value);
+    }
+
+    long getAndSet(int offset, long value) {
+        return (long) LONGS.getAndSet(buffer, offset, value);
+    }
+
+    long getAndAdd(int offset, long delta) {
+        return (long) LONGS.getAndAdd(buffer, offset, delta);
+    }
+
+    static long stateWord(long idLow, int state) {
+        return (idLow & 0xFFFFFFFF00000000L) | state;
+    }
+
+    static int stateOf(long stateWord) {
+        return (int) stateWord;
+    }
+
+    /* State word of a slot held by a process, in the RESERVED or RELEASING state. Process IDs fit in
+     * 32 bits on the supported platforms. */
+    static long ownedStateWord(long pid, int state) {
+        return (pid << 32) | state;
+    }
+
+    static long ownerOf(long stateWord) {
+        return stateWord >>> 32;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,1557 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static me.scai.utilities.MappedSlotTable.CLIENT_TYPES;
+import static me.scai.utilities.MappedSlotTable.CREATED;
+import static me.scai.utilities.MappedSlotTable.FILLING;
+import static me.scai.utilities.MappedSlotTable.FREE;
+import static me.scai.utilities.MappedSlotTable.ID_HIGH;
+import static me.scai.utilities.MappedSlotTable.ID_LOW;
+import static me.scai.utilities.MappedSlotTable.LAST_USE;
+import static me.scai.utilities.MappedSlotTable.LIVE;
+import static me.scai.utilities.MappedSlotTable.MAX_NUM_WORKERS;
+import static me.scai.utilities.MappedSlotTable.MESSAGE_COUNT;
+import static me.scai.utilities.MappedSlotTable.NUM_EVER_CREATED;
+import static me.scai.utilities.MappedSlotTable.NUM_PURGED;
+import static me.scai.utilities.MappedSlotTable.NUM_REMOVED;
+import static me.scai.utilities.MappedSlotTable.NUM_TAKEN_SLOTS;
+import static me.scai.utilities.MappedSlotTable.ownedStateWord;
+import static me.scai.utilities.MappedSlotTable.ownerOf;
+import static me.scai.utilities.MappedSlotTable.PREVIOUS_ID_HIGH;
+import static me.scai.utilities.MappedSlotTable.PREVIOUS_ID_LOW;
+import static me.scai.utilities.MappedSlotTable.RELEASING;
+import static me.scai.utilities.MappedSlotTable.RESERVED;
+import static me.scai.utilities.MappedSlotTable.ROOT_ID_HIGH;
+import static me.scai.utilities.MappedSlotTable.ROOT_ID_LOW;
+import static me.scai.utilities.MappedSlotTable.STATE;
+import static me.scai.utilities.MappedSlotTable.WORKER_TIMEOUT;
+import static me.scai.utilities.MappedSlotTable.slotOffset;
+import static me.scai.utilities.MappedSlotTable.stateOf;
+import static me.scai.utilities.MappedSlotTable.stateWord;
+
+/* Worker pool shared by the processes of a host, through a table of worker slots in a memory-mapped
+ * file (see MappedSlotTable).
+ *
+ * The metadata of the workers (ID, timestamps, message count, client types, previous worker) and the
+ * capacity and timeout settings are in the file, so maxNumWorkers is a host-wide limit, and any of
+ * the processes can look up, touch, count, relay, remove or purge any worker. The worker objects
+ * themselves stay in the process that registered them: getWorker() returns null for a worker of
+ * another process.
+ *
+ * The ID of a worker carries the index of its slot, so lookups go straight to the slot and need no
+ * shared index. The rest is per-process: the sliding-window message rates only count the messages
+ * counted through this process, and the history, the events and the admission queue only cover the
+ * operations done through it. Workers whose process has died without removing them are purged once
+ * they time out like any other. */
+public class MappedWorkerPool implements WorkerPool, Closeable {
+    /* Constants */
+    /* Period at which waiting registrations check for slots freed by other processes */
+    private static final long ADMISSION_POLL_PERIOD_MILLIS = 5L;
+
+    /* Member variables */
+    private final MappedSlotTable table;
+    private final long processId = ProcessHandle.current().pid();
+
+    /* State that cannot be shared through the file: the worker objects of this process, and the
+     * message rate trackers of the workers this process has counted messages for */
+    private final ConcurrentMap<WorkerId, LocalState> localStates = new ConcurrentHashMap<>();
+
+    /* Registrations waiting for a slot, which are handed the slots freed while they wait */
+    private final AdmissionQueue admissionQueue = new AdmissionQueue();
+    private final AtomicBoolean admissionPollScheduled = new AtomicBoolean();
+    private ScheduledExecutorService admissionExecutor;
+
+    /* Optional limits on the registrations of each client address */
+    private volatile ClientLimiter clientLimiter;
+
+    /* Optional background reaper */
+    private ScheduledExecutorService reaperExecutor;
+    private boolean ownsReaperExecutor;
+    private volatile ScheduledFuture<?> reaperTask;
+
+    /* Optional observer of the purge runs of this process */
+    private volatile PurgeObserver purgeObserver;
+
+    /* For keeping track of the workers removed or purged by this process */
+    private final WorkerHistory history = new WorkerHistory(WorkerHistory.DEFAULT_MAX_NUM_ENTRIES,
+                                                            WorkerHistory.UNLIMITED_AGE);
+
+    /* Lifecycle events of the operations done by this process */
+    private final WorkerEventDispatcher events = new WorkerEventDispatcher();
+    private final AtomicLong touchIdleThresholdMillis = new AtomicLong(WorkerPoolImpl.DEFAULT_TOUCH_IDLE_THRESHOLD_MILLIS);
+
+    private static class LocalState {
+        final PooledWorker worker;              /* null for the workers of other processes */
+        final WorkerClientInfo clientInfo;      /* Likewise */
+        final MessageRateTracker messages;
+
+        volatile String previousWorkerId;       /* Only for previous IDs that are not worker IDs */
+
+        LocalState(final PooledWorker worker, final WorkerClientInfo clientInfo, final long createdMillis) {
+            this(worker, clientInfo, new MessageRateTracker(createdMillis));
+        }
+
+        LocalState(final PooledWorker worker, final WorkerClientInfo clientInfo, final MessageRateTracker messages) {
+            this.worker     = worker;
+            this.clientInfo = clientInfo;
+            this.messages   = messages;
+        }
+    }
+
+    /* Constructor
+     *
+     * @param    file: file of the slot table, created if needed. All the processes of the pool map
+     *           the same file.
+     * @param    numSlots: size of the table, which bounds maxNumWorkers for good
+     * @param    tMaxNumWorkers, tWorkerTimeoutMillis: settings of a new table. The pool takes the
+     *           current settings of an existing one.
+     * @throws   IOException if the file cannot be mapped, or holds something else than a slot table
+     */
+    public MappedWorkerPool(final File file, final int numSlots, final int tMaxNumWorkers,
+                            final long tWorkerTimeoutMillis) throws IOException {
+        table = MappedSlotTable.open(file, numSlots, tMaxNumWorkers, tWorkerTimeoutMillis);
+    }
+
+    /* Slot table of the given size, with room for as many workers as there are slots */
+    public MappedWorkerPool(final File file, final int numSlots, final long tWorkerTimeoutMillis) throws IOException {
+        this(file, numSlots, numSlots, tWorkerTimeoutMillis);
+    }
+
+    @Override
+    /* @return    Worker ID (UUID) if registration is successful
+     *            null if the pool is full host-wide
+     */
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
+        return tryRegisterWorker(wkr, wkrClientInfo).getWorkerId();
+    }
+
+    @Override
+    public RegistrationResult tryRegisterWorker(final PooledWorker wkr, final WorkerClientInfo wkrClientInfo) {
+        return ClientLimiter.register(clientLimiter, wkrClientInfo, () -> registerUnlimited(wkr, wkrClientInfo));
+    }
+
+    /* Limit the registrations of each client address, by the client IP address of their client info:
+     * at most registrationRate registrations per second (in bursts of up to registrationBurst), and at
+     * most maxNumWorkersPerClient live workers. Registrations over the limits are turned down, with
+     * the reason given by tryRegisterWorker(). Registrations without a client address, and batch
+     * registrations through registerWorkers(), are not limited. The limits only apply within this
+     * process, and each registration that they check scans the slot table.
+     *
+     * The state kept per address is bounded, idle addresses being evicted first. */
+    public void setClientLimits(double registrationRate, int registrationBurst, int maxNumWorkersPerClient) {
+        clientLimiter = new ClientLimiter(registrationRate, registrationBurst, maxNumWorkersPerClient,
+                                          ClientLimiter.DEFAULT_MAX_NUM_ADDRESSES, address -> getWorkerIds(address).size());
+    }
+
+    /* Stop limiting the registrations of the client addresses */
+    public void removeClientLimits() {
+        clientLimiter = null;
+    }
+
+    private String registerUnlimited(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
+        final int slot = reserveSlotPurging();
+        if (slot < 0) {
+            return null;
+        }
+
+        if ( !acquireSlots(1) ) {
+            /* Retried even if nothing was purged, as the purge may have freed the slots of dead processes */
+            purge();
+            if ( !acquireSlots(1) ) {
+                unreserveSlot(slot);
+                return null;
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        WorkerId id = occupySlot(slot, wkr, wkrClientInfo, now);
+        commitOccupied(id, wkrClientInfo, now);
+
+        return id.toString();
+    }
+
+    @Override
+    public List<String> registerWorkers(List<? extends PooledWorker> wkrs, List<WorkerClientInfo> wkrClientInfos) {
+        if (wkrs.size() != wkrClientInfos.size()) {
+            throw new IllegalArgumentException("Mismatch between the numbers of workers (" + wkrs.size() +
+                                               ") and of client infos (" + wkrClientInfos.size() + ")");
+        }
+
+        final int n = wkrs.size();
+        final int[] slots = new int[n];
+        for (int i = 0; i < n; ++i) {
+            slots[i] = reserveSlotPurging();
+            if (slots[i] < 0) {
+                /* All or none: give back the slots reserved so far */
+                for (int j = 0; j < i; ++j) {
+                    unreserveSlot(slots[j]);
+                }
+                return null;
+            }
+        }
+
+        if ( !acquireSlots(n) ) {
+            purge();
+            if ( !acquireSlots(n) ) {
+                for (int slot : slots) {
+                    unreserveSlot(slot);
+                }
+                return null;
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+
+        List<String> newWkrIds = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            WorkerId id = occupySlot(slots[i], wkrs.get(i), wkrClientInfos.get(i), now);
+            commitOccupied(id, wkrClientInfos.get(i), now);
+
+            newWkrIds.add(id.toString());
+        }
+
+        return newWkrIds;
+    }
+
+    @Override
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrClientInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return result.getWorkerId();
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrClientInfo) ) {
+            return null;
+        }
+
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrClientInfo, 0);
+
+        return (waiter == null) ? null : admissionQueue.await(waiter, timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
+        return registerWorkerAsync(wkr, wkrClientInfo, 0);
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrClientInfo, int priority) {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrClientInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return CompletableFuture.completedFuture(result.getWorkerId());
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrClientInfo) ) {
+            return CompletableFuture.<String>completedFuture(null);
+        }
+
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrClientInfo, priority);
+
+        return (waiter == null) ? CompletableFuture.<String>completedFuture(null) : admissionQueue.cancellableFuture(waiter);
+    }
+
+    /* Queue a registration that could not be admitted right away
+     *
+     * @return    Waiter whose future completes with the worker ID on admission, or null if the
+     *            admission queue is full
+     */
+    private AdmissionQueue.Waiter enqueueRegistration(PooledWorker wkr, WorkerClientInfo wkrClientInfo, int priority) {
+        AdmissionQueue.Waiter waiter = admissionQueue.enqueue(wkr, wkrClientInfo, priority);
+        if (waiter != null) {
+            admitWaiters();
+
+            /* Slots freed by other processes are not signalled here, so poll for them */
+            scheduleAdmissionPoll();
+        }
+
+        return waiter;
+    }
+
+    /* Hand free slots to the waiting registrations, in admission order, for as long as there are both */
+    private void admitWaiters() {
+        while (admissionQueue.hasWaiters()) {
+            final int slot = reserveSlot();
+            if (slot < 0) {
+                return;
+            }
+            if ( !acquireSlots(1) ) {
+                unreserveSlot(slot);
+                return;
+            }
+
+            AdmissionQueue.Waiter waiter = admissionQueue.poll();
+            if (waiter == null) {
+                releaseSlots(1);
+                unreserveSlot(slot);
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            WorkerId id = occupySlot(slot, waiter.worker, waiter.clientInfo, now);
+            if (waiter.future.complete(id.toString())) {
+                admissionQueue.recordAdmitted(waiter);
+                commitOccupied(id, waiter.clientInfo, now);
+            } else {
+                /* Cancelled while being admitted */
+                if (freeSlot(findSlot(id), stateWord(id.getLeastSignificantBits(), LIVE)) != null) {
+                    releaseSlots(1);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleAdmissionPoll() {
+        if (admissionQueue.hasWaiters() && admissionPollScheduled.compareAndSet(false, true)) {
+            if (admissionExecutor == null) {
+                admissionExecutor = Executors.newSingleThreadScheduledExecutor(
+                        daemonThreadFactory("worker-pool-admission"));
+            }
+
+            admissionExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    admissionPollScheduled.set(false);
+                    try {
+                        admitWaiters();
+                    } catch (RuntimeException exc) {
+                        /* Keep polling for the remaining waiters */
+                    }
+
+                    scheduleAdmissionPoll();
+                }
+            }, ADMISSION_POLL_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* Set the maximum number of registrations of this process that can wait for a slot at once */
+    public void setAdmissionQueueCapacity(int capacity) {
+        admissionQueue.setCapacity(capacity);
+    }
+
+    /* Set the order in which the waiting registrations of this process are admitted (FIFO by default) */
+    public void setAdmissionOrder(AdmissionOrder order) {
+        admissionQueue.setOrder(order);
+    }
+
+    public AdmissionStats getAdmissionStats() {
+        return admissionQueue.getStats();
+    }
+
+    /* Reserve n slots against the host-wide maxNumWorkers, all or none
+     *
+     * @return    true if the slots have been reserved, false if there are not enough free slots
+     */
+    private boolean acquireSlots(int n) {
+        while (true) {
+            final long taken = table.get(NUM_TAKEN_SLOTS);
+            if (taken + n > table.get(MAX_NUM_WORKERS)) {
+                return false;
+            }
+
+            if (table.compareAndSet(NUM_TAKEN_SLOTS, taken, taken + n)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseSlots(int n) {
+        table.getAndAdd(NUM_TAKEN_SLOTS, -n);
+    }
+
+    /* Release the slot of a removed worker, handing it to a waiting registration if there is one */
+    private void releaseSlot() {
+        releaseSlots(1);
+
+        /* Release before checking for waiters, so that a registration enqueuing at the same time
+         * either sees the free slot or is seen here */
+        if (admissionQueue.hasWaiters()) {
+            admitWaiters();
+        }
+    }
+
+    /* Reserve a free slot of the table for this process. The slot is not counted against
+     * maxNumWorkers yet: the caller acquires that next, so that a process that dies in between
+     * leaves a reserved slot, which purge() frees, and never a count without a slot.
+     *
+     * @return    Index of the slot, or -1 if no slot of the table is free
+     */
+    private int reserveSlot() {
+        final int numSlots = table.getNumSlots();
+        int slot = ThreadLocalRandom.current().nextInt(numSlots);
+
+        for (int i = 0; i < numSlots; ++i) {
+            final int offset = slotOffset(slot);
+
+            /* The owner goes in with the reservation, so that no crash can leave a reserved slot
+             * without one */
+            if (stateOf(table.get(offset + STATE)) == FREE &&
+                table.compareAndSet(offset + STATE, FREE, ownedStateWord(processId, RESERVED))) {
+                return slot;
+            }
+
+            slot = (slot + 1 == numSlots) ? 0 : slot + 1;
+        }
+
+        return -1;
+    }
+
+    /* Reserve a free slot, purging the table if there is none, as it may be taken by expired workers
+     * or by dead processes */
+    private int reserveSlotPurging() {
+        final int slot = reserveSlot();
+
+        if (slot < 0) {
+            purge();
+            return reserveSlot();
+        }
+
+        return slot;
+    }
+
+    /* Give back a reserved slot that has not been counted against maxNumWorkers */
+    private void unreserveSlot(int slot) {
+        table.set(slotOffset(slot) + STATE, FREE);
+    }
+
+    /* Put a new worker in a reserved slot, once the slot has been acquired against maxNumWorkers
+     *
+     * @return    ID of the worker
+     */
+    private WorkerId occupySlot(int slot, PooledWorker wkr, WorkerClientInfo wkrClientInfo, long now) {
+        final int offset = slotOffset(slot);
+
+        /* Counted from here on: purge() releases the count of the slot if this process dies. A death
+         * between the acquisition and this leaves a count behind, which errs on the side of the limit. */
+        table.set(offset + STATE, ownedStateWord(processId, FILLING));
+
+        WorkerId id = newWorkerId(slot);
+        final long lsb = id.getLeastSignificantBits();
+
+        table.set(offset + ID_HIGH, id.getMostSignificantBits());
+        table.set(offset + ID_LOW, lsb);
+        table.set(offset + CREATED, now);
+        table.set(offset + LAST_USE, now);
+        table.set(offset + MESSAGE_COUNT, 0L);
+        table.set(offset + CLIENT_TYPES, encodeClientTypes(wkrClientInfo));
+        table.set(offset + PREVIOUS_ID_HIGH, 0L);
+        table.set(offset + PREVIOUS_ID_LOW, 0L);
+        table.set(offset + ROOT_ID_HIGH, 0L);
+        table.set(offset + ROOT_ID_LOW, 0L);
+
+        /* Last, so that the other processes only see the worker once it is filled in */
+        table.set(offset + STATE, stateWord(lsb, LIVE));
+
+        /* After, as purge() drops the local state of the workers it does not find live */
+        localStates.put(id, new LocalState(wkr, wkrClientInfo, now));
+
+        return id;
+    }
+
+    private void commitOccupied(WorkerId id, WorkerClientInfo wkrClientInfo, long now) {
+        table.getAndAdd(NUM_EVER_CREATED, 1L);
+
+        if (events.hasListeners()) {
+            events.publish(new WorkerEvent(WorkerEventType.Registered, id.toString(), now, wkrClientInfo, null));
+        }
+    }
+
+    /* Random version-4 UUID whose least significant 32 bits are the slot index. The 32 bits above
+     * them (with the variant bits set, so never 0) tag the state word of the slot. */
+    private static WorkerId newWorkerId(int slot) {
+        SecureRandom random = RandomWorkerIdGenerator.secureRandom(); /* 90 bits that cannot be guessed */
+
+        final long msb = (random.nextLong() & ~0xF000L) | 0x4000L;                       /* Version 4 */
+        final long tag = (random.nextInt() & 0x3FFFFFFFL) | 0x80000000L;                 /* IETF variant */
+
+        return new WorkerId(msb, (tag << 32) | slot);
+    }
+
+    /* Find the slot of a live worker
+     *
+     * @return    Offset of the slot, or -1 if the worker is not in the pool
+     */
+    private int findSlot(WorkerId id) {
+        final long lsb = id.getLeastSignificantBits();
+        final long slot = lsb & 0xFFFFFFFFL;
+        if (slot >= table.getNumSlots()) {
+            return -1;
+        }
+
+        final int offset = slotOffset((int) slot);
+        if (table.get(offset + STATE) != stateWord(lsb, LIVE) ||
+            table.get(offset + ID_LOW) != lsb || table.get(offset + ID_HIGH) != id.getMostSignificantBits()) {
+            return -1;
+        }
+
+        return offset;
+    }
+
+    /* Whether a slot still holds the given worker. Updates to the fields of a worker check this after
+     * writing, since the slot may have changed hands between findSlot() and the write. */
+    private boolean holds(int offset, WorkerId id) {
+        return table.get(offset + STATE) == stateWord(id.getLeastSignificantBits(), LIVE);
+    }
+
+    /* Add to the message count of the worker in a slot, undoing the addition if the worker turns out
+     * to have left the slot in the meantime
+     *
+     * @return    The new message count, or Long.MIN_VALUE if the worker is no longer in the slot
+     */
+    private long addToMessageCount(int offset, WorkerId id, long delta) {
+        final long count = table.getAndAdd(offset + MESSAGE_COUNT, delta) + delta;
+        if (!holds(offset, id)) {
+            table.getAndAdd(offset + MESSAGE_COUNT, -delta);
+            return Long.MIN_VALUE;
+        }
+
+        return count;
+    }
+
+    private int findSlot(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+
+        return (id == null) ? -1 : findSlot(id);
+    }
+
+    /* @throws    IllegalArgumentException if worker ID is invalid */
+    private int getSlot(String workerId) {
+        final int offset = findSlot(workerId);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return offset;
+    }
+
+    /* Take a worker out of its slot, if the state word of the slot is still the given one (which
+     * also makes sure that the slot has not changed hands). The slot still counts against
+     * maxNumWorkers until the caller releases it.
+     *
+     * @param     offset: offset of the slot, or -1
+     * @return    What is needed of the worker for the book-keeping, or null if this call did not get
+     *            to free the slot
+     */
+    private WorkerRecord freeSlot(int offset, long expectedStateWord) {
+        if (offset < 0 ||
+            !table.compareAndSet(offset + STATE, expectedStateWord, ownedStateWord(processId, RELEASING))) {
+            return null;
+        }
+
+        return clearSlot(offset);
+    }
+
+    /* Clear a slot that this thread has taken to the RELEASING state, and make it FREE */
+    private WorkerRecord clearSlot(int offset) {
+        WorkerId id = new WorkerId(table.get(offset + ID_HIGH), table.get(offset + ID_LOW));
+        LocalState local = localStates.remove(id);
+        WorkerRecord rec = new WorkerRecord(id, null, clientInfoOf(offset, local), table.get(offset + CREATED));
+        rec.previousWorkerId = previousWorkerIdOf(offset, local);
+
+        table.set(offset + ID_HIGH, 0L);
+        table.set(offset + ID_LOW, 0L);
+        table.set(offset + STATE, FREE);
+
+        return rec;
+    }
+
+    private static long encodeClientTypes(WorkerClientInfo wkrClientInfo) {
+        if (wkrClientInfo == null) {
+            return 0L;
+        }
+
+        final ClientTypeMajor major = wkrClientInfo.getClientTypeMajor();
+        final ClientTypeMinor minor = wkrClientInfo.getClientTypeMinor();
+
+        /* Ordinal + 1, so that 0 stands for null */
+        return ((major == null) ? 0L : (long) (major.ordinal() + 1) << 32) |
+               ((minor == null) ? 0L : minor.ordinal() + 1);
+    }
+
+    /* Client info of a worker: the original one for the workers of this process, and one with the
+     * client types only for the others */
+    private WorkerClientInfo clientInfoOf(int offset, LocalState local) {
+        if (local != null && local.clientInfo != null) {
+            return local.clientInfo;
+        }
+
+        final long types = table.get(offset + CLIENT_TYPES);
+        final int major = (int) (types >>> 32);
+        final int minor = (int) types;
+
+        return new WorkerClientInfo(null, null,
+                                    (major == 0) ? null : ClientTypeMajor.values()[major - 1],
+                                    (minor == 0) ? null : ClientTypeMinor.values()[minor - 1]);
+    }
+
+    private String previousWorkerIdOf(int offset, LocalState local) {
+        final long msb = table.get(offset + PREVIOUS_ID_HIGH);
+        final long lsb = table.get(offset + PREVIOUS_ID_LOW);
+        if (msb != 0L || lsb != 0L) {
+            return new WorkerId(msb, lsb).toString();
+        }
+
+        return (local == null) ? null : local.previousWorkerId;
+    }
+
+    /* Local state of a live worker, created on first use for the workers of other processes
+     *
+     * @return    The local state, or null if the worker has left its slot
+     */
+    private LocalState localStateOf(WorkerId id, int offset) {
+        LocalState local = localStates.get(id);
+        if (local == null) {
+            local = localStates.computeIfAbsent(id, k -> new LocalState(null, null, table.get(offset + CREATED)));
+
+            /* The worker may have been freed, and its local state dropped, before this one was created */
+            if (!holds(offset, id)) {
+                localStates.remove(id, local);
+                return null;
+            }
+        }
+
+        return local;
+    }
+
+    @Override
+    public void setPreviousWorkerId(String workerId, String prevWorkerId) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = (id == null) ? -1 : findSlot(id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        /* Previous worker IDs are shared through the table. Anything else is only kept locally. */
+        WorkerId prevId = WorkerId.parse(prevWorkerId);
+        LocalState local = localStates.get(id);
+        table.set(offset + ROOT_ID_HIGH, 0L);
+        table.set(offset + ROOT_ID_LOW, 0L);
+        if (prevId != null) {
+            table.set(offset + PREVIOUS_ID_HIGH, prevId.getMostSignificantBits());
+            table.set(offset + PREVIOUS_ID_LOW, prevId.getLeastSignificantBits());
+        } else {
+            table.set(offset + PREVIOUS_ID_HIGH, 0L);
+            table.set(offset + PREVIOUS_ID_LOW, 0L);
+
+            if (prevWorkerId != null) {
+                local = localStateOf(id, offset);
+                if (local == null) {
+                    throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+                }
+            }
+        }
+        if (local != null) {
+            local.previousWorkerId = (prevId == null) ? prevWorkerId : null;
+        }
+
+        if (events.hasListeners()) {
+            events.publish(new WorkerEvent(WorkerEventType.Relayed, workerId, System.currentTimeMillis(),
+                                           clientInfoOf(offset, local), prevWorkerId));
+        }
+    }
+
+    @Override
+    public String getPreviousWorkerId(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = (id == null) ? -1 : findSlot(id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return previousWorkerIdOf(offset, localStates.get(id));
+    }
+
+    /* The worker keeps its slot, which is given the new ID in place */
+    @Override
+    public String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo) {
+        WorkerId prevId = WorkerId.parse(previousWorkerId);
+        final int offset = (prevId == null) ? -1 : findSlot(prevId);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + previousWorkerId + "\"");
+        }
+
+        LocalState prevLocal = localStates.get(prevId);
+        if (prevLocal == null || prevLocal.worker == null) {
+            throw new IllegalArgumentException("Worker is not in this process: \"" + previousWorkerId + "\"");
+        }
+
+        final String rootWorkerId = rootOf(offset, prevId);
+        final long prevState = stateWord(prevId.getLeastSignificantBits(), LIVE);
+        if ( !table.compareAndSet(offset + STATE, prevState, ownedStateWord(processId, FILLING)) ) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + previousWorkerId + "\"");
+        }
+        final WorkerRecord prev = new WorkerRecord(prevId, null, clientInfoOf(offset, prevLocal),
+                                                   table.get(offset + CREATED));
+        localStates.remove(prevId);
+
+        final long now = System.currentTimeMillis();
+        WorkerId id = newWorkerId((int) (prevId.getLeastSignificantBits() & 0xFFFFFFFFL));
+        final long lsb = id.getLeastSignificantBits();
+        WorkerId rootId = WorkerId.parse(rootWorkerId);
+
+        table.set(offset + ID_HIGH, id.getMostSignificantBits());
+        table.set(offset + ID_LOW, lsb);
+        table.set(offset + LAST_USE, now);
+        table.set(offset + CLIENT_TYPES, encodeClientTypes(wkrInfo));
+        table.set(offset + PREVIOUS_ID_HIGH, prevId.getMostSignificantBits());
+        table.set(offset + PREVIOUS_ID_LOW, prevId.getLeastSignificantBits());
+        table.set(offset + ROOT_ID_HIGH, (rootId == null) ? 0L : rootId.getMostSignificantBits());
+        table.set(offset + ROOT_ID_LOW, (rootId == null) ? 0L : rootId.getLeastSignificantBits());
+        table.set(offset + STATE, stateWord(lsb, LIVE));
+
+        localStates.put(id, new LocalState(prevLocal.worker, wkrInfo, prevLocal.messages));
+
+        history.add(prev, WorkerEndReason.Relayed, now);
+        if (events.hasListeners()) {
+            events.publish(new WorkerEvent(WorkerEventType.Relayed, id.toString(), now, wkrInfo, previousWorkerId));
+        }
+
+        return id.toString();
+    }
+
+    /* Roots are only kept in the slots by relayWorker(), which owns the slot while writing them */
+    @Override
+    public String getRootWorkerId(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = (id == null) ? -1 : findSlot(id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return rootOf(offset, id);
+    }
+
+    private String rootOf(int offset, WorkerId id) {
+        String root = rootWorkerIdOf(offset);
+        if (root != null) {
+            return root;
+        }
+
+        root = id.toString();
+        String prevWorkerId = previousWorkerIdOf(offset, localStates.get(id));
+        for (int i = 0; prevWorkerId != null && i < MAX_RELAY_CHAIN_LENGTH; ++i) {
+            root = prevWorkerId;
+
+            WorkerId prevId = WorkerId.parse(prevWorkerId);
+            final int prevOffset = (prevId == null) ? -1 : findSlot(prevId);
+            if (prevOffset < 0) {
+                break;
+            }
+
+            final String prevRoot = rootWorkerIdOf(prevOffset);
+            if (prevRoot != null) {
+                root = prevRoot;
+                break;
+            }
+            prevWorkerId = previousWorkerIdOf(prevOffset, localStates.get(prevId));
+        }
+
+        return root;
+    }
+
+    private String rootWorkerIdOf(int offset) {
+        final long msb = table.get(offset + ROOT_ID_HIGH);
+        final long lsb = table.get(offset + ROOT_ID_LOW);
+
+        return (msb == 0L && lsb == 0L) ? null : new WorkerId(msb, lsb).toString();
+    }
+
+    @Override
+    public void removeWorker(String wkrId) {
+        WorkerId id = WorkerId.parse(wkrId);
+        WorkerRecord rec = (id == null) ? null : freeSlot(findSlot(id), stateWord(id.getLeastSignificantBits(), LIVE));
+        if (rec != null) {
+            releaseSlot();
+            table.getAndAdd(NUM_REMOVED, 1L);
+
+            final long now = System.currentTimeMillis();
+            history.add(rec, WorkerEndReason.Removed, now);
+            publishEvent(WorkerEventType.Removed, rec, now);
+        }
+    }
+
+    @Override
+    public BatchResult<PooledWorker> removeWorkers(Collection<String> wkrIds) {
+        BatchResult<PooledWorker> result = new BatchResult<>();
+        List<WorkerRecord> removed = new ArrayList<>(wkrIds.size());
+
+        for (String wkrId : wkrIds) {
+            WorkerId id = WorkerId.parse(wkrId);
+            LocalState local = (id == null) ? null : localStates.get(id);
+
+            WorkerRecord rec = (id == null) ? null : freeSlot(findSlot(id), stateWord(id.getLeastSignificantBits(), LIVE));
+            if (rec != null) {
+                releaseSlot();
+
+                removed.add(rec);
+                result.addSucceeded(wkrId, (local == null) ? null : local.worker);
+            } else {
+                result.addInvalid(wkrId);
+            }
+        }
+
+        table.getAndAdd(NUM_REMOVED, removed.size());
+
+        final long now = System.currentTimeMillis();
+        history.addAll(removed, WorkerEndReason.Removed, now);
+        publishEvents(WorkerEventType.Removed, removed, now);
+
+        return result;
+    }
+
+    @Override
+    /* Clears the workers of all the processes */
+    public void clearWorkers() {
+        List<WorkerRecord> removed = new ArrayList<>();
+
+        /* In one pass, so that the workers admitted into the freed slots behind it are not cleared too */
+        for (int slot = 0; slot < table.getNumSlots(); ++slot) {
+            final int offset = slotOffset(slot);
+            final long state = table.get(offset + STATE);
+
+            WorkerRecord rec = (stateOf(state) == LIVE) ? freeSlot(offset, state) : null;
+            if (rec != null) {
+                releaseSlot();
+                removed.add(rec);
+            }
+        }
+
+        /* Clearing is not counted as removal, nor written to history */
+        publishEvents(WorkerEventType.Removed, removed, System.currentTimeMillis());
+    }
+
+    @Override
+    /* @return    The worker, or null if it belongs to another process
+     * @throws    IllegalArgumentException if worker ID is invalid
+     */
+    public PooledWorker getWorker(String workerId) {
+        getSlot(workerId);
+        LocalState local = localStates.get(WorkerId.parse(workerId));
+
+        return (local == null) ? null : local.worker;
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, Date timestamp) {
+        updateWorkerTimestamp(workerId, timestamp.getTime());
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, long timestampMillis) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = (id == null) ? -1 : findSlot(id);
+        if (offset >= 0) {
+            touch(offset, id, workerId, timestampMillis);
+        }
+    }
+
+    @Override
+    /* By the system clock, which all the processes sharing the table go by */
+    public void touchWorker(String workerId) {
+        updateWorkerTimestamp(workerId, System.currentTimeMillis());
+    }
+
+    @Override
+    public BatchResult<Date> updateWorkerTimestamps(Collection<String> workerIds, Date timestamp) {
+        BatchResult<Date> result = new BatchResult<>();
+        final long ts = timestamp.getTime();
+
+        for (String workerId : workerIds) {
+            WorkerId id = WorkerId.parse(workerId);
+            final int offset = (id == null) ? -1 : findSlot(id);
+            if (offset >= 0 && touch(offset, id, workerId, ts)) {
+                result.addSucceeded(workerId, timestamp);
+            } else {
+                result.addInvalid(workerId);
+            }
+        }
+
+        return result;
+    }
+
+    /* Set the last-use time of a worker, publishing a TouchedAfterIdle event if it had been idle. If
+     * the worker has left the slot in the meantime, the last-use time that was overwritten (which
+     * then belongs to the next occupant of the slot) is put back.
+     *
+     * @return    Whether the worker was still in the slot
+     */
+    private boolean touch(int offset, WorkerId id, String workerId, long ts) {
+        final long prevLastUse = table.getAndSet(offset + LAST_USE, ts);
+        if (!holds(offset, id)) {
+            table.compareAndSet(offset + LAST_USE, ts, prevLastUse);
+            return false;
+        }
+
+        if (ts - prevLastUse >= touchIdleThresholdMillis.get() && events.hasListeners()) {
+            LocalState local = localStates.get(id);
+            events.publish(new WorkerEvent(WorkerEventType.TouchedAfterIdle, workerId, ts,
+                                           clientInfoOf(offset, local), previousWorkerIdOf(offset, local)));
+        }
+
+        return true;
+    }
+
+    @Override
+    public int getNumAvailableSlots() {
+        return (int) Math.max(0L, table.get(MAX_NUM_WORKERS) - table.get(NUM_TAKEN_SLOTS));
+    }
+
+    /* The shared table is not partitioned by client type */
+    @Override
+    public int getNumAvailableSlots(ClientTypeMajor clientTypeMajor) {
+        return getNumAvailableSlots();
+    }
+
+    @Override
+    /* Purges the expired workers of all the processes, in one pass over the table. Also frees the
+     * slots left half-registered or half-cleared by processes that have died. */
+    public List<String> purge() {
+        final PurgeObserver observer = purgeObserver;
+        final long t0 = (observer == null) ? 0L : System.nanoTime();
+
+        List<String> purgeList = new ArrayList<>();
+        List<WorkerRecord> purged = new ArrayList<>();
+
+        /* Expired: now - lastUse > timeout */
+        final long now = System.currentTimeMillis();
+        final long cutoff = now - table.get(WORKER_TIMEOUT);
+
+        for (int slot = 0; slot < table.getNumSlots(); ++slot) {
+            final int offset = slotOffset(slot);
+            final long state = table.get(offset + STATE);
+
+            if (stateOf(state) == LIVE && table.get(offset + LAST_USE) < cutoff) {
+                if ( !table.compareAndSet(offset + STATE, state, ownedStateWord(processId, RELEASING)) ) {
+                    continue;
+                }
+                if (table.get(offset + LAST_USE) >= cutoff) {
+                    table.set(offset + STATE, state); /* Touched in the meantime */
+                    continue;
+                }
+
+                WorkerRecord rec = clearSlot(offset);
+                releaseSlot();
+
+                purged.add(rec);
+                purgeList.add(rec.id.toString());
+            } else if (stateOf(state) == RESERVED && !isProcessAlive(ownerOf(state))) {
+                freeSlot(offset, state); /* Not counted yet */
+            } else if ((stateOf(state) == FILLING || stateOf(state) == RELEASING) && !isProcessAlive(ownerOf(state))) {
+                if (freeSlot(offset, state) != null) {
+                    releaseSlot(); /* Exactly once, by the purge that freed it */
+                }
+            }
+        }
+
+        table.getAndAdd(NUM_PURGED, purged.size());
+        history.addAll(purged, WorkerEndReason.Purged, now);
+        publishEvents(WorkerEventType.Purged, purged, now);
+
+        /* Drop the local state of the workers that other processes have removed or purged */
+        for (WorkerId id : localStates.keySet()) {
+            if (findSlot(id) < 0) {
+                localStates.remove(id);
+            }
+        }
+
+        if (observer != null) {
+            observer.purged(System.nanoTime() - t0, purged.size());
+        }
+
+        if (purgeList.isEmpty()) {
+            return null;
+        }
+        else {
+            return purgeList;
+        }
+    }
+
+    /* Report every purge run of this process to an observer (replacing any previous one), or to none
+     * if null */
+    void setPurgeObserver(PurgeObserver purgeObserver) {
+        this.purgeObserver = purgeObserver;
+    }
+
+    private static boolean isProcessAlive(long pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /* Start purging expired workers periodically on a daemon thread owned by the pool. One reaper on
+     * the host is enough, as any process can purge the workers of all of them.
+     *
+     * @param    periodMillis: period of the purge runs
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public void startReaper(long periodMillis) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                daemonThreadFactory("worker-pool-reaper"));
+
+        try {
+            startReaper(executor, periodMillis, true);
+        } catch (RuntimeException exc) {
+            executor.shutdownNow();
+            throw exc;
+        }
+    }
+
+    /* Start purging expired workers periodically on the given executor. The executor is not shut down
+     * by shutdown().
+     *
+     * @param    executor: executor to schedule the purge runs on
+     * @param    periodMillis: period of the purge runs
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public void startReaper(ScheduledExecutorService executor, long periodMillis) {
+        startReaper(executor, periodMillis, false);
+    }
+
+    private synchronized void startReaper(ScheduledExecutorService executor, long periodMillis, boolean ownsExecutor) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Invalid reaper period: " + periodMillis);
+        }
+        if (reaperTask != null) {
+            throw new IllegalStateException("Reaper is already running");
+        }
+
+        reaperExecutor = executor;
+        ownsReaperExecutor = ownsExecutor;
+        reaperTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purge();
+                } catch (RuntimeException exc) {
+                    /* Do not let one failed run cancel all the subsequent ones */
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isReaperRunning() {
+        return reaperTask != null;
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        };
+    }
+
+    /* Stop the background reaper, event delivery and the polling for slots freed by other processes,
+     * and release the threads owned by the pool. The workers stay in the table. */
+    public synchronized void shutdown() {
+        events.shutdown();
+
+        if (admissionExecutor != null) {
+            admissionExecutor.shutdownNow();
+            admissionExecutor = null;
+        }
+
+        if (reaperTask == null) {
+            return;
+        }
+
+        reaperTask.cancel(false);
+        if (ownsReaperExecutor) {
+            reaperExecutor.shutdownNow();
+        }
+
+        reaperTask = null;
+        reaperExecutor = null;
+    }
+
+    /* Shut down, and unmap the table. The workers of this process stay in the table until they are
+     * removed or purged by another process. */
+    @Override
+    public void close() throws IOException {
+        shutdown();
+        table.close();
+    }
+
+    private void publishEvent(WorkerEventType type, WorkerRecord rec, long now) {
+        if (events.hasListeners()) {
+            events.publish(new WorkerEvent(type, rec.id.toString(), now, rec.clientInfo, rec.previousWorkerId));
+        }
+    }
+
+    private void publishEvents(WorkerEventType type, List<WorkerRecord> recs, long now) {
+        if (events.hasListeners()) {
+            for (WorkerRecord rec : recs) {
+                events.publish(new WorkerEvent(type, rec.id.toString(), now, rec.clientInfo, rec.previousWorkerId));
+            }
+        }
+    }
+
+    @Override
+    public void addWorkerEventListener(WorkerEventListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeWorkerEventListener(WorkerEventListener listener) {
+        events.removeListener(listener);
+    }
+
+    /* Get the event dispatcher, to configure event delivery and read its counters */
+    public WorkerEventDispatcher getEventDispatcher() {
+        return events;
+    }
+
+    /* Set how long a worker must have been idle for a touch to be published as a TouchedAfterIdle event */
+    public void setTouchIdleThreshold(long thresholdMillis) {
+        touchIdleThresholdMillis.set(thresholdMillis);
+    }
+
+    /* Whether a worker was registered by this process */
+    public boolean isLocalWorker(String workerId) {
+        getSlot(workerId);
+        LocalState local = localStates.get(WorkerId.parse(workerId));
+
+        return local != null && local.worker != null;
+    }
+
+    @Override
+    /* Host-wide */
+    public int getCurrNumWorkers() {
+        return (int) table.get(NUM_TAKEN_SLOTS);
+    }
+
+    @Override
+    public int getMaxNumWorkers() {
+        return (int) table.get(MAX_NUM_WORKERS);
+    }
+
+    @Override
+    /* Host-wide, and bounded by the number of slots of the table */
+    public void setMaxNumWorkers(int tMaxNumWorkers) {
+        if (tMaxNumWorkers < 0 || tMaxNumWorkers > table.getNumSlots()) {
+            throw new IllegalArgumentException("Invalid maximum number of workers: " + tMaxNumWorkers);
+        }
+
+        table.set(MAX_NUM_WORKERS, tMaxNumWorkers);
+
+        admitWaiters();
+    }
+
+    public int getNumSlots() {
+        return table.getNumSlots();
+    }
+
+    @Override
+    public long getWorkerTimeout() {
+        return table.get(WORKER_TIMEOUT);
+    }
+
+    @Override
+    /* Host-wide */
+    public void setWorkerTimeout(long timeoutMillis) {
+        table.set(WORKER_TIMEOUT, timeoutMillis);
+    }
+
+    @Override
+    /* The same for all client types, as the timeouts are not adapted */
+    public long getEffectiveWorkerTimeout(ClientTypeMajor clientTypeMajor) {
+        return getWorkerTimeout();
+    }
+
+    @Override
+    /* @return    Snapshot of the client info of the live workers of all the processes, keyed by worker
+     *            ID. Only the client types are known of the workers of other processes.
+     */
+    public Map<String, WorkerClientInfo> getWorkersClientInfo() {
+        if ( !isReaperRunning() ) {
+            purge();
+        }
+
+        Map<String, WorkerClientInfo> workersClientInfo = new HashMap<>();
+        for (int slot = 0; slot < table.getNumSlots(); ++slot) {
+            final int offset = slotOffset(slot);
+            final long state = table.get(offset + STATE);
+            if (stateOf(state) != LIVE) {
+                continue;
+            }
+
+            WorkerId id = new WorkerId(table.get(offset + ID_HIGH), table.get(offset + ID_LOW));
+            WorkerClientInfo clientInfo = clientInfoOf(offset, localStates.get(id));
+
+            /* Skip the slots that changed hands while being read */
+            if (table.get(offset + STATE) == state && stateWord(id.getLeastSignificantBits(), LIVE) == state) {
+                workersClientInfo.put(id.toString(), clientInfo);
+            }
+        }
+
+        return workersClientInfo;
+    }
+
+    /* The slot table has no room for indexes that all the processes would keep up to date, so the
+     * client type and address lookups scan it: O(number of slots) */
+    @Override
+    public int getNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return getWorkerIds(clientTypeMajor).size();
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMinor clientTypeMinor) {
+        return getWorkerIds(clientTypeMinor).size();
+    }
+
+    @Override
+    public List<String> getWorkerIds(final ClientTypeMajor clientTypeMajor) {
+        return findWorkers(new Predicate<WorkerClientInfo>() {
+            @Override
+            public boolean test(WorkerClientInfo clientInfo) {
+                return clientInfo.getClientTypeMajor() == clientTypeMajor;
+            }
+        });
+    }
+
+    @Override
+    public List<String> getWorkerIds(final ClientTypeMinor clientTypeMinor) {
+        return findWorkers(new Predicate<WorkerClientInfo>() {
+            @Override
+            public boolean test(WorkerClientInfo clientInfo) {
+                return clientInfo.getClientTypeMinor() == clientTypeMinor;
+            }
+        });
+    }
+
+    @Override
+    /* Only finds the workers of this process, as the addresses of the others are not shared */
+    public List<String> getWorkerIds(final InetAddress clientIPAddress) {
+        return findWorkers(new Predicate<WorkerClientInfo>() {
+            @Override
+            public boolean test(WorkerClientInfo clientInfo) {
+                return clientIPAddress.equals(clientInfo.getClientIPAddress());
+            }
+        });
+    }
+
+    /* @return    IDs of the live workers whose client info passes the filter */
+    private List<String> findWorkers(Predicate<WorkerClientInfo> filter) {
+        List<String> wkrIds = new ArrayList<>();
+        for (int slot = 0; slot < table.getNumSlots(); ++slot) {
+            final int offset = slotOffset(slot);
+            final long state = table.get(offset + STATE);
+            if (stateOf(state) != LIVE) {
+                continue;
+            }
+
+            WorkerId id = new WorkerId(table.get(offset + ID_HIGH), table.get(offset + ID_LOW));
+            WorkerClientInfo clientInfo = clientInfoOf(offset, localStates.get(id));
+
+            /* Skip the slots that changed hands while being read */
+            if (filter.test(clientInfo) &&
+                table.get(offset + STATE) == state && stateWord(id.getLeastSignificantBits(), LIVE) == state) {
+                wkrIds.add(id.toString());
+            }
+        }
+
+        return wkrIds;
+    }
+
+    @Override
+    /* Slots are not kept in worker ID order, so each page scans the whole table: O(number of slots) */
+    public WorkerPage getWorkers(String cursor, int pageSize, Predicate<WorkerSnapshot> filter) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+
+        final WorkerId after = WorkerId.parse(cursor);
+        if (cursor != null && after == null) {
+            throw new IllegalArgumentException("Invalid cursor: \"" + cursor + "\"");
+        }
+
+        /* The pageSize + 1 lowest IDs after the cursor, highest at the head */
+        PriorityQueue<WorkerSnapshot> lowest = new PriorityQueue<>(pageSize + 1, new Comparator<WorkerSnapshot>() {
+            @Override
+            public int compare(WorkerSnapshot a, WorkerSnapshot b) {
+                return b.getWorkerId().compareTo(a.getWorkerId()); /* String form sorts in ID order */
+            }
+        });
+
+        final String afterId = (after == null) ? null : after.toString(); /* Canonical form of the cursor */
+        final long cutoff = System.currentTimeMillis() - table.get(WORKER_TIMEOUT);
+        for (int slot = 0; slot < table.getNumSlots(); ++slot) {
+            WorkerSnapshot snapshot = snapshotOf(slot, cutoff);
+            if (snapshot == null || (afterId != null && snapshot.getWorkerId().compareTo(afterId) <= 0) ||
+                (filter != null && !filter.test(snapshot))) {
+                continue;
+            }
+
+            lowest.add(snapshot);
+            if (lowest.size() > pageSize + 1) {
+                lowest.poll();
+            }
+        }
+
+        final boolean hasMore = lowest.size() > pageSize;
+        if (hasMore) {
+            lowest.poll();
+        }
+
+        List<WorkerSnapshot> page = new ArrayList<>(lowest);
+        page.sort(Collections.reverseOrder(lowest.comparator()));
+
+        final String nextCursor = hasMore ? page.get(page.size() - 1).getWorkerId() : null;
+
+        return new WorkerPage(Collections.unmodifiableList(page), nextCursor);
+    }
+
+    @Override
+    /* In slot order */
+    public Stream<WorkerSnapshot> streamWorkers() {
+        final long cutoff = System.currentTimeMillis() - table.get(WORKER_TIMEOUT);
+
+        return IntStream.range(0, table.getNumSlots())
+                        .mapToObj(slot -> snapshotOf(slot, cutoff))
+                        .filter(Objects::nonNull);
+    }
+
+    /* @return    Snapshot of the worker in the slot, or null if the slot is not live, has timed out,
+     *            or changed hands while being read */
+    private WorkerSnapshot snapshotOf(int slot, long cutoff) {
+        final int offset = slotOffset(slot);
+        final long state = table.get(offset + STATE);
+        if (stateOf(state) != LIVE) {
+            return null;
+        }
+
+        WorkerId id = new WorkerId(table.get(offset + ID_HIGH), table.get(offset + ID_LOW));
+        LocalState local = localStates.get(id);
+        final long lastUse = table.get(offset + LAST_USE);
+        WorkerSnapshot snapshot = new WorkerSnapshot(id.toString(), clientInfoOf(offset, local),
+                                                     table.get(offset + CREATED), lastUse,
+                                                     (int) table.get(offset + MESSAGE_COUNT),
+                                                     previousWorkerIdOf(offset, local));
+
+        if (table.get(offset + STATE) != state || stateWord(id.getLeastSignificantBits(), LIVE) != state ||
+            lastUse < cutoff) {
+            return null;
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public Date getCreatedTimestamp(String workerId) {
+        final int offset = findSlot(workerId);
+
+        return (offset < 0) ? null : new Date(table.get(offset + CREATED));
+    }
+
+    @Override
+    public Date getLastUseTimestamp(String workerId) {
+        final int offset = findSlot(workerId);
+
+        return (offset < 0) ? null : new Date(table.get(offset + LAST_USE));
+    }
+
+    @Override
+    /* Host-wide */
+    public int getNumEverCreatedWorkers() {
+        return (int) table.get(NUM_EVER_CREATED);
+    }
+
+    @Override
+    /* Host-wide */
+    public int getNumPurgedWorkers() {
+        return (int) table.get(NUM_PURGED);
+    }
+
+    @Override
+    /* Host-wide */
+    public int getNumNormallyRemovedWorkers() {
+        return (int) table.get(NUM_REMOVED);
+    }
+
+    @Override
+    /* The workers removed or purged by this process */
+    public List<WorkerHistoryEntry> getWorkerHistory() {
+        return history.getEntries(System.currentTimeMillis());
+    }
+
+    /* Set how much history of removed and purged workers is kept */
+    public void setHistoryRetention(int maxNumEntries, long maxAgeMillis) {
+        history.setRetention(maxNumEntries, maxAgeMillis, System.currentTimeMillis());
+    }
+
+    @Override
+    public int incrementMessageCount(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = (id == null) ? -1 : findSlot(id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        LocalState local = localStateOf(id, offset);
+        final long count = (local == null) ? Long.MIN_VALUE : addToMessageCount(offset, id, 1L);
+        if (count == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+        local.messages.increment(System.currentTimeMillis());
+
+        return (int) count;
+    }
+
+    @Override
+    public BatchResult<Integer> addMessageCounts(Map<String, Integer> deltas) {
+        BatchResult<Integer> result = new BatchResult<>();
+        final long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            WorkerId id = WorkerId.parse(entry.getKey());
+            final int offset = (id == null) ? -1 : findSlot(id);
+            LocalState local = (offset < 0) ? null : localStateOf(id, offset);
+            final long count = (local == null) ? Long.MIN_VALUE : addToMessageCount(offset, id, entry.getValue());
+            if (count != Long.MIN_VALUE) {
+                local.messages.add(entry.getValue(), now);
+
+                result.addSucceeded(entry.getKey(), (int) count);
+            } else {
+                result.addInvalid(entry.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    /* Host-wide */
+    public int getMessageCount(String workerId) {
+        return (int) table.get(getSlot(workerId) + MESSAGE_COUNT);
+    }
+
+    @Override
+    public float getCurrentAverageMessageRate(String workerId) {
+        final int offset = getSlot(workerId);
+
+        final long t  = System.currentTimeMillis();
+        final long t0 = table.get(offset + CREATED);
+
+        return ((float) table.get(offset + MESSAGE_COUNT)) / ((float) (t - t0)) * 1000.0f;
+    }
+
+    @Override
+    public float getEffectiveAverageMessageRate(String workerId) {
+        final int offset = getSlot(workerId);
+
+        final long t1 = table.get(offset + LAST_USE);
+        final long t0 = table.get(offset + CREATED);
+
+        return ((float) table.get(offset + MESSAGE_COUNT)) / ((float) (t1 - t0)) * 1000.0f;
+    }
+
+    @Override
+    /* Over the messages counted through this process */
+    public float getMessageRate(String workerId, MessageRateWindow window) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = getSlot(workerId);
+
+        LocalState local = localStateOf(id, offset);
+        if (local == null) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return local.messages.getWindowRate(window, System.currentTimeMillis());
+    }
+
+    @Override
+    /* Over the messages counted through this process */
+    public float getEwmaMessageRate(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+        final int offset = getSlot(workerId);
+
+        LocalState local = localStateOf(id, offset);
+        if (local == null) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return local.messages.getEwmaRate(System.currentTimeMillis());
+    }
+
+    @Override
+    /* Over the messages counted through this process */
+    public List<String> getBusiestWorkers(int n, MessageRateWindow window) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+
+        final long now = System.currentTimeMillis();
+
+        PriorityQueue<WorkerActivity> busiest = new PriorityQueue<>(n);
+        for (Map.Entry<WorkerId, LocalState> entry : localStates.entrySet()) {
+            final long windowCount = entry.getValue().messages.getWindowCount(window, now);
+            if (windowCount == 0L || findSlot(entry.getKey()) < 0) {
+                continue;
+            }
+
+            if (busiest.size() < n) {
+                busiest.add(new WorkerActivity(entry.getKey(), windowCount));
+            } else if (windowCount > busiest.peek().windowCount) {
+                busiest.poll();
+                busiest.add(new WorkerActivity(entry.getKey(), windowCount));
+            }
+        }
+
+        String[] busiestIds = new String[busiest.size()];
+        for (int i = busiestIds.length - 1; i >= 0; --i) {
+            busiestIds[i] = busiest.poll().id.toString();
+        }
+
+        return Arrays.asList(busiestIds);
+    }
+
+    private static class WorkerActivity implements Comparable<WorkerActivity> {
+        final WorkerId id;
+        final long windowCount;
+
+        WorkerActivity(final WorkerId id, final long windowCount) {
+            this.id          = id;
+            this.windowCount = windowCount;
+        }
+
+        @Override
+        public int compareTo(WorkerActivity other) {
+            return Long.compare(windowCount, other.windowCount);
+        }
+    }
+}
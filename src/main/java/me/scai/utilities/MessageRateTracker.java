@@ -0,0 +1,138 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Message count and message rates of one worker.
+ *
+ * Increments go to a striped LongAdder, so that threads hammering the same worker do not contend on
+ * one counter. Rates are derived from snapshots of the count taken at second boundaries: the first
+ * increment in a new second records the count at the start of that second, into a ring covering
+ * the longest window, and folds the previous second into the EWMA. This is the only part that
+ * locks, once per second per worker.
+ *
+ * All windows and the EWMA cover completed seconds only. */
+class MessageRateTracker {
+    /* Constants */
+    private static final int RING_SIZE = 64; /* Power of 2 longer than the longest window */
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    static final int EWMA_TIME_CONSTANT_SECONDS = 60;
+    private static final double EWMA_ALPHA = 1.0 - Math.exp(-1.0 / EWMA_TIME_CONSTANT_SECONDS);
+
+    /* Member variables */
+    private final LongAdder count = new LongAdder();
+
+    private final long baseSecond;          /* Ring stamps are relative to this */
+    private volatile long lastSecond;       /* Second of the latest snapshot */
+
+    /* Ring of snapshots (second relative to baseSecond << 32 | count at the start of the second),
+     * allocated on the first message. Guarded by this. */
+    private long[] snapshots;
+
+    /* Guarded by this */
+    private double ewma;                    /* Messages per second */
+    private long countAtLastSecond;
+
+    /* Constructor */
+    MessageRateTracker(final long createdMillis) {
+        this.baseSecond = createdMillis / 1000L;
+        this.lastSecond = baseSecond;
+    }
+
+    /* @return    The message count after the increment. With concurrent increments of the same
+     *            worker, it may already include some of the other threads' increments. */
+    long increment(final long nowMillis) {
+        final long second = nowMillis / 1000L;
+        if (second > lastSecond) {
+            advance(second);
+        }
+
+        count.increment();
+
+        return count.sum();
+    }
+
+    void add(final long delta, final long nowMillis) {
+        final long second = nowMillis / 1000L;
+        if (second > lastSecond) {
+            advance(second);
+        }
+
+        count.add(delta);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    /* Set the count of a fresh tracker, restored from a snapshot, without it counting as messages of
+     * the current window */
+    synchronized void restoreCount(final long restoredCount) {
+        count.add(restoredCount);
+        countAtLastSecond += restoredCount;
+    }
+
+    private synchronized void advance(final long second) {
+        if (second <= lastSecond) {
+            return; /* Another thread got here first */
+        }
+
+        if (snapshots == null) {
+            snapshots = new long[RING_SIZE];
+        }
+
+        final long currentCount = count.sum();
+
+        /* All the messages since the previous snapshot arrived during its second (otherwise there
+         * would have been a snapshot in between), and none arrived in the seconds after it */
+        ewma = decay(ewma + EWMA_ALPHA * ((currentCount - countAtLastSecond) - ewma), second - lastSecond - 1L);
+        countAtLastSecond = currentCount;
+
+        snapshots[(int) (second & RING_MASK)] = ((second - baseSecond) << 32) | (currentCount & 0xFFFFFFFFL);
+        lastSecond = second;
+    }
+
+    private static double decay(double value, long numSeconds) {
+        return (numSeconds <= 0L) ? value : value * Math.pow(1.0 - EWMA_ALPHA, numSeconds);
+    }
+
+    /* Number of messages in the last complete seconds of the window */
+    synchronized long getWindowCount(final MessageRateWindow window, final long nowMillis) {
+        final long nowSecond = nowMillis / 1000L;
+
+        return countAtStartOf(nowSecond) - countAtStartOf(nowSecond - window.getSeconds());
+    }
+
+    /* The count at the start of a second is the snapshot of the first second with messages at or after
+     * it, or the current count if there have been no messages since. Must hold the monitor. */
+    private long countAtStartOf(final long second) {
+        final long latest = lastSecond;
+        if (snapshots != null) {
+            for (long s = Math.max(second, latest - RING_MASK); s <= latest; ++s) {
+                final long snapshot = snapshots[(int) (s & RING_MASK)];
+                if ((snapshot >>> 32) == s - baseSecond) {
+                    return (snapshot & 0xFFFFFFFFL);
+                }
+            }
+        }
+
+        return (second > latest) ? count.sum() : countAtLastSecond;
+    }
+
+    /* Messages per second over the window */
+    float getWindowRate(final MessageRateWindow window, final long nowMillis) {
+        return ((float) getWindowCount(window, nowMillis)) / window.getSeconds();
+    }
+
+    /* Exponentially weighted moving average of the messages per second */
+    synchronized float getEwmaRate(final long nowMillis) {
+        final long nowSecond = nowMillis / 1000L;
+        if (nowSecond <= lastSecond) {
+            return (float) ewma;
+        }
+
+        final long pending = count.sum() - countAtLastSecond;
+
+        return (float) decay(ewma + EWMA_ALPHA * (pending - ewma), nowSecond - lastSecond - 1L);
+    }
+}
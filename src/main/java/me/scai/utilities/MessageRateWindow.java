@@ -0,0 +1,18 @@
+package me.scai.utilities;
+
+/* Sliding windows over which message rates can be queried */
+public enum MessageRateWindow {
+    OneSecond(1),
+    TenSeconds(10),
+    OneMinute(60);
+
+    private final int seconds;
+
+    MessageRateWindow(final int seconds) {
+        this.seconds = seconds;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+}
@@ -0,0 +1,11 @@
+package me.scai.utilities;
+
+/* Told of every purge run of a pool: the explicit calls to purge(), and the runs made inline by
+ * registrations and queries or by the reaper. Installed by InstrumentedWorkerPool, which would
+ * otherwise only see the explicit calls. */
+interface PurgeObserver {
+    /* @param    latencyNanos: duration of the run
+     * @param    numPurged: number of workers purged by it
+     */
+    void purged(long latencyNanos, int numPurged);
+}
@@ -0,0 +1,44 @@
+package me.scai.utilities;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/* Default worker ID generator: 122 random bits, laid out as a version-4 (random) UUID.
+ *
+ * The bits come from a SecureRandom, as with UUID.randomUUID(), so the IDs are unguessable and can
+ * be handed to clients as session tokens. Each thread has its own SecureRandom (a DRBG where the
+ * platform offers one), so that concurrent registrations do not serialize on the shared one that
+ * UUID.randomUUID() uses.
+ *
+ * FastRandomWorkerIdGenerator and SequentialWorkerIdGenerator are cheaper, but their IDs can be
+ * guessed. They are only for pools whose worker IDs are never exposed. */
+public class RandomWorkerIdGenerator implements WorkerIdGenerator {
+    /* Constants */
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(RandomWorkerIdGenerator::newSecureRandom);
+
+    @Override
+    public WorkerId nextId() {
+        SecureRandom random = RANDOM.get();
+
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+
+        msb = (msb & ~0xF000L) | 0x4000L;                            /* Version 4 */
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;     /* IETF variant */
+
+        return new WorkerId(msb, lsb);
+    }
+
+    /* The calling thread's SecureRandom, also used by the pools that lay out their IDs themselves */
+    static SecureRandom secureRandom() {
+        return RANDOM.get();
+    }
+
+    private static SecureRandom newSecureRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException exc) {
+            return new SecureRandom();
+        }
+    }
+}
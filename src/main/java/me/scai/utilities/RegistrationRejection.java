@@ -0,0 +1,8 @@
+package me.scai.utilities;
+
+/* Why a registration was turned down */
+public enum RegistrationRejection {
+    PoolFull,               /* No free slot */
+    RateLimited,            /* The client address registered too many workers too quickly */
+    TooManyClientWorkers    /* The client address already has its maximum number of live workers */
+}
@@ -0,0 +1,56 @@
+package me.scai.utilities;
+
+/* Outcome of a registration: the ID of the new worker, or why it was turned down */
+public class RegistrationResult {
+    /* Member variables */
+    private final String workerId;
+    private final RegistrationRejection rejection;
+    private final long retryAfterMillis;
+
+    private static final RegistrationResult POOL_FULL = new RegistrationResult(null, RegistrationRejection.PoolFull, 0L);
+    private static final RegistrationResult TOO_MANY_CLIENT_WORKERS =
+            new RegistrationResult(null, RegistrationRejection.TooManyClientWorkers, 0L);
+
+    /* Constructor */
+    private RegistrationResult(final String workerId, final RegistrationRejection rejection, final long retryAfterMillis) {
+        this.workerId         = workerId;
+        this.rejection        = rejection;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    static RegistrationResult registered(String workerId) {
+        return new RegistrationResult(workerId, null, 0L);
+    }
+
+    static RegistrationResult poolFull() {
+        return POOL_FULL;
+    }
+
+    static RegistrationResult tooManyClientWorkers() {
+        return TOO_MANY_CLIENT_WORKERS;
+    }
+
+    static RegistrationResult rateLimited(long retryAfterMillis) {
+        return new RegistrationResult(null, RegistrationRejection.RateLimited, retryAfterMillis);
+    }
+
+    /* Getters */
+    public boolean isRegistered() {
+        return workerId != null;
+    }
+
+    /* @return    ID of the new worker, or null if the registration was turned down */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /* @return    Why the registration was turned down, or null if it was not */
+    public RegistrationRejection getRejection() {
+        return rejection;
+    }
+
+    /* @return    For RateLimited, the time until the client address may register again. 0 otherwise. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,29 @@
+package me.scai.utilities;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Worker ID generator combining a random per-generator prefix with a sequence seeded from the
+ * creation time.
+ *
+ * IDs from one generator never collide, and they sort by registration order within it. The random
+ * prefix keeps generators in different processes (or from before a restart) apart.
+ *
+ * The IDs are guessable from one another, so this generator is only for pools whose worker IDs are
+ * never exposed to clients. */
+public class SequentialWorkerIdGenerator implements WorkerIdGenerator {
+    /* Member variables */
+    private final long prefix;
+    private final AtomicLong sequence;
+
+    /* Constructor */
+    public SequentialWorkerIdGenerator() {
+        this.prefix   = ThreadLocalRandom.current().nextLong();
+        this.sequence = new AtomicLong(System.currentTimeMillis() << 20); /* Room for 2^20 IDs per millisecond */
+    }
+
+    @Override
+    public WorkerId nextId() {
+        return new WorkerId(prefix, sequence.incrementAndGet());
+    }
+}
@@ -0,0 +1,138 @@
+package me.scai.utilities;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Slot budget shared by the shards of a ShardedWorkerPool.
+ *
+ * The global count of taken slots is the only thing all the shards write to, so each shard takes
+ * permits from it in batches and keeps the unused ones in a local cache for its next registrations.
+ * A shard returns its cache when it grows past two batches, or when another shard, or a waiting
+ * registration, needs the permits: a registration only fails once the caches have been drained back
+ * into the global budget. */
+class ShardedSlotBudget extends BoundedSlotBudget {
+    /* Constants */
+    static final int PERMIT_BATCH_SIZE = 8;
+
+    /* Member variables */
+    private final CopyOnWriteArrayList<Shard> shards = new CopyOnWriteArrayList<>();
+
+    /* Called after slots have been returned to the global budget, for admitting waiting registrations */
+    private final AdmissionQueue admissionQueue;
+    private final Runnable admitter;
+
+    /* Constructor */
+    ShardedSlotBudget(final int max, final AdmissionQueue admissionQueue, final Runnable admitter) {
+        super(max);
+        this.admissionQueue = admissionQueue;
+        this.admitter       = admitter;
+    }
+
+    /* Budget view for one more shard */
+    SlotBudget newShard() {
+        Shard shard = new Shard();
+        shards.add(shard);
+
+        return shard;
+    }
+
+    @Override
+    public void release(int n) {
+        super.release(n);
+
+        /* Release before checking for waiters, so that a registration enqueuing at the same time
+         * either sees the free slot or is seen here */
+        if (admissionQueue.hasWaiters()) {
+            admitter.run();
+        }
+    }
+
+    /* Take n permits from the global budget, draining the shard caches if need be */
+    boolean tryAcquireDraining(int n) {
+        if (super.tryAcquire(n)) {
+            return true;
+        }
+
+        drainCaches();
+        return super.tryAcquire(n);
+    }
+
+    private void drainCaches() {
+        for (Shard shard : shards) {
+            shard.flush();
+        }
+    }
+
+    /* Slots counted as taken by the global budget but still free in the shard caches */
+    private int getNumCached() {
+        int numCached = 0;
+        for (Shard shard : shards) {
+            numCached += shard.cached.get();
+        }
+
+        return numCached;
+    }
+
+    @Override
+    public int getNumAvailable() {
+        return super.getNumAvailable() + getNumCached();
+    }
+
+    private class Shard implements SlotBudget {
+        final AtomicInteger cached = new AtomicInteger();
+
+        @Override
+        public boolean tryAcquire(int n) {
+            /* Local cache first */
+            while (true) {
+                int numCached = cached.get();
+                if (numCached < n) {
+                    break;
+                }
+                if (cached.compareAndSet(numCached, numCached - n)) {
+                    return true;
+                }
+            }
+
+            /* Then a batch, keeping the extra permits for the next registrations */
+            if (ShardedSlotBudget.super.tryAcquire(n + PERMIT_BATCH_SIZE)) {
+                cached.addAndGet(PERMIT_BATCH_SIZE);
+                return true;
+            }
+
+            return tryAcquireDraining(n);
+        }
+
+        @Override
+        public void release(int n) {
+            /* Cache before checking for waiters, so that a registration enqueuing at the same time
+             * either drains the cache or is seen here */
+            final int numCached = cached.addAndGet(n);
+            if (numCached > 2 * PERMIT_BATCH_SIZE || admissionQueue.hasWaiters()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            final int numCached = cached.getAndSet(0);
+            if (numCached > 0) {
+                ShardedSlotBudget.this.release(numCached);
+            }
+        }
+
+        @Override
+        public int getNumAvailable() {
+            return ShardedSlotBudget.this.getNumAvailable();
+        }
+
+        @Override
+        public int getMax() {
+            return ShardedSlotBudget.this.getMax();
+        }
+
+        @Override
+        public void setMax(int max) {
+            ShardedSlotBudget.this.setMax(max);
+        }
+    }
+}
@@ -0,0 +1,998 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * WorkerPool made of independent WorkerPoolImpl shards, each with its own worker map, expiry wheel
+ * and history, so that registrations, removals and purges on different shards never touch the same
+ * data structures. A worker lives in the shard selected by the hash of its ID.
+ *
+ * maxNumWorkers is enforced across the shards by a shared slot budget, which the shards draw from
+ * in batches (see ShardedSlotBudget). Aggregate queries combine the shards one after the other,
+ * without stopping them, so they are as consistent as a weakly consistent iteration over one pool.
+ *
+ * Waiting registrations (registerWorker with a timeout, registerWorkerAsync) are queued by the
+ * sharded pool as a whole, and handed the slots freed by any of the shards. Lifecycle events of all
+ * the shards go through one dispatcher, and are delivered in order per shard.
+ */
+public class ShardedWorkerPool implements WorkerPool {
+    /* Member variables */
+    private final WorkerPoolImpl[] shards;
+    private final int shardMask;
+
+    private final AdmissionQueue admissionQueue = new AdmissionQueue();
+    private final ShardedSlotBudget slots;
+
+    /* Optional limits on the registrations of each client address */
+    private volatile ClientLimiter clientLimiter;
+
+    /* Optional capacity partitions by major client type, shared by the shards */
+    private volatile CapacityPartitions partitions;
+
+    /* Optional eviction of workers when the pool is full, across the shards */
+    private volatile EvictionPolicy evictionPolicy;
+
+    private final WorkerEventDispatcher events = new WorkerEventDispatcher();
+
+    private volatile WorkerIdGenerator idGenerator = new RandomWorkerIdGenerator();
+
+    private volatile int historyMaxNumEntries = WorkerHistory.DEFAULT_MAX_NUM_ENTRIES;
+
+    private ScheduledExecutorService ownedReaperExecutor; /* Guarded by this */
+
+    /* Constructor */
+    /* Pool with one shard per available processor, rounded up to a power of 2 */
+    public ShardedWorkerPool(final int tMaxNumWorkers, final long tWorkerTimeoutMillis) {
+        this(tMaxNumWorkers, tWorkerTimeoutMillis, Runtime.getRuntime().availableProcessors());
+    }
+
+    /* @param    numShards: number of shards, rounded up to a power of 2 */
+    public ShardedWorkerPool(final int tMaxNumWorkers, final long tWorkerTimeoutMillis, final int numShards) {
+        if (numShards <= 0) {
+            throw new IllegalArgumentException("Invalid number of shards: " + numShards);
+        }
+
+        final int n = (numShards == 1) ? 1 : Integer.highestOneBit(numShards - 1) << 1;
+        shardMask = n - 1;
+
+        slots = new ShardedSlotBudget(tMaxNumWorkers, admissionQueue, new Runnable() {
+            @Override
+            public void run() {
+                admitWaiters();
+            }
+        });
+
+        shards = new WorkerPoolImpl[n];
+        for (int i = 0; i < n; ++i) {
+            shards[i] = new WorkerPoolImpl(slots.newShard(), tWorkerTimeoutMillis, events);
+            shards[i].setWorkerIdGenerator(new ShardIdGenerator(i));
+        }
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /* Shard of a worker ID. Malformed IDs go to the first shard, which rejects them like any pool. */
+    private WorkerPoolImpl shardOf(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+
+        return (id == null) ? shards[0] : shardOf(id);
+    }
+
+    private WorkerPoolImpl shardOf(WorkerId id) {
+        return shards[id.hashCode() & shardMask];
+    }
+
+    /* Generator of a shard, for the rare IDs that a shard has to generate itself (when the ID chosen
+     * by the sharded pool collides): draws from the pool's generator until the ID hashes to the shard */
+    private class ShardIdGenerator implements WorkerIdGenerator {
+        private final int shardIndex;
+
+        ShardIdGenerator(final int shardIndex) {
+            this.shardIndex = shardIndex;
+        }
+
+        @Override
+        public WorkerId nextId() {
+            while (true) {
+                WorkerId id = idGenerator.nextId();
+                if ((id.hashCode() & shardMask) == shardIndex) {
+                    return id;
+                }
+            }
+        }
+    }
+
+    /* Set the policy for evicting workers when the pool is full, or null to turn registrations down
+     * instead. The victim is the lowest-ranked of the candidates of all the shards, each shard finding
+     * its own as a WorkerPoolImpl does. See WorkerPoolImpl.setEvictionPolicy(). */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public void setEvictionSampleSize(int sampleSize) {
+        for (WorkerPoolImpl shard : shards) {
+            shard.setEvictionSampleSize(sampleSize);
+        }
+    }
+
+    /* Set the generator of the IDs of newly registered workers */
+    public void setWorkerIdGenerator(WorkerIdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("Worker ID generator must not be null");
+        }
+
+        this.idGenerator = idGenerator;
+    }
+
+    /* Set the clock of all the shards, while the pool is empty. See WorkerPoolImpl.setClock(). */
+    public synchronized void setClock(WorkerClock clock) {
+        if (getCurrNumWorkers() > 0) {
+            throw new IllegalStateException("Clock cannot be changed while the pool has workers");
+        }
+
+        for (WorkerPoolImpl shard : shards) {
+            shard.setClock(clock);
+        }
+    }
+
+    public WorkerClock getClock() {
+        return shards[0].getClock();
+    }
+
+    @Override
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        return tryRegisterWorker(wkr, wkrInfo).getWorkerId();
+    }
+
+    @Override
+    public RegistrationResult tryRegisterWorker(final PooledWorker wkr, final WorkerClientInfo wkrInfo) {
+        return ClientLimiter.register(clientLimiter, wkrInfo, () -> registerUnlimited(wkr, wkrInfo));
+    }
+
+    /* Limit the registrations of each client address, by the client IP address of their client info:
+     * at most registrationRate registrations per second (in bursts of up to registrationBurst), and at
+     * most maxNumWorkersPerClient live workers. Registrations over the limits are turned down, with
+     * the reason given by tryRegisterWorker(). Registrations without a client address, and batch
+     * registrations through registerWorkers(), are not limited. The limits apply across
+     * all the shards.
+     *
+     * The state kept per address is bounded, idle addresses being evicted first. */
+    public void setClientLimits(double registrationRate, int registrationBurst, int maxNumWorkersPerClient) {
+        clientLimiter = new ClientLimiter(registrationRate, registrationBurst, maxNumWorkersPerClient,
+                                          ClientLimiter.DEFAULT_MAX_NUM_ADDRESSES, this::countWorkers);
+    }
+
+    /* Stop limiting the registrations of the client addresses */
+    public void removeClientLimits() {
+        clientLimiter = null;
+    }
+
+    private int countWorkers(InetAddress clientIPAddress) {
+        int n = 0;
+        for (WorkerPoolImpl shard : shards) {
+            n += shard.countWorkers(clientIPAddress);
+        }
+
+        return n;
+    }
+
+    private String registerUnlimited(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        final WorkerId id = idGenerator.nextId();
+
+        String wkrId = shardOf(id).registerWorker(wkr, wkrInfo, id);
+        if (wkrId == null && !isReaperRunning()) {
+            /* The shard has only purged itself: expired workers of the other shards may hold slots */
+            if (purge() != null) {
+                wkrId = shardOf(id).registerWorker(wkr, wkrInfo, id);
+            }
+        }
+
+        final CapacityPartitions p = partitions;
+        if (wkrId == null && p != null && p.isBelowReservation(wkrInfo)) {
+            /* The workers borrowing the reserved slots of the type may all be in other shards */
+            for (int i = 0; i < shards.length && wkrId == null; ++i) {
+                if (shards[i] != shardOf(id)) {
+                    wkrId = shards[i].registerWorker(wkr, wkrInfo, null);
+                }
+            }
+        }
+
+        if (wkrId == null) {
+            wkrId = evictForSlot(wkr, wkrInfo, id);
+        }
+
+        return wkrId;
+    }
+
+    /* Evict workers until a slot is acquired for a new worker, if there is an eviction policy. The
+     * victim may be in any shard. The slot it frees goes back to the cache of its shard, from which
+     * the global budget drains it for the new worker.
+     *
+     * @return    Worker ID, or null if no slot could be freed
+     */
+    private String evictForSlot(PooledWorker wkr, WorkerClientInfo wkrInfo, WorkerId id) {
+        final EvictionPolicy policy = evictionPolicy;
+        if (policy == null) {
+            return null;
+        }
+
+        final CapacityPartitions p = partitions;
+        for (int i = 0; i < WorkerPoolImpl.MAX_EVICTIONS_PER_REGISTRATION; ++i) {
+            WorkerPoolImpl victimShard = null;
+            WorkerRecord victim = null;
+            double victimRank = 0.0;
+            for (WorkerPoolImpl shard : shards) {
+                WorkerRecord rec = shard.evictionCandidate(policy, wkrInfo);
+                if (rec == null) {
+                    continue;
+                }
+
+                final double rank = shard.evictionRank(policy, rec);
+                if (victim == null || rank < victimRank) {
+                    victimShard = shard;
+                    victim = rec;
+                    victimRank = rank;
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+
+            victimShard.evict(victim);
+            if (acquireSlot(p, wkrInfo)) {
+                return shardOf(id).registerAcquired(wkr, wkrInfo, id, p);
+            }
+        }
+
+        return null;
+    }
+
+    /* Reserve one slot from the global budget, and from the capacity partitions if not null */
+    private boolean acquireSlot(CapacityPartitions p, WorkerClientInfo wkrInfo) {
+        if (p != null && !p.tryAcquire(wkrInfo)) {
+            return false;
+        }
+        if ( !slots.tryAcquireDraining(1) ) {
+            if (p != null) {
+                p.release(wkrInfo);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<String> registerWorkers(List<? extends PooledWorker> wkrs, List<WorkerClientInfo> wkrClientInfos) {
+        if (wkrs.size() != wkrClientInfos.size()) {
+            throw new IllegalArgumentException("Mismatch between the numbers of workers (" + wkrs.size() +
+                                               ") and of client infos (" + wkrClientInfos.size() + ")");
+        }
+
+        final int n = wkrs.size();
+        final CapacityPartitions p = partitions;
+        if (p != null && !p.tryAcquireAll(wkrClientInfos)) {
+            return null;
+        }
+
+        if ( !slots.tryAcquireDraining(n) ) {
+            if (purge() == null || !slots.tryAcquireDraining(n)) {
+                if (p != null) {
+                    p.releaseAll(wkrClientInfos);
+                }
+                return null;
+            }
+        }
+
+        List<String> newWkrIds = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            final WorkerId id = idGenerator.nextId();
+            newWkrIds.add(shardOf(id).registerAcquired(wkrs.get(i), wkrClientInfos.get(i), id, p));
+        }
+
+        return newWkrIds;
+    }
+
+    @Override
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return result.getWorkerId();
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrInfo) ) {
+            return null;
+        }
+
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrInfo, 0);
+
+        return (waiter == null) ? null : admissionQueue.await(waiter, timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo) {
+        return registerWorkerAsync(wkr, wkrInfo, 0);
+    }
+
+    @Override
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo, int priority) {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return CompletableFuture.completedFuture(result.getWorkerId());
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrInfo) ) {
+            return CompletableFuture.<String>completedFuture(null);
+        }
+
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrInfo, priority);
+
+        return (waiter == null) ? CompletableFuture.<String>completedFuture(null) : admissionQueue.cancellableFuture(waiter);
+    }
+
+    private AdmissionQueue.Waiter enqueueRegistration(PooledWorker wkr, WorkerClientInfo wkrInfo, int priority) {
+        AdmissionQueue.Waiter waiter = admissionQueue.enqueue(wkr, wkrInfo, priority);
+        if (waiter != null) {
+            /* A slot may have been freed between the failed attempt and the enqueuing */
+            admitWaiters();
+        }
+
+        return waiter;
+    }
+
+    /* Hand free slots to the waiting registrations, in admission order, for as long as there are both */
+    private void admitWaiters() {
+        while (admissionQueue.hasWaiters() && slots.tryAcquireDraining(1)) {
+            final CapacityPartitions p = partitions;
+            AdmissionQueue.Waiter waiter = (p == null) ? admissionQueue.poll() : admissionQueue.poll(p);
+            if (waiter == null) {
+                slots.release(1);
+                return;
+            }
+
+            final WorkerId id = idGenerator.nextId();
+            final WorkerPoolImpl shard = shardOf(id);
+
+            WorkerRecord rec = shard.insertAcquired(waiter.worker, waiter.clientInfo, id, p);
+            if (waiter.future.complete(rec.id.toString())) {
+                admissionQueue.recordAdmitted(waiter);
+                shard.commitInserted(rec);
+            } else {
+                shard.discardInserted(rec); /* Cancelled while being admitted */
+            }
+        }
+    }
+
+    /* Set the maximum number of registrations that can wait for a slot at once */
+    public void setAdmissionQueueCapacity(int capacity) {
+        admissionQueue.setCapacity(capacity);
+    }
+
+    /* Set the order in which the waiting registrations are admitted (FIFO by default) */
+    public void setAdmissionOrder(AdmissionOrder order) {
+        admissionQueue.setOrder(order);
+    }
+
+    public AdmissionStats getAdmissionStats() {
+        return admissionQueue.getStats();
+    }
+
+    @Override
+    public void setPreviousWorkerId(String workerId, String prevWorkerId) {
+        shardOf(workerId).setPreviousWorkerId(workerId, prevWorkerId);
+    }
+
+    @Override
+    public String getPreviousWorkerId(String workerId) {
+        return shardOf(workerId).getPreviousWorkerId(workerId);
+    }
+
+    /* The worker stays in its shard, whose generator draws the new ID */
+    @Override
+    public String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo) {
+        return shardOf(previousWorkerId).relayWorker(previousWorkerId, wkrInfo, this::findRecord);
+    }
+
+    @Override
+    public String getRootWorkerId(String workerId) {
+        WorkerRecord rec = findRecord(workerId);
+        if (rec == null) {
+            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        }
+
+        return WorkerPoolImpl.rootOf(rec, this::findRecord);
+    }
+
+    private WorkerRecord findRecord(String workerId) {
+        return shardOf(workerId).findRecord(workerId);
+    }
+
+    @Override
+    public void removeWorker(String workerId) {
+        shardOf(workerId).removeWorker(workerId);
+    }
+
+    @Override
+    public BatchResult<PooledWorker> removeWorkers(Collection<String> workerIds) {
+        Map<WorkerPoolImpl, List<String>> byShard = groupByShard(workerIds);
+
+        Map<WorkerPoolImpl, BatchResult<PooledWorker>> shardResults = new HashMap<>();
+        for (Map.Entry<WorkerPoolImpl, List<String>> entry : byShard.entrySet()) {
+            shardResults.put(entry.getKey(), entry.getKey().removeWorkers(entry.getValue()));
+        }
+
+        /* In the order of the batch. An ID listed twice is only removed once. */
+        BatchResult<PooledWorker> result = new BatchResult<>();
+        Set<String> removed = new HashSet<>();
+        for (String workerId : workerIds) {
+            BatchResult<PooledWorker> shardResult = shardResults.get(shardOf(workerId));
+            if (shardResult.isSucceeded(workerId) && removed.add(workerId)) {
+                result.addSucceeded(workerId, shardResult.getValue(workerId));
+            } else {
+                result.addInvalid(workerId);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int incrementMessageCount(String workerId) {
+        return shardOf(workerId).incrementMessageCount(workerId);
+    }
+
+    @Override
+    public BatchResult<Integer> addMessageCounts(Map<String, Integer> deltas) {
+        Map<WorkerPoolImpl, Map<String, Integer>> byShard = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            WorkerPoolImpl shard = shardOf(entry.getKey());
+
+            Map<String, Integer> shardDeltas = byShard.get(shard);
+            if (shardDeltas == null) {
+                shardDeltas = new HashMap<>();
+                byShard.put(shard, shardDeltas);
+            }
+            shardDeltas.put(entry.getKey(), entry.getValue());
+        }
+
+        Map<WorkerPoolImpl, BatchResult<Integer>> shardResults = new HashMap<>();
+        for (Map.Entry<WorkerPoolImpl, Map<String, Integer>> entry : byShard.entrySet()) {
+            shardResults.put(entry.getKey(), entry.getKey().addMessageCounts(entry.getValue()));
+        }
+
+        BatchResult<Integer> result = new BatchResult<>();
+        for (String workerId : deltas.keySet()) {
+            BatchResult<Integer> shardResult = shardResults.get(shardOf(workerId));
+            if (shardResult.isSucceeded(workerId)) {
+                result.addSucceeded(workerId, shardResult.getValue(workerId));
+            } else {
+                result.addInvalid(workerId);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getMessageCount(String workerId) {
+        return shardOf(workerId).getMessageCount(workerId);
+    }
+
+    @Override
+    public float getCurrentAverageMessageRate(String workerId) {
+        return shardOf(workerId).getCurrentAverageMessageRate(workerId);
+    }
+
+    @Override
+    public float getEffectiveAverageMessageRate(String workerId) {
+        return shardOf(workerId).getEffectiveAverageMessageRate(workerId);
+    }
+
+    @Override
+    public float getMessageRate(String workerId, MessageRateWindow window) {
+        return shardOf(workerId).getMessageRate(workerId, window);
+    }
+
+    @Override
+    public float getEwmaMessageRate(String workerId) {
+        return shardOf(workerId).getEwmaMessageRate(workerId);
+    }
+
+    @Override
+    public List<String> getBusiestWorkers(int n, MessageRateWindow window) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+
+        /* The n busiest overall are among the n busiest of each shard */
+        final Map<String, Float> rates = new HashMap<>();
+        for (WorkerPoolImpl shard : shards) {
+            for (String workerId : shard.getBusiestWorkers(n, window)) {
+                try {
+                    rates.put(workerId, shard.getMessageRate(workerId, window));
+                } catch (IllegalArgumentException exc) {
+                    /* Removed in the meantime */
+                }
+            }
+        }
+
+        List<String> busiest = new ArrayList<>(rates.keySet());
+        Collections.sort(busiest, new Comparator<String>() {
+            @Override
+            public int compare(String id1, String id2) {
+                return Float.compare(rates.get(id2), rates.get(id1));
+            }
+        });
+
+        return (busiest.size() > n) ? new ArrayList<>(busiest.subList(0, n)) : busiest;
+    }
+
+    @Override
+    public void clearWorkers() {
+        for (WorkerPoolImpl shard : shards) {
+            shard.clearWorkers();
+        }
+    }
+
+    @Override
+    public PooledWorker getWorker(String workerId) {
+        return shardOf(workerId).getWorker(workerId);
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, Date timestamp) {
+        shardOf(workerId).updateWorkerTimestamp(workerId, timestamp);
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, long timestampMillis) {
+        shardOf(workerId).updateWorkerTimestamp(workerId, timestampMillis);
+    }
+
+    @Override
+    public void touchWorker(String workerId) {
+        shardOf(workerId).touchWorker(workerId);
+    }
+
+    @Override
+    public BatchResult<Date> updateWorkerTimestamps(Collection<String> workerIds, Date timestamp) {
+        Map<WorkerPoolImpl, List<String>> byShard = groupByShard(workerIds);
+
+        Map<WorkerPoolImpl, BatchResult<Date>> shardResults = new HashMap<>();
+        for (Map.Entry<WorkerPoolImpl, List<String>> entry : byShard.entrySet()) {
+            shardResults.put(entry.getKey(), entry.getKey().updateWorkerTimestamps(entry.getValue(), timestamp));
+        }
+
+        BatchResult<Date> result = new BatchResult<>();
+        for (String workerId : workerIds) {
+            if (shardResults.get(shardOf(workerId)).isSucceeded(workerId)) {
+                result.addSucceeded(workerId, timestamp);
+            } else {
+                result.addInvalid(workerId);
+            }
+        }
+
+        return result;
+    }
+
+    private Map<WorkerPoolImpl, List<String>> groupByShard(Collection<String> workerIds) {
+        Map<WorkerPoolImpl, List<String>> byShard = new HashMap<>();
+        for (String workerId : workerIds) {
+            WorkerPoolImpl shard = shardOf(workerId);
+
+            List<String> shardIds = byShard.get(shard);
+            if (shardIds == null) {
+                shardIds = new ArrayList<>();
+                byShard.put(shard, shardIds);
+            }
+            shardIds.add(workerId);
+        }
+
+        return byShard;
+    }
+
+    @Override
+    public List<String> purge() {
+        List<String> purgeList = new ArrayList<>();
+        for (WorkerPoolImpl shard : shards) {
+            List<String> shardPurged = shard.purge();
+            if (shardPurged != null) {
+                purgeList.addAll(shardPurged);
+            }
+        }
+
+        return purgeList.isEmpty() ? null : purgeList;
+    }
+
+    /* Report every purge run to an observer (replacing any previous one), or to none if null. The
+     * shards purge separately, so each run covers one shard. */
+    void setPurgeObserver(PurgeObserver purgeObserver) {
+        for (WorkerPoolImpl shard : shards) {
+            shard.setPurgeObserver(purgeObserver);
+        }
+    }
+
+    /* Start purging expired workers periodically on a daemon thread owned by the pool, shared by all
+     * the shards
+     *
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public synchronized void startReaper(long periodMillis) {
+        if (isReaperRunning()) {
+            throw new IllegalStateException("Reaper is already running");
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "worker-pool-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            startReaper(executor, periodMillis);
+        } catch (RuntimeException exc) {
+            executor.shutdownNow();
+            throw exc;
+        }
+        ownedReaperExecutor = executor;
+    }
+
+    /* Start purging expired workers periodically on the given executor, which is not shut down by
+     * shutdown()
+     *
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public synchronized void startReaper(ScheduledExecutorService executor, long periodMillis) {
+        if (isReaperRunning()) {
+            throw new IllegalStateException("Reaper is already running");
+        }
+
+        for (WorkerPoolImpl shard : shards) {
+            shard.startReaper(executor, periodMillis);
+        }
+    }
+
+    public boolean isReaperRunning() {
+        return shards[0].isReaperRunning();
+    }
+
+    /* Stop the background reaper, if any, and event delivery, and release the threads owned by the pool */
+    public synchronized void shutdown() {
+        for (WorkerPoolImpl shard : shards) {
+            shard.shutdown();
+        }
+
+        if (ownedReaperExecutor != null) {
+            ownedReaperExecutor.shutdownNow();
+            ownedReaperExecutor = null;
+        }
+    }
+
+    @Override
+    public int getCurrNumWorkers() {
+        int numWorkers = 0;
+        for (WorkerPoolImpl shard : shards) {
+            numWorkers += shard.getCurrNumWorkers();
+        }
+
+        return numWorkers;
+    }
+
+    @Override
+    public int getNumEverCreatedWorkers() {
+        int numCreated = 0;
+        for (WorkerPoolImpl shard : shards) {
+            numCreated += shard.getNumEverCreatedWorkers();
+        }
+
+        return numCreated;
+    }
+
+    @Override
+    public int getNumPurgedWorkers() {
+        int numPurged = 0;
+        for (WorkerPoolImpl shard : shards) {
+            numPurged += shard.getNumPurgedWorkers();
+        }
+
+        return numPurged;
+    }
+
+    public int getNumEvictedWorkers() {
+        int numEvicted = 0;
+        for (WorkerPoolImpl shard : shards) {
+            numEvicted += shard.getNumEvictedWorkers();
+        }
+
+        return numEvicted;
+    }
+
+    @Override
+    public int getNumNormallyRemovedWorkers() {
+        int numRemoved = 0;
+        for (WorkerPoolImpl shard : shards) {
+            numRemoved += shard.getNumNormallyRemovedWorkers();
+        }
+
+        return numRemoved;
+    }
+
+    @Override
+    public int getNumAvailableSlots() {
+        return slots.getNumAvailable();
+    }
+
+    @Override
+    public int getNumAvailableSlots(ClientTypeMajor clientTypeMajor) {
+        final CapacityPartitions p = partitions;
+        final int numAvailable = getNumAvailableSlots();
+
+        return (p == null) ? numAvailable : Math.min(numAvailable, p.getNumAvailable(clientTypeMajor));
+    }
+
+    /* Reserve slots for the workers of a major client type, and cap their number, across all the
+     * shards. A type below its reservation takes its slots back from the borrowers of any shard. See
+     * WorkerPoolImpl.setCapacityPartition(). */
+    public void setCapacityPartition(ClientTypeMajor clientTypeMajor, int minNumWorkers, int maxNumWorkers) {
+        synchronized (this) {
+            CapacityPartitions p = partitions;
+            if (p == null) {
+                p = new CapacityPartitions(getMaxNumWorkers());
+            }
+            p.setPartition(clientTypeMajor, minNumWorkers, maxNumWorkers);
+
+            if (partitions == null) {
+                partitions = p;
+                for (WorkerPoolImpl shard : shards) {
+                    shard.setCapacityPartitions(p);
+                }
+            }
+        }
+
+        admitWaiters(); /* A raised cap may let waiters in */
+    }
+
+    @Override
+    public int getMaxNumWorkers() {
+        return slots.getMax();
+    }
+
+    @Override
+    public void setMaxNumWorkers(int tMaxNumWorkers) {
+        final CapacityPartitions p = partitions;
+        if (p != null) {
+            p.setPoolMaxNumWorkers(tMaxNumWorkers);
+        }
+        slots.setMax(tMaxNumWorkers);
+
+        admitWaiters();
+    }
+
+    @Override
+    public long getWorkerTimeout() {
+        return shards[0].getWorkerTimeout();
+    }
+
+    @Override
+    public void setWorkerTimeout(long timeoutMillis) {
+        for (WorkerPoolImpl shard : shards) {
+            shard.setWorkerTimeout(timeoutMillis);
+        }
+    }
+
+    @Override
+    public long getEffectiveWorkerTimeout(ClientTypeMajor clientTypeMajor) {
+        return shards[0].getEffectiveWorkerTimeout(clientTypeMajor);
+    }
+
+    /* Adapt the timeouts of the workers to the occupancy of the whole pool, with the idle times of
+     * the workers of all the shards. See WorkerPoolImpl.setAdaptiveTimeouts(). */
+    public void setAdaptiveTimeouts(long minTimeoutMillis, long maxTimeoutMillis) {
+        AdaptiveTimeouts adaptive = new AdaptiveTimeouts(minTimeoutMillis, maxTimeoutMillis,
+                                                         AdaptiveTimeouts.DEFAULT_ADAPT_PERIOD_MILLIS,
+                                                         getClock().currentTimeMillis());
+        for (WorkerPoolImpl shard : shards) {
+            shard.setAdaptiveTimeouts(adaptive);
+        }
+    }
+
+    public void disableAdaptiveTimeouts() {
+        for (WorkerPoolImpl shard : shards) {
+            shard.disableAdaptiveTimeouts();
+        }
+    }
+
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return shards[0].isAdaptiveTimeoutsEnabled();
+    }
+
+    @Override
+    public Map<String, WorkerClientInfo> getWorkersClientInfo() {
+        Map<String, WorkerClientInfo> workersClientInfo = new HashMap<>();
+        for (WorkerPoolImpl shard : shards) {
+            workersClientInfo.putAll(shard.getWorkersClientInfo());
+        }
+
+        return workersClientInfo;
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMajor clientTypeMajor) {
+        int n = 0;
+        for (WorkerPoolImpl shard : shards) {
+            n += shard.getNumWorkers(clientTypeMajor);
+        }
+
+        return n;
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMinor clientTypeMinor) {
+        int n = 0;
+        for (WorkerPoolImpl shard : shards) {
+            n += shard.getNumWorkers(clientTypeMinor);
+        }
+
+        return n;
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMajor clientTypeMajor) {
+        List<String> ids = new ArrayList<>();
+        for (WorkerPoolImpl shard : shards) {
+            ids.addAll(shard.getWorkerIds(clientTypeMajor));
+        }
+
+        return ids;
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMinor clientTypeMinor) {
+        List<String> ids = new ArrayList<>();
+        for (WorkerPoolImpl shard : shards) {
+            ids.addAll(shard.getWorkerIds(clientTypeMinor));
+        }
+
+        return ids;
+    }
+
+    @Override
+    public List<String> getWorkerIds(InetAddress clientIPAddress) {
+        List<String> ids = new ArrayList<>();
+        for (WorkerPoolImpl shard : shards) {
+            ids.addAll(shard.getWorkerIds(clientIPAddress));
+        }
+
+        return ids;
+    }
+
+    @Override
+    /* Merges a page from each shard, so costs O(number of shards * page) */
+    public WorkerPage getWorkers(String cursor, int pageSize, Predicate<WorkerSnapshot> filter) {
+        List<WorkerSnapshot> merged = new ArrayList<>();
+        boolean hasMore = false;
+        for (WorkerPoolImpl shard : shards) {
+            WorkerPage page = shard.getWorkers(cursor, pageSize, filter);
+            merged.addAll(page.getWorkers());
+            hasMore |= page.hasMore();
+        }
+
+        /* The string form of worker IDs sorts in ID order */
+        merged.sort(new Comparator<WorkerSnapshot>() {
+            @Override
+            public int compare(WorkerSnapshot a, WorkerSnapshot b) {
+                return a.getWorkerId().compareTo(b.getWorkerId());
+            }
+        });
+
+        if (merged.size() > pageSize) {
+            merged = new ArrayList<>(merged.subList(0, pageSize));
+            hasMore = true;
+        }
+
+        final String nextCursor = hasMore ? merged.get(merged.size() - 1).getWorkerId() : null;
+
+        return new WorkerPage(Collections.unmodifiableList(merged), nextCursor);
+    }
+
+    @Override
+    /* Shard by shard */
+    public Stream<WorkerSnapshot> streamWorkers() {
+        return Arrays.stream(shards).flatMap(WorkerPoolImpl::streamWorkers);
+    }
+
+    @Override
+    public Date getCreatedTimestamp(String workerId) {
+        return shardOf(workerId).getCreatedTimestamp(workerId);
+    }
+
+    @Override
+    public Date getLastUseTimestamp(String workerId) {
+        return shardOf(workerId).getLastUseTimestamp(workerId);
+    }
+
+    @Override
+    public List<WorkerHistoryEntry> getWorkerHistory() {
+        List<WorkerHistoryEntry> entries = new ArrayList<>();
+        for (WorkerPoolImpl shard : shards) {
+            entries.addAll(shard.getWorkerHistory());
+        }
+
+        /* Each shard keeps up to the maximum: keep the newest ones overall */
+        Collections.sort(entries, new Comparator<WorkerHistoryEntry>() {
+            @Override
+            public int compare(WorkerHistoryEntry e1, WorkerHistoryEntry e2) {
+                return e1.getEndTimestamp().compareTo(e2.getEndTimestamp());
+            }
+        });
+
+        final int maxNumEntries = historyMaxNumEntries;
+        return (entries.size() > maxNumEntries) ?
+               new ArrayList<>(entries.subList(entries.size() - maxNumEntries, entries.size())) : entries;
+    }
+
+    /* Set how much history of removed and purged workers is kept
+     *
+     * @param    maxNumEntries: maximum number of entries kept (the oldest ones are dropped first)
+     * @param    maxAgeMillis: maximum age of the entries kept
+     */
+    public void setHistoryRetention(int maxNumEntries, long maxAgeMillis) {
+        for (WorkerPoolImpl shard : shards) {
+            shard.setHistoryRetention(maxNumEntries, maxAgeMillis);
+        }
+        historyMaxNumEntries = maxNumEntries;
+    }
+
+    @Override
+    public void addWorkerEventListener(WorkerEventListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeWorkerEventListener(WorkerEventListener listener) {
+        events.removeListener(listener);
+    }
+
+    /* Get the event dispatcher shared by the shards, to configure event delivery and read its counters */
+    public WorkerEventDispatcher getEventDispatcher() {
+        return events;
+    }
+
+    /* Set how long a worker must have been idle for a touch to be published as a TouchedAfterIdle event */
+    public void setTouchIdleThreshold(long thresholdMillis) {
+        for (WorkerPoolImpl shard : shards) {
+            shard.setTouchIdleThreshold(thresholdMillis);
+        }
+    }
+}
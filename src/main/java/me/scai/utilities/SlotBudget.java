@@ -0,0 +1,19 @@
+package me.scai.utilities;
+
+/* Capacity accounting of a pool: how many workers it may hold, and how many slots are taken.
+ * Slots taken by registrations still in flight count as taken. */
+interface SlotBudget {
+    /* Reserve n slots, all or none
+     *
+     * @return    true if the slots have been reserved, false if there are not enough free slots
+     */
+    boolean tryAcquire(int n);
+
+    void release(int n);
+
+    int getNumAvailable();
+
+    int getMax();
+
+    void setMax(int max);
+}
@@ -0,0 +1,66 @@
+package me.scai.utilities;
+
+/* Point-in-time statistics of the warm spare workers of a WorkerPoolImpl */
+public class SpareWorkerStats {
+    /* Member variables */
+    private final int numSpares;
+    private final int target;
+    private final long numBuilt;
+    private final long numRecycled;
+    private final long numClaimed;
+    private final long numMisses;
+    private final long numFailures;
+
+    /* Constructor */
+    SpareWorkerStats(final int numSpares,
+                     final int target,
+                     final long numBuilt,
+                     final long numRecycled,
+                     final long numClaimed,
+                     final long numMisses,
+                     final long numFailures) {
+        this.numSpares   = numSpares;
+        this.target      = target;
+        this.numBuilt    = numBuilt;
+        this.numRecycled = numRecycled;
+        this.numClaimed  = numClaimed;
+        this.numMisses   = numMisses;
+        this.numFailures = numFailures;
+    }
+
+    /* Getters */
+    /* Number of spares ready to be claimed */
+    public int getNumSpares() {
+        return numSpares;
+    }
+
+    /* Number of spares the pool keeps ready */
+    public int getTarget() {
+        return target;
+    }
+
+    /* Number of spares built ahead of time by the factory */
+    public long getNumBuilt() {
+        return numBuilt;
+    }
+
+    /* Number of released workers that have been reset and kept as spares */
+    public long getNumRecycled() {
+        return numRecycled;
+    }
+
+    /* Number of registrations that have claimed a spare */
+    public long getNumClaimed() {
+        return numClaimed;
+    }
+
+    /* Number of registrations that found no spare, and built their worker inline */
+    public long getNumMisses() {
+        return numMisses;
+    }
+
+    /* Number of builds and resets that have thrown */
+    public long getNumFailures() {
+        return numFailures;
+    }
+}
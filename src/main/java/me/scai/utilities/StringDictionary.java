@@ -0,0 +1,57 @@
+package me.scai.utilities;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/* Bounded dictionary of strings, so that the many equal copies of the low-cardinality strings of the
+ * client infos (platform and app versions, host names) share one instance.
+ *
+ * Unlike String.intern(), the dictionary never grows past its capacity: once full, strings that are
+ * not in it yet are kept as they are. The first strings seen are the ones kept, which suits strings
+ * such as versions, whose set changes slowly. */
+final class StringDictionary {
+    /* Constants */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /* Longer strings are unlikely to repeat, and are not worth holding on to */
+    private static final int MAX_STRING_LENGTH = 256;
+
+    /* Member variables */
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+    private final int capacity;
+
+    /* Constructor */
+    StringDictionary(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid dictionary capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    /* @return    The instance of the dictionary equal to str, or str itself if it is not in the
+     *            dictionary and cannot be added. null for null.
+     */
+    String intern(final String str) {
+        if (str == null) {
+            return null;
+        }
+
+        final String interned = strings.get(str);
+        if (interned != null) {
+            return interned;
+        }
+
+        if (str.length() > MAX_STRING_LENGTH || strings.size() >= capacity) {
+            return str;
+        }
+
+        final String prev = strings.putIfAbsent(str, str);
+
+        return (prev != null) ? prev : str;
+    }
+
+    int size() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,12 @@
+package me.scai.utilities;
+
+/* Default clock: System.currentTimeMillis() */
+public class SystemWorkerClock implements WorkerClock {
+    /* Constants */
+    public static final SystemWorkerClock INSTANCE = new SystemWorkerClock();
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
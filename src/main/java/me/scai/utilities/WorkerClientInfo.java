@@ -2,38 +2,47 @@ package me.scai.utilities;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import me.scai.utilities.clienttypes.ClientTypeMajor;
 import me.scai.utilities.clienttypes.ClientTypeMinor;
 
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
+/* Client of a worker. Immutable.
+ *
+ * Kept compact, as there is one per live worker: the creation time is a primitive, the client types
+ * are ordinals, the version and host-name strings are shared with the other infos through a bounded
+ * dictionary, and the custom client data is kept as its UTF-8 JSON text, parsed only when read. */
 public class WorkerClientInfo {
+    /* Constants */
+    private static final ClientTypeMajor[] CLIENT_TYPES_MAJOR = ClientTypeMajor.values();
+    private static final ClientTypeMinor[] CLIENT_TYPES_MINOR = ClientTypeMinor.values();
+    private static final byte NO_CLIENT_TYPE = -1;
+
+    /* Shared by all the client infos */
+    private static final StringDictionary STRINGS = new StringDictionary(StringDictionary.DEFAULT_CAPACITY);
+
     /* Member variables */
-    private Date timeCreated;
+    private final long timeCreatedMillis;
 
-    private ClientTypeMajor clientTypeMajor;
-    private ClientTypeMinor clientTypeMinor;
-    private String clientPlatformVersion;
-    private String clientAppVersion;
+    private final byte clientTypeMajor;
+    private final byte clientTypeMinor;
+    private final String clientPlatformVersion;
+    private final String clientAppVersion;
 
-    private JsonObject customClientData; /* Can store info such as screen size, etc. */
+    private final byte[] customClientData; /* Can store info such as screen size, etc. As UTF-8 JSON. */
 
-    private InetAddress clientIPAddress;
-    private String clientHostName;
+    private final InetAddress clientIPAddress;
+    private final String clientHostName;
 
     /* Constructors */
     public WorkerClientInfo(final InetAddress clientIPAddress,
                             final String clientHostName,
                             final ClientTypeMajor clientTypeMajor,
                             final ClientTypeMinor clientTypeMinor) {
-        this.timeCreated      = new Date();
-
-        this.clientIPAddress  = clientIPAddress;
-        this.clientHostName   = clientHostName;
-
-        this.clientTypeMajor  = clientTypeMajor;
-        this.clientTypeMinor  = clientTypeMinor;
+        this(clientIPAddress, clientHostName, clientTypeMajor, clientTypeMinor, null, null);
     }
 
     public WorkerClientInfo(final InetAddress clientIPAddress,
@@ -42,12 +51,11 @@ public class WorkerClientInfo {
                             final ClientTypeMinor clientTypeMinor,
                             final String clientPlatformVersion,
                             final String clientAppVersion) {
-        this(clientIPAddress, clientHostName, clientTypeMajor, clientTypeMinor);
-
-        this.clientPlatformVersion = clientPlatformVersion;
-        this.clientAppVersion = clientAppVersion;
+        this(clientIPAddress, clientHostName, clientTypeMajor, clientTypeMinor,
+             clientPlatformVersion, clientAppVersion, null);
     }
 
+    /* The custom client data is copied: later changes to customClientData are not seen by the info */
     public WorkerClientInfo(final InetAddress clientIPAddress,
                             final String clientHostName,
                             final ClientTypeMajor clientTypeMajor,
@@ -55,16 +63,29 @@ public class WorkerClientInfo {
                             final String clientPlatformVersion,
                             final String clientAppVersion,
                             final JsonObject customClientData) {
-        this(clientIPAddress, clientHostName, clientTypeMajor, clientTypeMinor,
-             clientPlatformVersion, clientAppVersion);
+        this.timeCreatedMillis     = System.currentTimeMillis();
+
+        this.clientIPAddress       = clientIPAddress;
+        this.clientHostName        = STRINGS.intern(clientHostName);
+
+        this.clientTypeMajor       = (clientTypeMajor == null) ? NO_CLIENT_TYPE : (byte) clientTypeMajor.ordinal();
+        this.clientTypeMinor       = (clientTypeMinor == null) ? NO_CLIENT_TYPE : (byte) clientTypeMinor.ordinal();
 
-        this.customClientData = customClientData;
+        this.clientPlatformVersion = STRINGS.intern(clientPlatformVersion);
+        this.clientAppVersion      = STRINGS.intern(clientAppVersion);
+
+        this.customClientData      = (customClientData == null) ? null
+                                                                : customClientData.toString().getBytes(StandardCharsets.UTF_8);
     }
 
 
     /* Getters */
     public Date getTimeCreated() {
-        return timeCreated;
+        return new Date(timeCreatedMillis);
+    }
+
+    public long getTimeCreatedMillis() {
+        return timeCreatedMillis;
     }
 
     public InetAddress getClientIPAddress() {
@@ -76,11 +97,11 @@ public class WorkerClientInfo {
     }
 
     public ClientTypeMajor getClientTypeMajor() {
-        return clientTypeMajor;
+        return (clientTypeMajor == NO_CLIENT_TYPE) ? null : CLIENT_TYPES_MAJOR[clientTypeMajor];
     }
 
     public ClientTypeMinor getClientTypeMinor() {
-        return clientTypeMinor;
+        return (clientTypeMinor == NO_CLIENT_TYPE) ? null : CLIENT_TYPES_MINOR[clientTypeMinor];
     }
 
     public String getClientPlatformVersion() {
@@ -91,19 +112,24 @@ public class WorkerClientInfo {
         return clientAppVersion;
     }
 
+    /* @return    The custom client data, parsed anew on each call (so changes to it are not kept), or
+     *            null if there is none
+     */
     public JsonObject getCustomClientData() {
-        return customClientData;
+        if (customClientData == null) {
+            return null;
+        }
+
+        return new JsonParser().parse(new String(customClientData, StandardCharsets.UTF_8)).getAsJsonObject();
     }
 
     public JsonElement getFromCustomClientData(final String key) {
-        if (customClientData != null && customClientData.has(key)) {
-            return customClientData.get(key);
+        JsonObject data = getCustomClientData();
+        if (data != null && data.has(key)) {
+            return data.get(key);
         } else {
             return null;
         }
     }
 
-
-
-
 }
@@ -0,0 +1,11 @@
+package me.scai.utilities;
+
+/* Source of the current time of a pool, for the last-use time stamps of its workers, their expiry
+ * and their message rates.
+ *
+ * Implementations must be thread-safe, and should be cheap: the clock is read on every touch and
+ * message count. See SystemWorkerClock (the default), CoarseWorkerClock and ManualWorkerClock. */
+public interface WorkerClock {
+    /* @return    Current time, in milliseconds since the epoch */
+    public long currentTimeMillis();
+}
@@ -0,0 +1,10 @@
+package me.scai.utilities;
+
+/* Why a worker left the pool */
+public enum WorkerEndReason {
+    Removed,    /* Removed normally, through removeWorker() */
+    Purged,     /* Purged after timing out */
+    Relayed,    /* Handed over to a new worker ID, through relayWorker() */
+    Evicted     /* Evicted to make room for a new worker, by the eviction policy of the pool, or to give a
+                 * client type back its reserved slots */
+}
@@ -0,0 +1,53 @@
+package me.scai.utilities;
+
+import java.util.Date;
+
+/* One lifecycle event of a worker */
+public class WorkerEvent {
+    /* Member variables */
+    private final WorkerEventType type;
+    private final String workerId;
+    private final long timeMillis;
+    private final WorkerClientInfo clientInfo;
+    private final String previousWorkerId;
+
+    /* Constructor */
+    WorkerEvent(final WorkerEventType type,
+                final String workerId,
+                final long timeMillis,
+                final WorkerClientInfo clientInfo,
+                final String previousWorkerId) {
+        this.type             = type;
+        this.workerId         = workerId;
+        this.timeMillis       = timeMillis;
+        this.clientInfo       = clientInfo;
+        this.previousWorkerId = previousWorkerId;
+    }
+
+    /* Getters */
+    public WorkerEventType getType() {
+        return type;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public Date getTimestamp() {
+        return new Date(timeMillis);
+    }
+
+    public WorkerClientInfo getClientInfo() {
+        return clientInfo;
+    }
+
+    /* @return    The previous worker ID, for Relayed events. null otherwise. */
+    public String getPreviousWorkerId() {
+        return previousWorkerId;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + workerId;
+    }
+}
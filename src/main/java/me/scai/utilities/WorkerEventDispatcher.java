@@ -0,0 +1,284 @@
+package me.scai.utilities;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/* Delivers the lifecycle events of a pool to its listeners, off the calling threads.
+ *
+ * Published events go to a bounded lock-free queue, which is drained by one task at a time on the
+ * delivery executor, so listeners see the events in order. With no listener registered, publishing
+ * is a no-op and no event is even created.
+ *
+ * The executor defaults to a daemon thread owned by the dispatcher, started with the first event. */
+public class WorkerEventDispatcher {
+    /* Constants */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private static final int MAX_DRAIN_BATCH = 1024;    /* Events delivered per task, so as not to hog a shared executor */
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /* Member variables */
+    private final List<WorkerEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Queue<WorkerEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger(); /* Including the slots reserved by publishers in flight */
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile EventOverflowPolicy overflowPolicy = EventOverflowPolicy.DropNewest;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile Thread drainingThread;     /* Thread running the drain task, if any */
+
+    private Executor executor;          /* Guarded by this */
+    private boolean ownsExecutor;
+    private volatile boolean shutDown;
+
+    private final LongAdder numPublished = new LongAdder();
+    private final LongAdder numDelivered = new LongAdder();
+    private final LongAdder numDropped = new LongAdder();
+    private final LongAdder numListenerFailures = new LongAdder();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /* Constructor */
+    WorkerEventDispatcher() {
+    }
+
+    void addListener(WorkerEventListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Event listener must not be null");
+        }
+
+        listeners.add(listener);
+    }
+
+    void removeListener(WorkerEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /* Cheap check, so that the pool can skip building events nobody listens to */
+    boolean hasListeners() {
+        return !listeners.isEmpty() && !shutDown;
+    }
+
+    /* Setters */
+    /* Deliver the events on the given executor instead of a thread owned by the dispatcher. The
+     * executor is not shut down by shutdown().
+     *
+     * @throws    IllegalStateException if events have already been delivered on another executor
+     */
+    public synchronized void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Event executor must not be null");
+        }
+        if (this.executor != null) {
+            throw new IllegalStateException("Event executor is already set");
+        }
+
+        this.executor = executor;
+        this.ownsExecutor = false;
+    }
+
+    /* Set the maximum number of events waiting for delivery */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid event queue capacity: " + queueCapacity);
+        }
+
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setOverflowPolicy(EventOverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Event overflow policy must not be null");
+        }
+
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /* Getters */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public EventOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /* Number of events waiting for delivery */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getNumPublished() {
+        return numPublished.sum();
+    }
+
+    public long getNumDelivered() {
+        return numDelivered.sum();
+    }
+
+    /* Number of events dropped because the queue was full, or because the dispatcher was shut down */
+    public long getNumDropped() {
+        return numDropped.sum();
+    }
+
+    /* Number of listener calls that threw */
+    public long getNumListenerFailures() {
+        return numListenerFailures.sum();
+    }
+
+    /* Queue an event for delivery */
+    void publish(WorkerEvent event) {
+        if (shutDown || !reserveSlot()) {
+            numDropped.increment();
+            return;
+        }
+
+        queue.offer(event);
+        numPublished.increment();
+
+        scheduleDrain();
+    }
+
+    /* Reserve room for one event in the queue, according to the overflow policy
+     *
+     * @return    false if the event is to be dropped
+     */
+    private boolean reserveSlot() {
+        while (true) {
+            final int size = queueSize.get();
+            if (size < queueCapacity) {
+                if (queueSize.compareAndSet(size, size + 1)) {
+                    return true;
+                }
+                continue;
+            }
+
+            if (shutDown) {
+                return false;
+            }
+
+            switch (overflowPolicy) {
+                case DropOldest:
+                    /* Take the slot of the oldest event over, unless a drain got to it first */
+                    if (queue.poll() != null) {
+                        numDropped.increment();
+                        return true;
+                    }
+                    break;
+                case Block:
+                    if (Thread.currentThread() == drainingThread) {
+                        return false; /* A listener calling back into the pool would wait for itself */
+                    }
+                    scheduleDrain();
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if ( !queue.isEmpty() && drainScheduled.compareAndSet(false, true) ) {
+            try {
+                getExecutor().execute(drainTask);
+            } catch (RejectedExecutionException exc) {
+                drainScheduled.set(false);
+                discardQueued();
+            }
+        }
+    }
+
+    private synchronized Executor getExecutor() {
+        if (shutDown) {
+            throw new RejectedExecutionException("Event dispatcher has been shut down");
+        }
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "worker-pool-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            ownsExecutor = true;
+        }
+
+        return executor;
+    }
+
+    private void drain() {
+        drainingThread = Thread.currentThread();
+        try {
+            for (int i = 0; i < MAX_DRAIN_BATCH; ++i) {
+                WorkerEvent event = queue.poll();
+                if (event == null) {
+                    break;
+                }
+                queueSize.decrementAndGet();
+
+                deliver(event);
+            }
+        } finally {
+            drainingThread = null;
+            drainScheduled.set(false);
+        }
+
+        /* Pick up what was published during the last poll, or left over by the batch limit */
+        scheduleDrain();
+    }
+
+    private void deliver(WorkerEvent event) {
+        for (WorkerEventListener listener : listeners) {
+            try {
+                listener.onWorkerEvent(event);
+            } catch (RuntimeException exc) {
+                numListenerFailures.increment();
+            }
+        }
+
+        numDelivered.increment();
+    }
+
+    private void discardQueued() {
+        while (queue.poll() != null) {
+            queueSize.decrementAndGet();
+            numDropped.increment();
+        }
+    }
+
+    /* Stop delivering events. Events still queued are dropped, and so are the events published
+     * afterwards. Releases the thread owned by the dispatcher, if any. */
+    synchronized void shutdown() {
+        if (shutDown) {
+            return;
+        }
+
+        shutDown = true;
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+
+        discardQueued();
+    }
+}
@@ -0,0 +1,7 @@
+package me.scai.utilities;
+
+/* Receives the lifecycle events of the workers of a pool. Called on the event delivery thread, one
+ * event at a time, in the order the events were published. */
+public interface WorkerEventListener {
+    public void onWorkerEvent(WorkerEvent event);
+}
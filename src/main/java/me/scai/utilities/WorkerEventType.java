@@ -0,0 +1,12 @@
+package me.scai.utilities;
+
+/* Lifecycle events published by a WorkerPool */
+public enum WorkerEventType {
+    Registered,         /* Worker has joined the pool */
+    TouchedAfterIdle,   /* Worker has been used again after being idle for at least the idle threshold */
+    Relayed,            /* Worker has been given a previous worker, through setPreviousWorkerId(), or has taken
+                         * over the previous worker through relayWorker() */
+    Removed,            /* Worker has been removed, through removeWorker(), removeWorkers() or clearWorkers() */
+    Purged,             /* Worker has been purged after timing out */
+    Evicted             /* Worker has been evicted to make room for a new worker */
+}
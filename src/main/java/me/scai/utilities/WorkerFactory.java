@@ -0,0 +1,14 @@
+package me.scai.utilities;
+
+/* Builds the workers of a pool that keeps warm spares (see WorkerPoolImpl.setWorkerFactory()).
+ * Called on the spare executor, except when a registration finds no spare left. */
+public interface WorkerFactory {
+    /* Build a new worker */
+    public PooledWorker create();
+
+    /* Prepare a worker handed back with WorkerPoolImpl.releaseWorker() for another session
+     *
+     * @return   true if the worker can be reused as a spare, false to let it be garbage-collected
+     */
+    public boolean reset(PooledWorker wkr);
+}
@@ -0,0 +1,44 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+
+import java.util.Date;
+import java.util.function.Predicate;
+
+/* Common filters for listing workers with WorkerPool.getWorkers() and streamWorkers(). They combine
+ * with the and() / or() / negate() of Predicate. */
+public final class WorkerFilters {
+    private WorkerFilters() {}
+
+    /* Workers not used for longer than the given time, as of when the filter is applied */
+    public static Predicate<WorkerSnapshot> idleLongerThan(final long idleMillis) {
+        return new Predicate<WorkerSnapshot>() {
+            @Override
+            public boolean test(WorkerSnapshot wkr) {
+                return System.currentTimeMillis() - wkr.lastUseMillis > idleMillis;
+            }
+        };
+    }
+
+    /* Workers registered before the given time */
+    public static Predicate<WorkerSnapshot> createdBefore(final Date timestamp) {
+        final long t = timestamp.getTime();
+
+        return new Predicate<WorkerSnapshot>() {
+            @Override
+            public boolean test(WorkerSnapshot wkr) {
+                return wkr.createdMillis < t;
+            }
+        };
+    }
+
+    /* Workers of the given major client type */
+    public static Predicate<WorkerSnapshot> clientTypeMajor(final ClientTypeMajor clientTypeMajor) {
+        return new Predicate<WorkerSnapshot>() {
+            @Override
+            public boolean test(WorkerSnapshot wkr) {
+                return wkr.getClientInfo() != null && wkr.getClientInfo().getClientTypeMajor() == clientTypeMajor;
+            }
+        };
+    }
+}
@@ -0,0 +1,201 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Fixed-capacity ring buffer of the workers that have left the pool.
+ *
+ * Entries are stored column-wise in primitive arrays (ID, end reason, end time, client type ordinals),
+ * so that no reference to the worker or to its WorkerClientInfo outlives the worker. Entries are
+ * dropped when the buffer is full and when they are older than the maximum age. The per-reason
+ * counts are kept separately and are not affected by retention. */
+class WorkerHistory {
+    /* Constants */
+    static final int DEFAULT_MAX_NUM_ENTRIES = 1024;
+    static final long UNLIMITED_AGE = Long.MAX_VALUE;
+
+    private static final WorkerEndReason[] END_REASONS = WorkerEndReason.values();
+    private static final ClientTypeMajor[] CLIENT_TYPES_MAJOR = ClientTypeMajor.values();
+    private static final ClientTypeMinor[] CLIENT_TYPES_MINOR = ClientTypeMinor.values();
+
+    private static final byte NO_CLIENT_TYPE = -1;
+
+    /* Member variables */
+    private long[] idsHigh;         /* WorkerId, most significant bits */
+    private long[] idsLow;          /* WorkerId, least significant bits */
+    private byte[] endReasons;
+    private long[] endTimes;
+    private byte[] clientTypesMajor;
+    private byte[] clientTypesMinor;
+
+    private int head;   /* Index of the oldest entry */
+    private int size;
+
+    private long maxAgeMillis;
+
+    private final AtomicLongArray counts = new AtomicLongArray(END_REASONS.length);
+
+    /* Constructor */
+    WorkerHistory(final int maxNumEntries, final long maxAgeMillis) {
+        allocate(maxNumEntries);
+        this.maxAgeMillis = checkMaxAge(maxAgeMillis);
+    }
+
+    private void allocate(int maxNumEntries) {
+        if (maxNumEntries < 0) {
+            throw new IllegalArgumentException("Invalid maximum number of history entries: " + maxNumEntries);
+        }
+
+        idsHigh          = new long[maxNumEntries];
+        idsLow           = new long[maxNumEntries];
+        endReasons       = new byte[maxNumEntries];
+        endTimes         = new long[maxNumEntries];
+        clientTypesMajor = new byte[maxNumEntries];
+        clientTypesMinor = new byte[maxNumEntries];
+
+        head = 0;
+        size = 0;
+    }
+
+    private static long checkMaxAge(long maxAgeMillis) {
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Invalid maximum age of history entries: " + maxAgeMillis);
+        }
+
+        return maxAgeMillis;
+    }
+
+    /* Record a worker that has left the pool */
+    void add(final WorkerRecord rec, final WorkerEndReason endReason, final long endTimeMillis) {
+        counts.incrementAndGet(endReason.ordinal());
+
+        synchronized (this) {
+            append(rec, endReason, endTimeMillis);
+            dropExpired(endTimeMillis);
+        }
+    }
+
+    /* Record workers that have left the pool together, taking the monitor once */
+    void addAll(final List<WorkerRecord> recs, final WorkerEndReason endReason, final long endTimeMillis) {
+        if (recs.isEmpty()) {
+            return;
+        }
+
+        counts.addAndGet(endReason.ordinal(), recs.size());
+
+        synchronized (this) {
+            for (WorkerRecord rec : recs) {
+                append(rec, endReason, endTimeMillis);
+            }
+            dropExpired(endTimeMillis);
+        }
+    }
+
+    /* Must hold the monitor */
+    private void append(final WorkerRecord rec, final WorkerEndReason endReason, final long endTimeMillis) {
+        final int capacity = idsHigh.length;
+        if (capacity == 0) {
+            return;
+        }
+
+        int idx;
+        if (size < capacity) {
+            idx = (head + size) % capacity;
+            size++;
+        } else {
+            idx = head; /* Overwrite the oldest entry */
+            head = (head + 1) % capacity;
+        }
+
+        final WorkerClientInfo clientInfo = rec.clientInfo;
+        final ClientTypeMajor major = (clientInfo == null) ? null : clientInfo.getClientTypeMajor();
+        final ClientTypeMinor minor = (clientInfo == null) ? null : clientInfo.getClientTypeMinor();
+
+        idsHigh[idx]          = rec.id.getMostSignificantBits();
+        idsLow[idx]           = rec.id.getLeastSignificantBits();
+        endReasons[idx]       = (byte) endReason.ordinal();
+        endTimes[idx]         = endTimeMillis;
+        clientTypesMajor[idx] = (major == null) ? NO_CLIENT_TYPE : (byte) major.ordinal();
+        clientTypesMinor[idx] = (minor == null) ? NO_CLIENT_TYPE : (byte) minor.ordinal();
+    }
+
+    /* Drop the entries older than the maximum age. Must hold the monitor. */
+    private void dropExpired(long nowMillis) {
+        if (maxAgeMillis == UNLIMITED_AGE) {
+            return;
+        }
+
+        while (size > 0 && nowMillis - endTimes[head] > maxAgeMillis) {
+            head = (head + 1) % idsHigh.length;
+            size--;
+        }
+    }
+
+    /* Get the retained entries, oldest first */
+    synchronized List<WorkerHistoryEntry> getEntries(long nowMillis) {
+        dropExpired(nowMillis);
+
+        List<WorkerHistoryEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            final int idx = (head + i) % idsHigh.length;
+
+            entries.add(new WorkerHistoryEntry(new WorkerId(idsHigh[idx], idsLow[idx]).toString(),
+                                               END_REASONS[endReasons[idx]],
+                                               endTimes[idx],
+                                               (clientTypesMajor[idx] == NO_CLIENT_TYPE) ? null : CLIENT_TYPES_MAJOR[clientTypesMajor[idx]],
+                                               (clientTypesMinor[idx] == NO_CLIENT_TYPE) ? null : CLIENT_TYPES_MINOR[clientTypesMinor[idx]]));
+        }
+
+        return entries;
+    }
+
+    /* Change the retention. The newest entries that fit are kept. */
+    synchronized void setRetention(final int maxNumEntries, final long maxAgeMillis, final long nowMillis) {
+        if (maxNumEntries < 0) {
+            throw new IllegalArgumentException("Invalid maximum number of history entries: " + maxNumEntries);
+        }
+
+        this.maxAgeMillis = checkMaxAge(maxAgeMillis);
+        dropExpired(nowMillis);
+
+        final long[] oldIdsHigh   = idsHigh;
+        final long[] oldIdsLow    = idsLow;
+        final byte[] oldReasons   = endReasons;
+        final long[] oldTimes     = endTimes;
+        final byte[] oldMajors    = clientTypesMajor;
+        final byte[] oldMinors    = clientTypesMinor;
+        final int oldHead         = head;
+        final int oldSize         = size;
+
+        allocate(maxNumEntries);
+
+        for (int i = oldSize - Math.min(oldSize, maxNumEntries); i < oldSize; ++i) {
+            final int oldIdx = (oldHead + i) % oldIdsHigh.length;
+
+            idsHigh[size]          = oldIdsHigh[oldIdx];
+            idsLow[size]           = oldIdsLow[oldIdx];
+            endReasons[size]       = oldReasons[oldIdx];
+            endTimes[size]         = oldTimes[oldIdx];
+            clientTypesMajor[size] = oldMajors[oldIdx];
+            clientTypesMinor[size] = oldMinors[oldIdx];
+            size++;
+        }
+    }
+
+    synchronized int getMaxNumEntries() {
+        return idsHigh.length;
+    }
+
+    synchronized long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /* Get the number of workers that have ever ended for the given reason, retained or not */
+    long getCount(WorkerEndReason endReason) {
+        return counts.get(endReason.ordinal());
+    }
+}
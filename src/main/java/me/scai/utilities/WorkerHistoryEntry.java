@@ -0,0 +1,51 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.util.Date;
+
+/* Record of a worker that has left the pool. Only keeps what is needed to account for the worker,
+ * not the worker or its client info. */
+public class WorkerHistoryEntry {
+    /* Member variables */
+    private final String workerId;
+    private final WorkerEndReason endReason;
+    private final long endTimeMillis;
+    private final ClientTypeMajor clientTypeMajor;
+    private final ClientTypeMinor clientTypeMinor;
+
+    /* Constructor */
+    WorkerHistoryEntry(final String workerId,
+                       final WorkerEndReason endReason,
+                       final long endTimeMillis,
+                       final ClientTypeMajor clientTypeMajor,
+                       final ClientTypeMinor clientTypeMinor) {
+        this.workerId        = workerId;
+        this.endReason       = endReason;
+        this.endTimeMillis   = endTimeMillis;
+        this.clientTypeMajor = clientTypeMajor;
+        this.clientTypeMinor = clientTypeMinor;
+    }
+
+    /* Getters */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public WorkerEndReason getEndReason() {
+        return endReason;
+    }
+
+    public Date getEndTimestamp() {
+        return new Date(endTimeMillis);
+    }
+
+    public ClientTypeMajor getClientTypeMajor() {
+        return clientTypeMajor;
+    }
+
+    public ClientTypeMinor getClientTypeMinor() {
+        return clientTypeMinor;
+    }
+}
@@ -0,0 +1,122 @@
+package me.scai.utilities;
+
+/* Compact worker ID: 128 bits held as two longs.
+ *
+ * This is what the pool keys its workers by, as it hashes and compares much faster than the 36-char
+ * string. The external string form is the usual 8-4-4-4-12 hex layout of a UUID, created on demand
+ * and cached. IDs order as their string forms do. */
+public final class WorkerId implements Comparable<WorkerId> {
+    /* Constants */
+    private static final int STRING_LENGTH = 36;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /* Member variables */
+    private final long mostSigBits;
+    private final long leastSigBits;
+
+    private String string; /* Cached external form. Racy single-check: Strings are safe to publish that way. */
+
+    /* Constructor */
+    public WorkerId(final long mostSigBits, final long leastSigBits) {
+        this.mostSigBits  = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+
+    /* Getters */
+    public long getMostSignificantBits() {
+        return mostSigBits;
+    }
+
+    public long getLeastSignificantBits() {
+        return leastSigBits;
+    }
+
+    /* Parse the external form
+     *
+     * @param    str: worker ID in the 8-4-4-4-12 hex layout (either case)
+     * @return   The parsed ID, or null if str is null or not well-formed
+     */
+    public static WorkerId parse(final String str) {
+        if (str == null || str.length() != STRING_LENGTH ||
+            str.charAt(8) != '-' || str.charAt(13) != '-' || str.charAt(18) != '-' || str.charAt(23) != '-') {
+            return null;
+        }
+
+        long msb = 0L;
+        long lsb = 0L;
+        for (int i = 0; i < STRING_LENGTH; ++i) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+
+            final int digit = Character.digit(str.charAt(i), 16);
+            if (digit < 0) {
+                return null;
+            }
+
+            if (i < 19) {
+                msb = (msb << 4) | digit;
+            } else {
+                lsb = (lsb << 4) | digit;
+            }
+        }
+
+        return new WorkerId(msb, lsb);
+    }
+
+    @Override
+    public String toString() {
+        String str = string;
+        if (str == null) {
+            char[] chars = new char[STRING_LENGTH];
+
+            formatHex(chars, 0, mostSigBits >>> 32, 8);
+            chars[8] = '-';
+            formatHex(chars, 9, mostSigBits >>> 16, 4);
+            chars[13] = '-';
+            formatHex(chars, 14, mostSigBits, 4);
+            chars[18] = '-';
+            formatHex(chars, 19, leastSigBits >>> 48, 4);
+            chars[23] = '-';
+            formatHex(chars, 24, leastSigBits, 12);
+
+            str = new String(chars);
+            string = str;
+        }
+
+        return str;
+    }
+
+    private static void formatHex(char[] chars, int offset, long value, int numDigits) {
+        for (int i = numDigits - 1; i >= 0; --i) {
+            chars[offset + i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    @Override
+    public int compareTo(WorkerId other) {
+        final int cmp = Long.compareUnsigned(mostSigBits, other.mostSigBits);
+
+        return (cmp != 0) ? cmp : Long.compareUnsigned(leastSigBits, other.leastSigBits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ( !(obj instanceof WorkerId) ) {
+            return false;
+        }
+
+        WorkerId other = (WorkerId) obj;
+        return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
+    }
+
+    @Override
+    public int hashCode() {
+        long hilo = mostSigBits ^ leastSigBits;
+        return ((int) (hilo >> 32)) ^ (int) hilo;
+    }
+}
@@ -0,0 +1,10 @@
+package me.scai.utilities;
+
+/* Source of the IDs of newly registered workers.
+ *
+ * Implementations must be thread-safe. The pool retries on the (unlikely) event of an ID that is
+ * already in use, so an implementation only has to make collisions improbable. */
+public interface WorkerIdGenerator {
+    /* Generate a new worker ID */
+    public WorkerId nextId();
+}
@@ -0,0 +1,31 @@
+package me.scai.utilities;
+
+import java.util.List;
+
+/* One page of a listing of the workers of a pool, in worker ID order */
+public class WorkerPage {
+    /* Member variables */
+    private final List<WorkerSnapshot> workers;
+    private final String nextCursor;
+
+    /* Constructor */
+    WorkerPage(final List<WorkerSnapshot> workers, final String nextCursor) {
+        this.workers    = workers;
+        this.nextCursor = nextCursor;
+    }
+
+    /* Getters */
+    /* @return    The workers of the page (unmodifiable) */
+    public List<WorkerSnapshot> getWorkers() {
+        return workers;
+    }
+
+    /* @return    Cursor to pass to get the next page, or null if this is the last page */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -1,15 +1,69 @@
 package me.scai.utilities;
 
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Created by scai on 4/11/2015.
  */
 public interface WorkerPool {
+    /* Maximum number of links followed by getRootWorkerId() */
+    public static final int MAX_RELAY_CHAIN_LENGTH = 32;
+
     public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo);
 
+    /* Register new worker, with the reason if it is turned down: the pool is full, or the client
+     * address is over the limits set on the pool (if any). registerWorker() goes through the same
+     * limits, and returns null for any of the reasons.
+     *
+     * @return   The ID of the new worker, or the reason it was turned down
+     */
+    public RegistrationResult tryRegisterWorker(PooledWorker wkr, WorkerClientInfo wkrInfo);
+
+    /* Register several new workers at once, against the capacity of the pool as a whole
+     *
+     * @param    wkrs: workers to register
+     * @param    wkrClientInfos: client infos of the workers, in the same order
+     * @return   identifiers of the newly created workers, in the same order, if there are enough
+     *           free slots for all of them. null (and nothing registered) otherwise.
+     * @throws   IllegalArgumentException if the two lists differ in length
+     */
+    public List<String> registerWorkers(List<? extends PooledWorker> wkrs, List<WorkerClientInfo> wkrClientInfos);
+
+    /* Register new worker, waiting up to the given time for a slot if the pool is full. Slots freed
+     * by removal or purging are handed to the waiting registrations in admission order.
+     *
+     * @return   identifier of the newly created worker, or null if no slot was freed in time, if
+     *           too many registrations were waiting already, or if the client address is over its
+     *           limits
+     * @throws   InterruptedException if interrupted while waiting
+     */
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrInfo, long timeout, TimeUnit unit)
+            throws InterruptedException;
+
+    /* Register new worker as soon as there is a slot for it
+     *
+     * @return   future of the identifier of the newly created worker. It completes with null right
+     *           away if too many registrations are waiting already, or if the client address is over
+     *           its limits. Cancelling it gives up the place
+     *           in the queue. It is completed on the thread that freed the slot, so dependent actions
+     *           that are not quick should use the ...Async methods of the future.
+     */
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo);
+
+    /* Same as above, with the given priority (higher first) under priority admission order */
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrInfo, int priority);
+
     /**
      * Set previous worker ID, for situations of "relayed" worker
      *
@@ -27,6 +81,29 @@ public interface WorkerPool {
      */
     public String getPreviousWorkerId(String workerId);
 
+    /* Hand the worker of a previous session over to a new session, such as a reconnecting client.
+     * The worker leaves the pool under its previous ID and carries on under a new one, with its
+     * creation time and message count. Its slot goes straight to the new ID, so the pool never holds
+     * both. The new ID gets the previous one as its previous worker ID.
+     *
+     * @param    previousWorkerId: ID of the worker to take over
+     * @param    wkrInfo: client info of the new session
+     * @return   New ID of the worker, or null if the client type of the new session is out of capacity
+     * @throws   IllegalArgumentException if the previous worker ID is invalid (or has already been
+     *           relayed), or its worker belongs to another process
+     */
+    public String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo);
+
+    /* Get the first worker ID of the chain of relays that ends with a worker: its previous worker ID,
+     * followed through the previous worker IDs of the workers of the pool. Chains are resolved once
+     * per worker and carried over by relayWorker(), so that long-lived relayed sessions do not build
+     * up chains of links. At most MAX_RELAY_CHAIN_LENGTH links are followed.
+     *
+     * @return   The root worker ID, or workerId itself if it has no previous worker ID
+     * @throws   IllegalArgumentException if worker ID is invalid
+     */
+    public String getRootWorkerId(String workerId);
+
     /* Register new worker
      *
      * @return   identifier (UUID) of the newly created worker, if successful.
@@ -39,14 +116,29 @@ public interface WorkerPool {
      */
     public void removeWorker(String workerId);
 
+    /* Remove several workers at once
+     *
+     * @param    identifiers of the workers to remove
+     * @return   the removed workers, and the IDs that were not in the pool
+     */
+    public BatchResult<PooledWorker> removeWorkers(Collection<String> workerIds);
+
     /* Increment worker message count
      *
      * @param    worker ID
-     * @return   current message count after the incrementing
+     * @return   current message count after the incrementing (with concurrent increments of the
+     *           same worker, this may already include some of the other increments)
      * @throws   IllegalArgumentException on invalid worker ID
      */
     public int incrementMessageCount(String workerId);
 
+    /* Add to the message counts of several workers at once
+     *
+     * @param    deltas: number of messages to add, keyed by worker ID
+     * @return   the message counts after the addition, and the IDs that were not in the pool
+     */
+    public BatchResult<Integer> addMessageCounts(Map<String, Integer> deltas);
+
     /* Get the current message count
      *
      * @param    worker ID
@@ -75,6 +167,32 @@ public interface WorkerPool {
      */
     public float getEffectiveAverageMessageRate(String workerId);
 
+    /* Get the message rate over a sliding window of the last complete seconds
+     *
+     * @param    worker ID
+     * @param    window: length of the window
+     * @return   message rate over the window (s ^ -1)
+     * @throws   IllegalArgumentException on invalid worker ID
+     */
+    public float getMessageRate(String workerId, MessageRateWindow window);
+
+    /* Get the exponentially weighted moving average of the message rate, with a time constant of
+     *     one minute, over the last complete seconds
+     *
+     * @param    worker ID
+     * @return   moving average message rate (s ^ -1)
+     * @throws   IllegalArgumentException on invalid worker ID
+     */
+    public float getEwmaMessageRate(String workerId);
+
+    /* Get the workers with the most messages over a sliding window
+     *
+     * @param    n: maximum number of workers to return
+     * @param    window: length of the window
+     * @return   IDs of up to n workers with messages in the window, busiest first
+     */
+    public List<String> getBusiestWorkers(int n, MessageRateWindow window);
+
     /* Clear all workers in the pool */
     public void clearWorkers();
 
@@ -89,6 +207,19 @@ public interface WorkerPool {
     /* Update timestamp */
     public void updateWorkerTimestamp(String workerId, Date timestamp);
 
+    /* The same, with the time stamp in milliseconds since the epoch, which allocates nothing */
+    public void updateWorkerTimestamp(String workerId, long timestampMillis);
+
+    /* Set the last-use time stamp of a worker to the current time of the pool's clock. Ignores unknown
+     * worker IDs, like updateWorkerTimestamp(). */
+    public void touchWorker(String workerId);
+
+    /* Update the timestamps of several workers at once, to the same time
+     *
+     * @return   the workers that have been updated, and the IDs that were not in the pool
+     */
+    public BatchResult<Date> updateWorkerTimestamps(Collection<String> workerIds, Date timestamp);
+
     /* Purge: check the status of all workers, remove ones that have expired
      *
      *
@@ -120,6 +251,11 @@ public interface WorkerPool {
      */
     public int getNumAvailableSlots();
 
+    /* Get number of slots available to the workers of a major client type: at most
+     * getNumAvailableSlots(), and fewer if the pool partitions its capacity by client type and the
+     * partition of the type is short of room */
+    public int getNumAvailableSlots(ClientTypeMajor clientTypeMajor);
+
     /* Get the maximum number of workers */
     public int getMaxNumWorkers();
 
@@ -132,9 +268,45 @@ public interface WorkerPool {
     /* Set worker timeout */
     public void setWorkerTimeout(long timeoutMillis);
 
+    /* Get the timeout currently applied to the workers of a major client type (or null for the
+     * workers without one): the worker timeout, unless the pool adapts its timeouts to its occupancy */
+    public long getEffectiveWorkerTimeout(ClientTypeMajor clientTypeMajor);
+
     /* Get list of workers */
     public Map<String, WorkerClientInfo> getWorkersClientInfo();
 
+    /* Get the number of workers of a client type. Like getCurrNumWorkers(), this counts the workers
+     * until they are removed or purged. */
+    public int getNumWorkers(ClientTypeMajor clientTypeMajor);
+
+    public int getNumWorkers(ClientTypeMinor clientTypeMinor);
+
+    /* Get the IDs of the workers of a client type, or from a client address, in no particular order */
+    public List<String> getWorkerIds(ClientTypeMajor clientTypeMajor);
+
+    public List<String> getWorkerIds(ClientTypeMinor clientTypeMinor);
+
+    public List<String> getWorkerIds(InetAddress clientIPAddress);
+
+    /* Get one page of the live workers, in worker ID order. Costs in proportion to the workers
+     * visited for the page, not to the size of the pool, and neither purges nor blocks registration.
+     * Workers that have timed out but are not purged yet are left out.
+     *
+     * The listing is weakly consistent: a worker registered or removed while paging may or may not
+     * show up, but no worker shows up twice.
+     *
+     * @param    cursor: getNextCursor() of the previous page, or null for the first page
+     * @param    pageSize: maximum number of workers in the page
+     * @param    filter: workers to include, or null for all of them (see WorkerFilters)
+     * @return   The page
+     * @throws   IllegalArgumentException if the cursor is not well-formed, or pageSize is not positive
+     */
+    public WorkerPage getWorkers(String cursor, int pageSize, Predicate<WorkerSnapshot> filter);
+
+    /* Lazily stream the live workers, with the same weak consistency as getWorkers(), in no
+     * particular order. Workers are only read as the stream gets to them. */
+    public Stream<WorkerSnapshot> streamWorkers();
+
     /* Get timestamp of creation */
     public Date getCreatedTimestamp(String workerId);
 
@@ -143,4 +315,22 @@ public interface WorkerPool {
 
     /* Get number of normally removed workers */
     public int getNumNormallyRemovedWorkers();
+
+    /* Get the history of the workers that have left the pool (removed, purged, relayed or evicted), oldest first
+     *
+     * @return    The retained history entries. Retention is bounded, so this may not cover every
+     *            worker counted by getNumPurgedWorkers() and getNumNormallyRemovedWorkers().
+     */
+    public List<WorkerHistoryEntry> getWorkerHistory();
+
+    /* Subscribe to the lifecycle events of the workers: registered, touched after idle, relayed,
+     * removed and purged. Listeners are called asynchronously, never on the thread of the pool
+     * operation that caused the event.
+     *
+     * @param    listener: listener to add
+     */
+    public void addWorkerEventListener(WorkerEventListener listener);
+
+    /* Unsubscribe from the lifecycle events of the workers */
+    public void removeWorkerEventListener(WorkerEventListener listener);
 }
@@ -1,50 +1,154 @@
 package me.scai.utilities;
 
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Created by scai on 4/11/2015.
  */
 public class WorkerPoolImpl implements WorkerPool {
+    /* Constants */
+    /* Maximum number of expired workers reclaimed inline by a registration that finds the pool full,
+     * when a background reaper is running */
+    private static final int INLINE_RECLAIM_LIMIT = 16;
+
+    /* Default number of workers sampled per eviction */
+    public static final int DEFAULT_EVICTION_SAMPLE_SIZE = 8;
+
+    /* Maximum number of evictions by one registration, whose freed slots other registrations or
+     * waiters may take first */
+    static final int MAX_EVICTIONS_PER_REGISTRATION = 4;
+
+    /* Default idle time after which a touch is published as a TouchedAfterIdle event */
+    public static final long DEFAULT_TOUCH_IDLE_THRESHOLD_MILLIS = 60L * 1000L;
+
+    /* Period at which the journal of a persistent pool is written out */
+    private static final long JOURNAL_FLUSH_PERIOD_MILLIS = 1000L;
+
+    private static final ClientTypeMajor[] CLIENT_TYPES_MAJOR = ClientTypeMajor.values();
+
+    private static final Comparator<WorkerRecord> BY_CREATION = new Comparator<WorkerRecord>() {
+        @Override
+        public int compare(WorkerRecord rec0, WorkerRecord rec1) {
+            final int cmp = Long.compare(rec0.createdMillis, rec1.createdMillis);
+
+            return (cmp != 0) ? cmp : rec0.id.compareTo(rec1.id);
+        }
+    };
+
     /* Member variables */
-    private AtomicInteger maxNumWorkers = new AtomicInteger();  /* The maximum number of workers */
     private AtomicLong workerTimeoutMillis = new AtomicLong();  /* Timeout for workers */
 
-    private Map<String, PooledWorker> workers = new ConcurrentHashMap<>();
-    private Map<String, WorkerClientInfo> workersClientInfo = new ConcurrentHashMap<>();
-    private Map<String, Date> workerCreatedTimestamps = new ConcurrentHashMap<>(); /* Time stamps of creation */
-    private Map<String, Date> workerTimestamps = new ConcurrentHashMap<>(); /* Time stamps of last usage */
+    /* One record per worker. Per-worker operations only touch the record's atomic fields, so they
+     * need no pool-wide lock. */
+    private final ConcurrentMap<WorkerId, WorkerRecord> workers = new ConcurrentHashMap<>();
+
+    /* The same records in worker ID order, so that listing a page of them costs O(page) */
+    private final ConcurrentNavigableMap<WorkerId, WorkerRecord> orderedWorkers = new ConcurrentSkipListMap<>();
+
+    /* The same records by client type and client address */
+    private final ClientIndex clientIndex = new ClientIndex();
+
+    /* The same records in creation order, for evicting the oldest first */
+    private final ConcurrentSkipListSet<WorkerRecord> workersByCreation = new ConcurrentSkipListSet<>(BY_CREATION);
+
+    private volatile WorkerIdGenerator idGenerator = new RandomWorkerIdGenerator();
+
+    private volatile WorkerClock clock = SystemWorkerClock.INSTANCE;
 
-    private Map<String, String> previousWorkerIds = new ConcurrentHashMap<>();
+    /* The maximum number of workers, and the number of taken slots */
+    private final SlotBudget slots;
 
-    private Map<String, Integer> workerMessageCounts = new ConcurrentHashMap<>();
+    /* Registrations waiting for a slot, which are handed the slots freed while they wait */
+    private final AdmissionQueue admissionQueue = new AdmissionQueue();
 
-    /* For keeping track of purged workers */
-    private ConcurrentLinkedDeque<String> purgedWorkers = new ConcurrentLinkedDeque<>();
-//    private Map<String, PooledWorker> purgedWorkers = new ConcurrentHashMap<>();
-    private Map<String, WorkerClientInfo> purgedWorkersInfo = new ConcurrentHashMap<>();
-    private Map<String, Date> purgedTimestamps = new ConcurrentHashMap<>();
+    /* Expiry index, so that purge() only visits the workers that are due: one wheel per major client
+     * type, plus one for the workers without one, as their timeouts may differ. Created on first use. */
+    private final AtomicReferenceArray<ExpiryWheel> expiryWheels = new AtomicReferenceArray<>(CLIENT_TYPES_MAJOR.length + 1);
 
-    private ConcurrentLinkedDeque<String> nonPurgeRemovedWorkers = new ConcurrentLinkedDeque<>();
-//    private Map<String, PooledWorker> nonPurgeRemovedWorkers = new ConcurrentHashMap<>();
-    private Map<String, WorkerClientInfo> nonPurgeRemovedWorkersInfo = new ConcurrentHashMap<>();
-    private Map<String, Date> nonPurgeRemovedTimestamps = new ConcurrentHashMap<>();
+    /* Optional timeouts per major client type, adapted to the occupancy of the pool */
+    private volatile AdaptiveTimeouts adaptiveTimeouts;
 
-    private int numEverCreatedWorkers = 0;
-    private int numNormallyRemovedWorkers = 0; /* Number of workers that have been removed normally (not purged) */
+    /* Optional background reaper, which takes purging off the registration path */
+    private ScheduledExecutorService reaperExecutor;
+    private boolean ownsReaperExecutor;
+    private volatile ScheduledFuture<?> reaperTask;
+
+    /* For keeping track of removed and purged workers */
+    private final WorkerHistory history = new WorkerHistory(WorkerHistory.DEFAULT_MAX_NUM_ENTRIES,
+                                                            WorkerHistory.UNLIMITED_AGE);
+
+    private final AtomicInteger numEverCreatedWorkers = new AtomicInteger();
+
+    /* Lifecycle events, delivered asynchronously to the listeners */
+    private final WorkerEventDispatcher events;
+    private final AtomicLong touchIdleThresholdMillis = new AtomicLong(DEFAULT_TOUCH_IDLE_THRESHOLD_MILLIS);
+
+    /* Optional limits on the registrations of each client address */
+    private volatile ClientLimiter clientLimiter;
+
+    /* Optional capacity reserved for, and capped per, major client type */
+    private volatile CapacityPartitions partitions;
+
+    /* Optional eviction of workers when the pool is full */
+    private volatile EvictionPolicy evictionPolicy;
+    private volatile int evictionSampleSize = DEFAULT_EVICTION_SAMPLE_SIZE;
+
+    /* Optional warm spare workers, for registerWorker(WorkerClientInfo) */
+    private volatile WorkerSpares spares;
+
+    /* Optional snapshots and journal, and the thread that writes them */
+    private volatile WorkerPoolStore store;
+    private ScheduledExecutorService persistenceExecutor;
+
+    /* Optional observer of the purge runs */
+    private volatile PurgeObserver purgeObserver;
 
     /* Constructor */
     public WorkerPoolImpl(final int tMaxNumWorkers, final long tWorkerTimeoutMillis) {
-        maxNumWorkers.set(tMaxNumWorkers);
+        this(new BoundedSlotBudget(tMaxNumWorkers), tWorkerTimeoutMillis, new WorkerEventDispatcher());
+    }
+
+    /* Pool drawing its slots from the given budget, and publishing its events through the given
+     * dispatcher, both of which may be shared with other pools */
+    WorkerPoolImpl(final SlotBudget slots, final long tWorkerTimeoutMillis, final WorkerEventDispatcher events) {
+        this.slots  = slots;
+        this.events = events;
         workerTimeoutMillis.set(tWorkerTimeoutMillis);
     }
 
@@ -52,249 +156,1708 @@ public class WorkerPoolImpl implements WorkerPool {
     /* @return    Worker ID (UUID) if registration is successful
      *            null if registration is unsuccessful ()
      */
-    public synchronized String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
-        purge();
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
+        return tryRegisterWorker(wkr, wkrClientInfo).getWorkerId();
+    }
+
+    @Override
+    public RegistrationResult tryRegisterWorker(final PooledWorker wkr, final WorkerClientInfo wkrClientInfo) {
+        return ClientLimiter.register(clientLimiter, wkrClientInfo, () -> registerWorker(wkr, wkrClientInfo, (WorkerId) null));
+    }
+
+    /* Limit the registrations of each client address, by the client IP address of their client info:
+     * at most registrationRate registrations per second (in bursts of up to registrationBurst), and at
+     * most maxNumWorkersPerClient live workers. Registrations over the limits are turned down, with
+     * the reason given by tryRegisterWorker(). Registrations without a client address, and batch
+     * registrations through registerWorkers(), are not limited.
+     *
+     * The state kept per address is bounded, idle addresses being evicted first. */
+    public void setClientLimits(double registrationRate, int registrationBurst, int maxNumWorkersPerClient) {
+        clientLimiter = new ClientLimiter(registrationRate, registrationBurst, maxNumWorkersPerClient,
+                                          ClientLimiter.DEFAULT_MAX_NUM_ADDRESSES, this::countWorkers);
+    }
+
+    /* Stop limiting the registrations of the client addresses */
+    public void removeClientLimits() {
+        clientLimiter = null;
+    }
+
+    /* Number of workers from a client address, in O(1) */
+    int countWorkers(InetAddress clientIPAddress) {
+        return clientIndex.get(clientIPAddress).size();
+    }
+
+    /* Register new worker, under the given ID unless it is taken (or null), for pools that choose the
+     * IDs of their workers. Not subject to the client limits of this pool. */
+    String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo, WorkerId preferredId) {
+        if ( !isReaperRunning() ) {
+            purge();
+        }
 
-        String newWkrId = null;
-        if (getNumAvailableSlots() > 0) {
-            newWkrId = UUID.randomUUID().toString();
+        final CapacityPartitions p = partitions;
+        if ( !acquireSlot(p, wkrClientInfo) ) {
+            /* With a reaper running, expired workers may still hold slots until its next run */
+            if ( !isReaperRunning() || purge(INLINE_RECLAIM_LIMIT) == null || !acquireSlot(p, wkrClientInfo) ) {
+                if ( !preemptForSlot(p, wkrClientInfo) && !evictForSlot(p, wkrClientInfo) ) {
+                    return null;
+                }
+            }
+        }
 
-            workers.put(newWkrId, wkr);
-            workersClientInfo.put(newWkrId, wkrClientInfo);
+        return registerAcquired(wkr, wkrClientInfo, preferredId, p);
+    }
 
-            workerMessageCounts.put(newWkrId, 0);
+    /* Set the policy for evicting workers when the pool is full, or null (the default) to turn
+     * registrations down instead. Only single registrations evict, not registerWorkers(). With
+     * capacity partitions, only the workers whose eviction makes room in the partition of the new
+     * worker are evicted.
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
 
-            Date now = new Date();
-            workerCreatedTimestamps.put(newWkrId, now);
-            workerTimestamps.put(newWkrId, now);         /* Initial timestamp is the time of registration */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
 
-            numEverCreatedWorkers ++;
+    /* Set the number of workers sampled per eviction, by the policies that are sampled: larger samples
+     * get closer to the best victim of the whole pool, at a higher cost */
+    public void setEvictionSampleSize(int sampleSize) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("Invalid eviction sample size: " + sampleSize);
         }
 
-        return newWkrId;
+        evictionSampleSize = sampleSize;
     }
 
+    /* Evict workers until a slot is acquired for a new one, if there is an eviction policy
+     *
+     * @return    true if a slot has been acquired
+     */
+    private boolean evictForSlot(CapacityPartitions p, WorkerClientInfo wkrClientInfo) {
+        final EvictionPolicy policy = evictionPolicy;
+        if (policy == null) {
+            return false;
+        }
 
-    @Override
-    public void setPreviousWorkerId(String workerId, String prevWorkerId) {
-        if ( !workers.containsKey(workerId) ) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        for (int i = 0; i < MAX_EVICTIONS_PER_REGISTRATION; ++i) {
+            WorkerRecord victim = selectVictim(policy, p, wkrClientInfo);
+            if (victim == null) {
+                return false;
+            }
+
+            evict(victim);
+            if (acquireSlot(p, wkrClientInfo)) {
+                return true;
+            }
         }
 
-        previousWorkerIds.put(workerId, prevWorkerId);
+        return false;
     }
 
+    /* Take back a reserved slot that another type has borrowed, for a new worker of a type below its
+     * reservation, by preempting the least recently used of the workers of the types that are
+     * borrowing. The reserved slot is held meanwhile, so that the freed slots are not borrowed again.
+     * Preempted workers are recorded as evicted.
+     *
+     * @return    true if a slot has been acquired
+     */
+    private boolean preemptForSlot(CapacityPartitions p, WorkerClientInfo wkrClientInfo) {
+        if (p == null || !p.tryAcquireReserved(wkrClientInfo)) {
+            return false;
+        }
 
-    @Override
-    public String getPreviousWorkerId(String workerId) {
-        if ( !workers.containsKey(workerId) ) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+        for (int i = 0; i < MAX_EVICTIONS_PER_REGISTRATION; ++i) {
+            WorkerRecord victim = selectBorrower(p);
+            if (victim == null) {
+                break;
+            }
+
+            evict(victim);
+            if (acquireSlot()) {
+                return true;
+            }
         }
 
-        if (!previousWorkerIds.containsKey(workerId)) {
-            return null;
+        p.release(wkrClientInfo);
+        return false;
+    }
+
+    /* Take a worker out of the pool for a new one, recording it as evicted. Its slot is released. */
+    void evict(WorkerRecord victim) {
+        if (detachWorker(victim)) {
+            final long now = clock.currentTimeMillis();
+            history.add(victim, WorkerEndReason.Evicted, now);
+            publishEvent(WorkerEventType.Evicted, victim, now);
+        }
+    }
+
+    /* Worker this pool would evict for a new one by the given policy, for a sharded pool to compare
+     * the candidates of its shards
+     *
+     * @return    The worker, or null if no worker can be evicted for the new one
+     */
+    WorkerRecord evictionCandidate(EvictionPolicy policy, WorkerClientInfo wkrClientInfo) {
+        return selectVictim(policy, partitions, wkrClientInfo);
+    }
+
+    /* Rank of a worker by an eviction policy, the lowest being evicted first */
+    double evictionRank(EvictionPolicy policy, WorkerRecord rec) {
+        return policy.rank(snapshotOf(rec), clock.currentTimeMillis());
+    }
+
+    private static WorkerSnapshot snapshotOf(WorkerRecord rec) {
+        return new WorkerSnapshot(rec.id.toString(), rec.clientInfo, rec.createdMillis, rec.lastUseMillis.get(),
+                                  (int) rec.messages.getCount(), rec.previousWorkerId);
+    }
+
+    /* Least recently used worker of the types that are borrowing. Only the wheels of those types are
+     * visited, as the wheels are by type too. */
+    private WorkerRecord selectBorrower(CapacityPartitions p) {
+        WorkerRecord lru = null;
+        for (int i = 0; i < expiryWheels.length(); ++i) {
+            final ExpiryWheel wheel = expiryWheels.get(i);
+            if (wheel == null || !p.isBorrowing(i)) {
+                continue;
+            }
+
+            WorkerRecord rec = wheel.leastRecentlyUsed(r -> r.partitions == p);
+            if (rec != null && (lru == null || rec.lastUseMillis.get() < lru.lastUseMillis.get())) {
+                lru = rec;
+            }
+        }
+
+        return lru;
+    }
+
+    /* Worker to evict for a new one: the least recently used or the oldest of the pool, found in the
+     * expiry wheels or the creation index, for the built-in policies by those; for any other policy,
+     * the lowest-ranked of a random sample of the workers.
+     *
+     * @return    The worker, or null if no worker can be evicted for the new one
+     */
+    private WorkerRecord selectVictim(EvictionPolicy policy, CapacityPartitions p, WorkerClientInfo wkrClientInfo) {
+        /* Workers that the partitions do not count (registered before they were set up) only free a
+         * slot of the pool, which is of use if the partition of the new worker has room */
+        final boolean hasRoom = p != null && p.hasRoom(wkrClientInfo);
+        final Predicate<WorkerRecord> evictable = (p == null) ? rec -> true
+                : rec -> (rec.partitions == p) ? p.wouldMakeRoom(rec.clientInfo, wkrClientInfo) : hasRoom;
+
+        if (policy == EvictionPolicies.LEAST_RECENTLY_USED) {
+            return leastRecentlyUsed(evictable);
+        } else if (policy == EvictionPolicies.OLDEST_FIRST) {
+            return oldest(evictable);
         } else {
-            return previousWorkerIds.get(workerId);
+            return lowestRankedOfSample(policy, evictable);
         }
     }
 
-    private synchronized void removeWorker(String wkrId, boolean isPurge) {
-        /* Actually perform the purge */
-        if (workers.containsKey(wkrId)) {
-            /* Book-keeping */
-            WorkerClientInfo purgedClientInfo = workersClientInfo.get(wkrId);
+    /* Least recently used worker: the least recently used of each wheel, which only visits the oldest
+     * buckets of the wheel, compared across the wheels */
+    private WorkerRecord leastRecentlyUsed(Predicate<WorkerRecord> evictable) {
+        WorkerRecord lru = null;
+        for (int i = 0; i < expiryWheels.length(); ++i) {
+            final ExpiryWheel wheel = expiryWheels.get(i);
+            WorkerRecord rec = (wheel == null) ? null : wheel.leastRecentlyUsed(evictable);
 
-            /* Do not preserve obsolete reference, so that the worker can be garbage-collected */
-            if (isPurge) {
-                purgedWorkers.add(wkrId);
-                purgedWorkersInfo.put(wkrId, purgedClientInfo);
-                purgedTimestamps.put(wkrId, new Date());
-            } else {
-                nonPurgeRemovedWorkers.add(wkrId); /* So that the worker can be garbage-collected */
-                nonPurgeRemovedWorkersInfo.put(wkrId, purgedClientInfo);
-                nonPurgeRemovedTimestamps.put(wkrId, new Date());
+            if (rec != null && (lru == null || rec.lastUseMillis.get() < lru.lastUseMillis.get())) {
+                lru = rec;
+            }
+        }
+
+        return lru;
+    }
+
+    /* Oldest worker, from the head of the creation index. O(log n), plus the workers passed over for
+     * the partitions. */
+    private WorkerRecord oldest(Predicate<WorkerRecord> evictable) {
+        for (WorkerRecord rec : workersByCreation) {
+            if ( !rec.isRemoved() && evictable.test(rec) ) {
+                return rec;
+            }
+        }
+
+        return null;
+    }
 
-                numNormallyRemovedWorkers++;
+    /* Lowest-ranked of a sample of the workers, each drawn on its own as the worker at or after a
+     * random ID in the ordered index (wrapping around to the lowest). Approximate: the workers that
+     * follow wide gaps between IDs are drawn more often, the same worker may be drawn more than once,
+     * and the best victim of the pool is only found if it is drawn. Each draw is an O(log n) seek. */
+    private WorkerRecord lowestRankedOfSample(EvictionPolicy policy, Predicate<WorkerRecord> evictable) {
+        final int sampleSize = evictionSampleSize;
+        final long now = clock.currentTimeMillis();
+
+        WorkerRecord victim = null;
+        double victimRank = 0.0;
+        int numSampled = 0;
+
+        /* More draws than the sample size, as the partitions may rule candidates out */
+        for (int i = 0; i < 4 * sampleSize && numSampled < sampleSize; ++i) {
+            WorkerRecord rec = drawWorker();
+            if (rec == null) {
+                return null;
             }
+            if (rec.isRemoved() || !evictable.test(rec)) {
+                continue;
+            }
+
+            ++numSampled;
+            final double rank = policy.rank(snapshotOf(rec), now);
+            if (victim == null || rank < victimRank) {
+                victim = rec;
+                victimRank = rank;
+            }
+        }
 
-            workers.remove(wkrId);
-            workersClientInfo.remove(wkrId);
-            workerCreatedTimestamps.remove(wkrId);
-            workerTimestamps.remove(wkrId);
+        return victim;
+    }
+
+    /* @return    Worker at or after a random ID, or null if the pool is empty. Sequential IDs with a
+     *            common prefix are drawn between the lowest and the highest. */
+    private WorkerRecord drawWorker() {
+        Map.Entry<WorkerId, WorkerRecord> first = orderedWorkers.firstEntry();
+        Map.Entry<WorkerId, WorkerRecord> last = orderedWorkers.lastEntry();
+        if (first == null || last == null) {
+            return null;
+        }
+
+        WorkerId lo = first.getKey();
+        WorkerId hi = last.getKey();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        final WorkerId key;
+        if (lo.getMostSignificantBits() == hi.getMostSignificantBits()) {
+            key = new WorkerId(lo.getMostSignificantBits(),
+                               randomBetween(random, lo.getLeastSignificantBits(), hi.getLeastSignificantBits()));
+        } else {
+            key = new WorkerId(random.nextLong(), random.nextLong()); /* Random IDs spread over the whole range */
+        }
 
-            if (previousWorkerIds.containsKey(wkrId)) {
-                previousWorkerIds.remove(wkrId);
+        Map.Entry<WorkerId, WorkerRecord> entry = orderedWorkers.ceilingEntry(key);
+        if (entry == null) {
+            entry = orderedWorkers.firstEntry();
+        }
+
+        return (entry == null) ? null : entry.getValue();
+    }
+
+    /* Random long between lo and hi (inclusive), unsigned */
+    private static long randomBetween(ThreadLocalRandom random, long lo, long hi) {
+        final long span = hi - lo;
+        if (span >= 0L && span < Long.MAX_VALUE) {
+            return lo + random.nextLong(span + 1L);
+        }
+
+        while (true) {
+            final long r = random.nextLong();
+            if (Long.compareUnsigned(r - lo, span) <= 0) {
+                return r;
             }
+        }
+    }
 
+    /* Register a worker built by the worker factory: a warm spare if one is ready, or one built inline
+     * otherwise
+     *
+     * @return    Worker ID (UUID) if registration is successful, null if the pool is full
+     * @throws    IllegalStateException if there is no worker factory
+     */
+    public String registerWorker(WorkerClientInfo wkrClientInfo) {
+        WorkerSpares s = spares;
+        if (s == null) {
+            throw new IllegalStateException("No worker factory");
+        }
+
+        PooledWorker wkr = s.claim();
+        if (wkr == null) {
+            wkr = s.getFactory().create();
         }
 
+        String wkrId = registerWorker(wkr, wkrClientInfo);
+        if (wkrId == null) {
+            s.putBack(wkr);
+        }
 
+        return wkrId;
     }
 
-    @Override
-    public synchronized void removeWorker(String wkrId) {
-        removeWorker(wkrId, false); /* The public-interface function is for non-purge (user) removal of workers */
+    /* Build workers ahead of time with the given factory, on a daemon thread owned by the pool, so
+     * that registerWorker(WorkerClientInfo) can claim them ready-made. Workers that have left the pool
+     * can be handed back with releaseWorker(), to be reset and kept as spares too.
+     *
+     * @param    factory: builds and resets the workers, or null to stop keeping spares
+     * @param    numSpares: number of spares to keep ready
+     */
+    public void setWorkerFactory(WorkerFactory factory, int numSpares) {
+        if (factory == null) {
+            setWorkerSpares(null);
+            return;
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "worker-pool-spares");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        setWorkerSpares(new WorkerSpares(factory, checkNumSpares(numSpares), executor, true));
     }
 
-    @Override
-    public synchronized void clearWorkers() {
-        workers.clear();
-        workersClientInfo.clear();
-        workerCreatedTimestamps.clear();
-        workerTimestamps.clear();
+    /* Same as above, building and resetting the workers on the given executor, such as one with
+     * several threads for factories that are slow. The executor is not shut down by shutdown(). */
+    public void setWorkerFactory(WorkerFactory factory, int numSpares, Executor executor) {
+        setWorkerSpares((factory == null) ? null : new WorkerSpares(factory, checkNumSpares(numSpares), executor, false));
     }
 
-    @Override
-    public PooledWorker getWorker(String workerId) {
-        if ( !workers.containsKey(workerId) ) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+    private static int checkNumSpares(int numSpares) {
+        if (numSpares < 0) {
+            throw new IllegalArgumentException("Invalid number of spare workers: " + numSpares);
+        }
+
+        return numSpares;
+    }
+
+    private synchronized void setWorkerSpares(WorkerSpares newSpares) {
+        if (spares != null) {
+            spares.shutdown();
+        }
+
+        spares = newSpares;
+        if (newSpares != null) {
+            newSpares.replenish();
+        }
+    }
+
+    /* Hand back a worker that has left the pool (removed, purged or evicted) once nothing uses it any
+     * more, for the worker factory to reset and keep as a spare if there is room. The pool never
+     * recycles workers by itself, as it cannot tell when the callers that got hold of one are done
+     * with it. Does nothing if there is no worker factory.
+     *
+     * @param    wkr: the worker, which must no longer be in the pool
+     */
+    public void releaseWorker(PooledWorker wkr) {
+        if (wkr == null) {
+            throw new IllegalArgumentException("Null worker");
+        }
+
+        WorkerSpares s = spares;
+        if (s != null) {
+            s.recycle(wkr);
         }
+    }
 
-        return workers.get(workerId);
+    /* @return    Statistics of the warm spares, or null if there is no worker factory */
+    public SpareWorkerStats getSpareWorkerStats() {
+        WorkerSpares s = spares;
+
+        return (s == null) ? null : s.getStats();
     }
 
     @Override
-    public synchronized void updateWorkerTimestamp(String workerId, Date timestamp) {
-        if (workers.containsKey(workerId)) {
-            workerTimestamps.put(workerId, timestamp);
+    public String registerWorker(PooledWorker wkr, WorkerClientInfo wkrClientInfo, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrClientInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return result.getWorkerId();
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrClientInfo) ) {
+            return null;
         }
+
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrClientInfo, 0);
+
+        return (waiter == null) ? null : admissionQueue.await(waiter, timeout, unit);
     }
 
     @Override
-    public synchronized int getNumAvailableSlots() {
-        return maxNumWorkers.get() - workers.size();
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrClientInfo) {
+        return registerWorkerAsync(wkr, wkrClientInfo, 0);
     }
 
     @Override
-    public synchronized List<String> purge() {
-        List<String> purgeList = new ArrayList<>();
+    public CompletableFuture<String> registerWorkerAsync(PooledWorker wkr, WorkerClientInfo wkrClientInfo, int priority) {
+        if ( !admissionQueue.hasWaiters() ) {
+            RegistrationResult result = tryRegisterWorker(wkr, wkrClientInfo);
+            if (result.getRejection() != RegistrationRejection.PoolFull) {
+                return CompletableFuture.completedFuture(result.getWorkerId());
+            }
+        } else if ( !ClientLimiter.admitsWaiter(clientLimiter, wkrClientInfo) ) {
+            return CompletableFuture.<String>completedFuture(null);
+        }
 
-        long timeout = workerTimeoutMillis.get();
-        Date nowDate = new Date();
-        long now = nowDate.getTime();
-        for (Map.Entry<String, PooledWorker> wkrEntry : workers.entrySet()) {
-            String wkrId = wkrEntry.getKey();
-            PooledWorker wkr = wkrEntry.getValue();
+        AdmissionQueue.Waiter waiter = enqueueRegistration(wkr, wkrClientInfo, priority);
+
+        return (waiter == null) ? CompletableFuture.<String>completedFuture(null) : admissionQueue.cancellableFuture(waiter);
+    }
+
+    /* Queue a registration that could not be admitted right away (or would have jumped the queue)
+     *
+     * @return    Waiter whose future completes with the worker ID on admission, or null if the
+     *            admission queue is full
+     */
+    private AdmissionQueue.Waiter enqueueRegistration(PooledWorker wkr, WorkerClientInfo wkrClientInfo, int priority) {
+        AdmissionQueue.Waiter waiter = admissionQueue.enqueue(wkr, wkrClientInfo, priority);
+        if (waiter != null) {
+            /* A slot may have been freed between the failed attempt and the enqueuing */
+            admitWaiters();
+        }
 
-            long ts = workerTimestamps.get(wkrId).getTime();
+        return waiter;
+    }
 
-            if (now - ts > timeout) {
-                removeWorker(wkrId, true);
+    /* Hand free slots to the waiting registrations, in admission order, for as long as there are both */
+    private void admitWaiters() {
+        while (admissionQueue.hasWaiters() && acquireSlot()) {
+            final CapacityPartitions p = partitions;
+            AdmissionQueue.Waiter waiter = (p == null) ? admissionQueue.poll() : admissionQueue.poll(p);
+            if (waiter == null) {
+                slots.release(1);
+                return;
+            }
 
-                purgeList.add(wkrId);
+            WorkerRecord rec = insertAcquired(waiter.worker, waiter.clientInfo, null, p);
+            if (waiter.future.complete(rec.id.toString())) {
+                admissionQueue.recordAdmitted(waiter);
+                commitInserted(rec);
+            } else {
+                discardInserted(rec); /* Cancelled while being admitted */
             }
         }
+    }
 
-        if (purgeList.isEmpty()) {
-            return null;
+    /* Set the maximum number of registrations that can wait for a slot at once. Registrations beyond
+     * that are turned down right away. */
+    public void setAdmissionQueueCapacity(int capacity) {
+        admissionQueue.setCapacity(capacity);
+    }
+
+    /* Set the order in which the waiting registrations are admitted (FIFO by default) */
+    public void setAdmissionOrder(AdmissionOrder order) {
+        admissionQueue.setOrder(order);
+    }
+
+    public AdmissionStats getAdmissionStats() {
+        return admissionQueue.getStats();
+    }
+
+    /* Register a worker in a slot that the caller has already acquired from the slot budget (and from
+     * the capacity partitions, if not null)
+     *
+     * @return    Worker ID
+     */
+    String registerAcquired(PooledWorker wkr, WorkerClientInfo wkrClientInfo, WorkerId preferredId,
+                            CapacityPartitions p) {
+        WorkerRecord rec = insertAcquired(wkr, wkrClientInfo, preferredId, p);
+        commitInserted(rec);
+
+        return rec.id.toString();
+    }
+
+    /* Put a new worker in the pool, in a slot that has already been acquired. The registration is
+     * only complete after commitInserted(), or is undone by discardInserted(). */
+    WorkerRecord insertAcquired(PooledWorker wkr, WorkerClientInfo wkrClientInfo, WorkerId preferredId,
+                                CapacityPartitions p) {
+        return insertRecord(wkr, wkrClientInfo, clock.currentTimeMillis(), preferredId, p);
+    }
+
+    void commitInserted(WorkerRecord rec) {
+        numEverCreatedWorkers.incrementAndGet();
+        journal(WorkerPoolStore.REGISTERED, rec);
+        publishEvent(WorkerEventType.Registered, rec, rec.createdMillis);
+    }
+
+    /* Undo an insertion, without any of the book-keeping of a removal */
+    void discardInserted(WorkerRecord rec) {
+        if (unlinkRecord(rec)) {
+            releasePartition(rec);
+            slots.release(1);
+
+            journal(WorkerPoolStore.REMOVED, rec); /* In case a snapshot caught it */
         }
-        else {
-            return purgeList;
+    }
+
+    /* Put a new worker in the pool, in a slot that has already been acquired
+     *
+     * @param    preferredId: ID to give the worker unless it is taken, or null to generate one
+     * @param    p: capacity partitions the slot has been acquired from, or null
+     */
+    private WorkerRecord insertRecord(PooledWorker wkr, WorkerClientInfo wkrClientInfo, long now, WorkerId preferredId,
+                                      CapacityPartitions p) {
+        WorkerRecord rec = new WorkerRecord((preferredId != null) ? preferredId : idGenerator.nextId(), wkr, wkrClientInfo, now);
+        rec.partitions = p;
+        while (workers.putIfAbsent(rec.id, rec) != null) {
+            rec = new WorkerRecord(idGenerator.nextId(), wkr, wkrClientInfo, now); /* Retry on ID collision */
+            rec.partitions = p;
         }
+
+        indexRecord(rec);
+        wheelOf(rec).schedule(rec);
+
+        return rec;
     }
 
-    @Override
-    public synchronized int getCurrNumWorkers() {
-        return workers.size();
+    /* Add a record that has just been put in the workers map to the secondary indexes. A concurrent
+     * clearWorkers() may have detached it in between, in which case it is taken out again. */
+    private void indexRecord(WorkerRecord rec) {
+        orderedWorkers.put(rec.id, rec);
+        clientIndex.add(rec);
+        workersByCreation.add(rec);
+
+        if (rec.isRemoved()) {
+            unindexRecord(rec);
+        }
     }
 
-    @Override
-    public synchronized int getMaxNumWorkers() {
-        return maxNumWorkers.get();
+    /* Idempotent, as the remover and indexRecord() may both get to it */
+    private void unindexRecord(WorkerRecord rec) {
+        orderedWorkers.remove(rec.id, rec);
+        clientIndex.remove(rec);
+        workersByCreation.remove(rec);
     }
 
     @Override
-    public synchronized void setMaxNumWorkers(int tMaxNumWorkers) {
-        maxNumWorkers.set(tMaxNumWorkers);
+    public List<String> registerWorkers(List<? extends PooledWorker> wkrs, List<WorkerClientInfo> wkrClientInfos) {
+        if (wkrs.size() != wkrClientInfos.size()) {
+            throw new IllegalArgumentException("Mismatch between the numbers of workers (" + wkrs.size() +
+                                               ") and of client infos (" + wkrClientInfos.size() + ")");
+        }
+
+        final int n = wkrs.size();
+        if ( !isReaperRunning() ) {
+            purge();
+        }
+
+        final CapacityPartitions p = partitions;
+        if (p != null && !p.tryAcquireAll(wkrClientInfos)) {
+            return null;
+        }
+
+        if ( !acquireSlots(n) ) {
+            if ( !isReaperRunning() || purge(Math.max(n, INLINE_RECLAIM_LIMIT)) == null || !acquireSlots(n) ) {
+                if (p != null) {
+                    p.releaseAll(wkrClientInfos);
+                }
+                return null;
+            }
+        }
+
+        final long now = clock.currentTimeMillis();
+
+        List<String> newWkrIds = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            WorkerRecord rec = insertRecord(wkrs.get(i), wkrClientInfos.get(i), now, null, p);
+            newWkrIds.add(rec.id.toString());
+
+            journal(WorkerPoolStore.REGISTERED, rec);
+            publishEvent(WorkerEventType.Registered, rec, now);
+        }
+        numEverCreatedWorkers.addAndGet(n);
+
+        return newWkrIds;
     }
 
-    @Override
-    public synchronized long getWorkerTimeout() {
-        return workerTimeoutMillis.get();
+    /* Reserve one slot against maxNumWorkers
+     *
+     * @return    true if a slot has been reserved, false if the pool is full
+     */
+    private boolean acquireSlot() {
+        return slots.tryAcquire(1);
     }
 
-    @Override
-    public synchronized void setWorkerTimeout(long timeoutMillis) {
-        workerTimeoutMillis.set(timeoutMillis);
+    /* Reserve one slot against maxNumWorkers, and against the capacity partitions if not null
+     *
+     * @return    true if a slot has been reserved, false if the pool or the partition is full
+     */
+    private boolean acquireSlot(CapacityPartitions p, WorkerClientInfo wkrClientInfo) {
+        if (p == null) {
+            return acquireSlot();
+        }
+
+        if ( !p.tryAcquire(wkrClientInfo) ) {
+            return false;
+        }
+        if ( !acquireSlot() ) {
+            p.release(wkrClientInfo);
+            return false;
+        }
+
+        return true;
     }
 
-    @Override
-    public synchronized Map<String, WorkerClientInfo> getWorkersClientInfo() {
-        purge();
+    /* Reserve n slots against maxNumWorkers, all or none
+     *
+     * @return    true if the slots have been reserved, false if there are not enough free slots
+     */
+    private boolean acquireSlots(int n) {
+        return slots.tryAcquire(n);
+    }
 
-        return workersClientInfo;
+    /* Give the slot of a worker back to its capacity partitions, ahead of the slot budget so that the
+     * waiters admitted on the freed slot see the room */
+    private void releasePartition(WorkerRecord rec) {
+        if (rec.partitions != null) {
+            rec.partitions.release(rec.clientInfo);
+        }
     }
 
-    @Override
-    public synchronized Date getCreatedTimestamp(String workerId) {
-        return workerCreatedTimestamps.get(workerId);
+    private void releaseSlot() {
+        slots.release(1);
+
+        /* Release before checking for waiters, so that a registration enqueuing at the same time
+         * either sees the free slot or is seen here */
+        if (admissionQueue.hasWaiters()) {
+            admitWaiters();
+        }
     }
 
-    @Override
-    public synchronized Date getLastUseTimestamp(String workerId) {
-        return workerTimestamps.get(workerId);
+    /* Set the generator of the IDs of newly registered workers */
+    public void setWorkerIdGenerator(WorkerIdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("Worker ID generator must not be null");
+        }
+
+        this.idGenerator = idGenerator;
     }
 
+    /* Set the clock of the pool, which the time stamps, expiry and message rates of the workers go by.
+     * Only while the pool is empty, as the time stamps of the workers are not converted.
+     *
+     * @throws   IllegalStateException if the pool has workers
+     */
+    public void setClock(WorkerClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock must not be null");
+        }
+        if ( !workers.isEmpty() ) {
+            throw new IllegalStateException("Clock cannot be changed while the pool has workers");
+        }
+
+        this.clock = clock;
 
-    @Override
-    public synchronized int getNumEverCreatedWorkers() {
-        return numEverCreatedWorkers;
+        /* The wheels start at the time of the clock they were created with */
+        for (int i = 0; i < expiryWheels.length(); ++i) {
+            expiryWheels.set(i, null);
+        }
     }
 
-    @Override
-    public synchronized int getNumPurgedWorkers() {
-        return purgedWorkers.size();
+    public WorkerClock getClock() {
+        return clock;
     }
 
-    @Override
-    public synchronized int getNumNormallyRemovedWorkers() {
-        return numNormallyRemovedWorkers;
+    /* Look up the record of a worker
+     *
+     * @return    The record, or null if the worker ID is invalid
+     */
+    WorkerRecord findRecord(String workerId) {
+        WorkerId id = WorkerId.parse(workerId);
+
+        return (id == null) ? null : workers.get(id);
     }
 
-    @Override
-    public synchronized int incrementMessageCount(String workerId) {
-        if (!workerMessageCounts.containsKey(workerId)) {
+    /* Look up the record of a worker
+     *
+     * @throws    IllegalArgumentException if worker ID is invalid
+     */
+    private WorkerRecord getRecord(String workerId) {
+        WorkerRecord rec = findRecord(workerId);
+        if (rec == null) {
             throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
         }
 
-        int c = workerMessageCounts.get(workerId);
-        workerMessageCounts.put(workerId, ++c);
-
-        return c;
+        return rec;
     }
 
     @Override
-    public synchronized int getMessageCount(String workerId) {
-        if (!workerMessageCounts.containsKey(workerId)) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
-        }
+    public void setPreviousWorkerId(String workerId, String prevWorkerId) {
+        WorkerRecord rec = getRecord(workerId);
+        rec.previousWorkerId = prevWorkerId;
+        rec.rootWorkerId = null;
 
-        return workerMessageCounts.get(workerId);
+        journal(WorkerPoolStore.RELAYED, rec);
+        publishEvent(WorkerEventType.Relayed, rec, clock.currentTimeMillis());
     }
 
+
     @Override
-    public synchronized float getCurrentAverageMessageRate(String workerId) {
-        if (!workerMessageCounts.containsKey(workerId)) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+    public String getPreviousWorkerId(String workerId) {
+        return getRecord(workerId).previousWorkerId;
+    }
+
+    @Override
+    public String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo) {
+        return relayWorker(previousWorkerId, wkrInfo, this::findRecord);
+    }
+
+    /* @param    finder: looks up the workers of the chain of relays, which may be in other pools */
+    String relayWorker(String previousWorkerId, WorkerClientInfo wkrInfo, Function<String, WorkerRecord> finder) {
+        WorkerRecord prev = getRecord(previousWorkerId);
+
+        /* A client type change moves the slot to another partition, which must have room for it */
+        final CapacityPartitions p = prev.partitions;
+        final boolean moved = p != null && !CapacityPartitions.isSamePartition(prev.clientInfo, wkrInfo);
+        if (moved && !p.tryAcquire(wkrInfo)) {
+            return null;
         }
 
-        final long t  = new Date().getTime();
-        final long t0 = workerCreatedTimestamps.get(workerId).getTime();
+        final String rootWorkerId = rootOf(prev, finder);
+        if ( !unlinkRecord(prev) ) {
+            if (moved) {
+                p.release(wkrInfo);
+            }
+            throw new IllegalArgumentException("Invalid worker ID: \"" + previousWorkerId + "\"");
+        }
+        if (moved) {
+            p.release(prev.clientInfo);
+        }
 
-        return ((float) workerMessageCounts.get(workerId)) / ((float) (t - t0)) * 1000.0f;
+        final long now = clock.currentTimeMillis();
+        WorkerRecord rec;
+        do {
+            rec = new WorkerRecord(idGenerator.nextId(), prev.worker, wkrInfo, prev.createdMillis);
+            rec.lastUseMillis.set(now);
+            rec.messages.restoreCount(prev.messages.getCount());
+            rec.previousWorkerId = previousWorkerId;
+            rec.rootWorkerId = rootWorkerId;
+            rec.partitions = p;
+        } while (workers.putIfAbsent(rec.id, rec) != null);
+
+        indexRecord(rec);
+        wheelOf(rec).schedule(rec);
+
+        /* Journaled before the removal, for the replay to carry the message count over */
+        journal(WorkerPoolStore.REGISTERED, rec);
+        journal(WorkerPoolStore.RELAYED, rec);
+        journal(WorkerPoolStore.REMOVED, prev);
+
+        history.add(prev, WorkerEndReason.Relayed, now);
+        publishEvent(WorkerEventType.Relayed, rec, now);
+
+        return rec.id.toString();
     }
 
-
     @Override
-    public synchronized float getEffectiveAverageMessageRate(String workerId) {
-        if (!workerMessageCounts.containsKey(workerId)) {
-            throw new IllegalArgumentException("Invalid worker ID: \"" + workerId + "\"");
+    public String getRootWorkerId(String workerId) {
+        return rootOf(getRecord(workerId), this::findRecord);
+    }
+
+    /* Resolve the root of the chain of relays of a worker, and keep it in the record. The walk stops
+     * at a worker whose root is already known, so that chains are not walked again. */
+    static String rootOf(WorkerRecord rec, Function<String, WorkerRecord> finder) {
+        String root = rec.rootWorkerId;
+        if (root != null) {
+            return root;
         }
 
-        final long t1 = getLastUseTimestamp(workerId).getTime();
-        final long t0 = workerCreatedTimestamps.get(workerId).getTime();
+        root = rec.id.toString();
+        String prevId = rec.previousWorkerId;
+        for (int i = 0; prevId != null && i < MAX_RELAY_CHAIN_LENGTH; ++i) {
+            root = prevId;
 
-        return ((float) workerMessageCounts.get(workerId)) / ((float) (t1 - t0)) * 1000.0f;
+            WorkerRecord prev = finder.apply(prevId);
+            if (prev == null) {
+                break;
+            }
+            if (prev.rootWorkerId != null) {
+                root = prev.rootWorkerId;
+                break;
+            }
+            prevId = prev.previousWorkerId;
+        }
+
+        rec.rootWorkerId = root;
+
+        return root;
+    }
+
+    /* Take the record of a worker out of the pool, leaving its slot to the caller
+     *
+     * @return    true if this call removed the record, false if it had already been removed
+     */
+    private boolean unlinkRecord(WorkerRecord rec) {
+        if ( !rec.markRemoved() ) {
+            return false;
+        }
+
+        workers.remove(rec.id, rec);
+        unindexRecord(rec);
+        wheelOf(rec).unschedule(rec);
+
+        return true;
+    }
+
+    /* Take a worker out of the pool, without the history book-keeping
+     *
+     * @return    true if this call removed the worker, false if it had already been removed
+     */
+    private boolean detachWorker(WorkerRecord rec) {
+        if ( !unlinkRecord(rec) ) {
+            return false;
+        }
+
+        releasePartition(rec);
+        releaseSlot();
+
+        journal(WorkerPoolStore.REMOVED, rec);
+
+        return true;
+    }
+
+    @Override
+    public void removeWorker(String wkrId) {
+        WorkerRecord rec = findRecord(wkrId);
+
+        /* The public-interface function is for non-purge (user) removal of workers */
+        if (rec != null && detachWorker(rec)) {
+            final long now = clock.currentTimeMillis();
+
+            /* Book-keeping. Do not preserve obsolete reference, so that the worker can be garbage-collected */
+            history.add(rec, WorkerEndReason.Removed, now);
+            publishEvent(WorkerEventType.Removed, rec, now);
+        }
+    }
+
+    @Override
+    public BatchResult<PooledWorker> removeWorkers(Collection<String> wkrIds) {
+        BatchResult<PooledWorker> result = new BatchResult<>();
+        List<WorkerRecord> removed = new ArrayList<>(wkrIds.size());
+
+        for (String wkrId : wkrIds) {
+            WorkerRecord rec = findRecord(wkrId);
+            if (rec != null && detachWorker(rec)) {
+                removed.add(rec);
+                result.addSucceeded(wkrId, rec.worker);
+            } else {
+                result.addInvalid(wkrId);
+            }
+        }
+
+        final long now = clock.currentTimeMillis();
+        history.addAll(removed, WorkerEndReason.Removed, now);
+        publishEvents(WorkerEventType.Removed, removed, now);
+
+        return result;
+    }
+
+    @Override
+    public void clearWorkers() {
+        final long now = clock.currentTimeMillis();
+
+        /* Snapshot first, so that the workers admitted into the freed slots are not cleared too */
+        for (WorkerRecord rec : new ArrayList<>(workers.values())) {
+            if (detachWorker(rec)) {
+                publishEvent(WorkerEventType.Removed, rec, now);
+            }
+        }
+    }
+
+    @Override
+    public PooledWorker getWorker(String workerId) {
+        return getRecord(workerId).worker;
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, Date timestamp) {
+        updateWorkerTimestamp(workerId, timestamp.getTime());
+    }
+
+    @Override
+    public void updateWorkerTimestamp(String workerId, long timestampMillis) {
+        WorkerRecord rec = findRecord(workerId);
+        if (rec != null) {
+            touch(rec, timestampMillis);
+        }
+    }
+
+    @Override
+    public void touchWorker(String workerId) {
+        WorkerRecord rec = findRecord(workerId);
+        if (rec != null) {
+            touch(rec, clock.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public BatchResult<Date> updateWorkerTimestamps(Collection<String> workerIds, Date timestamp) {
+        BatchResult<Date> result = new BatchResult<>();
+        final long ts = timestamp.getTime();
+
+        for (String workerId : workerIds) {
+            WorkerRecord rec = findRecord(workerId);
+            if (rec != null) {
+                touch(rec, ts);
+
+                result.addSucceeded(workerId, timestamp);
+            } else {
+                result.addInvalid(workerId);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getNumAvailableSlots() {
+        return slots.getNumAvailable();
+    }
+
+    @Override
+    public int getNumAvailableSlots(ClientTypeMajor clientTypeMajor) {
+        final CapacityPartitions p = partitions;
+        final int numAvailable = getNumAvailableSlots();
+
+        return (p == null) ? numAvailable : Math.min(numAvailable, p.getNumAvailable(clientTypeMajor));
+    }
+
+    /* Reserve slots for the workers of a major client type, and cap their number. A type that has used
+     * up its reservation borrows, up to its cap, the slots that are not in use: the unreserved ones,
+     * and the idle reserved slots of the other types. A type below its reservation takes its slots
+     * back when it needs them, by preempting (evicting) the least recently used workers of the types
+     * that are borrowing; this needs no eviction policy, but is only done by single registrations.
+     * Workers without a major client type only borrow. Can be changed at any time: workers already
+     * over a lowered cap stay, but no more are admitted until they fall below it. Workers registered
+     * before the first call are not counted in the partitions.
+     *
+     * @param    minNumWorkers: number of slots reserved for the type
+     * @param    maxNumWorkers: maximum number of workers of the type, or Integer.MAX_VALUE for none
+     * @throws   IllegalArgumentException if minNumWorkers > maxNumWorkers, or the reservations of all
+     *           the types would exceed the maximum number of workers of the pool
+     */
+    public void setCapacityPartition(ClientTypeMajor clientTypeMajor, int minNumWorkers, int maxNumWorkers) {
+        CapacityPartitions p;
+        synchronized (this) {
+            p = partitions;
+            if (p == null) {
+                p = new CapacityPartitions(getMaxNumWorkers());
+            }
+            p.setPartition(clientTypeMajor, minNumWorkers, maxNumWorkers);
+            partitions = p;
+        }
+
+        admitWaiters(); /* A raised cap may let waiters in */
+    }
+
+    /* Share capacity partitions with other pools, for the shards of a pool */
+    void setCapacityPartitions(CapacityPartitions partitions) {
+        this.partitions = partitions;
+    }
+
+    /* Report every purge run to an observer (replacing any previous one), or to none if null */
+    void setPurgeObserver(PurgeObserver purgeObserver) {
+        this.purgeObserver = purgeObserver;
+    }
+
+    @Override
+    public List<String> purge() {
+        return purge(Integer.MAX_VALUE);
+    }
+
+    /* Purge at most maxNumPurged expired workers
+     *
+     * @return    List of the workers that have been purged, null if there were none
+     */
+    private List<String> purge(int maxNumPurged) {
+        final PurgeObserver observer = purgeObserver;
+        final long t0 = (observer == null) ? 0L : System.nanoTime();
+
+        List<String> purgeList = new ArrayList<>();
+
+        /* Expired: now - lastUse > timeout */
+        final long now = clock.currentTimeMillis();
+
+        final AdaptiveTimeouts adaptive = adaptiveTimeouts;
+        if (adaptive != null) {
+            adaptive.adapt(getOccupancy(), now);
+        }
+
+        List<WorkerRecord> purged = new ArrayList<>();
+        for (int i = 0; i < expiryWheels.length() && purged.size() < maxNumPurged; ++i) {
+            final ExpiryWheel wheel = expiryWheels.get(i);
+            if (wheel == null) {
+                continue;
+            }
+
+            final ClientTypeMajor clientTypeMajor = (i < CLIENT_TYPES_MAJOR.length) ? CLIENT_TYPES_MAJOR[i] : null;
+            final long cutoff = now - getEffectiveWorkerTimeout(clientTypeMajor);
+            for (WorkerRecord rec : wheel.collectDue(cutoff, maxNumPurged - purged.size())) {
+                if (detachWorker(rec)) {
+                    purged.add(rec);
+                    purgeList.add(rec.id.toString());
+                }
+            }
+        }
+
+        history.addAll(purged, WorkerEndReason.Purged, now);
+        publishEvents(WorkerEventType.Purged, purged, now);
+
+        if (observer != null) {
+            observer.purged(System.nanoTime() - t0, purged.size());
+        }
+
+        if (purgeList.isEmpty()) {
+            return null;
+        }
+        else {
+            return purgeList;
+        }
+    }
+
+    /* Expiry wheel of the major client type of a record */
+    private ExpiryWheel wheelOf(WorkerRecord rec) {
+        final ClientTypeMajor clientTypeMajor = (rec.clientInfo == null) ? null : rec.clientInfo.getClientTypeMajor();
+        final int i = (clientTypeMajor == null) ? CLIENT_TYPES_MAJOR.length : clientTypeMajor.ordinal();
+
+        ExpiryWheel wheel = expiryWheels.get(i);
+        if (wheel == null) {
+            expiryWheels.compareAndSet(i, null, ExpiryWheel.forTimeout(workerTimeoutMillis.get(), clock.currentTimeMillis()));
+            wheel = expiryWheels.get(i);
+        }
+
+        return wheel;
+    }
+
+    /* Fraction of the slots of the pool that are taken, including by the other shards of a sharded pool */
+    private double getOccupancy() {
+        final int maxNumWorkers = slots.getMax();
+
+        return (maxNumWorkers <= 0) ? 1.0 : 1.0 - ((double) slots.getNumAvailable()) / maxNumWorkers;
+    }
+
+    /* Start purging expired workers periodically on a daemon thread owned by the pool.
+     * registerWorker() and getWorkersClientInfo() then stop purging inline.
+     *
+     * @param    periodMillis: period of the purge runs
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public void startReaper(long periodMillis) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "worker-pool-reaper");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        try {
+            startReaper(executor, periodMillis, true);
+        } catch (RuntimeException exc) {
+            executor.shutdownNow();
+            throw exc;
+        }
+    }
+
+    /* Start purging expired workers periodically on the given executor. The executor is not shut down
+     * by shutdown().
+     *
+     * @param    executor: executor to schedule the purge runs on
+     * @param    periodMillis: period of the purge runs
+     * @throws   IllegalStateException if a reaper is already running
+     */
+    public void startReaper(ScheduledExecutorService executor, long periodMillis) {
+        startReaper(executor, periodMillis, false);
+    }
+
+    private synchronized void startReaper(ScheduledExecutorService executor, long periodMillis, boolean ownsExecutor) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Invalid reaper period: " + periodMillis);
+        }
+        if (reaperTask != null) {
+            throw new IllegalStateException("Reaper is already running");
+        }
+
+        reaperExecutor = executor;
+        ownsReaperExecutor = ownsExecutor;
+        reaperTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purge();
+                } catch (RuntimeException exc) {
+                    /* Do not let one failed run cancel all the subsequent ones */
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isReaperRunning() {
+        return reaperTask != null;
+    }
+
+    /* Stop the background reaper, if any, event delivery and spare building, and release the threads
+     * owned by the pool. Purging goes back to being done inline, and events are no longer delivered. A persistent
+     * pool takes a last snapshot, and stops persisting: call snapshot() first to find out whether
+     * that one succeeds. */
+    public synchronized void shutdown() {
+        events.shutdown();
+
+        if (spares != null) {
+            spares.shutdown();
+        }
+
+        if (store != null) {
+            persistenceExecutor.shutdownNow();
+            try {
+                store.writeSnapshot(workers.values(), clock.currentTimeMillis());
+            } catch (IOException exc) {
+                /* Nowhere to report it */
+            }
+
+            store = null;
+            persistenceExecutor = null;
+        }
+
+        if (reaperTask == null) {
+            return;
+        }
+
+        reaperTask.cancel(false);
+        if (ownsReaperExecutor) {
+            reaperExecutor.shutdownNow();
+        }
+
+        reaperTask = null;
+        reaperExecutor = null;
+    }
+
+    /* Set the last-use time of a worker, publishing a TouchedAfterIdle event if it had been idle */
+    private void touch(WorkerRecord rec, long ts) {
+        final long prevLastUse = rec.lastUseMillis.getAndSet(ts);
+        wheelOf(rec).reschedule(rec);
+
+        final AdaptiveTimeouts adaptive = adaptiveTimeouts;
+        if (adaptive != null) {
+            adaptive.recordIdleGap(rec.clientInfo, ts - prevLastUse);
+        }
+
+        if (ts - prevLastUse >= touchIdleThresholdMillis.get()) {
+            publishEvent(WorkerEventType.TouchedAfterIdle, rec, ts);
+        }
+    }
+
+    /* Keep snapshots of the pool, and a journal of the changes in between, in the given directory, so
+     * that the pool can be restored from it after a restart (see restore()). The snapshots are taken
+     * from a weakly consistent view of the pool, without stopping it. The journal records the
+     * registrations, removals and relays; touches and message counts only make it to the snapshots.
+     *
+     * @param    directory: directory of the snapshots and journal, created if needed
+     * @param    snapshotPeriodMillis: period of the snapshots, or 0 for none but the ones taken by
+     *           snapshot() and shutdown()
+     * @throws   IOException if the first snapshot cannot be written
+     * @throws   IllegalStateException if the pool is persistent already
+     */
+    public synchronized void enablePersistence(File directory, long snapshotPeriodMillis) throws IOException {
+        if (snapshotPeriodMillis < 0) {
+            throw new IllegalArgumentException("Invalid snapshot period: " + snapshotPeriodMillis);
+        }
+        if (store != null) {
+            throw new IllegalStateException("Persistence is already enabled");
+        }
+
+        final WorkerPoolStore newStore = new WorkerPoolStore(directory);
+        newStore.writeSnapshot(workers.values(), clock.currentTimeMillis());
+
+        persistenceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "worker-pool-snapshots");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        persistenceExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    newStore.flush();
+                } catch (IOException exc) {
+                    /* The records stay queued for the next run */
+                }
+            }
+        }, JOURNAL_FLUSH_PERIOD_MILLIS, JOURNAL_FLUSH_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (snapshotPeriodMillis > 0) {
+            persistenceExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        newStore.writeSnapshot(workers.values(), clock.currentTimeMillis());
+                    } catch (IOException exc) {
+                        /* The journal keeps growing until the next snapshot succeeds */
+                    }
+                }
+            }, snapshotPeriodMillis, snapshotPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        store = newStore;
+    }
+
+    /* Take a snapshot of the pool now
+     *
+     * @throws   IllegalStateException if persistence is not enabled
+     */
+    public void snapshot() throws IOException {
+        WorkerPoolStore s = store;
+        if (s == null) {
+            throw new IllegalStateException("Persistence is not enabled");
+        }
+
+        s.writeSnapshot(workers.values(), clock.currentTimeMillis());
+    }
+
+    private void journal(byte type, WorkerRecord rec) {
+        WorkerPoolStore s = store;
+        if (s != null) {
+            s.append(type, rec);
+        }
+    }
+
+    /* Put back the workers of the latest snapshot and journal in a directory, such as after a restart,
+     * so that their clients can carry on with their sessions instead of all registering again at once.
+     *
+     * The workers keep their IDs, creation times, message counts and previous worker IDs, and their
+     * last-use times as of the snapshot. Workers that have expired since are left out, and so are the
+     * least recently used ones that do not fit in the pool. The pool metadata is rebuilt in bulk, and
+     * the worker objects are recreated by the rehydrator. No events are published for them.
+     *
+     * @param    directory: directory of the snapshots and journal
+     * @param    rehydrator: recreates the worker objects
+     * @return   Number of workers restored
+     * @throws   IOException if the snapshot or journal cannot be read
+     */
+    public int restore(File directory, WorkerRehydrator rehydrator) throws IOException {
+        final long now = clock.currentTimeMillis();
+
+        List<WorkerPoolStore.StoredWorker> candidates = new ArrayList<>();
+        for (WorkerPoolStore.StoredWorker stored : WorkerPoolStore.load(directory).values()) {
+            final long timeoutMillis = getWorkerTimeout(WorkerPoolStore.decodeClientTypes(stored.clientTypes));
+            if (stored.lastUseMillis >= now - timeoutMillis && !workers.containsKey(stored.id)) {
+                candidates.add(stored);
+            }
+        }
+
+        /* Most recently used first, for when they do not all fit */
+        candidates.sort((a, b) -> Long.compare(b.lastUseMillis, a.lastUseMillis));
+
+        int numAcquired = Math.min(candidates.size(), slots.getNumAvailable());
+        while (numAcquired > 0 && !slots.tryAcquire(numAcquired)) {
+            numAcquired = Math.min(numAcquired - 1, slots.getNumAvailable());
+        }
+
+        final CapacityPartitions p = partitions;
+        int numRestored = 0;
+        for (int i = 0; i < numAcquired; ++i) {
+            WorkerPoolStore.StoredWorker stored = candidates.get(i);
+
+            WorkerClientInfo clientInfo = WorkerPoolStore.decodeClientTypes(stored.clientTypes);
+            if (p != null && !p.tryAcquire(clientInfo)) {
+                continue; /* Over the cap of its type */
+            }
+
+            PooledWorker wkr = rehydrator.rehydrate(stored.id.toString(), clientInfo);
+            if (wkr == null) {
+                if (p != null) {
+                    p.release(clientInfo);
+                }
+                continue;
+            }
+
+            WorkerRecord rec = new WorkerRecord(stored.id, wkr, clientInfo, stored.createdMillis);
+            rec.lastUseMillis.set(stored.lastUseMillis);
+            rec.messages.restoreCount(stored.messageCount);
+            rec.previousWorkerId = stored.previousWorkerId;
+            rec.partitions = p;
+
+            if (workers.putIfAbsent(rec.id, rec) == null) {
+                indexRecord(rec);
+                wheelOf(rec).schedule(rec);
+                journal(WorkerPoolStore.REGISTERED, rec);
+                ++numRestored;
+            } else {
+                releasePartition(rec);
+            }
+        }
+
+        numEverCreatedWorkers.addAndGet(numRestored);
+        if (numRestored < numAcquired) {
+            slots.release(numAcquired - numRestored);
+            admitWaiters();
+        }
+
+        return numRestored;
+    }
+
+    private void publishEvent(WorkerEventType type, WorkerRecord rec, long now) {
+        if (events.hasListeners()) {
+            events.publish(new WorkerEvent(type, rec.id.toString(), now, rec.clientInfo, rec.previousWorkerId));
+        }
+    }
+
+    private void publishEvents(WorkerEventType type, List<WorkerRecord> recs, long now) {
+        if (events.hasListeners()) {
+            for (WorkerRecord rec : recs) {
+                events.publish(new WorkerEvent(type, rec.id.toString(), now, rec.clientInfo, rec.previousWorkerId));
+            }
+        }
+    }
+
+    @Override
+    public void addWorkerEventListener(WorkerEventListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeWorkerEventListener(WorkerEventListener listener) {
+        events.removeListener(listener);
+    }
+
+    /* Get the event dispatcher, to configure event delivery and read its counters */
+    public WorkerEventDispatcher getEventDispatcher() {
+        return events;
+    }
+
+    /* Set how long a worker must have been idle for a touch to be published as a TouchedAfterIdle event */
+    public void setTouchIdleThreshold(long thresholdMillis) {
+        touchIdleThresholdMillis.set(thresholdMillis);
+    }
+
+    @Override
+    public int getCurrNumWorkers() {
+        return workers.size();
+    }
+
+    @Override
+    public int getMaxNumWorkers() {
+        return slots.getMax();
+    }
+
+    @Override
+    public void setMaxNumWorkers(int tMaxNumWorkers) {
+        final CapacityPartitions p = partitions;
+        if (p != null) {
+            p.setPoolMaxNumWorkers(tMaxNumWorkers);
+        }
+        slots.setMax(tMaxNumWorkers);
+
+        admitWaiters();
+    }
+
+    @Override
+    public long getWorkerTimeout() {
+        return workerTimeoutMillis.get();
+    }
+
+    @Override
+    public void setWorkerTimeout(long timeoutMillis) {
+        workerTimeoutMillis.set(timeoutMillis);
+    }
+
+    @Override
+    public long getEffectiveWorkerTimeout(ClientTypeMajor clientTypeMajor) {
+        final AdaptiveTimeouts adaptive = adaptiveTimeouts;
+
+        return (adaptive == null) ? workerTimeoutMillis.get() : adaptive.getTimeout(clientTypeMajor);
+    }
+
+    private long getWorkerTimeout(WorkerClientInfo clientInfo) {
+        final AdaptiveTimeouts adaptive = adaptiveTimeouts;
+
+        return (adaptive == null) ? workerTimeoutMillis.get() : adaptive.getTimeout(clientInfo);
+    }
+
+    /* Adapt the timeouts of the workers to the pressure on the pool, per major client type, instead of
+     * using the worker timeout. While the pool is at most half full, the workers time out after
+     * maxTimeoutMillis. Beyond that, the timeout of each type shrinks with the occupancy, down to about
+     * the 99th percentile of the idle times after which the workers of the type are seen to be used
+     * again (but not below minTimeoutMillis) when the pool is full, and grows back as the pool
+     * empties. The timeouts are recomputed at most once a second, by purge() (or the reaper).
+     *
+     * @throws   IllegalArgumentException if minTimeoutMillis <= 0, or maxTimeoutMillis < minTimeoutMillis
+     */
+    public void setAdaptiveTimeouts(long minTimeoutMillis, long maxTimeoutMillis) {
+        adaptiveTimeouts = new AdaptiveTimeouts(minTimeoutMillis, maxTimeoutMillis,
+                                                AdaptiveTimeouts.DEFAULT_ADAPT_PERIOD_MILLIS, clock.currentTimeMillis());
+    }
+
+    /* Go back to the worker timeout for all the workers */
+    public void disableAdaptiveTimeouts() {
+        adaptiveTimeouts = null;
+    }
+
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return adaptiveTimeouts != null;
+    }
+
+    /* Share adaptive timeouts with other pools, for the shards of a pool */
+    void setAdaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    @Override
+    /* @return    Snapshot of the client info of the live workers, keyed by worker ID */
+    public Map<String, WorkerClientInfo> getWorkersClientInfo() {
+        if ( !isReaperRunning() ) {
+            purge();
+        }
+
+        Map<String, WorkerClientInfo> workersClientInfo = new HashMap<>();
+        for (WorkerRecord rec : workers.values()) {
+            workersClientInfo.put(rec.id.toString(), rec.clientInfo);
+        }
+
+        return workersClientInfo;
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMajor clientTypeMajor) {
+        return clientIndex.count(clientTypeMajor);
+    }
+
+    @Override
+    public int getNumWorkers(ClientTypeMinor clientTypeMinor) {
+        return clientIndex.count(clientTypeMinor);
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMajor clientTypeMajor) {
+        return idsOf(clientIndex.get(clientTypeMajor));
+    }
+
+    @Override
+    public List<String> getWorkerIds(ClientTypeMinor clientTypeMinor) {
+        return idsOf(clientIndex.get(clientTypeMinor));
+    }
+
+    @Override
+    public List<String> getWorkerIds(InetAddress clientIPAddress) {
+        return idsOf(clientIndex.get(clientIPAddress));
+    }
+
+    private static List<String> idsOf(Collection<WorkerRecord> recs) {
+        List<String> ids = new ArrayList<>(recs.size());
+        for (WorkerRecord rec : recs) {
+            ids.add(rec.id.toString());
+        }
+
+        return ids;
+    }
+
+    @Override
+    public WorkerPage getWorkers(String cursor, int pageSize, Predicate<WorkerSnapshot> filter) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+
+        final WorkerId after = WorkerId.parse(cursor);
+        if (cursor != null && after == null) {
+            throw new IllegalArgumentException("Invalid cursor: \"" + cursor + "\"");
+        }
+
+        final Collection<WorkerRecord> recs = (after == null) ? orderedWorkers.values()
+                                                              : orderedWorkers.tailMap(after, false).values();
+        final long now = clock.currentTimeMillis();
+
+        List<WorkerSnapshot> page = new ArrayList<>();
+        for (WorkerRecord rec : recs) {
+            WorkerSnapshot snapshot = snapshotOf(rec, now);
+            if (snapshot == null || (filter != null && !filter.test(snapshot))) {
+                continue;
+            }
+
+            if (page.size() == pageSize) {
+                /* There is at least one more */
+                return new WorkerPage(Collections.unmodifiableList(page), page.get(pageSize - 1).getWorkerId());
+            }
+            page.add(snapshot);
+        }
+
+        return new WorkerPage(Collections.unmodifiableList(page), null);
+    }
+
+    @Override
+    /* In worker ID order */
+    public Stream<WorkerSnapshot> streamWorkers() {
+        final long now = clock.currentTimeMillis();
+
+        return orderedWorkers.values().stream()
+                             .map(rec -> snapshotOf(rec, now))
+                             .filter(Objects::nonNull);
+    }
+
+    /* @return    Snapshot of the worker, or null if it has left the pool or timed out */
+    private WorkerSnapshot snapshotOf(WorkerRecord rec, long nowMillis) {
+        final long lastUse = rec.lastUseMillis.get();
+        if (rec.isRemoved() || lastUse < nowMillis - getWorkerTimeout(rec.clientInfo)) {
+            return null;
+        }
+
+        return new WorkerSnapshot(rec.id.toString(), rec.clientInfo, rec.createdMillis, lastUse,
+                                  (int) rec.messages.getCount(), rec.previousWorkerId);
+    }
+
+    @Override
+    public Date getCreatedTimestamp(String workerId) {
+        WorkerRecord rec = findRecord(workerId);
+
+        return (rec == null) ? null : new Date(rec.createdMillis);
+    }
+
+    @Override
+    public Date getLastUseTimestamp(String workerId) {
+        WorkerRecord rec = findRecord(workerId);
+
+        return (rec == null) ? null : new Date(rec.lastUseMillis.get());
+    }
+
+
+    @Override
+    public int getNumEverCreatedWorkers() {
+        return numEverCreatedWorkers.get();
+    }
+
+    @Override
+    public int getNumPurgedWorkers() {
+        return (int) history.getCount(WorkerEndReason.Purged);
+    }
+
+    /* Get number of workers evicted by the eviction policy */
+    public int getNumEvictedWorkers() {
+        return (int) history.getCount(WorkerEndReason.Evicted);
+    }
+
+    @Override
+    public int getNumNormallyRemovedWorkers() {
+        return (int) history.getCount(WorkerEndReason.Removed);
+    }
+
+    @Override
+    public List<WorkerHistoryEntry> getWorkerHistory() {
+        return history.getEntries(clock.currentTimeMillis());
+    }
+
+    /* Set how much history of removed and purged workers is kept. The counts of removed and purged
+     * workers are not affected.
+     *
+     * @param    maxNumEntries: maximum number of entries kept (the oldest ones are dropped first)
+     * @param    maxAgeMillis: maximum age of the entries kept
+     */
+    public void setHistoryRetention(int maxNumEntries, long maxAgeMillis) {
+        history.setRetention(maxNumEntries, maxAgeMillis, clock.currentTimeMillis());
+    }
+
+    @Override
+    public int incrementMessageCount(String workerId) {
+        return (int) getRecord(workerId).messages.increment(clock.currentTimeMillis());
+    }
+
+    @Override
+    public BatchResult<Integer> addMessageCounts(Map<String, Integer> deltas) {
+        BatchResult<Integer> result = new BatchResult<>();
+        final long now = clock.currentTimeMillis();
+
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            WorkerRecord rec = findRecord(entry.getKey());
+            if (rec != null) {
+                rec.messages.add(entry.getValue(), now);
+
+                result.addSucceeded(entry.getKey(), (int) rec.messages.getCount());
+            } else {
+                result.addInvalid(entry.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getMessageCount(String workerId) {
+        return (int) getRecord(workerId).messages.getCount();
+    }
+
+    @Override
+    public float getCurrentAverageMessageRate(String workerId) {
+        final WorkerRecord rec = getRecord(workerId);
+
+        final long t  = clock.currentTimeMillis();
+        final long t0 = rec.createdMillis;
+
+        return ((float) rec.messages.getCount()) / ((float) (t - t0)) * 1000.0f;
+    }
+
+
+    @Override
+    public float getEffectiveAverageMessageRate(String workerId) {
+        final WorkerRecord rec = getRecord(workerId);
+
+        final long t1 = rec.lastUseMillis.get();
+        final long t0 = rec.createdMillis;
+
+        return ((float) rec.messages.getCount()) / ((float) (t1 - t0)) * 1000.0f;
+    }
+
+    @Override
+    public float getMessageRate(String workerId, MessageRateWindow window) {
+        return getRecord(workerId).messages.getWindowRate(window, clock.currentTimeMillis());
+    }
+
+    @Override
+    public float getEwmaMessageRate(String workerId) {
+        return getRecord(workerId).messages.getEwmaRate(clock.currentTimeMillis());
+    }
+
+    @Override
+    public List<String> getBusiestWorkers(int n, MessageRateWindow window) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+
+        final long now = clock.currentTimeMillis();
+
+        /* Min-heap of the n busiest workers seen so far, so that the pool is never copied */
+        PriorityQueue<WorkerActivity> busiest = new PriorityQueue<>(n);
+        for (WorkerRecord rec : workers.values()) {
+            final long windowCount = rec.messages.getWindowCount(window, now);
+            if (windowCount == 0L) {
+                continue;
+            }
+
+            if (busiest.size() < n) {
+                busiest.add(new WorkerActivity(rec.id, windowCount));
+            } else if (windowCount > busiest.peek().windowCount) {
+                busiest.poll();
+                busiest.add(new WorkerActivity(rec.id, windowCount));
+            }
+        }
+
+        String[] busiestIds = new String[busiest.size()];
+        for (int i = busiestIds.length - 1; i >= 0; --i) {
+            busiestIds[i] = busiest.poll().id.toString();
+        }
+
+        return Arrays.asList(busiestIds);
+    }
+
+    private static class WorkerActivity implements Comparable<WorkerActivity> {
+        final WorkerId id;
+        final long windowCount;
+
+        WorkerActivity(final WorkerId id, final long windowCount) {
+            this.id          = id;
+            this.windowCount = windowCount;
+        }
+
+        @Override
+        public int compareTo(WorkerActivity other) {
+            return Long.compare(windowCount, other.windowCount);
+        }
     }
 
 }
@@ -0,0 +1,114 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Metrics recorded by an InstrumentedWorkerPool */
+public class WorkerPoolMetrics implements WorkerPoolMetricsMXBean {
+    /* Constants */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /* Member variables */
+    private final WorkerPool pool;
+
+    private volatile boolean enabled;
+
+    final Log2Histogram registerLatency   = new Log2Histogram();
+    final Log2Histogram removeLatency     = new Log2Histogram();
+    final Log2Histogram purgeLatency      = new Log2Histogram();
+    final Log2Histogram lookupLatency     = new Log2Histogram();
+    final Log2Histogram clientInfoLatency = new Log2Histogram();
+    final Log2Histogram purgeBatchSizes   = new Log2Histogram();
+    final LongAdder numRejectedRegistrations = new LongAdder();
+
+    /* Constructor */
+    WorkerPoolMetrics(final WorkerPool pool, final boolean enabled) {
+        this.pool    = pool;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void reset() {
+        registerLatency.reset();
+        removeLatency.reset();
+        purgeLatency.reset();
+        lookupLatency.reset();
+        clientInfoLatency.reset();
+        purgeBatchSizes.reset();
+        numRejectedRegistrations.reset();
+    }
+
+    @Override
+    public HistogramSnapshot getRegisterLatency() {
+        return registerLatency.snapshot(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public HistogramSnapshot getRemoveLatency() {
+        return removeLatency.snapshot(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public HistogramSnapshot getPurgeLatency() {
+        return purgeLatency.snapshot(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public HistogramSnapshot getLookupLatency() {
+        return lookupLatency.snapshot(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public HistogramSnapshot getClientInfoLatency() {
+        return clientInfoLatency.snapshot(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public HistogramSnapshot getPurgeBatchSizes() {
+        return purgeBatchSizes.snapshot(1L);
+    }
+
+    @Override
+    public long getNumRejectedRegistrations() {
+        return numRejectedRegistrations.sum();
+    }
+
+    @Override
+    public int getCurrNumWorkers() {
+        return pool.getCurrNumWorkers();
+    }
+
+    @Override
+    public int getNumAvailableSlots() {
+        return pool.getNumAvailableSlots();
+    }
+
+    @Override
+    public int getMaxNumWorkers() {
+        return pool.getMaxNumWorkers();
+    }
+
+    @Override
+    public int getNumEverCreatedWorkers() {
+        return pool.getNumEverCreatedWorkers();
+    }
+
+    @Override
+    public int getNumPurgedWorkers() {
+        return pool.getNumPurgedWorkers();
+    }
+
+    @Override
+    public int getNumNormallyRemovedWorkers() {
+        return pool.getNumNormallyRemovedWorkers();
+    }
+}
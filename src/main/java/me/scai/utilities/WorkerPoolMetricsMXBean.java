@@ -0,0 +1,47 @@
+package me.scai.utilities;
+
+/* Management interface of WorkerPoolMetrics, as exposed on the platform MBean server */
+public interface WorkerPoolMetricsMXBean {
+    /* Whether the operations are being recorded. When disabled, the instrumented pool only pays one
+     * volatile read per call. */
+    public boolean isEnabled();
+
+    public void setEnabled(boolean enabled);
+
+    /* Clear all histograms and counters */
+    public void reset();
+
+    /* Latencies of registerWorker and registerWorkers (microseconds) */
+    public HistogramSnapshot getRegisterLatency();
+
+    /* Latencies of removeWorker and removeWorkers (microseconds) */
+    public HistogramSnapshot getRemoveLatency();
+
+    /* Latencies of purge (microseconds) */
+    public HistogramSnapshot getPurgeLatency();
+
+    /* Latencies of single-worker lookups: getWorker and the per-worker getters (microseconds) */
+    public HistogramSnapshot getLookupLatency();
+
+    /* Latencies of getWorkersClientInfo and getWorkers (microseconds) */
+    public HistogramSnapshot getClientInfoLatency();
+
+    /* Number of workers purged by each purge call */
+    public HistogramSnapshot getPurgeBatchSizes();
+
+    /* Number of registrations turned down because the pool was full */
+    public long getNumRejectedRegistrations();
+
+    /* Pool state */
+    public int getCurrNumWorkers();
+
+    public int getNumAvailableSlots();
+
+    public int getMaxNumWorkers();
+
+    public int getNumEverCreatedWorkers();
+
+    public int getNumPurgedWorkers();
+
+    public int getNumNormallyRemovedWorkers();
+}
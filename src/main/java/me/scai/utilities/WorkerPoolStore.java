@@ -0,0 +1,432 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* Snapshots of the workers of a pool, and a journal of the registrations, removals and relays since
+ * the latest snapshot, in a directory of their own.
+ *
+ * Journal records are queued by the pool operations (which is all they pay for) and written out by
+ * flush(). Each snapshot starts a new generation of the journal: the records queued before it are
+ * written to the journal of the previous generation, and the ones queued after it to the new one.
+ * A record that loses the race with the switch is dropped, which is fine as its change was made to
+ * the pool before the snapshot started scanning it.
+ *
+ * Files (native byte order):
+ *     snapshot.bin       magic, version, generation, time, then worker entries, each preceded by 1
+ *                        and the last followed by 0
+ *     journal-<n>.bin    magic, version, generation, then records, up to the last complete one
+ *
+ * Touches and message counts are only in the snapshots. */
+class WorkerPoolStore {
+    /* Constants */
+    private static final long SNAPSHOT_MAGIC = 0x5750534e41503031L;  /* "WPSNAP01" */
+    private static final long JOURNAL_MAGIC = 0x57504a524e4c3031L;   /* "WPJRNL01" */
+    private static final int VERSION = 1;
+
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".bin";
+
+    private static final int BUFFER_SIZE = 128 * 1024;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /* Journal record types */
+    static final byte REGISTERED = 1;
+    static final byte REMOVED = 2;
+    static final byte RELAYED = 3;
+
+    /* Encodings of the previous worker ID */
+    private static final byte NO_ID = 0;
+    private static final byte WORKER_ID = 1;
+    private static final byte STRING_ID = 2;
+
+    /* Member variables */
+    private final File directory;
+    private volatile Generation current;
+
+    /* Guarded by this */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+    /* Metadata of a worker, as stored */
+    static class StoredWorker {
+        final WorkerId id;
+        final long createdMillis;
+        long lastUseMillis;
+        long messageCount;
+        final int clientTypes;
+        String previousWorkerId;
+
+        StoredWorker(final WorkerId id, final long createdMillis, final long lastUseMillis,
+                     final long messageCount, final int clientTypes, final String previousWorkerId) {
+            this.id               = id;
+            this.createdMillis    = createdMillis;
+            this.lastUseMillis    = lastUseMillis;
+            this.messageCount     = messageCount;
+            this.clientTypes      = clientTypes;
+            this.previousWorkerId = previousWorkerId;
+        }
+    }
+
+    private static class Change {
+        final byte type;
+        final WorkerRecord rec;
+        final String previousWorkerId;   /* As of the change */
+
+        Change(final byte type, final WorkerRecord rec, final String previousWorkerId) {
+            this.type             = type;
+            this.rec              = rec;
+            this.previousWorkerId = previousWorkerId;
+        }
+    }
+
+    private static class Generation {
+        final long number;
+        final ConcurrentLinkedQueue<Change> pending = new ConcurrentLinkedQueue<>();
+
+        Generation(final long number) {
+            this.number = number;
+        }
+    }
+
+    /* Constructor: a store that carries on after the generations already in the directory */
+    WorkerPoolStore(final File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+
+        this.directory = directory;
+        this.current   = new Generation(latestGeneration(directory) + 1L);
+    }
+
+    /* Queue a journal record */
+    void append(byte type, WorkerRecord rec) {
+        current.pending.add(new Change(type, rec, rec.previousWorkerId));
+    }
+
+    /* Write out the queued journal records */
+    synchronized void flush() throws IOException {
+        flush(current);
+    }
+
+    private void flush(Generation generation) throws IOException {
+        if (generation.pending.isEmpty()) {
+            return;
+        }
+
+        File file = journalFile(directory, generation.number);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            buffer.clear();
+            if (channel.size() == 0L) {
+                buffer.putLong(JOURNAL_MAGIC).putInt(VERSION).putLong(generation.number);
+            }
+
+            Change change;
+            while ((change = generation.pending.poll()) != null) {
+                ensureRemaining(channel, 1 + 16 + 8 + 4 + 3 + MAX_STRING_BYTES);
+
+                buffer.put(change.type);
+                putId(buffer, change.rec.id);
+                if (change.type == REGISTERED) {
+                    buffer.putLong(change.rec.createdMillis);
+                    buffer.putInt(encodeClientTypes(change.rec.clientInfo));
+                } else if (change.type == RELAYED) {
+                    putPreviousWorkerId(buffer, change.previousWorkerId);
+                }
+            }
+
+            writeBuffer(channel);
+            channel.force(false);
+        }
+    }
+
+    /* Take a snapshot of the given workers, starting a new journal generation
+     *
+     * @param    records: the workers of the pool. Must be read after this is called, such as a
+     *           weakly consistent view of the pool, for the snapshot and the journal to add up.
+     */
+    synchronized void writeSnapshot(Iterable<WorkerRecord> records, long nowMillis) throws IOException {
+        Generation previous = current;
+        Generation next = new Generation(previous.number + 1L);
+        current = next;
+
+        flush(previous);
+
+        File tmpFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            buffer.putLong(SNAPSHOT_MAGIC).putInt(VERSION).putLong(next.number).putLong(nowMillis);
+
+            for (WorkerRecord rec : records) {
+                if (rec.isRemoved()) {
+                    continue;
+                }
+
+                ensureRemaining(channel, 1 + 16 + 8 + 8 + 8 + 4 + 3 + MAX_STRING_BYTES);
+
+                buffer.put((byte) 1);
+                putId(buffer, rec.id);
+                buffer.putLong(rec.createdMillis);
+                buffer.putLong(rec.lastUseMillis.get());
+                buffer.putLong(rec.messages.getCount());
+                buffer.putInt(encodeClientTypes(rec.clientInfo));
+                putPreviousWorkerId(buffer, rec.previousWorkerId);
+            }
+            buffer.put((byte) 0);
+
+            writeBuffer(channel);
+            channel.force(true);
+        }
+
+        Files.move(tmpFile.toPath(), new File(directory, SNAPSHOT_FILE).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        /* The journals of the previous generations are covered by the new snapshot */
+        for (long generation : journalGenerations(directory)) {
+            if (generation < next.number) {
+                Files.deleteIfExists(journalFile(directory, generation).toPath());
+            }
+        }
+    }
+
+    /* Must hold the monitor */
+    private void ensureRemaining(FileChannel channel, int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes) {
+            writeBuffer(channel);
+            buffer.clear();
+        }
+    }
+
+    private void writeBuffer(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /* Read the workers back from the latest snapshot in the directory and the journals that follow it
+     *
+     * @return    The workers, by ID. Empty if the directory holds no snapshot or journal.
+     * @throws    IOException if a file cannot be read, or holds something else than a snapshot or journal
+     */
+    static Map<WorkerId, StoredWorker> load(File directory) throws IOException {
+        Map<WorkerId, StoredWorker> workers = new LinkedHashMap<>();
+        long generation = Long.MIN_VALUE;
+
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        if (snapshotFile.isFile()) {
+            ByteBuffer in = map(snapshotFile);
+            if (in.getLong() != SNAPSHOT_MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a worker pool snapshot: " + snapshotFile);
+            }
+            generation = in.getLong();
+            in.getLong(); /* Time of the snapshot */
+
+            while (in.get() != 0) {
+                WorkerId id = getId(in);
+                final long createdMillis = in.getLong();
+                final long lastUseMillis = in.getLong();
+                final long messageCount = in.getLong();
+                final int clientTypes = in.getInt();
+                final String previousWorkerId = getPreviousWorkerId(in);
+
+                workers.put(id, new StoredWorker(id, createdMillis, lastUseMillis, messageCount, clientTypes,
+                                                 previousWorkerId));
+            }
+        }
+
+        for (long journalGeneration : journalGenerations(directory)) {
+            if (journalGeneration >= generation) {
+                replayJournal(journalFile(directory, journalGeneration), workers);
+            }
+        }
+
+        return workers;
+    }
+
+    private static void replayJournal(File file, Map<WorkerId, StoredWorker> workers) throws IOException {
+        ByteBuffer in = map(file);
+        if (in.remaining() < 20) {
+            return; /* Crashed before the header was complete */
+        }
+        if (in.getLong() != JOURNAL_MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a worker pool journal: " + file);
+        }
+        in.getLong(); /* Generation */
+
+        try {
+            while (in.hasRemaining()) {
+                final byte type = in.get();
+                WorkerId id = getId(in);
+
+                if (type == REGISTERED) {
+                    final long createdMillis = in.getLong();
+                    final int clientTypes = in.getInt();
+
+                    workers.put(id, new StoredWorker(id, createdMillis, createdMillis, 0L, clientTypes, null));
+                } else if (type == REMOVED) {
+                    workers.remove(id);
+                } else if (type == RELAYED) {
+                    final String previousWorkerId = getPreviousWorkerId(in);
+
+                    StoredWorker stored = workers.get(id);
+                    if (stored != null) {
+                        stored.previousWorkerId = previousWorkerId;
+
+                        /* Relayed by relayWorker(): the worker carries on from the previous one */
+                        StoredWorker prev = workers.get(WorkerId.parse(previousWorkerId));
+                        if (prev != null && prev.createdMillis == stored.createdMillis) {
+                            stored.lastUseMillis = Math.max(stored.lastUseMillis, prev.lastUseMillis);
+                            stored.messageCount = prev.messageCount;
+                        }
+                    }
+                } else {
+                    throw new IOException("Corrupt worker pool journal: " + file);
+                }
+            }
+        } catch (BufferUnderflowException exc) {
+            /* The last record was cut short by a crash */
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.nativeOrder());
+
+            return in;
+        }
+    }
+
+    private static File journalFile(File directory, long generation) {
+        return new File(directory, JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    /* Generations of the journals in the directory, in ascending order */
+    private static List<Long> journalGenerations(File directory) {
+        List<Long> generations = new ArrayList<>();
+
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX)) {
+                    try {
+                        generations.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(),
+                                                                      name.length() - JOURNAL_SUFFIX.length())));
+                    } catch (NumberFormatException exc) {
+                        /* Not one of ours */
+                    }
+                }
+            }
+        }
+
+        Collections.sort(generations);
+
+        return generations;
+    }
+
+    private static long latestGeneration(File directory) throws IOException {
+        long latest = 0L;
+
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        if (snapshotFile.isFile()) {
+            ByteBuffer in = map(snapshotFile);
+            if (in.remaining() >= 20 && in.getLong() == SNAPSHOT_MAGIC && in.getInt() == VERSION) {
+                latest = in.getLong();
+            }
+        }
+
+        for (long generation : journalGenerations(directory)) {
+            latest = Math.max(latest, generation);
+        }
+
+        return latest;
+    }
+
+    private static void putId(ByteBuffer out, WorkerId id) {
+        out.putLong(id.getMostSignificantBits());
+        out.putLong(id.getLeastSignificantBits());
+    }
+
+    private static WorkerId getId(ByteBuffer in) {
+        final long msb = in.getLong();
+
+        return new WorkerId(msb, in.getLong());
+    }
+
+    /* Previous worker IDs are usually worker IDs, stored in 16 bytes. Anything else is stored as a
+     * string (or dropped, past MAX_STRING_BYTES). */
+    private static void putPreviousWorkerId(ByteBuffer out, String previousWorkerId) {
+        WorkerId id = WorkerId.parse(previousWorkerId);
+        if (id != null) {
+            out.put(WORKER_ID);
+            putId(out, id);
+            return;
+        }
+
+        byte[] bytes = (previousWorkerId == null) ? null : previousWorkerId.getBytes(StandardCharsets.UTF_8);
+        if (bytes == null || bytes.length > MAX_STRING_BYTES) {
+            out.put(NO_ID);
+        } else {
+            out.put(STRING_ID);
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static String getPreviousWorkerId(ByteBuffer in) throws IOException {
+        final byte encoding = in.get();
+        switch (encoding) {
+            case NO_ID:
+                return null;
+            case WORKER_ID:
+                return getId(in).toString();
+            case STRING_ID:
+                byte[] bytes = new byte[in.getShort() & 0xFFFF];
+                in.get(bytes);
+
+                return new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Corrupt previous worker ID encoding: " + encoding);
+        }
+    }
+
+    /* Client type ordinals + 1 (0 for null), major in the high half */
+    static int encodeClientTypes(WorkerClientInfo clientInfo) {
+        if (clientInfo == null) {
+            return 0;
+        }
+
+        final ClientTypeMajor major = clientInfo.getClientTypeMajor();
+        final ClientTypeMinor minor = clientInfo.getClientTypeMinor();
+
+        return ((major == null) ? 0 : (major.ordinal() + 1) << 16) | ((minor == null) ? 0 : minor.ordinal() + 1);
+    }
+
+    static WorkerClientInfo decodeClientTypes(int clientTypes) {
+        final int major = clientTypes >>> 16;
+        final int minor = clientTypes & 0xFFFF;
+
+        return new WorkerClientInfo(null, null,
+                                    (major == 0 || major > ClientTypeMajor.values().length) ? null : ClientTypeMajor.values()[major - 1],
+                                    (minor == 0 || minor > ClientTypeMinor.values().length) ? null : ClientTypeMinor.values()[minor - 1]);
+    }
+}
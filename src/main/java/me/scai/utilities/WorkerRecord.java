@@ -0,0 +1,54 @@
+package me.scai.utilities;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* All the state the pool keeps for one registered worker.
+ *
+ * Keeping it in one object means a single map lookup per pool operation, and the mutable
+ * fields are atomics so that touching or counting messages needs no pool-wide lock. */
+class WorkerRecord {
+    /* Member variables */
+    final WorkerId id;
+    final PooledWorker worker;
+    final WorkerClientInfo clientInfo;
+    final long createdMillis;                   /* Time stamp of creation */
+
+    final AtomicLong lastUseMillis;             /* Time stamp of last usage */
+    final MessageRateTracker messages;          /* Message count and rates */
+
+    final AtomicLong expiryTick = new AtomicLong();  /* Bucket of the record in the ExpiryWheel */
+
+    volatile String previousWorkerId;           /* For "relayed" workers */
+    volatile String rootWorkerId;               /* First worker of the chain of relays, once resolved */
+
+    CapacityPartitions partitions;              /* Partitions the slot of the worker counts in, if any */
+
+    private final AtomicBoolean removed = new AtomicBoolean();
+
+    /* Constructor */
+    WorkerRecord(final WorkerId id,
+                 final PooledWorker worker,
+                 final WorkerClientInfo clientInfo,
+                 final long createdMillis) {
+        this.id            = id;
+        this.worker        = worker;
+        this.clientInfo    = clientInfo;
+        this.createdMillis = createdMillis;
+
+        this.lastUseMillis = new AtomicLong(createdMillis); /* Initial timestamp is the time of registration */
+        this.messages      = new MessageRateTracker(createdMillis);
+    }
+
+    /* Claim the record for removal
+     *
+     * @return    true for exactly one caller (the one that gets to do the removal book-keeping)
+     */
+    boolean markRemoved() {
+        return removed.compareAndSet(false, true);
+    }
+
+    boolean isRemoved() {
+        return removed.get();
+    }
+}
@@ -0,0 +1,11 @@
+package me.scai.utilities;
+
+/* Recreates the worker objects of the workers restored from a snapshot (see WorkerPoolImpl.restore()).
+ * Only the metadata of the workers is persisted, so this is where a session gets its state back. */
+public interface WorkerRehydrator {
+    /* @param    workerId: ID of the restored worker
+     * @param    clientInfo: client info of the worker, with only the client types restored
+     * @return   The worker, or null to leave the worker out of the pool
+     */
+    public PooledWorker rehydrate(String workerId, WorkerClientInfo clientInfo);
+}
@@ -0,0 +1,56 @@
+package me.scai.utilities;
+
+import java.util.Date;
+
+/* Immutable view of one worker at the time it was read, for listing workers without holding on to
+ * the pool's own state. Does not include the worker object itself. */
+public class WorkerSnapshot {
+    /* Member variables */
+    private final String workerId;
+    private final WorkerClientInfo clientInfo;
+    final long createdMillis;
+    final long lastUseMillis;
+    private final int messageCount;
+    private final String previousWorkerId;
+
+    /* Constructor */
+    WorkerSnapshot(final String workerId,
+                   final WorkerClientInfo clientInfo,
+                   final long createdMillis,
+                   final long lastUseMillis,
+                   final int messageCount,
+                   final String previousWorkerId) {
+        this.workerId         = workerId;
+        this.clientInfo       = clientInfo;
+        this.createdMillis    = createdMillis;
+        this.lastUseMillis    = lastUseMillis;
+        this.messageCount     = messageCount;
+        this.previousWorkerId = previousWorkerId;
+    }
+
+    /* Getters */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public WorkerClientInfo getClientInfo() {
+        return clientInfo;
+    }
+
+    public Date getCreatedTimestamp() {
+        return new Date(createdMillis);
+    }
+
+    public Date getLastUseTimestamp() {
+        return new Date(lastUseMillis);
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /* @return    ID of the worker this one was relayed from, or null */
+    public String getPreviousWorkerId() {
+        return previousWorkerId;
+    }
+}
@@ -0,0 +1,159 @@
+package me.scai.utilities;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Workers built ahead of time, or recycled from released ones, for registrations to claim.
+ *
+ * Building and resetting run on the executor, never on the thread of a pool operation. The set is
+ * topped up to its target after every claim, with the spares plus the builds in flight never over
+ * the target, so that a burst of claims cannot queue more builds than that. Released workers are
+ * reset while the spares plus the resets in flight are under the target, whatever the builds in
+ * flight, so that recycling is not crowded out by the builds that follow every claim. The set can
+ * therefore briefly hold up to twice the target. */
+class WorkerSpares {
+    /* Member variables */
+    private final WorkerFactory factory;
+    private final int target;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    private final ConcurrentLinkedQueue<PooledWorker> spares = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numSpares = new AtomicInteger();
+    private final AtomicInteger numBuilding = new AtomicInteger();
+    private final AtomicInteger numResetting = new AtomicInteger();
+
+    private final AtomicLong numBuilt = new AtomicLong();
+    private final AtomicLong numRecycled = new AtomicLong();
+    private final AtomicLong numClaimed = new AtomicLong();
+    private final AtomicLong numMisses = new AtomicLong();
+    private final AtomicLong numFailures = new AtomicLong();
+
+    /* Constructor */
+    WorkerSpares(final WorkerFactory factory, final int target, final Executor executor, final boolean ownsExecutor) {
+        this.factory      = factory;
+        this.target       = target;
+        this.executor     = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    WorkerFactory getFactory() {
+        return factory;
+    }
+
+    /* Take a spare, and start building its replacement
+     *
+     * @return    A spare, or null if there is none ready
+     */
+    PooledWorker claim() {
+        PooledWorker wkr = spares.poll();
+        if (wkr != null) {
+            numSpares.decrementAndGet();
+            numClaimed.incrementAndGet();
+        } else {
+            numMisses.incrementAndGet();
+        }
+
+        replenish();
+
+        return wkr;
+    }
+
+    /* Put back a spare that has been claimed but not used */
+    void putBack(PooledWorker wkr) {
+        if (numSpares.get() < target) {
+            add(wkr);
+        }
+    }
+
+    /* Reset a released worker on the executor, and keep it as a spare if there is room */
+    void recycle(final PooledWorker wkr) {
+        if ( !reserve(numResetting) ) {
+            return;
+        }
+
+        submit(numResetting, new Runnable() {
+            @Override
+            public void run() {
+                boolean reset = false;
+                try {
+                    reset = factory.reset(wkr);
+                } catch (RuntimeException exc) {
+                    numFailures.incrementAndGet();
+                }
+
+                numResetting.decrementAndGet();
+                if (reset) {
+                    numRecycled.incrementAndGet();
+                    add(wkr);
+                }
+            }
+        });
+    }
+
+    /* Start building spares until the spares and the ones in flight reach the target */
+    void replenish() {
+        while (reserve(numBuilding)) {
+            submit(numBuilding, new Runnable() {
+                @Override
+                public void run() {
+                    PooledWorker wkr = null;
+                    try {
+                        wkr = factory.create();
+                    } catch (RuntimeException exc) {
+                        numFailures.incrementAndGet();
+                    }
+
+                    /* A failed build is not retried until the next claim */
+                    numBuilding.decrementAndGet();
+                    if (wkr != null) {
+                        numBuilt.incrementAndGet();
+                        add(wkr);
+                    }
+                }
+            });
+        }
+    }
+
+    /* Count one more build or reset in flight, if the target allows */
+    private boolean reserve(AtomicInteger inFlight) {
+        while (true) {
+            final int n = inFlight.get();
+            if (n + numSpares.get() >= target) {
+                return false;
+            }
+
+            if (inFlight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void add(PooledWorker wkr) {
+        spares.add(wkr);
+        numSpares.incrementAndGet();
+    }
+
+    private void submit(AtomicInteger inFlight, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException exc) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    void shutdown() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    SpareWorkerStats getStats() {
+        return new SpareWorkerStats(numSpares.get(), target, numBuilt.get(), numRecycled.get(),
+                                    numClaimed.get(), numMisses.get(), numFailures.get());
+    }
+}
@@ -0,0 +1,7 @@
+package me.scai.utilities;
+
+/* Task run on a worker by a WorkerTaskExecutor, never at the same time as another task on the same
+ * worker */
+public interface WorkerTask<T> {
+    public T run(PooledWorker wkr) throws Exception;
+}
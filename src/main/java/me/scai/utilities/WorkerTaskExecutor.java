@@ -0,0 +1,334 @@
+package me.scai.utilities;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Runs tasks on the workers of a pool, serially per worker and in parallel across workers, so that
+ * callers need no locking of their own around workers that are not thread-safe.
+ *
+ * Each worker with tasks pending has a mailbox: a bounded lock-free queue drained by one task at a
+ * time on the executor. A mailbox goes away once drained, so idle workers cost nothing. Dispatching a
+ * task counts a message for the worker and touches it, like a request to it would.
+ *
+ * The executor defaults to virtual threads where the runtime has them (Java 21+), and to daemon
+ * threads owned by the executor otherwise. */
+public class WorkerTaskExecutor {
+    /* Constants */
+    public static final int DEFAULT_MAILBOX_CAPACITY = 256;
+
+    private static final int MAX_DRAIN_BATCH = 64;     /* Tasks run per drain, so as not to hog a shared executor */
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    /* Member variables */
+    private final WorkerPool pool;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private volatile int mailboxCapacity = DEFAULT_MAILBOX_CAPACITY;
+    private volatile boolean shutDown;
+
+    private final LongAdder numSubmitted = new LongAdder();
+    private final LongAdder numCompleted = new LongAdder();
+    private final LongAdder numFailed = new LongAdder();
+    private final LongAdder numRejected = new LongAdder();
+
+    /* Tasks of one worker, and whether a drain of them is scheduled */
+    private class Mailbox implements Runnable {
+        final String workerId;
+        final Queue<PendingTask<?>> tasks = new ConcurrentLinkedQueue<>();
+
+        /* Number of tasks, including the ones reserved by submitters in flight. Once back to 0, the
+         * drain gives the mailbox up by setting it to RETIRED. */
+        final AtomicInteger size = new AtomicInteger();
+
+        Mailbox(final String workerId) {
+            this.workerId = workerId;
+        }
+
+        /* @return    The size before the reservation, -1 if the mailbox is full, or RETIRED */
+        int reserve() {
+            while (true) {
+                final int n = size.get();
+                if (n == RETIRED || n >= mailboxCapacity) {
+                    return (n == RETIRED) ? RETIRED : -1;
+                }
+
+                if (size.compareAndSet(n, n + 1)) {
+                    return n;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                for (int i = 0; i < MAX_DRAIN_BATCH && !drained; ++i) {
+                    try {
+                        takeTask().dispatch();
+                    } finally {
+                        drained = finishTask();
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    schedule(this); /* Batch limit, or a throw out of dispatch() */
+                }
+            }
+        }
+
+        /* Count a task as done
+         *
+         * @return    Whether that emptied the mailbox, which ends the drain
+         */
+        boolean finishTask() {
+            if (size.decrementAndGet() != 0) {
+                return false;
+            }
+
+            if (size.compareAndSet(0, RETIRED)) {
+                mailboxes.remove(workerId, this);
+            }
+            return true; /* Otherwise, the submitter that took it from 0 has scheduled a drain */
+        }
+
+        /* Take the next task, which has been reserved but may not be queued yet */
+        PendingTask<?> takeTask() {
+            PendingTask<?> task;
+            while ((task = tasks.poll()) == null) {
+                Thread.onSpinWait();
+            }
+
+            return task;
+        }
+    }
+
+    private class PendingTask<T> {
+        final String workerId;
+        final WorkerTask<T> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        PendingTask(final String workerId, final WorkerTask<T> task) {
+            this.workerId = workerId;
+            this.task     = task;
+        }
+
+        void dispatch() {
+            if (future.isDone()) {
+                return; /* Cancelled */
+            }
+            if (shutDown) {
+                reject("Task executor has been shut down");
+                return;
+            }
+
+            final PooledWorker wkr;
+            try {
+                pool.incrementMessageCount(workerId);
+                pool.touchWorker(workerId);
+                wkr = pool.getWorker(workerId);
+            } catch (Throwable exc) {
+                numFailed.increment();
+                future.completeExceptionally(exc); /* Mostly an IllegalArgumentException: removed or purged since */
+                return;
+            }
+
+            /* Counted before completing, so that the counts include every task whose future is done */
+            final T result;
+            try {
+                result = task.run(wkr);
+            } catch (Throwable exc) { /* Errors too, so that the future does not hang */
+                numFailed.increment();
+                future.completeExceptionally(exc);
+                return;
+            }
+
+            numCompleted.increment();
+            future.complete(result);
+        }
+
+        CompletableFuture<T> reject(String message) {
+            numRejected.increment();
+            future.completeExceptionally(new RejectedExecutionException(message));
+
+            return future;
+        }
+    }
+
+    /* Constructor: tasks run on virtual threads if available, or on daemon threads of the executor */
+    public WorkerTaskExecutor(final WorkerPool pool) {
+        this.pool = pool;
+
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        if (virtualThreads != null) {
+            this.executor = virtualThreads;
+        } else {
+            this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger numThreads = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "worker-tasks-" + numThreads.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+        this.ownsExecutor = true;
+    }
+
+    /* Tasks run on the given executor, which is not shut down by shutdown() */
+    public WorkerTaskExecutor(final WorkerPool pool, final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+
+        this.pool         = pool;
+        this.executor     = executor;
+        this.ownsExecutor = false;
+    }
+
+    /* Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively as the build targets an
+     * older Java
+     *
+     * @return    The executor, or null if the runtime has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException exc) {
+            return null;
+        }
+    }
+
+    /* Set the maximum number of tasks pending per worker. Tasks beyond that are rejected. */
+    public void setMailboxCapacity(int mailboxCapacity) {
+        if (mailboxCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid mailbox capacity: " + mailboxCapacity);
+        }
+
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    /* Queue a task to run on a worker, after the tasks already queued for it
+     *
+     * @param    workerId: ID of the worker
+     * @param    task: task to run
+     * @return   Future of the result of the task. It completes exceptionally with a
+     *           RejectedExecutionException right away if the mailbox of the worker is full (or the
+     *           executor is shut down), and with an IllegalArgumentException if the worker has left
+     *           the pool by the time the task is dispatched. Cancelling it before dispatch skips the
+     *           task.
+     * @throws   IllegalArgumentException if the worker ID is invalid, or the worker belongs to
+     *           another process
+     */
+    public <T> CompletableFuture<T> submit(final String workerId, final WorkerTask<T> task) {
+        if (pool.getWorker(workerId) == null) {
+            throw new IllegalArgumentException("Worker is not in this process: \"" + workerId + "\"");
+        }
+
+        PendingTask<T> pending = new PendingTask<>(workerId, task);
+        if (shutDown) {
+            return pending.reject("Task executor has been shut down");
+        }
+
+        Mailbox mailbox;
+        int prevSize;
+        while (true) {
+            mailbox = mailboxes.computeIfAbsent(workerId, Mailbox::new);
+            prevSize = mailbox.reserve();
+            if (prevSize != RETIRED) {
+                break;
+            }
+
+            mailboxes.remove(workerId, mailbox); /* Retired as we got it: help the drain remove it */
+        }
+
+        if (prevSize < 0) {
+            return pending.reject("Mailbox of worker \"" + workerId + "\" is full");
+        }
+
+        mailbox.tasks.add(pending);
+        numSubmitted.increment();
+
+        if (prevSize == 0) {
+            schedule(mailbox);
+        }
+
+        return pending.future;
+    }
+
+    private void schedule(Mailbox mailbox) {
+        try {
+            executor.execute(mailbox);
+        } catch (RejectedExecutionException exc) {
+            /* Fail the pending tasks rather than leave their futures hanging. Submitters that come
+             * after the retirement start a new mailbox. */
+            final int n = mailbox.size.getAndSet(RETIRED);
+            for (int i = 0; i < n; ++i) {
+                mailbox.takeTask().reject("Task executor rejected the tasks of worker \"" + mailbox.workerId + "\"");
+            }
+            mailboxes.remove(mailbox.workerId, mailbox);
+        }
+    }
+
+    /* Number of tasks pending for a worker, including the one running */
+    public int getQueueDepth(String workerId) {
+        Mailbox mailbox = mailboxes.get(workerId);
+        final int n = (mailbox == null) ? 0 : mailbox.size.get();
+
+        return (n == RETIRED) ? 0 : n;
+    }
+
+    /* Number of workers with tasks pending */
+    public int getNumActiveMailboxes() {
+        return mailboxes.size();
+    }
+
+    public int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    public long getNumSubmitted() {
+        return numSubmitted.sum();
+    }
+
+    public long getNumCompleted() {
+        return numCompleted.sum();
+    }
+
+    /* Number of tasks that threw, or whose worker had left the pool */
+    public long getNumFailed() {
+        return numFailed.sum();
+    }
+
+    /* Number of tasks turned down because their mailbox was full, or the executor shut down */
+    public long getNumRejected() {
+        return numRejected.sum();
+    }
+
+    /* Stop running tasks. The tasks still queued complete exceptionally, and later ones are rejected.
+     * Releases the threads owned by the executor, if any. */
+    public void shutdown() {
+        shutDown = true;
+
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown(); /* Lets the drains fail what is still queued */
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package me.scai.utilities;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
+
+/* Runs a task on several threads at once, for the tests that hammer a pool concurrently */
+final class ConcurrentRuns {
+    private ConcurrentRuns() {}
+
+    /* Run a task on numThreads threads, released together, and wait for all of them */
+    static void runConcurrently(final int numThreads, final Runnable task) throws InterruptedException {
+        runConcurrently(numThreads, i -> task.run());
+    }
+
+    /* Same as above, the task being given the index of its thread */
+    static void runConcurrently(final int numThreads, final IntConsumer task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numThreads];
+
+        for (int i = 0; i < numThreads; ++i) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException exc) {
+                        return;
+                    }
+
+                    task.accept(threadIndex);
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package me.scai.utilities;
+
+import com.google.gson.JsonObject;
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+
+import java.net.InetAddress;
+import java.util.Date;
+
+/* The field layout WorkerClientInfo used to have, kept to compare footprints against */
+class LegacyWorkerClientInfo {
+    /* Member variables */
+    private Date timeCreated;
+
+    private ClientTypeMajor clientTypeMajor;
+    private ClientTypeMinor clientTypeMinor;
+    private String clientPlatformVersion;
+    private String clientAppVersion;
+
+    private JsonObject customClientData;
+
+    private InetAddress clientIPAddress;
+    private String clientHostName;
+
+    /* Constructor */
+    LegacyWorkerClientInfo(final InetAddress clientIPAddress,
+                           final String clientHostName,
+                           final ClientTypeMajor clientTypeMajor,
+                           final ClientTypeMinor clientTypeMinor,
+                           final String clientPlatformVersion,
+                           final String clientAppVersion,
+                           final JsonObject customClientData) {
+        this.timeCreated           = new Date();
+
+        this.clientIPAddress       = clientIPAddress;
+        this.clientHostName        = clientHostName;
+
+        this.clientTypeMajor       = clientTypeMajor;
+        this.clientTypeMinor       = clientTypeMinor;
+        this.clientPlatformVersion = clientPlatformVersion;
+        this.clientAppVersion      = clientAppVersion;
+
+        this.customClientData      = customClientData;
+    }
+}
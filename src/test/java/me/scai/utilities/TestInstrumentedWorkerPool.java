@@ -0,0 +1,153 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestInstrumentedWorkerPool {
+    private static class DummyWorker implements PooledWorker {
+    }
+
+    private static WorkerClientInfo clientInfo() {
+        return new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+    }
+
+    @Test
+    public void testRecordsOperations() {
+        InstrumentedWorkerPool pool = new InstrumentedWorkerPool(new WorkerPoolImpl(2, 60000L));
+        WorkerPoolMetrics metrics = pool.getMetrics();
+
+        String wkrId0 = pool.registerWorker(new DummyWorker(), clientInfo());
+        String wkrId1 = pool.registerWorker(new DummyWorker(), clientInfo());
+        assertNull(pool.registerWorker(new DummyWorker(), clientInfo()));
+
+        assertEquals(3L, metrics.getRegisterLatency().getCount());
+        assertEquals(1L, metrics.getNumRejectedRegistrations());
+
+        assertNotNull(pool.getWorker(wkrId0));
+        pool.getMessageCount(wkrId0);
+        assertEquals(2L, metrics.getLookupLatency().getCount());
+
+        pool.updateWorkerTimestamp(wkrId1, new Date(System.currentTimeMillis() - 120000L));
+        final long numPurgeRuns = metrics.getPurgeLatency().getCount(); /* Registrations purge inline */
+        assertEquals(1, pool.purge().size());
+        assertEquals(numPurgeRuns + 1L, metrics.getPurgeLatency().getCount());
+        assertEquals(1L, metrics.getPurgeBatchSizes().getMax());
+
+        pool.removeWorker(wkrId0);
+        assertEquals(1L, metrics.getRemoveLatency().getCount());
+
+        assertEquals(0, metrics.getCurrNumWorkers());
+        assertEquals(1, metrics.getNumPurgedWorkers());
+        assertEquals(1, metrics.getNumNormallyRemovedWorkers());
+
+        metrics.reset();
+        assertEquals(0L, metrics.getRegisterLatency().getCount());
+        assertEquals(0L, metrics.getNumRejectedRegistrations());
+    }
+
+    @Test
+    public void testRecordsInlineAndReaperPurges() throws Exception {
+        /* Inline, by a registration */
+        InstrumentedWorkerPool pool = new InstrumentedWorkerPool(new WorkerPoolImpl(1, 60000L));
+        WorkerPoolMetrics metrics = pool.getMetrics();
+
+        String wkrId = pool.registerWorker(new DummyWorker(), clientInfo());
+        pool.updateWorkerTimestamp(wkrId, new Date(System.currentTimeMillis() - 120000L));
+        assertNotNull(pool.registerWorker(new DummyWorker(), clientInfo()));
+        assertEquals(1, metrics.getNumPurgedWorkers());
+        assertEquals(1L, metrics.getPurgeBatchSizes().getMax());
+
+        /* By the reaper */
+        WorkerPoolImpl reaped = new WorkerPoolImpl(10, 60000L);
+        pool = new InstrumentedWorkerPool(reaped);
+        metrics = pool.getMetrics();
+
+        wkrId = pool.registerWorker(new DummyWorker(), clientInfo());
+        pool.updateWorkerTimestamp(wkrId, new Date(System.currentTimeMillis() - 120000L));
+        metrics.reset();
+        reaped.startReaper(10L);
+        try {
+            for (int i = 0; i < 500 && metrics.getPurgeBatchSizes().getMax() == 0L; ++i) {
+                Thread.sleep(10L);
+            }
+            assertEquals(1, metrics.getNumPurgedWorkers());
+            assertEquals(1L, metrics.getPurgeBatchSizes().getMax());
+            assertTrue(metrics.getPurgeLatency().getCount() >= 1L);
+        } finally {
+            reaped.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        InstrumentedWorkerPool pool = new InstrumentedWorkerPool(new WorkerPoolImpl(1, 60000L), false);
+        WorkerPoolMetrics metrics = pool.getMetrics();
+
+        assertFalse(metrics.isEnabled());
+        String wkrId = pool.registerWorker(new DummyWorker(), clientInfo());
+        assertNull(pool.registerWorker(new DummyWorker(), clientInfo()));
+        pool.getWorker(wkrId);
+
+        assertEquals(0L, metrics.getRegisterLatency().getCount());
+        assertEquals(0L, metrics.getLookupLatency().getCount());
+        assertEquals(0L, metrics.getNumRejectedRegistrations());
+
+        metrics.setEnabled(true);
+        pool.getWorker(wkrId);
+        assertEquals(1L, metrics.getLookupLatency().getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        Log2Histogram histogram = new Log2Histogram();
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(100L);     /* Bucket [64, 128) */
+        }
+        histogram.record(5000L);        /* Bucket [4096, 8192) */
+
+        HistogramSnapshot snapshot = histogram.snapshot(1L);
+        assertEquals(100L, snapshot.getCount());
+        assertEquals(127L, snapshot.getP50());
+        assertEquals(127L, snapshot.getP99());
+        assertEquals(5000L, snapshot.getMax());
+        assertEquals(149.0, snapshot.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        InstrumentedWorkerPool pool = new InstrumentedWorkerPool(new WorkerPoolImpl(10, 60000L));
+        ObjectName name = pool.registerMBean("test-pool");
+
+        try {
+            pool.registerWorker(new DummyWorker(), clientInfo());
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertEquals(1, server.getAttribute(name, "CurrNumWorkers"));
+
+            CompositeData registerLatency = (CompositeData) server.getAttribute(name, "RegisterLatency");
+            assertEquals(1L, registerLatency.get("count"));
+
+            server.setAttribute(name, new Attribute("Enabled", false));
+            assertFalse(pool.getMetrics().isEnabled());
+        } finally {
+            pool.unregisterMBean();
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
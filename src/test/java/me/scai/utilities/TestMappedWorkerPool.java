@@ -0,0 +1,325 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static me.scai.utilities.ConcurrentRuns.runConcurrently;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMappedWorkerPool {
+    private final WorkerClientInfo wkrClientInfo =
+            new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("worker-pool", ".slots");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSharedBetweenPools() throws IOException {
+        try (MappedWorkerPool wp0 = new MappedWorkerPool(file, 16, 10, 60000L);
+             MappedWorkerPool wp1 = new MappedWorkerPool(file, 64, 64, 1000L)) {
+            /* The second pool takes the settings of the existing table */
+            assertEquals(16, wp1.getNumSlots());
+            assertEquals(10, wp1.getMaxNumWorkers());
+            assertEquals(60000L, wp1.getWorkerTimeout());
+
+            List<String> wkrIds0 = new ArrayList<>();
+            for (int i = 0; i < 6; ++i) {
+                wkrIds0.add(wp0.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            }
+            List<String> wkrIds1 = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                wkrIds1.add(wp1.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            }
+
+            /* Capacity is shared */
+            assertNull(wp0.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertNull(wp1.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertEquals(10, wp0.getCurrNumWorkers());
+            assertEquals(0, wp1.getNumAvailableSlots());
+            assertEquals(10, wp1.getNumEverCreatedWorkers());
+            assertEquals(10, wp1.getNumWorkers(ClientTypeMinor.API_UnitTest));
+            assertEquals(0, wp0.getNumWorkers(ClientTypeMajor.MobileIOS));
+
+            /* Worker objects stay local, the rest is visible to both */
+            String wkrId = wkrIds0.get(2);
+            assertNotNull(wp0.getWorker(wkrId));
+            assertNull(wp1.getWorker(wkrId));
+            assertTrue(wp0.isLocalWorker(wkrId));
+            assertFalse(wp1.isLocalWorker(wkrId));
+
+            assertEquals(1, wp1.incrementMessageCount(wkrId));
+            assertEquals(2, wp0.incrementMessageCount(wkrId));
+            assertEquals(2, wp1.getMessageCount(wkrId));
+
+            wp1.setPreviousWorkerId(wkrIds1.get(0), wkrId);
+            assertEquals(wkrId, wp0.getPreviousWorkerId(wkrIds1.get(0)));
+            wp1.setPreviousWorkerId(wkrIds1.get(1), "not-a-worker-id");
+            assertEquals("not-a-worker-id", wp1.getPreviousWorkerId(wkrIds1.get(1)));
+
+            Set<String> allIds = new HashSet<>(wkrIds0);
+            allIds.addAll(wkrIds1);
+            assertEquals(allIds, wp1.getWorkersClientInfo().keySet());
+            assertEquals(ClientTypeMinor.API_UnitTest, wp1.getWorkersClientInfo().get(wkrId).getClientTypeMinor());
+
+            try {
+                wp1.getWorker("foo-bar-qux-unlikely-to-be");
+                fail();
+            } catch (IllegalArgumentException exc) {
+            }
+
+            /* Either pool can remove or purge the workers of the other */
+            wp1.removeWorker(wkrId);
+            try {
+                wp0.getWorker(wkrId);
+                fail();
+            } catch (IllegalArgumentException exc) {
+            }
+            assertEquals(1, wp0.getNumNormallyRemovedWorkers());
+
+            Date longAgo = new Date(System.currentTimeMillis() - 120000L);
+            assertEquals(3, wp0.updateWorkerTimestamps(wkrIds1.subList(0, 3), longAgo).getNumSucceeded());
+            assertEquals(new HashSet<>(wkrIds1.subList(0, 3)), new HashSet<>(wp1.purge()));
+            assertEquals(3, wp0.getNumPurgedWorkers());
+            assertEquals(4, wp1.getWorkerHistory().size());
+
+            assertEquals(6, wp0.getCurrNumWorkers());
+            assertNotNull(wp0.registerWorker(new ConcreteWorker(), wkrClientInfo));
+
+            wp0.clearWorkers();
+            assertEquals(0, wp1.getCurrNumWorkers());
+            assertEquals(10, wp1.getNumAvailableSlots());
+        }
+    }
+
+    @Test
+    public void testPurgeTakesBackSlotsOfDeadProcess() throws Exception {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process dead = new ProcessBuilder(javaBin, "-version").redirectErrorStream(true)
+                                                             .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                                                             .start();
+        dead.waitFor();
+
+        try (MappedWorkerPool wp = new MappedWorkerPool(file, 4, 4, 60000L);
+             MappedSlotTable table = MappedSlotTable.open(file, 4, 4, 60000L)) {
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+
+            /* A process died holding a slot it had counted, and one it had only reserved */
+            int numPlanted = 0;
+            for (int slot = 0; numPlanted < 2; ++slot) {
+                final int offset = MappedSlotTable.slotOffset(slot) + MappedSlotTable.STATE;
+                if (MappedSlotTable.stateOf(table.get(offset)) == MappedSlotTable.FREE) {
+                    final int state = (numPlanted++ == 0) ? MappedSlotTable.FILLING : MappedSlotTable.RESERVED;
+                    table.set(offset, MappedSlotTable.ownedStateWord(dead.pid(), state));
+                }
+            }
+            table.getAndAdd(MappedSlotTable.NUM_TAKEN_SLOTS, 1L);
+            assertEquals(2, wp.getNumAvailableSlots());
+
+            /* The table has one free slot left; the dead slots are freed by the purge, and the count of
+             * the counted one only is released */
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertEquals(4, wp.getCurrNumWorkers());
+            assertEquals(0, wp.getNumAvailableSlots());
+            assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+    }
+
+    @Test
+    public void testConcurrentRegistrationRespectsSharedCapacity() throws Exception {
+        final int maxNumWorkers = 100;
+        final MappedWorkerPool[] pools = {new MappedWorkerPool(file, 128, maxNumWorkers, 60000L),
+                                          new MappedWorkerPool(file, 128, maxNumWorkers, 60000L)};
+        final Set<String> registered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        runConcurrently(8, new IntConsumer() {
+            @Override
+            public void accept(int threadIndex) {
+                final MappedWorkerPool wp = pools[threadIndex % 2];
+
+                for (int j = 0; j < 50; ++j) {
+                    String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+                    if (wkrId != null) {
+                        registered.add(wkrId);
+                        wp.incrementMessageCount(wkrId);
+                    }
+                }
+            }
+        });
+
+        assertEquals(maxNumWorkers, registered.size());
+        assertEquals(registered, pools[0].getWorkersClientInfo().keySet());
+        for (String wkrId : registered) {
+            assertEquals(1, pools[1].getMessageCount(wkrId));
+        }
+
+        for (MappedWorkerPool wp : pools) {
+            wp.close();
+        }
+    }
+
+    @Test
+    public void testWaitersGetSlotsFreedByOtherPool() throws Exception {
+        try (MappedWorkerPool wp0 = new MappedWorkerPool(file, 4, 2, 60000L);
+             MappedWorkerPool wp1 = new MappedWorkerPool(file, 4, 2, 60000L)) {
+            String wkrId = wp0.registerWorker(new ConcreteWorker(), wkrClientInfo);
+            assertNotNull(wp0.registerWorker(new ConcreteWorker(), wkrClientInfo));
+
+            CompletableFuture<String> waiting = wp1.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo);
+            assertFalse(waiting.isDone());
+
+            wp0.removeWorker(wkrId);
+            assertNotNull(wp1.getWorker(waiting.get(5, TimeUnit.SECONDS)));
+            assertEquals(1L, wp1.getAdmissionStats().getNumEnqueued());
+        }
+    }
+
+    @Test
+    public void testSharedWithOtherProcess() throws Exception {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process child = new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"),
+                                           ChildProcess.class.getName(), file.getAbsolutePath(), "5")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        List<String> childWkrIds = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                childWkrIds.add(line);
+            }
+        }
+        assertEquals(0, child.waitFor());
+        assertEquals(5, childWkrIds.size());
+
+        try (MappedWorkerPool wp = new MappedWorkerPool(file, 8, 8, 60000L)) {
+            /* The workers of the child outlive it, until they time out */
+            assertEquals(5, wp.getCurrNumWorkers());
+            assertEquals(3, wp.getNumAvailableSlots());
+            assertEquals(new HashSet<>(childWkrIds), wp.getWorkersClientInfo().keySet());
+            assertNull(wp.getWorker(childWkrIds.get(0)));
+            assertEquals(childWkrIds.get(0), wp.getPreviousWorkerId(childWkrIds.get(1)));
+            assertEquals(3, wp.getMessageCount(childWkrIds.get(1)));
+
+            wp.setWorkerTimeout(0L);
+            Thread.sleep(10L);
+            assertEquals(new HashSet<>(childWkrIds), new HashSet<>(wp.purge()));
+            assertEquals(8, wp.getNumAvailableSlots());
+        }
+    }
+
+    /* Registers workers in a pool of its own process, and exits without removing them */
+    public static class ChildProcess {
+        public static void main(String[] args) throws IOException {
+            final int numWorkers = Integer.parseInt(args[1]);
+            WorkerClientInfo wkrClientInfo =
+                    new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+            try (MappedWorkerPool wp = new MappedWorkerPool(new File(args[0]), 8, 8, 60000L)) {
+                List<String> wkrIds = wp.registerWorkers(Collections.nCopies(numWorkers, new ConcreteWorker()),
+                                                         Collections.nCopies(numWorkers, wkrClientInfo));
+                wp.setPreviousWorkerId(wkrIds.get(1), wkrIds.get(0));
+                wp.addMessageCounts(Collections.singletonMap(wkrIds.get(1), 3));
+
+                for (String wkrId : wkrIds) {
+                    System.out.println(wkrId);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPagedWorkerListing() throws IOException {
+        try (MappedWorkerPool wp0 = new MappedWorkerPool(file, 32, 60000L);
+             MappedWorkerPool wp1 = new MappedWorkerPool(file, 32, 60000L)) {
+            List<String> wkrIds = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                wkrIds.add(((i % 2 == 0) ? wp0 : wp1).registerWorker(new ConcreteWorker(), wkrClientInfo));
+            }
+            wp0.updateWorkerTimestamp(wkrIds.get(3), new Date(System.currentTimeMillis() - 120000L));
+
+            /* Either pool lists the workers of both, leaving out the timed-out one */
+            List<String> listed = new ArrayList<>();
+            String cursor = null;
+            do {
+                WorkerPage page = wp1.getWorkers(cursor, 4, null);
+                assertTrue(page.getWorkers().size() <= 4);
+                for (WorkerSnapshot wkr : page.getWorkers()) {
+                    listed.add(wkr.getWorkerId());
+                }
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            List<String> expected = new ArrayList<>(wkrIds);
+            expected.remove(3);
+            Collections.sort(expected);
+            assertEquals(expected, listed);
+
+            assertEquals(9, wp0.streamWorkers().count());
+            assertEquals(10, wp0.getCurrNumWorkers());
+        }
+    }
+
+    @Test
+    public void testRelayWorker() throws IOException {
+        try (MappedWorkerPool wp0 = new MappedWorkerPool(file, 4, 60000L);
+             MappedWorkerPool wp1 = new MappedWorkerPool(file, 4, 60000L)) {
+            ConcreteWorker wkr = new ConcreteWorker();
+            String firstId = wp0.registerWorker(wkr, wkrClientInfo);
+            wp1.incrementMessageCount(firstId);
+
+            String wkrId = wp0.relayWorker(firstId, wkrClientInfo);
+            wkrId = wp0.relayWorker(wkrId, wkrClientInfo);
+            assertSame(wkr, wp0.getWorker(wkrId));
+            assertEquals(1, wp1.getMessageCount(wkrId));
+            assertEquals(firstId, wp1.getRootWorkerId(wkrId));
+            assertEquals(1, wp1.getCurrNumWorkers());
+            assertEquals(Collections.singleton(wkrId), wp1.getWorkersClientInfo().keySet());
+
+            /* Only the process of the worker can hand it over */
+            try {
+                wp1.relayWorker(wkrId, wkrClientInfo);
+                fail();
+            } catch (IllegalArgumentException exc) {
+            }
+        }
+    }
+
+}
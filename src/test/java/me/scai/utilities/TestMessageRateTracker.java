@@ -0,0 +1,81 @@
+package me.scai.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMessageRateTracker {
+    private static final long T0 = 1000L * 1000L * 1000L; /* Arbitrary whole second */
+
+    @Test
+    public void testWindowCounts() {
+        MessageRateTracker tracker = new MessageRateTracker(T0);
+
+        /* 5 messages per second over 20 seconds, then 50 messages in one second */
+        for (int s = 0; s < 20; ++s) {
+            for (int i = 0; i < 5; ++i) {
+                tracker.increment(T0 + s * 1000L + i * 100L);
+            }
+        }
+        for (int i = 0; i < 50; ++i) {
+            tracker.increment(T0 + 20 * 1000L + i * 10L);
+        }
+
+        assertEquals(150, tracker.getCount());
+
+        /* Only complete seconds are counted: nothing is complete yet in second 20 */
+        final long inSecond20 = T0 + 20 * 1000L + 900L;
+        assertEquals(5, tracker.getWindowCount(MessageRateWindow.OneSecond, inSecond20));
+        assertEquals(50, tracker.getWindowCount(MessageRateWindow.TenSeconds, inSecond20));
+        assertEquals(100, tracker.getWindowCount(MessageRateWindow.OneMinute, inSecond20));
+
+        /* Once second 20 is over, the burst shows in the short window */
+        final long inSecond21 = T0 + 21 * 1000L;
+        assertEquals(50, tracker.getWindowCount(MessageRateWindow.OneSecond, inSecond21));
+        assertEquals(50.0f, tracker.getWindowRate(MessageRateWindow.OneSecond, inSecond21), 1e-6f);
+        assertEquals(5.0f + 9 * 0.5f, tracker.getWindowRate(MessageRateWindow.TenSeconds, inSecond21), 1e-6f);
+        assertEquals(150, tracker.getWindowCount(MessageRateWindow.OneMinute, inSecond21));
+
+        /* After a quiet period, the windows empty out one after the other */
+        final long inSecond35 = T0 + 35 * 1000L;
+        assertEquals(0, tracker.getWindowCount(MessageRateWindow.OneSecond, inSecond35));
+        assertEquals(0, tracker.getWindowCount(MessageRateWindow.TenSeconds, inSecond35));
+        assertEquals(150, tracker.getWindowCount(MessageRateWindow.OneMinute, inSecond35));
+
+        final long inSecond90 = T0 + 90 * 1000L;
+        assertEquals(0, tracker.getWindowCount(MessageRateWindow.OneMinute, inSecond90));
+    }
+
+    @Test
+    public void testEwmaRate() {
+        MessageRateTracker tracker = new MessageRateTracker(T0);
+
+        /* A steady rate makes the average converge towards it */
+        for (int s = 0; s < 600; ++s) {
+            for (int i = 0; i < 10; ++i) {
+                tracker.increment(T0 + s * 1000L + i * 50L);
+            }
+        }
+
+        final float steady = tracker.getEwmaRate(T0 + 600 * 1000L);
+        assertEquals(10.0f, steady, 0.1f);
+
+        /* And it decays when the worker goes quiet */
+        final float afterOneMinute = tracker.getEwmaRate(T0 + 660 * 1000L);
+        assertTrue(afterOneMinute < steady * 0.4f);
+        assertTrue(afterOneMinute > steady * 0.3f);
+    }
+
+    @Test
+    public void testLargeDeltas() {
+        MessageRateTracker tracker = new MessageRateTracker(T0);
+
+        tracker.add(30, T0 + 500L);
+        tracker.add(12, T0 + 1500L);
+
+        assertEquals(42, tracker.getCount());
+        assertEquals(12, tracker.getWindowCount(MessageRateWindow.OneSecond, T0 + 2000L));
+        assertEquals(42, tracker.getWindowCount(MessageRateWindow.TenSeconds, T0 + 2000L));
+    }
+}
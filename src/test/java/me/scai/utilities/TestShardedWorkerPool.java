@@ -0,0 +1,363 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.scai.utilities.ConcurrentRuns.runConcurrently;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestShardedWorkerPool {
+    private final WorkerClientInfo wkrClientInfo =
+            new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+    @Test
+    public void testBasicOperations() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(100, 60000L, 6);
+        assertEquals(8, wp.getNumShards());
+
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+
+        assertEquals(50, wp.getCurrNumWorkers());
+        assertEquals(50, wp.getNumAvailableSlots());
+        assertEquals(50, wp.getNumEverCreatedWorkers());
+        assertEquals(new HashSet<>(wkrIds), wp.getWorkersClientInfo().keySet());
+
+        String wkrId = wkrIds.get(7);
+        assertNotNull(wp.getWorker(wkrId));
+        assertEquals(1, wp.incrementMessageCount(wkrId));
+        assertEquals(1, wp.getMessageCount(wkrId));
+        wp.setPreviousWorkerId(wkrId, wkrIds.get(3));
+        assertEquals(wkrIds.get(3), wp.getPreviousWorkerId(wkrId));
+
+        try {
+            wp.getWorker("foo-bar-qux-unlikely-to-be");
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        /* Expiry in every shard */
+        Date longAgo = new Date(System.currentTimeMillis() - 120000L);
+        assertEquals(10, wp.updateWorkerTimestamps(wkrIds.subList(0, 10), longAgo).getNumSucceeded());
+        List<String> purged = wp.purge();
+        assertEquals(new HashSet<>(wkrIds.subList(0, 10)), new HashSet<>(purged));
+        assertEquals(10, wp.getNumPurgedWorkers());
+
+        wp.removeWorker(wkrIds.get(10));
+        assertEquals(1, wp.getNumNormallyRemovedWorkers());
+        assertEquals(11, wp.getWorkerHistory().size());
+
+        assertEquals(39, wp.getCurrNumWorkers());
+        assertEquals(61, wp.getNumAvailableSlots());
+
+        wp.clearWorkers();
+        assertEquals(0, wp.getCurrNumWorkers());
+        assertEquals(100, wp.getNumAvailableSlots());
+    }
+
+    @Test
+    public void testBatchOperationsKeepBatchOrder() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(10, 60000L, 4);
+        final String fakeWorkerId = "foo-bar-qux-unlikely-to-be";
+
+        List<String> wkrIds = wp.registerWorkers(
+                Arrays.asList(new ConcreteWorker(), new ConcreteWorker(), new ConcreteWorker(), new ConcreteWorker()),
+                Collections.nCopies(4, wkrClientInfo));
+        assertEquals(4, wkrIds.size());
+        assertNull(wp.registerWorkers(Collections.nCopies(7, new ConcreteWorker()), Collections.nCopies(7, wkrClientInfo)));
+
+        List<String> toRemove = Arrays.asList(wkrIds.get(3), wkrIds.get(0), fakeWorkerId, wkrIds.get(3));
+        BatchResult<PooledWorker> result = wp.removeWorkers(toRemove);
+        assertEquals(Arrays.asList(wkrIds.get(3), wkrIds.get(0)), new ArrayList<>(result.getValues().keySet()));
+        assertEquals(Arrays.asList(fakeWorkerId, wkrIds.get(3)), result.getInvalidWorkerIds());
+        assertEquals(8, wp.getNumAvailableSlots());
+    }
+
+    @Test
+    public void testConcurrentRegistrationRespectsGlobalCapacity() throws InterruptedException {
+        final int maxNumWorkers = 100;
+        final ShardedWorkerPool wp = new ShardedWorkerPool(maxNumWorkers, 60000L, 8);
+        final Set<String> registered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger numRejected = new AtomicInteger();
+
+        runConcurrently(8, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 50; ++i) {
+                    String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+                    if (wkrId == null) {
+                        numRejected.incrementAndGet();
+                    } else {
+                        registered.add(wkrId);
+                    }
+                }
+            }
+        });
+
+        /* The permits cached by the shards must not cause rejections while there is room */
+        assertEquals(maxNumWorkers, registered.size());
+        assertEquals(8 * 50 - maxNumWorkers, numRejected.get());
+        assertEquals(maxNumWorkers, wp.getCurrNumWorkers());
+        assertEquals(0, wp.getNumAvailableSlots());
+
+        runConcurrently(4, new Runnable() {
+            @Override
+            public void run() {
+                for (String wkrId : registered) {
+                    wp.removeWorker(wkrId);
+                }
+            }
+        });
+        assertEquals(0, wp.getCurrNumWorkers());
+        assertEquals(maxNumWorkers, wp.getNumAvailableSlots());
+        assertEquals(maxNumWorkers, wp.getNumNormallyRemovedWorkers());
+    }
+
+    @Test
+    public void testWaitersGetSlotsFreedByAnyShard() throws Exception {
+        ShardedWorkerPool wp = new ShardedWorkerPool(2, 60000L, 4);
+
+        String wkrId0 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        String wkrId1 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo, 20, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<String> first = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo);
+        CompletableFuture<String> second = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo);
+        assertFalse(first.isDone());
+
+        wp.removeWorker(wkrId1);
+        assertNotNull(wp.getWorker(first.get(1, TimeUnit.SECONDS)));
+        assertFalse(second.isDone());
+
+        wp.removeWorker(wkrId0);
+        assertNotNull(wp.getWorker(second.get(1, TimeUnit.SECONDS)));
+        assertEquals(2, wp.getCurrNumWorkers());
+        assertEquals(2L, wp.getAdmissionStats().getNumAdmitted());
+    }
+
+    @Test
+    public void testEventsAndHistoryAcrossShards() throws InterruptedException {
+        ShardedWorkerPool wp = new ShardedWorkerPool(20, 60000L, 4);
+        wp.setHistoryRetention(5, Long.MAX_VALUE);
+
+        final CountDownLatch removed = new CountDownLatch(10);
+        wp.addWorkerEventListener(new WorkerEventListener() {
+            @Override
+            public void onWorkerEvent(WorkerEvent event) {
+                if (event.getType() == WorkerEventType.Removed) {
+                    removed.countDown();
+                }
+            }
+        });
+
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+        for (String wkrId : wkrIds) {
+            wp.removeWorker(wkrId);
+        }
+
+        assertTrue(removed.await(5, TimeUnit.SECONDS));
+
+        List<WorkerHistoryEntry> history = wp.getWorkerHistory();
+        assertEquals(5, history.size());
+        for (int i = 1; i < history.size(); ++i) {
+            assertFalse(history.get(i).getEndTimestamp().before(history.get(i - 1).getEndTimestamp()));
+        }
+
+        wp.shutdown();
+    }
+
+    @Test
+    public void testBusiestWorkers() throws InterruptedException {
+        ShardedWorkerPool wp = new ShardedWorkerPool(20, 60000L, 4);
+
+        String[] workerIds = new String[8];
+        for (int i = 0; i < workerIds.length; ++i) {
+            workerIds[i] = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+            for (int j = 0; j < 10 * i; ++j) {
+                wp.incrementMessageCount(workerIds[i]);
+            }
+        }
+
+        /* Rates only cover complete seconds */
+        Thread.sleep(1000L - System.currentTimeMillis() % 1000L + 50L);
+
+        assertEquals(Arrays.asList(workerIds[7], workerIds[6], workerIds[5]),
+                     wp.getBusiestWorkers(3, MessageRateWindow.OneMinute));
+        assertEquals(7, wp.getBusiestWorkers(10, MessageRateWindow.OneMinute).size());
+    }
+
+    @Test
+    public void testPagedWorkerListingAcrossShards() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(100, 60000L, 4);
+
+        Set<String> wkrIds = new HashSet<>();
+        for (int i = 0; i < 37; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+
+        List<String> listed = new ArrayList<>();
+        int numPages = 0;
+        String cursor = null;
+        do {
+            WorkerPage page = wp.getWorkers(cursor, 8, null);
+            for (WorkerSnapshot wkr : page.getWorkers()) {
+                listed.add(wkr.getWorkerId());
+            }
+            ++numPages;
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(5, numPages);
+        List<String> sortedIds = new ArrayList<>(wkrIds);
+        Collections.sort(sortedIds);
+        assertEquals(sortedIds, listed);
+
+        assertEquals(37, wp.streamWorkers().count());
+        assertEquals(0, wp.getWorkers(null, 8, WorkerFilters.idleLongerThan(60000L)).getWorkers().size());
+    }
+
+    @Test
+    public void testClientLimitsAcrossShards() throws Exception {
+        ShardedWorkerPool wp = new ShardedWorkerPool(100, 60000L, 4);
+        wp.setClientLimits(1000.0, 100, 5);
+        WorkerClientInfo client = new WorkerClientInfo(InetAddress.getByAddress(new byte[] {10, 0, 2, 1}), null,
+                                                       ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client).isRegistered());
+        }
+        assertEquals(RegistrationRejection.TooManyClientWorkers,
+                     wp.tryRegisterWorker(new ConcreteWorker(), client).getRejection());
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+    }
+
+    @Test
+    public void testCapacityPartitionsAcrossShards() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(20, 60000L, 4);
+        WorkerClientInfo browser = new WorkerClientInfo(null, null, ClientTypeMajor.DesktopBrowser,
+                                                        ClientTypeMinor.DesktopBrowser_Chrome);
+        wp.setCapacityPartition(ClientTypeMajor.API, 5, 8);
+
+        /* The reserved slots are borrowed while idle, and taken back by single registrations */
+        List<String> browserIds = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            browserIds.add(wp.registerWorker(new ConcreteWorker(), browser));
+        }
+        assertNotNull(browserIds.get(19));
+        assertNull(wp.registerWorker(new ConcreteWorker(), browser));
+        assertNull(wp.registerWorkers(Collections.nCopies(5, new ConcreteWorker()),
+                                      Collections.nCopies(5, wkrClientInfo)));
+        for (int i = 0; i < 5; ++i) {
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+        assertEquals(15, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+
+        List<String> remainingIds = new ArrayList<>(wp.getWorkerIds(ClientTypeMajor.DesktopBrowser));
+        for (String wkrId : remainingIds.subList(0, 5)) {
+            wp.removeWorker(wkrId);
+        }
+        assertEquals(3, wp.getNumAvailableSlots(ClientTypeMajor.API)); /* Capped */
+        for (int i = 0; i < 3; ++i) {
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertEquals(2, wp.getNumAvailableSlots(ClientTypeMajor.DesktopBrowser));
+    }
+
+    @Test
+    public void testEvictionAcrossShards() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(4, 60000L, 4);
+        wp.setEvictionPolicy(EvictionPolicies.leastRecentlyUsed());
+
+        /* IDs that go to the chosen shard */
+        final int[] shardIndex = {0};
+        final WorkerIdGenerator random = new FastRandomWorkerIdGenerator();
+        wp.setWorkerIdGenerator(new WorkerIdGenerator() {
+            @Override
+            public WorkerId nextId() {
+                while (true) {
+                    WorkerId id = random.nextId();
+                    if ((id.hashCode() & 3) == shardIndex[0]) {
+                        return id;
+                    }
+                }
+            }
+        });
+
+        /* Three workers in shard 0, one in shard 2 which is the least recently used */
+        final long now = System.currentTimeMillis();
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            shardIndex[0] = (i < 3) ? 0 : 2;
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            wp.updateWorkerTimestamp(wkrIds.get(i), new Date(now - ((i < 3) ? 1000L * (i + 1) : 5000L)));
+        }
+
+        /* Into the empty shard 1, evicting from another shard */
+        shardIndex[0] = 1;
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertFalse(wp.getWorkersClientInfo().containsKey(wkrIds.get(3)));
+
+        /* Into shard 2, which has no worker left: the least recently used of shard 0 */
+        shardIndex[0] = 2;
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertFalse(wp.getWorkersClientInfo().containsKey(wkrIds.get(2)));
+
+        assertEquals(4, wp.getCurrNumWorkers());
+        assertEquals(2, wp.getNumEvictedWorkers());
+        assertEquals(0, wp.getNumAvailableSlots());
+
+        /* Without a policy, registrations are turned down again */
+        wp.setEvictionPolicy(null);
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+    }
+
+    @Test
+    public void testRelayWorkerAcrossShards() {
+        ShardedWorkerPool wp = new ShardedWorkerPool(10, 60000L, 4);
+        ConcreteWorker wkr = new ConcreteWorker();
+
+        String firstId = wp.registerWorker(wkr, wkrClientInfo);
+        String wkrId = firstId;
+        for (int i = 0; i < 5; ++i) {
+            wkrId = wp.relayWorker(wkrId, wkrClientInfo);
+        }
+        assertSame(wkr, wp.getWorker(wkrId));
+        assertEquals(firstId, wp.getRootWorkerId(wkrId));
+        assertEquals(1, wp.getCurrNumWorkers());
+        assertEquals(9, wp.getNumAvailableSlots());
+
+        /* Links to the workers of other shards are followed too */
+        String otherId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        wp.setPreviousWorkerId(otherId, wkrId);
+        assertEquals(firstId, wp.getRootWorkerId(otherId));
+    }
+
+}
@@ -5,12 +5,17 @@ import com.google.gson.JsonPrimitive;
 import me.scai.utilities.clienttypes.ClientTypeMajor;
 import me.scai.utilities.clienttypes.ClientTypeMinor;
 import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class TestWorkerClientTypeInfo {
     @Test
@@ -105,4 +110,81 @@ public class TestWorkerClientTypeInfo {
         assertNotNull(clientInfo.getTimeCreated());
     }
 
+    @Test
+    public void TestWorkerClientTypeInfo_compactRepresentation() {
+        JsonObject customClientData = new JsonObject();
+        customClientData.add("ScreenWidth", new JsonPrimitive(1024));
+
+        WorkerClientInfo clientInfo0 = new WorkerClientInfo(null, new String("foo.bar.qux"),
+                                                            ClientTypeMajor.API, null,
+                                                            new String("4.3"), new String("0.2"),
+                                                            customClientData);
+        WorkerClientInfo clientInfo1 = new WorkerClientInfo(null, new String("foo.bar.qux"),
+                                                            null, ClientTypeMinor.API_UnitTest,
+                                                            new String("4.3"), new String("0.2"));
+
+        /* Equal strings are shared */
+        assertSame(clientInfo0.getClientHostName(), clientInfo1.getClientHostName());
+        assertSame(clientInfo0.getClientPlatformVersion(), clientInfo1.getClientPlatformVersion());
+        assertSame(clientInfo0.getClientAppVersion(), clientInfo1.getClientAppVersion());
+
+        assertEquals(ClientTypeMajor.API, clientInfo0.getClientTypeMajor());
+        assertNull(clientInfo0.getClientTypeMinor());
+        assertNull(clientInfo1.getClientTypeMajor());
+        assertEquals(ClientTypeMinor.API_UnitTest, clientInfo1.getClientTypeMinor());
+
+        /* The custom client data is a copy */
+        customClientData.add("ScreenHeight", new JsonPrimitive(768));
+        assertEquals(1024, clientInfo0.getFromCustomClientData("ScreenWidth").getAsInt());
+        assertNull(clientInfo0.getFromCustomClientData("ScreenHeight"));
+        assertNull(clientInfo1.getFromCustomClientData("ScreenWidth"));
+
+        assertEquals(clientInfo0.getTimeCreatedMillis(), clientInfo0.getTimeCreated().getTime());
+    }
+
+    /* Retained heap per session, measured by walking the object graphs: the compact client info,
+     * against the field layout it replaced (a Date, a copy of each string and a JsonObject) */
+    @Test
+    public void TestWorkerClientTypeInfo_footprint() {
+        final int numSessions = 1000;
+
+        LegacyWorkerClientInfo[] legacy = new LegacyWorkerClientInfo[numSessions];
+        WorkerClientInfo[] compact = new WorkerClientInfo[numSessions];
+        for (int i = 0; i < numSessions; ++i) {
+            legacy[i] = new LegacyWorkerClientInfo(null, hostNameOf(i),
+                                                   ClientTypeMajor.DesktopBrowser, ClientTypeMinor.DesktopBrowser_Chrome,
+                                                   new String("43.0.2357.130"), new String("0.2b"),
+                                                   customClientDataOf(i));
+            compact[i] = new WorkerClientInfo(null, hostNameOf(i),
+                                              ClientTypeMajor.DesktopBrowser, ClientTypeMinor.DesktopBrowser_Chrome,
+                                              new String("43.0.2357.130"), new String("0.2b"),
+                                              customClientDataOf(i));
+        }
+
+        final long legacyBytes = retainedBytes(legacy) / numSessions;
+        final long compactBytes = retainedBytes(compact) / numSessions;
+
+        assertTrue("Bytes per session: " + compactBytes + " compact, " + legacyBytes + " legacy",
+                   compactBytes * 2 < legacyBytes);
+    }
+
+    private static String hostNameOf(int i) {
+        return "client-" + (i % 64) + ".example.com";
+    }
+
+    private static JsonObject customClientDataOf(int i) {
+        JsonObject customClientData = new JsonObject();
+
+        customClientData.add("ScreenWidth", new JsonPrimitive(800 + i % 1000));
+        customClientData.add("ScreenHeight", new JsonPrimitive(600 + i % 500));
+        customClientData.add("colorDepth", new JsonPrimitive("24 bits"));
+
+        return customClientData;
+    }
+
+    /* Size of everything reachable from the elements of an array, shared objects counted once */
+    private static long retainedBytes(Object[] objs) {
+        return GraphLayout.parseInstance(objs).totalSize(); /* Each element is a root */
+    }
+
 }
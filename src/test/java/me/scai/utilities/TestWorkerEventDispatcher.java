@@ -0,0 +1,153 @@
+package me.scai.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWorkerEventDispatcher {
+    /* Executor that only runs the tasks when told to, so that the queue fills up */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized void runAll() {
+            while ( !tasks.isEmpty() ) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements WorkerEventListener {
+        final List<String> workerIds = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onWorkerEvent(WorkerEvent event) {
+            workerIds.add(event.getWorkerId());
+        }
+    }
+
+    private static WorkerEvent event(String workerId) {
+        return new WorkerEvent(WorkerEventType.Registered, workerId, 0L, null, null);
+    }
+
+    private static WorkerEventDispatcher dispatcher(Executor executor, EventOverflowPolicy policy, WorkerEventListener listener) {
+        WorkerEventDispatcher dispatcher = new WorkerEventDispatcher();
+        dispatcher.setExecutor(executor);
+        dispatcher.setQueueCapacity(2);
+        dispatcher.setOverflowPolicy(policy);
+        dispatcher.addListener(listener);
+
+        return dispatcher;
+    }
+
+    @Test
+    public void testDropNewest() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        WorkerEventDispatcher dispatcher = dispatcher(executor, EventOverflowPolicy.DropNewest, listener);
+
+        dispatcher.publish(event("a"));
+        dispatcher.publish(event("b"));
+        dispatcher.publish(event("c"));
+        assertEquals(1L, dispatcher.getNumDropped());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("a", "b"), listener.workerIds);
+        assertEquals(2L, dispatcher.getNumDelivered());
+    }
+
+    @Test
+    public void testDropOldest() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        WorkerEventDispatcher dispatcher = dispatcher(executor, EventOverflowPolicy.DropOldest, listener);
+
+        dispatcher.publish(event("a"));
+        dispatcher.publish(event("b"));
+        dispatcher.publish(event("c"));
+        assertEquals(1L, dispatcher.getNumDropped());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("b", "c"), listener.workerIds);
+        assertEquals(0, dispatcher.getQueueSize());
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener recorder = new RecordingListener();
+
+        /* Slow consumer: holds the delivery thread until released */
+        final WorkerEventDispatcher dispatcher = new WorkerEventDispatcher();
+        dispatcher.setQueueCapacity(2);
+        dispatcher.setOverflowPolicy(EventOverflowPolicy.Block);
+        dispatcher.addListener(new WorkerEventListener() {
+            @Override
+            public void onWorkerEvent(WorkerEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    return;
+                }
+                recorder.onWorkerEvent(event);
+            }
+        });
+
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; ++i) {
+                    dispatcher.publish(event(Integer.toString(i)));
+                }
+            }
+        });
+        publisher.start();
+
+        publisher.join(200L);
+        assertTrue(publisher.isAlive());    /* Waiting for room */
+
+        release.countDown();
+        publisher.join(5000L);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (recorder.workerIds.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(10, recorder.workerIds.size());
+        assertEquals("9", recorder.workerIds.get(9));
+        assertEquals(0L, dispatcher.getNumDropped());
+
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testListenerFailureDoesNotStopDelivery() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        WorkerEventDispatcher dispatcher = dispatcher(executor, EventOverflowPolicy.DropNewest, new WorkerEventListener() {
+            @Override
+            public void onWorkerEvent(WorkerEvent event) {
+                throw new IllegalStateException("Listener failure");
+            }
+        });
+        dispatcher.addListener(listener);
+
+        dispatcher.publish(event("a"));
+        executor.runAll();
+
+        assertEquals(1L, dispatcher.getNumListenerFailures());
+        assertEquals(Collections.singletonList("a"), listener.workerIds);
+    }
+}
@@ -0,0 +1,83 @@
+package me.scai.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestWorkerId {
+    @Test
+    public void testRoundTripWithUuid() {
+        for (int i = 0; i < 100; ++i) {
+            UUID uuid = UUID.randomUUID();
+            WorkerId id = new WorkerId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+
+            assertEquals(uuid.toString(), id.toString());
+            assertEquals(id, WorkerId.parse(uuid.toString()));
+            assertEquals(id, WorkerId.parse(uuid.toString().toUpperCase()));
+            assertEquals(id.hashCode(), WorkerId.parse(uuid.toString()).hashCode());
+        }
+    }
+
+    @Test
+    public void testMalformedIds() {
+        assertNull(WorkerId.parse(null));
+        assertNull(WorkerId.parse(""));
+        assertNull(WorkerId.parse("foo-bar-qux-unlikely-to-be"));
+        assertNull(WorkerId.parse("123e4567-e89b-12d3-a456-4266141740000"));
+        assertNull(WorkerId.parse("123e4567-e89b-12d3-a456_426614174000"));
+        assertNull(WorkerId.parse("123e4567-e89b-12d3-a456-42661417400g"));
+    }
+
+    @Test
+    public void testGenerators() {
+        WorkerIdGenerator[] generators = {new RandomWorkerIdGenerator(), new FastRandomWorkerIdGenerator(),
+                                          new SequentialWorkerIdGenerator()};
+
+        for (WorkerIdGenerator generator : generators) {
+            Set<WorkerId> ids = new HashSet<>();
+            for (int i = 0; i < 10000; ++i) {
+                WorkerId id = generator.nextId();
+
+                assertTrue(ids.add(id));
+                assertEquals(id, WorkerId.parse(id.toString()));
+            }
+        }
+
+        /* The random generators produce version-4 UUIDs */
+        for (WorkerIdGenerator generator : new WorkerIdGenerator[] {new RandomWorkerIdGenerator(),
+                                                                    new FastRandomWorkerIdGenerator()}) {
+            UUID uuid = UUID.fromString(generator.nextId().toString());
+            assertEquals(4, uuid.version());
+            assertEquals(2, uuid.variant());
+        }
+
+        assertNotEquals(new SequentialWorkerIdGenerator().nextId(), new SequentialWorkerIdGenerator().nextId());
+    }
+
+    @Test
+    public void testOrderMatchesStringForm() {
+        List<WorkerId> ids = new ArrayList<>();
+        WorkerIdGenerator generator = new RandomWorkerIdGenerator();
+        for (int i = 0; i < 1000; ++i) {
+            ids.add(generator.nextId());
+        }
+        ids.add(new WorkerId(-1L, 0L));
+        ids.add(new WorkerId(0L, -1L));
+
+        for (int i = 1; i < ids.size(); ++i) {
+            WorkerId a = ids.get(i - 1);
+            WorkerId b = ids.get(i);
+            assertEquals(Integer.signum(a.toString().compareTo(b.toString())), Integer.signum(a.compareTo(b)));
+        }
+    }
+
+}
@@ -1,15 +1,38 @@
 package me.scai.utilities;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
 
 import me.scai.utilities.clienttypes.ClientTypeMajor;
 import me.scai.utilities.clienttypes.ClientTypeMinor;
 import org.junit.Before;
 import org.junit.Test;
 
+import static me.scai.utilities.ConcurrentRuns.runConcurrently;
 import static org.junit.Assert.*;
 
 /**
@@ -207,4 +230,1203 @@ public class TestWorkerPool {
         assertTrue(exceptionThrown);
 
     }
+
+    @Test
+    public void testConcurrentRegistrationRespectsCapacity() throws InterruptedException {
+        final int maxNumWorkers = 64;
+        final int numThreads = 8;
+        final int attemptsPerThread = 32;
+
+        final WorkerPool wp = new WorkerPoolImpl(maxNumWorkers, 60L * 1000);
+
+        final Set<String> workerIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger numRejected = new AtomicInteger();
+
+        runConcurrently(numThreads, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < attemptsPerThread; ++i) {
+                    String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+                    if (wkrId == null) {
+                        numRejected.incrementAndGet();
+                    } else {
+                        workerIds.add(wkrId);
+                    }
+                }
+            }
+        });
+
+        assertEquals(maxNumWorkers, workerIds.size());
+        assertEquals(numThreads * attemptsPerThread - maxNumWorkers, numRejected.get());
+        assertEquals(maxNumWorkers, wp.getCurrNumWorkers());
+        assertEquals(0, wp.getNumAvailableSlots());
+        assertEquals(maxNumWorkers, wp.getNumEverCreatedWorkers());
+    }
+
+    @Test
+    public void testConcurrentMessageCountsAndRemoval() throws InterruptedException {
+        final int numThreads = 8;
+        final int incrementsPerThread = 1000;
+
+        final WorkerPool wp = new WorkerPoolImpl(8, 60L * 1000);
+        final String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+        runConcurrently(numThreads, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < incrementsPerThread; ++i) {
+                    wp.incrementMessageCount(wkrId);
+                    wp.updateWorkerTimestamp(wkrId, new Date());
+                }
+            }
+        });
+
+        assertEquals(numThreads * incrementsPerThread, wp.getMessageCount(wkrId));
+
+        /* Racing removals must only be counted once and must only free one slot */
+        runConcurrently(numThreads, new Runnable() {
+            @Override
+            public void run() {
+                wp.removeWorker(wkrId);
+            }
+        });
+
+        assertEquals(1, wp.getNumNormallyRemovedWorkers());
+        assertEquals(8, wp.getNumAvailableSlots());
+        assertEquals(0, wp.getCurrNumWorkers());
+    }
+
+    @Test
+    public void testPurgeMatchesTimeoutSemantics() {
+        final int numWorkers = 2000;
+        final long workerTimeout = 60L * 1000;
+
+        WorkerPool wp = new WorkerPoolImpl(numWorkers, workerTimeout);
+        Random random = new Random(1234L);
+
+        List<String> workerIds = new ArrayList<>();
+        for (int i = 0; i < numWorkers; ++i) {
+            workerIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+
+        /* Spread the last-use time stamps over the past three timeouts, in several rounds so that
+         * workers move back and forth between buckets. Time stamps near the timeout boundary are
+         * avoided, so that the expected outcome does not depend on how long the test takes. */
+        final long now = System.currentTimeMillis();
+        final long margin = 5L * 1000;
+
+        Set<String> expected = new HashSet<>();
+        for (int round = 0; round < 3; ++round) {
+            expected.clear();
+
+            for (String wkrId : workerIds) {
+                long age;
+                do {
+                    age = (long) (random.nextDouble() * 3 * workerTimeout);
+                } while (Math.abs(age - workerTimeout) < margin);
+
+                wp.updateWorkerTimestamp(wkrId, new Date(now - age));
+                if (age > workerTimeout) {
+                    expected.add(wkrId);
+                }
+            }
+
+            /* Purging in between must not lose track of workers that are not due yet */
+            wp.setWorkerTimeout(10L * workerTimeout);
+            assertNull(wp.purge());
+            wp.setWorkerTimeout(workerTimeout);
+        }
+
+        List<String> purgeList = wp.purge();
+
+        assertNotNull(purgeList);
+        assertEquals(expected, new HashSet<>(purgeList));
+        assertEquals(numWorkers - expected.size(), wp.getCurrNumWorkers());
+        assertEquals(expected.size(), wp.getNumPurgedWorkers());
+
+        /* Shortening the timeout reaches workers that were not due before */
+        wp.setWorkerTimeout(0L);
+        purgeList = wp.purge();
+        assertNotNull(purgeList);
+        assertEquals(numWorkers - expected.size(), purgeList.size());
+        assertEquals(0, wp.getCurrNumWorkers());
+    }
+
+    @Test
+    public void testBackgroundReaper() throws InterruptedException {
+        final long workerTimeout = 200L;
+
+        WorkerPoolImpl wp = new WorkerPoolImpl(8, workerTimeout);
+        wp.startReaper(50L);
+
+        try {
+            assertTrue(wp.isReaperRunning());
+
+            String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+            assertNotNull(wkrId);
+
+            /* The worker is reclaimed without anybody calling purge() */
+            Thread.sleep(workerTimeout + 500L);
+            assertEquals(0, wp.getCurrNumWorkers());
+            assertEquals(1, wp.getNumPurgedWorkers());
+            assertEquals(8, wp.getNumAvailableSlots());
+        } finally {
+            wp.shutdown();
+        }
+
+        assertFalse(wp.isReaperRunning());
+        wp.shutdown(); /* Idempotent */
+    }
+
+    @Test
+    public void testInlineReclaimWhenFull() throws InterruptedException {
+        final int maxNumWorkers = 4;
+        final long workerTimeout = 200L;
+
+        WorkerPoolImpl wp = new WorkerPoolImpl(maxNumWorkers, workerTimeout);
+
+        /* A reaper that will not run during the test */
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        wp.startReaper(executor, 60L * 1000);
+
+        try {
+            for (int i = 0; i < maxNumWorkers; ++i) {
+                assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            }
+            assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+
+            Thread.sleep(workerTimeout + 100L);
+
+            /* Registrations do not purge while there are free slots... */
+            wp.setMaxNumWorkers(maxNumWorkers + 1);
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertEquals(0, wp.getNumPurgedWorkers());
+
+            /* ...but reclaim expired slots inline once the pool is full */
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertEquals(maxNumWorkers, wp.getNumPurgedWorkers());
+            assertEquals(2, wp.getCurrNumWorkers());
+        } finally {
+            wp.shutdown();
+        }
+
+        /* An injected executor is left to its owner */
+        assertFalse(executor.isShutdown());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBoundedWorkerHistory() throws InterruptedException {
+        final int numWorkers = 20;
+
+        WorkerPoolImpl wp = new WorkerPoolImpl(numWorkers, 60L * 1000);
+        wp.setHistoryRetention(5, 60L * 1000);
+
+        List<String> workerIds = new ArrayList<>();
+        for (int i = 0; i < numWorkers; ++i) {
+            workerIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+
+        /* Remove half of the workers normally, purge the other half */
+        for (int i = 0; i < numWorkers / 2; ++i) {
+            wp.removeWorker(workerIds.get(i));
+        }
+        wp.setWorkerTimeout(0L);
+        Thread.sleep(10L);
+        assertEquals(numWorkers / 2, wp.purge().size());
+
+        /* Counts are exact, while only the newest entries are retained */
+        assertEquals(numWorkers / 2, wp.getNumNormallyRemovedWorkers());
+        assertEquals(numWorkers / 2, wp.getNumPurgedWorkers());
+
+        List<WorkerHistoryEntry> history = wp.getWorkerHistory();
+        assertEquals(5, history.size());
+        for (WorkerHistoryEntry entry : history) {
+            assertEquals(WorkerEndReason.Purged, entry.getEndReason());
+            assertEquals(ClientTypeMajor.API, entry.getClientTypeMajor());
+            assertEquals(ClientTypeMinor.API_UnitTest, entry.getClientTypeMinor());
+            assertTrue(workerIds.subList(numWorkers / 2, numWorkers).contains(entry.getWorkerId()));
+        }
+
+        /* Shrinking the retention keeps the newest entries */
+        wp.setHistoryRetention(2, 60L * 1000);
+        assertEquals(history.subList(3, 5).get(1).getWorkerId(), wp.getWorkerHistory().get(1).getWorkerId());
+
+        /* Entries older than the maximum age are dropped */
+        Thread.sleep(50L);
+        wp.setHistoryRetention(2, 20L);
+        assertTrue(wp.getWorkerHistory().isEmpty());
+        assertEquals(numWorkers / 2, wp.getNumPurgedWorkers());
+    }
+
+    @Test
+    public void testBusiestWorkers() throws InterruptedException {
+        WorkerPool wp = new WorkerPoolImpl(8, 60L * 1000);
+
+        String[] workerIds = new String[4];
+        for (int i = 0; i < workerIds.length; ++i) {
+            workerIds[i] = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+            for (int j = 0; j < 10 * i; ++j) {
+                wp.incrementMessageCount(workerIds[i]);
+            }
+        }
+
+        /* Rates only cover complete seconds */
+        Thread.sleep(1000L - System.currentTimeMillis() % 1000L + 50L);
+
+        assertEquals(Arrays.asList(workerIds[3], workerIds[2]), wp.getBusiestWorkers(2, MessageRateWindow.OneMinute));
+        assertEquals(Arrays.asList(workerIds[3], workerIds[2], workerIds[1]),
+                     wp.getBusiestWorkers(10, MessageRateWindow.OneMinute));
+
+        assertEquals(30.0f / 60.0f, wp.getMessageRate(workerIds[3], MessageRateWindow.OneMinute), 1e-6f);
+        assertTrue(wp.getEwmaMessageRate(workerIds[3]) > 0.0f);
+        assertEquals(0.0f, wp.getEwmaMessageRate(workerIds[0]), 0.0f);
+    }
+
+    @Test
+    public void testWorkerIdGenerator() {
+        WorkerPoolImpl wp = new WorkerPoolImpl(8, 60L * 1000);
+
+        /* A generator that repeats itself: the pool must retry instead of overwriting a worker */
+        final WorkerId[] ids = {new WorkerId(1L, 1L), new WorkerId(1L, 1L), new WorkerId(1L, 2L)};
+        wp.setWorkerIdGenerator(new WorkerIdGenerator() {
+            private int next = 0;
+
+            @Override
+            public WorkerId nextId() {
+                return ids[next++];
+            }
+        });
+
+        PooledWorker wkr0 = new ConcreteWorker();
+        PooledWorker wkr1 = new ConcreteWorker();
+        String wkrId0 = wp.registerWorker(wkr0, wkrClientInfo);
+        String wkrId1 = wp.registerWorker(wkr1, wkrClientInfo);
+
+        assertEquals("00000000-0000-0001-0000-000000000001", wkrId0);
+        assertEquals("00000000-0000-0001-0000-000000000002", wkrId1);
+        assertSame(wkr0, wp.getWorker(wkrId0));
+        assertSame(wkr1, wp.getWorker(wkrId1));
+        assertSame(wkr1, wp.getWorker(wkrId1.toUpperCase()));
+        assertEquals(2, wp.getCurrNumWorkers());
+    }
+
+    @Test
+    public void testBatchOperations() {
+        final String fakeWorkerId = "foo-bar-qux-unlikely-to-be";
+
+        WorkerPool wp = new WorkerPoolImpl(4, 60L * 1000);
+
+        /* Registration is all or nothing */
+        assertNull(wp.registerWorkers(Collections.nCopies(5, new ConcreteWorker()),
+                                      Collections.nCopies(5, wkrClientInfo)));
+        assertEquals(0, wp.getCurrNumWorkers());
+
+        List<String> workerIds = wp.registerWorkers(Collections.nCopies(3, new ConcreteWorker()),
+                                                    Collections.nCopies(3, wkrClientInfo));
+        assertEquals(3, workerIds.size());
+        assertEquals(1, wp.getNumAvailableSlots());
+        assertEquals(3, wp.getNumEverCreatedWorkers());
+
+        /* Touch */
+        List<String> toTouch = new ArrayList<>(workerIds);
+        toTouch.add(1, fakeWorkerId);
+
+        Date timestamp = new Date(System.currentTimeMillis() + 1000L);
+        BatchResult<Date> touchResult = wp.updateWorkerTimestamps(toTouch, timestamp);
+        assertEquals(3, touchResult.getNumSucceeded());
+        assertEquals(Collections.singletonList(fakeWorkerId), touchResult.getInvalidWorkerIds());
+        assertFalse(touchResult.isAllSucceeded());
+        for (String wkrId : workerIds) {
+            assertEquals(timestamp, wp.getLastUseTimestamp(wkrId));
+        }
+
+        /* Message counts */
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        deltas.put(workerIds.get(0), 5);
+        deltas.put(fakeWorkerId, 7);
+        deltas.put(workerIds.get(2), 9);
+
+        BatchResult<Integer> countResult = wp.addMessageCounts(deltas);
+        assertEquals(Integer.valueOf(5), countResult.getValue(workerIds.get(0)));
+        assertEquals(Integer.valueOf(9), countResult.getValue(workerIds.get(2)));
+        assertFalse(countResult.isSucceeded(fakeWorkerId));
+        assertEquals(Collections.singletonList(fakeWorkerId), countResult.getInvalidWorkerIds());
+        assertEquals(14, wp.addMessageCounts(Collections.singletonMap(workerIds.get(2), 5)).getValue(workerIds.get(2)).intValue());
+
+        /* Removal, including an ID listed twice */
+        List<String> toRemove = Arrays.asList(workerIds.get(0), workerIds.get(1), workerIds.get(0), fakeWorkerId);
+        BatchResult<PooledWorker> removeResult = wp.removeWorkers(toRemove);
+        assertEquals(2, removeResult.getNumSucceeded());
+        assertEquals(Arrays.asList(workerIds.get(0), fakeWorkerId), removeResult.getInvalidWorkerIds());
+        assertEquals(2, wp.getNumNormallyRemovedWorkers());
+        assertEquals(1, wp.getCurrNumWorkers());
+        assertEquals(3, wp.getNumAvailableSlots());
+    }
+
+    @Test
+    public void testLifecycleEvents() throws InterruptedException {
+        WorkerPoolImpl wp = new WorkerPoolImpl(4, 60000L);
+        wp.setTouchIdleThreshold(1000L);
+
+        final BlockingQueue<WorkerEvent> received = new LinkedBlockingQueue<>();
+        final Set<Thread> listenerThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        wp.addWorkerEventListener(new WorkerEventListener() {
+            @Override
+            public void onWorkerEvent(WorkerEvent event) {
+                listenerThreads.add(Thread.currentThread());
+                received.add(event);
+            }
+        });
+
+        final long now = System.currentTimeMillis();
+        String wkrId0 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        String wkrId1 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        String wkrId2 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+        wp.updateWorkerTimestamp(wkrId0, new Date(now + 10L));      /* Not idle long enough */
+        wp.updateWorkerTimestamp(wkrId0, new Date(now + 5000L));    /* After idling */
+        wp.setPreviousWorkerId(wkrId1, wkrId0);
+        wp.removeWorker(wkrId0);
+        wp.updateWorkerTimestamp(wkrId2, new Date(now - 120000L));
+        wp.purge();
+
+        WorkerEventType[] expectedTypes = {WorkerEventType.Registered, WorkerEventType.Registered,
+                WorkerEventType.Registered, WorkerEventType.TouchedAfterIdle, WorkerEventType.Relayed,
+                WorkerEventType.Removed, WorkerEventType.Purged};
+        String[] expectedIds = {wkrId0, wkrId1, wkrId2, wkrId0, wkrId1, wkrId0, wkrId2};
+
+        for (int i = 0; i < expectedTypes.length; ++i) {
+            WorkerEvent event = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertEquals(expectedTypes[i], event.getType());
+            assertEquals(expectedIds[i], event.getWorkerId());
+        }
+
+        WorkerEventDispatcher dispatcher = wp.getEventDispatcher();
+        assertEquals(expectedTypes.length, dispatcher.getNumPublished());
+        assertEquals(0L, dispatcher.getNumDropped());
+        assertFalse(listenerThreads.contains(Thread.currentThread()));
+
+        wp.shutdown();
+        wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAdmissionQueue() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(1, 60000L);
+        wp.setAdmissionQueueCapacity(2);
+
+        String wkrId0 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo, 1, TimeUnit.SECONDS);
+        assertNotNull(wkrId0);
+
+        /* Full: times out */
+        long t0 = System.nanoTime();
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        /* Waiters are admitted in FIFO order as slots free up */
+        CompletableFuture<String> first = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo);
+        CompletableFuture<String> second = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo);
+        assertNull(wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo).get()); /* Queue full */
+        assertFalse(first.isDone());
+
+        wp.removeWorker(wkrId0);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(0, wp.getNumAvailableSlots());
+        assertNotNull(wp.getWorker(first.get()));
+
+        wp.setMaxNumWorkers(2);
+        assertNotNull(wp.getWorker(second.get()));
+
+        AdmissionStats stats = wp.getAdmissionStats();
+        assertEquals(0, stats.getQueueLength());
+        assertEquals(2, stats.getPeakQueueLength());
+        assertEquals(3L, stats.getNumEnqueued());
+        assertEquals(2L, stats.getNumAdmitted());
+        assertEquals(1L, stats.getNumTimedOut());
+        assertEquals(1L, stats.getNumRejected());
+        assertEquals(2L, stats.getWaitTime().getCount());
+    }
+
+    @Test
+    public void testAdmissionPriorityAndCancellation() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(1, 60000L);
+        wp.setAdmissionOrder(AdmissionOrder.Priority);
+
+        String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+        CompletableFuture<String> low = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo, 1);
+        CompletableFuture<String> cancelled = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo, 10);
+        CompletableFuture<String> high = wp.registerWorkerAsync(new ConcreteWorker(), wkrClientInfo, 5);
+
+        assertTrue(cancelled.cancel(false));
+        assertEquals(2, wp.getAdmissionStats().getQueueLength());
+
+        wp.removeWorker(wkrId);
+        assertTrue(high.isDone());
+        assertFalse(low.isDone());
+
+        wp.removeWorker(high.get());
+        assertEquals(1, wp.getCurrNumWorkers());
+        assertNotNull(wp.getWorker(low.get()));
+    }
+
+    @Test
+    public void testConcurrentAdmission() throws InterruptedException {
+        final WorkerPoolImpl wp = new WorkerPoolImpl(4, 60000L);
+        final AtomicInteger numAdmitted = new AtomicInteger();
+
+        /* Each thread holds its worker briefly, so that the others have to wait for slots */
+        runConcurrently(16, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo, 10, TimeUnit.SECONDS);
+                    if (wkrId != null) {
+                        numAdmitted.incrementAndGet();
+                        assertTrue(wp.getCurrNumWorkers() <= 4);
+
+                        Thread.sleep(5L);
+                        wp.removeWorker(wkrId);
+                    }
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertEquals(16, numAdmitted.get());
+        assertEquals(0, wp.getCurrNumWorkers());
+        assertEquals(4, wp.getNumAvailableSlots());
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("worker-pool-store").toFile();
+
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        wp.enablePersistence(directory, 0L);
+
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+        for (int i = 0; i < 3; ++i) {
+            wp.incrementMessageCount(wkrIds.get(1));
+        }
+        wp.setPreviousWorkerId(wkrIds.get(2), wkrIds.get(1));
+        wp.removeWorker(wkrIds.get(0));
+        wp.updateWorkerTimestamp(wkrIds.get(4), new Date(System.currentTimeMillis() - 120000L));
+        wp.snapshot();
+
+        /* Changes after the snapshot only make it to the journal */
+        String journaledId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        wp.setPreviousWorkerId(journaledId, "relayed-from-elsewhere");
+        wp.removeWorker(wkrIds.get(3));
+        Thread.sleep(2500L); /* For the journal to be written out */
+
+        /* Restart, without a final snapshot */
+        WorkerPoolImpl restored = new WorkerPoolImpl(10, 60000L);
+        final List<String> rehydrated = new ArrayList<>();
+        int numRestored = restored.restore(directory, new WorkerRehydrator() {
+            @Override
+            public PooledWorker rehydrate(String workerId, WorkerClientInfo clientInfo) {
+                assertEquals(ClientTypeMinor.API_UnitTest, clientInfo.getClientTypeMinor());
+                rehydrated.add(workerId);
+
+                return new ConcreteWorker();
+            }
+        });
+
+        /* Removed and expired workers are left out */
+        assertEquals(3, numRestored);
+        assertEquals(new HashSet<>(Arrays.asList(wkrIds.get(1), wkrIds.get(2), journaledId)),
+                     restored.getWorkersClientInfo().keySet());
+        assertEquals(new HashSet<>(rehydrated), restored.getWorkersClientInfo().keySet());
+        assertEquals(3, restored.getMessageCount(wkrIds.get(1)));
+        assertEquals(0.0f, restored.getMessageRate(wkrIds.get(1), MessageRateWindow.OneMinute), 0.0f);
+        assertEquals(wkrIds.get(1), restored.getPreviousWorkerId(wkrIds.get(2)));
+        assertEquals("relayed-from-elsewhere", restored.getPreviousWorkerId(journaledId));
+        assertEquals(wp.getCreatedTimestamp(wkrIds.get(1)), restored.getCreatedTimestamp(wkrIds.get(1)));
+        assertEquals(7, restored.getNumAvailableSlots());
+
+        /* Only the most recently used ones when they do not all fit */
+        wp.updateWorkerTimestamp(wkrIds.get(2), new Date(System.currentTimeMillis() + 1000L));
+        wp.shutdown();
+
+        WorkerPoolImpl smaller = new WorkerPoolImpl(1, 60000L);
+        assertEquals(1, smaller.restore(directory, new WorkerRehydrator() {
+            @Override
+            public PooledWorker rehydrate(String workerId, WorkerClientInfo clientInfo) {
+                return new ConcreteWorker();
+            }
+        }));
+        assertNotNull(smaller.getWorker(wkrIds.get(2)));
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWarmSpareWorkers() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final Set<PooledWorker> built = new HashSet<>();
+        final Set<PooledWorker> reset = new HashSet<>();
+
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        wp.setWorkerFactory(new WorkerFactory() {
+            @Override
+            public PooledWorker create() {
+                PooledWorker wkr = new ConcreteWorker();
+                built.add(wkr);
+
+                return wkr;
+            }
+
+            @Override
+            public boolean reset(PooledWorker wkr) {
+                return reset.add(wkr); /* Only once */
+            }
+        }, 2, new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+
+        /* Spares are built ahead of time, up to the target */
+        assertEquals(2, tasks.size());
+        runTasks(tasks);
+        assertEquals(2, wp.getSpareWorkerStats().getNumSpares());
+
+        String wkrId = wp.registerWorker(wkrClientInfo);
+        assertTrue(built.contains(wp.getWorker(wkrId)));
+        assertEquals(1, wp.getSpareWorkerStats().getNumSpares());
+        assertEquals(1, tasks.size()); /* Replacement */
+        runTasks(tasks);
+
+        /* No room for the released worker while the spares are at the target */
+        PooledWorker wkr = wp.getWorker(wkrId);
+        wp.removeWorker(wkrId);
+        wp.releaseWorker(wkr);
+        assertEquals(0, tasks.size());
+
+        /* Released workers that reset are kept as spares, alongside the replacements being built */
+        String wkrId1 = wp.registerWorker(wkrClientInfo);
+        String wkrId2 = wp.registerWorker(wkrClientInfo);
+        assertNotNull(wp.registerWorker(wkrClientInfo)); /* Built inline */
+        assertEquals(1L, wp.getSpareWorkerStats().getNumMisses());
+        assertEquals(2, tasks.size());
+
+        PooledWorker wkr1 = wp.getWorker(wkrId1);
+        PooledWorker wkr2 = wp.getWorker(wkrId2);
+        wp.removeWorker(wkrId1);
+        wp.removeWorker(wkrId2);
+        assertEquals(2, tasks.size()); /* Not recycled until released, as the caller may still use them */
+        wp.releaseWorker(wkr1);
+        wp.releaseWorker(wkr2);
+        assertEquals(4, tasks.size());
+        runTasks(tasks);
+        assertTrue(reset.contains(wkr1));
+
+        SpareWorkerStats stats = wp.getSpareWorkerStats();
+        assertEquals(4, stats.getNumSpares());
+        assertEquals(2L, stats.getNumRecycled());
+        assertEquals(3L, stats.getNumClaimed());
+        assertEquals(5L, stats.getNumBuilt());
+
+        /* Back to the target once the extra spares are claimed */
+        for (int i = 0; i < 2; ++i) {
+            wp.registerWorker(wkrClientInfo);
+        }
+        assertEquals(0, tasks.size());
+        assertEquals(2, wp.getSpareWorkerStats().getNumSpares());
+        wp.registerWorker(wkrClientInfo);
+        assertEquals(1, tasks.size());
+    }
+
+    private static void runTasks(List<Runnable> tasks) {
+        while ( !tasks.isEmpty() ) {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testPagedWorkerListing() {
+        WorkerPoolImpl wp = new WorkerPoolImpl(100, 60000L);
+
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+
+        /* Pages come in worker ID order, without overlap */
+        List<String> listed = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            WorkerPage page = wp.getWorkers(cursor, 10, null);
+            for (WorkerSnapshot wkr : page.getWorkers()) {
+                listed.add(wkr.getWorkerId());
+            }
+            pageSizes.add(page.getWorkers().size());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(Arrays.asList(10, 10, 5), pageSizes);
+        List<String> sortedIds = new ArrayList<>(wkrIds);
+        Collections.sort(sortedIds);
+        assertEquals(sortedIds, listed);
+
+        /* Filters, and the snapshot of a worker */
+        final long now = System.currentTimeMillis();
+        wp.updateWorkerTimestamps(wkrIds.subList(0, 5), new Date(now - 30000L));
+        wp.incrementMessageCount(wkrIds.get(0));
+        wp.setPreviousWorkerId(wkrIds.get(0), "foo-bar-qux-unlikely-to-be");
+
+        WorkerPage idle = wp.getWorkers(null, 10, WorkerFilters.idleLongerThan(10000L));
+        assertFalse(idle.hasMore());
+        assertEquals(5, idle.getWorkers().size());
+        for (WorkerSnapshot wkr : idle.getWorkers()) {
+            assertTrue(wkrIds.subList(0, 5).contains(wkr.getWorkerId()));
+            if (wkr.getWorkerId().equals(wkrIds.get(0))) {
+                assertEquals(1, wkr.getMessageCount());
+                assertEquals("foo-bar-qux-unlikely-to-be", wkr.getPreviousWorkerId());
+                assertEquals(now - 30000L, wkr.getLastUseTimestamp().getTime());
+                assertEquals(ClientTypeMajor.API, wkr.getClientInfo().getClientTypeMajor());
+            }
+        }
+
+        assertEquals(0, wp.getWorkers(null, 10, WorkerFilters.createdBefore(new Date(now - 1000L))).getWorkers().size());
+        assertEquals(25, wp.streamWorkers().filter(WorkerFilters.createdBefore(new Date(now + 1000L))).count());
+
+        /* Timed-out workers are left out, without being purged */
+        wp.updateWorkerTimestamps(wkrIds.subList(5, 8), new Date(now - 120000L));
+        assertEquals(22, wp.streamWorkers().count());
+        assertEquals(25, wp.getCurrNumWorkers());
+        assertEquals(0, wp.getNumPurgedWorkers());
+
+        /* Removed workers are gone from the listing */
+        wp.removeWorker(wkrIds.get(10));
+        assertFalse(wp.streamWorkers().anyMatch(wkr -> wkr.getWorkerId().equals(wkrIds.get(10))));
+        assertEquals(21, wp.getWorkers(null, 100, null).getWorkers().size());
+
+        try {
+            wp.getWorkers("foo-bar-qux-unlikely-to-be", 10, null);
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+        try {
+            wp.getWorkers(null, 0, null);
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+    }
+
+    @Test
+    public void testClientIndexes() throws UnknownHostException {
+        WorkerPoolImpl wp = new WorkerPoolImpl(100, 60000L);
+        InetAddress addr0 = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+        InetAddress addr1 = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+        List<String> chromeIds = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            chromeIds.add(wp.registerWorker(new ConcreteWorker(), new WorkerClientInfo(
+                    addr0, null, ClientTypeMajor.DesktopBrowser, ClientTypeMinor.DesktopBrowser_Chrome)));
+        }
+        String firefoxId = wp.registerWorker(new ConcreteWorker(), new WorkerClientInfo(
+                addr1, null, ClientTypeMajor.DesktopBrowser, ClientTypeMinor.DesktopBrowser_Firefox));
+        String apiId = wp.registerWorker(new ConcreteWorker(), new WorkerClientInfo(
+                addr1, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), null)); /* Not indexed */
+
+        assertEquals(5, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+        assertEquals(4, wp.getNumWorkers(ClientTypeMinor.DesktopBrowser_Chrome));
+        assertEquals(0, wp.getNumWorkers(ClientTypeMajor.MobileIOS));
+        assertEquals(new HashSet<>(chromeIds), new HashSet<>(wp.getWorkerIds(ClientTypeMinor.DesktopBrowser_Chrome)));
+        assertEquals(new HashSet<>(chromeIds), new HashSet<>(wp.getWorkerIds(addr0)));
+        assertEquals(new HashSet<>(Arrays.asList(firefoxId, apiId)), new HashSet<>(wp.getWorkerIds(addr1)));
+        assertEquals(Collections.singletonList(apiId), wp.getWorkerIds(ClientTypeMajor.API));
+
+        /* Removal and purging */
+        wp.removeWorker(chromeIds.get(0));
+        wp.updateWorkerTimestamp(chromeIds.get(1), new Date(System.currentTimeMillis() - 120000L));
+        wp.purge();
+        assertEquals(2, wp.getNumWorkers(ClientTypeMinor.DesktopBrowser_Chrome));
+        assertEquals(3, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+        assertEquals(new HashSet<>(chromeIds.subList(2, 4)), new HashSet<>(wp.getWorkerIds(addr0)));
+
+        wp.clearWorkers();
+        assertEquals(0, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+        assertEquals(0, wp.getNumWorkers(ClientTypeMinor.API_UnitTest));
+        assertTrue(wp.getWorkerIds(addr1).isEmpty());
+    }
+
+    @Test
+    public void testClientIndexesUnderConcurrentChurn() throws Exception {
+        final WorkerPoolImpl wp = new WorkerPoolImpl(1000, 60000L);
+        final ClientTypeMinor[] minors = {ClientTypeMinor.DesktopBrowser_Chrome, ClientTypeMinor.DesktopBrowser_Safari,
+                                          ClientTypeMinor.MobileBrowser_Chrome};
+        final ClientTypeMajor[] majors = {ClientTypeMajor.DesktopBrowser, ClientTypeMajor.DesktopBrowser,
+                                          ClientTypeMajor.MobileBrowser};
+        final InetAddress[] addrs = new InetAddress[4];
+        for (int i = 0; i < addrs.length; ++i) {
+            addrs[i] = InetAddress.getByAddress(new byte[] {10, 0, 1, (byte) i});
+        }
+
+        runConcurrently(8, new IntConsumer() {
+            @Override
+            public void accept(int threadIndex) {
+                final Random random = new Random(threadIndex);
+
+                List<String> own = new ArrayList<>();
+                for (int j = 0; j < 2000; ++j) {
+                    if (own.isEmpty() || random.nextInt(3) != 0) {
+                        final int type = random.nextInt(minors.length);
+                        String wkrId = wp.registerWorker(new ConcreteWorker(), new WorkerClientInfo(
+                                addrs[random.nextInt(addrs.length)], null, majors[type], minors[type]));
+                        if (wkrId != null) {
+                            own.add(wkrId);
+                        }
+                    } else {
+                        wp.removeWorker(own.remove(random.nextInt(own.size())));
+                    }
+                }
+            }
+        });
+
+        /* The indexes agree with a full walk of the pool */
+        Map<ClientTypeMinor, Integer> minorCounts = new HashMap<>();
+        Map<InetAddress, Set<String>> byAddr = new HashMap<>();
+        for (WorkerSnapshot wkr : wp.streamWorkers().collect(Collectors.toList())) {
+            minorCounts.merge(wkr.getClientInfo().getClientTypeMinor(), 1, Integer::sum);
+            byAddr.computeIfAbsent(wkr.getClientInfo().getClientIPAddress(), k -> new HashSet<>()).add(wkr.getWorkerId());
+        }
+
+        int numDesktop = 0;
+        for (ClientTypeMinor minor : minors) {
+            final int n = minorCounts.getOrDefault(minor, 0);
+            assertEquals(n, wp.getNumWorkers(minor));
+            assertEquals(n, wp.getWorkerIds(minor).size());
+            if (minor.name().startsWith("DesktopBrowser")) {
+                numDesktop += n;
+            }
+        }
+        assertEquals(numDesktop, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+        assertEquals(wp.getCurrNumWorkers(), numDesktop + wp.getNumWorkers(ClientTypeMajor.MobileBrowser));
+
+        for (InetAddress addr : addrs) {
+            assertEquals(byAddr.getOrDefault(addr, Collections.<String>emptySet()), new HashSet<>(wp.getWorkerIds(addr)));
+        }
+    }
+
+    @Test
+    public void testClientLimits() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(6, 60000L);
+        WorkerClientInfo client0 = new WorkerClientInfo(InetAddress.getByAddress(new byte[] {10, 0, 2, 1}), null,
+                                                        ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+        WorkerClientInfo client1 = new WorkerClientInfo(InetAddress.getByAddress(new byte[] {10, 0, 2, 2}), null,
+                                                        ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+        /* Cap on live workers */
+        wp.setClientLimits(1000.0, 100, 2);
+        String wkrId = wp.registerWorker(new ConcreteWorker(), client0);
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client0).isRegistered());
+        RegistrationResult result = wp.tryRegisterWorker(new ConcreteWorker(), client0);
+        assertFalse(result.isRegistered());
+        assertNull(result.getWorkerId());
+        assertEquals(RegistrationRejection.TooManyClientWorkers, result.getRejection());
+        assertNull(wp.registerWorker(new ConcreteWorker(), client0, 10L, TimeUnit.MILLISECONDS));
+        assertNull(wp.registerWorkerAsync(new ConcreteWorker(), client0).get());
+
+        wp.removeWorker(wkrId);
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client0).isRegistered());
+
+        /* Other addresses, and workers without an address, are not held back */
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), client1));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), null));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), null));
+        assertEquals(RegistrationRejection.PoolFull, wp.tryRegisterWorker(new ConcreteWorker(), client1).getRejection());
+
+        /* Rate limit */
+        wp.clearWorkers();
+        wp.setClientLimits(0.5, 2, 100);
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client0).isRegistered());
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client0).isRegistered());
+        result = wp.tryRegisterWorker(new ConcreteWorker(), client0);
+        assertEquals(RegistrationRejection.RateLimited, result.getRejection());
+        assertTrue(result.getRetryAfterMillis() > 0L && result.getRetryAfterMillis() <= 2000L);
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client1).isRegistered());
+
+        wp.removeClientLimits();
+        assertTrue(wp.tryRegisterWorker(new ConcreteWorker(), client0).isRegistered());
+    }
+
+    @Test
+    public void testClientLimitsUnderConcurrentRegistration() throws Exception {
+        final WorkerPoolImpl wp = new WorkerPoolImpl(1000, 60000L);
+        wp.setClientLimits(1.0e6, 1000, 10);
+        final WorkerClientInfo client = new WorkerClientInfo(InetAddress.getByAddress(new byte[] {10, 0, 3, 1}), null,
+                                                             ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+        final AtomicInteger numRegistered = new AtomicInteger();
+        runConcurrently(8, new Runnable() {
+            @Override
+            public void run() {
+                for (int j = 0; j < 20; ++j) {
+                    if (wp.registerWorker(new ConcreteWorker(), client) != null) {
+                        numRegistered.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        assertEquals(10, numRegistered.get());
+        assertEquals(10, wp.getCurrNumWorkers());
+    }
+
+    @Test
+    public void testClientLimiterEvictsIdleAddresses() throws UnknownHostException {
+        ClientLimiter limiter = new ClientLimiter(1.0, 1, 10, 4, address -> 0);
+
+        for (int i = 0; i < 20; ++i) {
+            InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 4, (byte) i});
+            assertNull(limiter.tryAcquire(address, 1000L));
+            limiter.done(address);
+            assertTrue(limiter.getNumAddresses() <= 4);
+        }
+
+        /* An address with a registration in flight is kept */
+        InetAddress busy = InetAddress.getByAddress(new byte[] {10, 0, 5, 1});
+        assertNull(limiter.tryAcquire(busy, 1000L));
+        for (int i = 0; i < 8; ++i) {
+            InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 6, (byte) i});
+            assertNull(limiter.tryAcquire(address, 1000L));
+            limiter.done(address);
+        }
+        limiter.done(busy);
+        assertEquals(RegistrationRejection.RateLimited, limiter.tryAcquire(busy, 1000L).getRejection());
+    }
+
+    @Test
+    public void testCapacityPartitions() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        WorkerClientInfo ios = new WorkerClientInfo(null, null, ClientTypeMajor.MobileIOS, ClientTypeMinor.None);
+        WorkerClientInfo browser = new WorkerClientInfo(null, null, ClientTypeMajor.DesktopBrowser,
+                                                        ClientTypeMinor.DesktopBrowser_Chrome);
+
+        wp.setCapacityPartition(ClientTypeMajor.MobileIOS, 3, 5);
+        wp.setCapacityPartition(ClientTypeMajor.API, 2, 2);
+        try {
+            wp.setCapacityPartition(ClientTypeMajor.DesktopBrowser, 6, 10); /* 11 reserved out of 10 */
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+        assertEquals(10, wp.getNumAvailableSlots(ClientTypeMajor.DesktopBrowser));
+        assertEquals(2, wp.getNumAvailableSlots(ClientTypeMajor.API));
+
+        /* Other types borrow the idle reserved slots */
+        List<String> browserIds = new ArrayList<>();
+        for (int i = 0; i < 7; ++i) {
+            browserIds.add(wp.registerWorker(new ConcreteWorker(), browser));
+        }
+        assertNotNull(browserIds.get(6));
+        assertEquals(3, wp.getNumAvailableSlots());
+        assertEquals(3, wp.getNumAvailableSlots(ClientTypeMajor.DesktopBrowser));
+
+        /* Reserved slots, then borrowed ones up to the cap */
+        List<String> iosIds = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            iosIds.add(wp.registerWorker(new ConcreteWorker(), ios));
+        }
+        assertNull(wp.registerWorker(new ConcreteWorker(), ios)); /* Nothing left to borrow */
+        wp.removeWorker(browserIds.get(0));
+        assertEquals(1, wp.getNumAvailableSlots(ClientTypeMajor.MobileIOS));
+        iosIds.add(wp.registerWorker(new ConcreteWorker(), ios));
+        assertNotNull(iosIds.get(3));
+        assertNull(wp.registerWorker(new ConcreteWorker(), browser));
+
+        /* Guaranteed slots are taken back from the borrowers, least recently used first, by single
+         * registrations */
+        final long now = System.currentTimeMillis();
+        for (int i = 1; i < 7; ++i) {
+            wp.updateWorkerTimestamp(browserIds.get(i), new Date(now - 1000L * i));
+        }
+        wp.updateWorkerTimestamp(iosIds.get(3), new Date(now - 500L));
+        assertNull(wp.registerWorkers(Collections.singletonList(new ConcreteWorker()),
+                                      Collections.singletonList(wkrClientInfo)));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo)); /* Capped */
+        assertFalse(wp.getWorkersClientInfo().containsKey(browserIds.get(6)));
+        assertFalse(wp.getWorkersClientInfo().containsKey(browserIds.get(5)));
+        assertEquals(4, wp.getNumWorkers(ClientTypeMajor.DesktopBrowser));
+        assertEquals(2, wp.getNumEvictedWorkers());
+        assertEquals(10, wp.getCurrNumWorkers());
+
+        /* Runtime changes: a type whose reservation is raised takes its slots back too */
+        wp.setCapacityPartition(ClientTypeMajor.MobileIOS, 0, 5);
+        wp.setCapacityPartition(ClientTypeMajor.DesktopBrowser, 5, 10);
+        assertEquals(0, wp.getNumAvailableSlots(ClientTypeMajor.DesktopBrowser)); /* The pool is full */
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), browser));
+        assertFalse(wp.getWorkersClientInfo().containsKey(iosIds.get(3)));
+        assertNull(wp.registerWorker(new ConcreteWorker(), browser));
+
+        /* Waiters are admitted as their partition gets room */
+        wp.setCapacityPartition(ClientTypeMajor.MobileIOS, 0, 3);
+        CompletableFuture<String> waiting = wp.registerWorkerAsync(new ConcreteWorker(), ios);
+        assertFalse(waiting.isDone());
+        wp.setCapacityPartition(ClientTypeMajor.MobileIOS, 0, 5);
+        assertFalse(waiting.isDone()); /* The pool is still full */
+        wp.removeWorker(browserIds.get(1));
+        assertNotNull(wp.getWorker(waiting.get(5, TimeUnit.SECONDS)));
+
+        wp.clearWorkers();
+        assertEquals(5, wp.getNumAvailableSlots(ClientTypeMajor.MobileIOS));
+        assertEquals(2, wp.getNumAvailableSlots(ClientTypeMajor.API));
+        assertEquals(10, wp.getNumAvailableSlots(ClientTypeMajor.DesktopBrowser));
+    }
+
+    @Test
+    public void testRelayWorker() {
+        WorkerPoolImpl wp = new WorkerPoolImpl(2, 60000L);
+        ConcreteWorker wkr = new ConcreteWorker();
+
+        String firstId = wp.registerWorker(wkr, wkrClientInfo);
+        wp.incrementMessageCount(firstId);
+        wp.incrementMessageCount(firstId);
+        assertEquals(firstId, wp.getRootWorkerId(firstId));
+
+        /* The worker moves to the new ID, in the same slot */
+        String wkrId = wp.relayWorker(firstId, wkrClientInfo);
+        assertSame(wkr, wp.getWorker(wkrId));
+        assertEquals(2, wp.getMessageCount(wkrId));
+        assertEquals(firstId, wp.getPreviousWorkerId(wkrId));
+        assertEquals(1, wp.getCurrNumWorkers());
+        assertEquals(1, wp.getNumAvailableSlots());
+        assertEquals(WorkerEndReason.Relayed, wp.getWorkerHistory().get(0).getEndReason());
+        assertEquals(0, wp.getNumNormallyRemovedWorkers());
+        try {
+            wp.relayWorker(firstId, wkrClientInfo);
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        /* Chains are compacted as they grow */
+        for (int i = 0; i < 2 * WorkerPool.MAX_RELAY_CHAIN_LENGTH; ++i) {
+            wkrId = wp.relayWorker(wkrId, wkrClientInfo);
+        }
+        assertEquals(firstId, wp.getRootWorkerId(wkrId));
+        assertSame(wkr, wp.getWorker(wkrId));
+
+        /* Links set by hand are followed through the workers of the pool, up to the bound */
+        String otherId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        wp.setPreviousWorkerId(otherId, wkrId);
+        assertEquals(firstId, wp.getRootWorkerId(otherId));
+        wp.setPreviousWorkerId(wkrId, otherId); /* Cycle */
+        wp.setPreviousWorkerId(otherId, wkrId);
+        assertNotNull(wp.getRootWorkerId(otherId));
+
+        /* A move to a full partition is turned down */
+        wp.clearWorkers();
+        wp.setCapacityPartition(ClientTypeMajor.MobileAndroid, 0, 0);
+        wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        assertNull(wp.relayWorker(wkrId, new WorkerClientInfo(null, null, ClientTypeMajor.MobileAndroid, null)));
+        assertNotNull(wp.getWorker(wkrId));
+    }
+
+    @Test
+    public void testEvictionPolicies() {
+        WorkerPoolImpl wp = new WorkerPoolImpl(4, 60000L);
+        wp.setWorkerIdGenerator(new SequentialWorkerIdGenerator()); /* Evenly spaced IDs, which are drawn evenly */
+        assertNull(wp.getEvictionPolicy());
+        wp.setEvictionPolicy(EvictionPolicies.leastRecentlyUsed());
+
+        final long now = System.currentTimeMillis();
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        }
+        final long[] idleMillis = {4000L, 1000L, 3000L, 2000L};
+        for (int i = 0; i < 4; ++i) {
+            wp.updateWorkerTimestamp(wkrIds.get(i), new Date(now - idleMillis[i]));
+        }
+
+        /* Least recently used */
+        String newId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        assertNotNull(newId);
+        assertFalse(wp.getWorkersClientInfo().containsKey(wkrIds.get(0)));
+        assertEquals(4, wp.getCurrNumWorkers());
+        assertEquals(1, wp.getNumEvictedWorkers());
+        assertEquals(0, wp.getNumPurgedWorkers());
+        assertEquals(WorkerEndReason.Evicted, wp.getWorkerHistory().get(0).getEndReason());
+
+        /* Least frequently used, which is sampled */
+        wp.setEvictionPolicy(EvictionPolicies.leastFrequentlyUsed());
+        wp.setEvictionSampleSize(64); /* Bound to draw all of such a small pool */
+        final int[] numMessages = {0, 3, 1, 2};
+        for (int i = 1; i < 4; ++i) {
+            for (int j = 0; j < numMessages[i]; ++j) {
+                wp.incrementMessageCount(wkrIds.get(i));
+            }
+        }
+        for (int j = 0; j < 5; ++j) {
+            wp.incrementMessageCount(newId);
+        }
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertFalse(wp.getWorkersClientInfo().containsKey(wkrIds.get(2)));
+
+        /* A partition at its cap only evicts its own workers */
+        WorkerClientInfo android = new WorkerClientInfo(null, null, ClientTypeMajor.MobileAndroid, null);
+        wp.setCapacityPartition(ClientTypeMajor.MobileAndroid, 0, 1);
+        String androidId = wp.registerWorker(new ConcreteWorker(), android);
+        assertNotNull(androidId);
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), android));
+        assertFalse(wp.getWorkersClientInfo().containsKey(androidId));
+        assertEquals(1, wp.getNumWorkers(ClientTypeMajor.MobileAndroid));
+        assertEquals(4, wp.getNumEvictedWorkers());
+
+        /* Without a policy, registrations are turned down again */
+        wp.setEvictionPolicy(null);
+        assertNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+    }
+
+    @Test
+    public void testExactEvictionPolicies() {
+        ManualWorkerClock clock = new ManualWorkerClock(1000000L);
+        WorkerPoolImpl wp = new WorkerPoolImpl(200, 60000L);
+        wp.setClock(clock);
+
+        List<String> wkrIds = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            wkrIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            clock.advance(10L);
+        }
+
+        /* Used in an order unrelated to their creation and IDs, the 8th one first */
+        List<String> useOrder = new ArrayList<>(wkrIds);
+        Collections.shuffle(useOrder, new Random(42L));
+        useOrder.remove(wkrIds.get(7));
+        useOrder.add(0, wkrIds.get(7));
+        for (String wkrId : useOrder) {
+            clock.advance(10L);
+            wp.touchWorker(wkrId);
+        }
+
+        /* Not a matter of sampling: the best victims of the whole pool are evicted */
+        wp.setEvictionPolicy(EvictionPolicies.leastRecentlyUsed());
+        for (int i = 0; i < 3; ++i) {
+            assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            assertFalse(wp.getWorkersClientInfo().containsKey(useOrder.get(i)));
+        }
+
+        wp.setEvictionPolicy(EvictionPolicies.oldestFirst());
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        assertFalse(wp.getWorkersClientInfo().containsKey(wkrIds.get(0)));
+        assertTrue(wp.getWorkersClientInfo().containsKey(wkrIds.get(1)));
+        assertEquals(4, wp.getNumEvictedWorkers());
+    }
+
+    @Test
+    public void testAdaptiveTimeouts() {
+        WorkerPoolImpl wp = new WorkerPoolImpl(4, 60000L);
+        WorkerClientInfo android = new WorkerClientInfo(null, null, ClientTypeMajor.MobileAndroid, null);
+
+        List<String> apiIds = new ArrayList<>();
+        List<String> androidIds = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            apiIds.add(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+            androidIds.add(wp.registerWorker(new ConcreteWorker(), android));
+        }
+
+        wp.setAdaptiveTimeouts(1000L, 60000L);
+        assertTrue(wp.isAdaptiveTimeoutsEnabled());
+        assertEquals(60000L, wp.getEffectiveWorkerTimeout(ClientTypeMajor.API));
+
+        /* API clients come back after 5 seconds; nothing is known of the Android ones */
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; ++i) {
+            wp.updateWorkerTimestamp(apiIds.get(0), new Date(now - 98000L + i * 5000L));
+        }
+        wp.updateWorkerTimestamp(apiIds.get(1), new Date(now - 500L));
+        for (String androidId : androidIds) {
+            wp.updateWorkerTimestamp(androidId, new Date(now - 2000L));
+        }
+
+        /* The pool is full: the timeouts shrink all the way */
+        List<String> purged = wp.purge();
+        assertEquals(5000L, wp.getEffectiveWorkerTimeout(ClientTypeMajor.API));
+        assertEquals(1000L, wp.getEffectiveWorkerTimeout(ClientTypeMajor.MobileAndroid));
+        assertEquals(1000L, wp.getEffectiveWorkerTimeout(null));
+
+        assertNotNull(purged);
+        assertEquals(new HashSet<>(androidIds), new HashSet<>(purged));
+        assertEquals(2, wp.getCurrNumWorkers());
+        assertEquals(2L, wp.streamWorkers().count());
+
+        /* In between, they are interpolated with the occupancy; the bounds are kept */
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(1000L, 60000L, 1000L, 0L);
+        for (int i = 0; i < 100; ++i) {
+            timeouts.recordIdleGap(wkrClientInfo, 100000L);
+        }
+        timeouts.adapt(0.75, 1000L);
+        assertEquals(60000L, timeouts.getTimeout(ClientTypeMajor.API));
+        assertEquals(30500L, timeouts.getTimeout(ClientTypeMajor.MobileAndroid));
+
+        timeouts.adapt(0.25, 1500L); /* Within the adaptation period */
+        assertEquals(30500L, timeouts.getTimeout(ClientTypeMajor.MobileAndroid));
+
+        timeouts.adapt(0.25, 2000L);
+        assertEquals(60000L, timeouts.getTimeout(ClientTypeMajor.MobileAndroid));
+
+        wp.disableAdaptiveTimeouts();
+        assertEquals(60000L, wp.getEffectiveWorkerTimeout(ClientTypeMajor.MobileAndroid));
+    }
+
+    @Test
+    public void testManualClock() {
+        ManualWorkerClock clock = new ManualWorkerClock(1000000L);
+        WorkerPoolImpl wp = new WorkerPoolImpl(3, 1000L);
+        wp.setClock(clock);
+
+        String wkrId0 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        String wkrId1 = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        assertEquals(1000000L, wp.getCreatedTimestamp(wkrId0).getTime());
+
+        clock.advance(600L);
+        wp.touchWorker(wkrId1);
+        wp.incrementMessageCount(wkrId1);
+        assertEquals(1000600L, wp.getLastUseTimestamp(wkrId1).getTime());
+
+        /* Expiry goes by the clock alone */
+        clock.advance(400L);
+        assertNull(wp.purge()); /* Idle for exactly the timeout */
+        clock.advance(1L);
+        assertEquals(Collections.singletonList(wkrId0), wp.purge());
+
+        wp.updateWorkerTimestamp(wkrId1, clock.currentTimeMillis() - 100L);
+        clock.advance(1000L);
+        assertEquals(Collections.singletonList(wkrId1), wp.purge());
+        assertEquals(0, wp.getCurrNumWorkers());
+
+        /* So does the retention of the history */
+        wp.setHistoryRetention(100, 500L);
+        assertEquals(1, wp.getWorkerHistory().size());
+        assertEquals(wkrId1, wp.getWorkerHistory().get(0).getWorkerId());
+
+        assertNotNull(wp.registerWorker(new ConcreteWorker(), wkrClientInfo));
+        try {
+            wp.setClock(SystemWorkerClock.INSTANCE);
+            fail();
+        } catch (IllegalStateException exc) {
+        }
+    }
+
 }
@@ -0,0 +1,192 @@
+package me.scai.utilities;
+
+import me.scai.utilities.clienttypes.ClientTypeMajor;
+import me.scai.utilities.clienttypes.ClientTypeMinor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestWorkerTaskExecutor {
+    private final WorkerClientInfo wkrClientInfo =
+            new WorkerClientInfo(null, null, ClientTypeMajor.API, ClientTypeMinor.API_UnitTest);
+
+    @Test
+    public void testSerialPerWorker() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        final String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        final PooledWorker wkr = wp.getWorker(wkrId);
+        wp.updateWorkerTimestamp(wkrId, new Date(System.currentTimeMillis() - 30000L));
+
+        WorkerTaskExecutor executor = new WorkerTaskExecutor(wp);
+        executor.setMailboxCapacity(1000);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Integer> order = new ArrayList<>();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            final int n = i;
+            futures.add(executor.submit(wkrId, new WorkerTask<Integer>() {
+                @Override
+                public Integer run(PooledWorker w) {
+                    assertSame(wkr, w);
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    order.add(n); /* Not thread-safe on purpose */
+                    running.decrementAndGet();
+
+                    return n;
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); ++i) {
+            assertEquals(i, (int) futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < order.size(); ++i) {
+            assertEquals(i, (int) order.get(i));
+        }
+
+        /* Dispatch counts messages and touches the worker */
+        assertEquals(500, wp.getMessageCount(wkrId));
+        assertTrue(System.currentTimeMillis() - wp.getLastUseTimestamp(wkrId).getTime() < 10000L);
+        assertEquals(500L, executor.getNumCompleted());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParallelAcrossWorkers() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        WorkerTaskExecutor executor = new WorkerTaskExecutor(wp);
+
+        /* Both tasks have to be running at once to get past the latch */
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        WorkerTask<Boolean> task = new WorkerTask<Boolean>() {
+            @Override
+            public Boolean run(PooledWorker wkr) throws InterruptedException {
+                bothRunning.countDown();
+                return bothRunning.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        CompletableFuture<Boolean> first = executor.submit(wp.registerWorker(new ConcreteWorker(), wkrClientInfo), task);
+        CompletableFuture<Boolean> second = executor.submit(wp.registerWorker(new ConcreteWorker(), wkrClientInfo), task);
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testTaskThrowingError() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+        WorkerTaskExecutor executor = new WorkerTaskExecutor(wp);
+
+        CompletableFuture<Integer> failing = executor.submit(wkrId, new WorkerTask<Integer>() {
+            @Override
+            public Integer run(PooledWorker wkr) {
+                throw new AssertionError("Task failed");
+            }
+        });
+        CompletableFuture<Integer> next = executor.submit(wkrId, new WorkerTask<Integer>() {
+            @Override
+            public Integer run(PooledWorker wkr) {
+                return 1;
+            }
+        });
+
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException exc) {
+            assertTrue(exc.getCause() instanceof AssertionError);
+        }
+
+        /* The mailbox carries on after the Error */
+        assertEquals(1, (int) next.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, executor.getNumFailed());
+        for (int i = 0; i < 100 && executor.getNumActiveMailboxes() > 0; ++i) {
+            Thread.sleep(10L);
+        }
+        assertEquals(0, executor.getNumActiveMailboxes());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBoundedMailbox() throws Exception {
+        WorkerPoolImpl wp = new WorkerPoolImpl(10, 60000L);
+        String wkrId = wp.registerWorker(new ConcreteWorker(), wkrClientInfo);
+
+        WorkerTaskExecutor executor = new WorkerTaskExecutor(wp);
+        executor.setMailboxCapacity(2);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        WorkerTask<Void> blocking = new WorkerTask<Void>() {
+            @Override
+            public Void run(PooledWorker wkr) throws InterruptedException {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        };
+
+        CompletableFuture<Void> first = executor.submit(wkrId, blocking);
+        CompletableFuture<Void> second = executor.submit(wkrId, blocking);
+        CompletableFuture<Void> third = executor.submit(wkrId, blocking);
+        assertEquals(2, executor.getQueueDepth(wkrId));
+
+        try {
+            third.get();
+            fail();
+        } catch (ExecutionException exc) {
+            assertTrue(exc.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1L, executor.getNumRejected());
+
+        /* Tasks of a removed worker fail on dispatch (the first one has been dispatched already) */
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        wp.removeWorker(wkrId);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException exc) {
+            assertTrue(exc.getCause() instanceof IllegalArgumentException);
+        }
+
+        /* The mailbox goes away once drained (just after the last future completes) */
+        for (int i = 0; i < 100 && executor.getNumActiveMailboxes() > 0; ++i) {
+            Thread.sleep(10L);
+        }
+        assertEquals(0, executor.getQueueDepth(wkrId));
+        assertEquals(0, executor.getNumActiveMailboxes());
+
+        try {
+            executor.submit(wkrId, blocking);
+            fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        executor.shutdown();
+    }
+}